@@ -0,0 +1,41 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests;
+
+import static org.junit.Assume.assumeTrue;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+/**
+ * Benchmarks build large inputs and take a while, so they are skipped unless
+ * the instrumentation is run with -e benchmark true, for instance:
+ *
+ * ./gradlew connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.benchmark=true
+ */
+public class Benchmarks {
+	public static boolean isEnabled() {
+		return Boolean.parseBoolean(InstrumentationRegistry.getArguments().getString("benchmark"));
+	}
+
+	/** Skips the calling test unless benchmarks were asked for */
+	public static void assumeEnabled() {
+		assumeTrue("Benchmarks only run with -e benchmark true", isEnabled());
+	}
+}
@@ -26,10 +26,31 @@ import org.junit.runners.Suite;
         Kdb4Header.class,
         ProtectedBinaryTest.class,
         SprEngineTest.class,
+        LazyEntries.class,
+        AttachmentLoad.class,
+        BinaryPoolTest.class,
+        DbMetricsTest.class,
+        CandidateKeysTest.class,
+        Kdb3Tree.class,
+        ParallelGroups.class,
+        MappedLoad.class,
+        PrecomputedKeyTest.class,
+        PipelinedSave.class,
+        BinaryStreamSave.class,
         PwManagerOutputTest.class,
         SearchTest.class,
         HashedBlock.class,
+        PipelinedStream.class,
+        BetterCipherStream.class,
+        HmacBlock.class,
+        BlockAllocation.class,
+        CountStream.class,
+        Inflate.class,
+        ParallelDeflate.class,
+        SpillStream.class,
         StrUtilTest.class,
+        Base64UtilTest.class,
+        DateUtilTest.class,
         AccentTest.class,
         PwDateTest.class,
         PwEntryTestV3.class,
@@ -21,14 +21,19 @@ package com.keepassdroid.tests.crypto;
 
 import com.keepassdroid.crypto.finalkey.AndroidFinalKey;
 import com.keepassdroid.crypto.finalkey.NativeFinalKey;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.Random;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class FinalKeyTest {
 	private Random mRand;
@@ -63,4 +68,85 @@ public class FinalKeyTest {
 		assertArrayEquals("Does not match", androidKey, nativeKey);
 		
 	}
+
+	@Test
+	public void testProgress() throws IOException {
+		// Not a multiple of the progress interval
+		int rounds = 10001;
+		byte[] seed = new byte[32];
+		byte[] key = new byte[32];
+
+		mRand.nextBytes(seed);
+		mRand.nextBytes(key);
+
+		KdfProgress androidProgress = new KdfProgress();
+		assertEquals(0.0, androidProgress.getFraction(), 0.0);
+		byte[] androidKey = new AndroidFinalKey().transformMasterKey(seed, key, rounds, androidProgress);
+		assertEquals(1.0, androidProgress.getFraction(), 0.0);
+
+		KdfProgress nativeProgress = new KdfProgress();
+		byte[] nativeKey = new NativeFinalKey().transformMasterKey(seed, key, rounds, nativeProgress);
+		assertEquals(1.0, nativeProgress.getFraction(), 0.0);
+
+		assertArrayEquals("Does not match", androidKey, nativeKey);
+		assertArrayEquals("Does not match", androidKey, new NativeFinalKey().transformMasterKey(seed, key, rounds));
+	}
+
+	@Test
+	public void testCancel() throws IOException {
+		byte[] seed = new byte[32];
+		byte[] key = new byte[32];
+
+		mRand.nextBytes(seed);
+		mRand.nextBytes(key);
+
+		try {
+			new AndroidFinalKey().transformMasterKey(seed, key, 10001, cancelled());
+			fail("Cancelled transform returned a key");
+		} catch (InterruptedIOException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testCancelNative() throws IOException {
+		byte[] seed = new byte[32];
+		byte[] key = new byte[32];
+
+		mRand.nextBytes(seed);
+		mRand.nextBytes(key);
+
+		final KdfProgress progress = new KdfProgress();
+		try {
+			new NativeFinalKey().transformMasterKey(seed, key, 10001, cancelled());
+			fail("Cancelled transform returned a key");
+		} catch (InterruptedIOException e) {
+			// Expected
+		}
+
+		// Cancel part way through a long transform
+		Thread canceller = new Thread() {
+			@Override
+			public void run() {
+				while (progress.getFraction() == 0.0) {
+					Thread.yield();
+				}
+				progress.cancel();
+			}
+		};
+		canceller.start();
+
+		try {
+			new NativeFinalKey().transformMasterKey(seed, key, Integer.MAX_VALUE, progress);
+			fail("Cancelled transform returned a key");
+		} catch (InterruptedIOException e) {
+			assertTrue(progress.getFraction() < 1.0);
+		}
+	}
+
+	private static KdfProgress cancelled() {
+		KdfProgress progress = new KdfProgress();
+		progress.cancel();
+		return progress;
+	}
 }
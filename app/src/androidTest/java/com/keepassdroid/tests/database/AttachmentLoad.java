@@ -0,0 +1,133 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.DbMetrics;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.utils.Util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+public class AttachmentLoad {
+	private static final int[] SIZES = { 0, 1, 4095, 256 * 1024, 3 * 1024 * 1024 + 7 };
+
+	private Context ctx;
+	private byte[][] contents;
+	private byte[] data;
+
+	@Before
+	public void setUp() throws Exception {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+
+		PwDatabaseV4 db = LargeDatabase.load(ctx, LargeDatabase.read(ctx, "test-kdbxv4.kdbx"),
+				LargeDatabase.PASSWORD, false, false);
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+
+		Random random = new Random(42);
+		contents = new byte[SIZES.length][];
+		for (int i = 0; i < SIZES.length; i++) {
+			contents[i] = new byte[SIZES[i]];
+			random.nextBytes(contents[i]);
+
+			PwEntryV4 entry = new PwEntryV4(root);
+			entry.setTitle("Attachment " + i, db);
+			ProtectedBinary binary = new ProtectedBinary(i % 2 == 0, contents[i]);
+			db.binPool.poolAdd(binary);
+			entry.binaries.put("file" + i, binary);
+			root.AddEntry(entry, true);
+		}
+
+		data = LargeDatabase.save(db);
+	}
+
+	@Test
+	public void testPipelined() throws Exception {
+		checkLoad(true);
+	}
+
+	@Test
+	public void testSequential() throws Exception {
+		checkLoad(false);
+	}
+
+	private void checkLoad(boolean pipelined) throws Exception {
+		ImporterV4 importer = new ImporterV4(ctx.getFilesDir());
+		importer.pipelined = pipelined;
+		PwDatabaseV4 db = importer.openDatabase(new ByteArrayInputStream(data), LargeDatabase.PASSWORD, null);
+
+		for (int i = 0; i < SIZES.length; i++) {
+			PwEntryV4 entry = find(db, "Attachment " + i);
+			entry.materializeHistory();
+			ProtectedBinary binary = entry.binaries.get("file" + i);
+			assertEquals(SIZES[i], binary.length());
+			assertArrayEquals(contents[i], read(binary));
+		}
+
+		long total = 0;
+		for (DbMetrics.Attachment attachment : importer.getMetrics().getAttachments()) {
+			assertTrue(attachment.getMegabytesPerSecond() >= 0);
+			total += attachment.size;
+		}
+
+		long expected = 0;
+		for (int size : SIZES) {
+			expected += size;
+		}
+		assertEquals(expected, total);
+	}
+
+	private PwEntryV4 find(PwDatabaseV4 db, String title) {
+		for (PwEntry entry : db.rootGroup.childEntries) {
+			if (title.equals(entry.getTitle())) {
+				return (PwEntryV4) entry;
+			}
+		}
+
+		throw new AssertionError("No entry " + title);
+	}
+
+	private byte[] read(ProtectedBinary binary) throws Exception {
+		InputStream is = binary.getData();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Util.copyStream(is, bos);
+		is.close();
+
+		return bos.toByteArray();
+	}
+}
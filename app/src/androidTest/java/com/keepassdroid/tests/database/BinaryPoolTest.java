@@ -0,0 +1,124 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.BinaryPool;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.security.ProtectedBinary;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class BinaryPoolTest {
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testFindByIdentity() {
+		BinaryPool pool = new BinaryPool();
+		ProtectedBinary first = new ProtectedBinary(false, new byte[] { 1, 2, 3 });
+		ProtectedBinary second = new ProtectedBinary(false, new byte[] { 4, 5 });
+
+		pool.poolAdd(first);
+		pool.poolAdd(second);
+		pool.poolAdd(first);
+
+		assertEquals(0, pool.poolFind(first));
+		assertEquals(1, pool.poolFind(second));
+		assertEquals(-1, pool.poolFind(new ProtectedBinary(false, new byte[] { 6 })));
+		assertEquals(2, pool.binaries().size());
+	}
+
+	@Test
+	public void testDuplicatesStoredOnce() throws Exception {
+		PwDatabaseV4 db = LargeDatabase.load(ctx, LargeDatabase.read(ctx, "test-kdbxv4.kdbx"),
+				LargeDatabase.PASSWORD, false, false);
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+
+		byte[] content = new byte[10000];
+		Arrays.fill(content, (byte) 7);
+
+		PwEntryV4 entry = add(db, root, "First");
+		entry.binaries.put("a", new ProtectedBinary(false, content.clone()));
+		entry.createBackup(db);
+		entry.binaries.put("a", new ProtectedBinary(false, content.clone()));
+		entry.binaries.put("b", new ProtectedBinary(true, content.clone()));
+
+		PwEntryV4 other = add(db, root, "Second");
+		other.binaries.put("a", new ProtectedBinary(false, content.clone()));
+		other.binaries.put("c", new ProtectedBinary(false, new byte[] { 1 }));
+
+		db.binPool.deduplicate(root);
+
+		// Protected and unprotected copies are kept apart
+		assertEquals(3, db.binPool.binaries().size());
+		int key = db.binPool.poolFind(entry.binaries.get("a"));
+		assertEquals(key, db.binPool.poolFind(entry.history.get(0).binaries.get("a")));
+		assertEquals(key, db.binPool.poolFind(other.binaries.get("a")));
+		assertTrue(key != db.binPool.poolFind(entry.binaries.get("b")));
+
+		PwDatabaseV4 loaded = LargeDatabase.load(ctx, LargeDatabase.save(db), LargeDatabase.PASSWORD, false, false);
+		assertEquals(3, loaded.binPool.binaries().size());
+
+		PwEntryV4 loadedEntry = find(loaded, "First");
+		PwEntryV4 loadedOther = find(loaded, "Second");
+		ProtectedBinary stored = loadedEntry.binaries.get("a");
+		assertSame(stored, loadedEntry.history.get(0).binaries.get("a"));
+		assertSame(stored, loadedOther.binaries.get("a"));
+		assertEquals(content.length, stored.length());
+		assertArrayEquals(ProtectedBinary.newDigest().digest(content), stored.getHash());
+	}
+
+	private PwEntryV4 add(PwDatabaseV4 db, PwGroupV4 root, String title) {
+		PwEntryV4 entry = new PwEntryV4(root);
+		entry.setTitle(title, db);
+		root.AddEntry(entry, true);
+
+		return entry;
+	}
+
+	private PwEntryV4 find(PwDatabaseV4 db, String title) {
+		for (PwEntry entry : db.rootGroup.childEntries) {
+			if (title.equals(entry.getTitle())) {
+				return (PwEntryV4) entry;
+			}
+		}
+
+		throw new AssertionError("No entry " + title);
+	}
+}
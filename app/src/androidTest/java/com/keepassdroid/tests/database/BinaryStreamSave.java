@@ -0,0 +1,115 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.PwCompressionAlgorithm;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDbHeaderV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.utils.Util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+/** Binaries in KDBX 3.1 files are written to the XML in pieces */
+public class BinaryStreamSave {
+	private static final int CHUNK = 48 * 1024;
+	private static final int[] SIZES = { 1, 2, 3, 4, CHUNK - 1, CHUNK, CHUNK + 1, 1024 * 1024 + 7 };
+	private static final String PASSWORD = "12345";
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testCompressed() throws Exception {
+		checkRoundTrip(PwCompressionAlgorithm.Gzip);
+	}
+
+	@Test
+	public void testUncompressed() throws Exception {
+		checkRoundTrip(PwCompressionAlgorithm.None);
+	}
+
+	private void checkRoundTrip(PwCompressionAlgorithm compression) throws Exception {
+		PwDatabaseV4 db = LargeDatabase.load(ctx, LargeDatabase.read(ctx, "test.kdbx"), PASSWORD, false, false);
+		assertEquals(PwDbHeaderV4.FILE_VERSION_32_3, db.getMinKdbxVersion());
+		db.compressionAlgorithm = compression;
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+
+		// Half protected, which skips compression and is XORed with the inner stream
+		Random random = new Random(42);
+		byte[][] contents = new byte[SIZES.length * 2][];
+		for (int i = 0; i < contents.length; i++) {
+			contents[i] = new byte[SIZES[i / 2]];
+			random.nextBytes(contents[i]);
+
+			PwEntryV4 entry = new PwEntryV4(root);
+			entry.setTitle("Attachment " + i, db);
+			ProtectedBinary binary = new ProtectedBinary(i % 2 == 0, contents[i]);
+			db.binPool.poolAdd(binary);
+			entry.binaries.put("file" + i, binary);
+			root.AddEntry(entry, true);
+		}
+
+		PwDatabaseV4 loaded = LargeDatabase.load(ctx, LargeDatabase.save(db), PASSWORD, false, false);
+		for (int i = 0; i < contents.length; i++) {
+			ProtectedBinary binary = find(loaded, "Attachment " + i).binaries.get("file" + i);
+			assertEquals(i % 2 == 0, binary.isProtected());
+			assertArrayEquals(contents[i], read(binary));
+		}
+	}
+
+	private PwEntryV4 find(PwDatabaseV4 db, String title) {
+		for (PwEntry entry : db.rootGroup.childEntries) {
+			if (title.equals(entry.getTitle())) {
+				return (PwEntryV4) entry;
+			}
+		}
+
+		throw new AssertionError("No entry " + title);
+	}
+
+	private byte[] read(ProtectedBinary binary) throws Exception {
+		InputStream is = binary.getData();
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Util.copyStream(is, bos);
+		is.close();
+
+		return bos.toByteArray();
+	}
+}
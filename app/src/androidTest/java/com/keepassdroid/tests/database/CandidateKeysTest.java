@@ -0,0 +1,100 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.UpdateStatus;
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.exception.InvalidPasswordException;
+import com.keepassdroid.database.load.ImporterV3;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.database.save.PwDbOutput;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class CandidateKeysTest {
+	// Not representable in ISO-8859-1
+	private static final String PASSWORD = "\u043f\u0430\u0440\u043e\u043b\u044c \u20ac";
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testAlternatePasswordEncoding() throws Exception {
+		PwDatabaseV3 db = new ImporterV3().openDatabase(
+				new ByteArrayInputStream(LargeDatabase.read(ctx, "test1.kdb")), "12345", null);
+		assertFalse(db.validatePasswordEncoding(PASSWORD));
+
+		// As saved by a client that encodes passwords in UTF-8
+		byte[] utf8Key = db.getMasterKey(PASSWORD, null, db.getAlternatePasswordEncoding());
+		db.masterKey = utf8Key;
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PwDbOutput.getInstance(db, bos).output();
+
+		PwDatabaseV3 reopened = new ImporterV3().openDatabase(
+				new ByteArrayInputStream(bos.toByteArray()), PASSWORD, null);
+		assertArrayEquals(utf8Key, reopened.masterKey);
+		assertEquals(db.getEntries().size(), reopened.getEntries().size());
+
+		try {
+			new ImporterV3().openDatabase(new ByteArrayInputStream(bos.toByteArray()), PASSWORD + "x", null);
+			fail("Opened with the wrong password");
+		} catch (InvalidPasswordException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testRoundsFixKeepsStoredRounds() throws Exception {
+		byte[] data = LargeDatabase.read(ctx, "test.kdbx");
+		PwDatabaseV4 expected = new ImporterV4(ctx.getFilesDir()).openDatabase(
+				new ByteArrayInputStream(data), "12345", null);
+
+		PwDatabaseV4 db = new ImporterV4(ctx.getFilesDir()).openDatabase(
+				new ByteArrayInputStream(data), "12345", null, new UpdateStatus(), 6000);
+		assertEquals(expected.numKeyEncRounds, db.numKeyEncRounds);
+		assertArrayEquals(expected.finalKey, db.finalKey);
+
+		try {
+			new ImporterV4(ctx.getFilesDir()).openDatabase(
+					new ByteArrayInputStream(data), "wrong", null, new UpdateStatus(), 6000);
+			fail("Opened with the wrong password");
+		} catch (InvalidPasswordException e) {
+			// Expected
+		}
+	}
+}
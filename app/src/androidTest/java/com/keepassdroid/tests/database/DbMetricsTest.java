@@ -0,0 +1,143 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.DbMetrics;
+import com.keepassdroid.database.DbMetrics.Stage;
+import com.keepassdroid.database.PwCompressionAlgorithm;
+import com.keepassdroid.database.PwDatabase;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDbHeaderV3;
+import com.keepassdroid.database.load.ImporterV3;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.database.save.PwDbOutput;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+public class DbMetricsTest {
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testNestedStages() throws Exception {
+		DbMetrics metrics = new DbMetrics(DbMetrics.Operation.LOAD);
+
+		metrics.begin(Stage.PARSE);
+		Thread.sleep(20);
+		metrics.begin(Stage.COMPRESSION);
+		Thread.sleep(20);
+		metrics.begin(null);
+		Thread.sleep(20);
+		metrics.end();
+		metrics.end(100);
+		metrics.end(50);
+		metrics.finish();
+
+		long parse = metrics.getStage(Stage.PARSE).getNanos();
+		long compression = metrics.getStage(Stage.COMPRESSION).getNanos();
+		long total = metrics.getTotalNanos();
+		assertTrue(parse >= 20000000);
+		assertTrue(compression >= 20000000);
+		assertTrue(total >= 60000000);
+
+		// Sleeps can run long, so check nesting against the total rather
+		// than a ceiling. Each stage excludes what ran inside it, and the
+		// null section counts towards neither.
+		assertTrue(parse <= total - 40000000);
+		assertTrue(compression <= total - 40000000);
+		assertTrue(parse + compression <= total - 20000000);
+		assertEquals(50, metrics.getStage(Stage.PARSE).getBytes());
+		assertEquals(100, metrics.getStage(Stage.COMPRESSION).getBytes());
+	}
+
+	@Test
+	public void testKdbxStages() throws Exception {
+		checkKdbx("test.kdbx", "12345");
+		checkKdbx("test-kdbxv4.kdbx", "1");
+	}
+
+	@Test
+	public void testKdbStages() throws Exception {
+		byte[] data = LargeDatabase.read(ctx, "test1.kdb");
+		ImporterV3 importer = new ImporterV3();
+		PwDatabase db = importer.openDatabase(new ByteArrayInputStream(data), "12345", null);
+
+		DbMetrics metrics = importer.getMetrics();
+		assertEquals(DbMetrics.Operation.LOAD, metrics.operation);
+		assertEquals(PwDbHeaderV3.BUF_SIZE, metrics.getStage(Stage.HEADER).getBytes());
+		assertTrue(metrics.getStage(Stage.KDF).getNanos() > 0);
+		assertTrue(metrics.getStage(Stage.CIPHER).getBytes() > 0);
+		assertTrue(metrics.getStage(Stage.PARSE).getBytes() > 0);
+
+		checkSave(db);
+	}
+
+	private void checkKdbx(String asset, String password) throws Exception {
+		for (boolean pipelined : new boolean[] { false, true }) {
+			ImporterV4 importer = new ImporterV4(ctx.getFilesDir());
+			importer.pipelined = pipelined;
+			PwDatabaseV4 db = importer.openDatabase(new ByteArrayInputStream(LargeDatabase.read(ctx, asset)), password, null);
+
+			DbMetrics metrics = importer.getMetrics();
+			assertEquals(DbMetrics.Operation.LOAD, metrics.operation);
+			assertTrue(metrics.getStage(Stage.HEADER).getBytes() > 0);
+			assertTrue(metrics.getStage(Stage.KEY_HASH).getNanos() > 0);
+			assertTrue(metrics.getStage(Stage.KDF).getNanos() > 0);
+			assertTrue(metrics.getStage(Stage.CIPHER).getBytes() > 0);
+			assertTrue(metrics.getStage(Stage.PARSE).getBytes() > 0);
+			assertTrue(metrics.getTotalNanos() > 0);
+			if (db.compressionAlgorithm == PwCompressionAlgorithm.Gzip) {
+				assertTrue(metrics.getStage(Stage.COMPRESSION).getBytes() > 0);
+				assertTrue(metrics.getCompressionRatio() > 1);
+			}
+
+			checkSave(db);
+		}
+	}
+
+	private void checkSave(PwDatabase db) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PwDbOutput output = PwDbOutput.getInstance(db, bos);
+		output.output();
+
+		DbMetrics metrics = output.getMetrics();
+		assertEquals(DbMetrics.Operation.SAVE, metrics.operation);
+		assertEquals(bos.size(), metrics.getStage(Stage.WRITE_OUT).getBytes());
+		assertTrue(metrics.getStage(Stage.HEADER).getNanos() > 0);
+		assertTrue(metrics.getStage(Stage.KDF).getNanos() > 0);
+		assertTrue(metrics.getStage(Stage.CIPHER).getBytes() > 0);
+		assertTrue(metrics.getStage(Stage.PARSE).getNanos() > 0);
+	}
+}
@@ -25,14 +25,25 @@ import android.os.Environment;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwEntryV3;
+import com.keepassdroid.database.exception.InvalidPasswordException;
 import com.keepassdroid.database.load.ImporterV3;
 import com.keepassdroid.tests.TestUtil;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class Kdb3 {
 
 	private void testKeyfile(String dbAsset, String keyAsset, String password) throws Exception {
@@ -62,4 +73,57 @@ public class Kdb3 {
 		testKeyfile("binary-key.kdb", "binary.key", "12345");
 	}
 
+	@Test
+	public void testStreamed() throws Exception {
+		Context ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+		byte[] data = LargeDatabase.read(ctx, "test1.kdb");
+
+		for (boolean pipelined : new boolean[] { false, true }) {
+			ImporterV3 importer = new ImporterV3();
+			importer.pipelined = pipelined;
+			PwDatabaseV3 expected = importer.openDatabase(new ByteArrayInputStream(data), "12345", null);
+
+			// Like a content provider, which can't tell how much is left
+			importer = new ImporterV3();
+			importer.pipelined = pipelined;
+			PwDatabaseV3 streamed = importer.openDatabase(new TrickleInputStream(data), "12345", null);
+
+			assertTrue(expected.entries.size() > 0);
+			assertEquals(expected.groups.size(), streamed.groups.size());
+			assertEquals(expected.entries.size(), streamed.entries.size());
+			for (int i = 0; i < expected.entries.size(); i++) {
+				PwEntryV3 entry = (PwEntryV3) expected.entries.get(i);
+				PwEntryV3 other = (PwEntryV3) streamed.entries.get(i);
+				assertEquals(entry.getUUID(), other.getUUID());
+				assertEquals(entry.title, other.title);
+				assertEquals(entry.getPassword(), other.getPassword());
+				assertArrayEquals(entry.getBinaryData(), other.getBinaryData());
+				assertEquals(entry.binaryDesc, other.binaryDesc);
+			}
+
+			try {
+				new ImporterV3().openDatabase(new TrickleInputStream(data), "54321", null);
+				fail("Opened with the wrong password");
+			} catch (InvalidPasswordException e) {
+				// Expected
+			}
+		}
+	}
+
+	/** Returns a few bytes at a time and never reports any available */
+	private static class TrickleInputStream extends FilterInputStream {
+		TrickleInputStream(byte[] data) {
+			super(new ByteArrayInputStream(data));
+		}
+
+		@Override
+		public int available() {
+			return 0;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			return super.read(b, off, Math.min(len, 7));
+		}
+	}
 }
@@ -0,0 +1,140 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwEntryV3;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupV3;
+
+import org.junit.Test;
+
+public class Kdb3Tree {
+
+	@Test
+	public void testConstructTree() {
+		PwDatabaseV3 db = new PwDatabaseV3();
+		PwGroupV3 a = addGroup(db, 1, 0);
+		PwGroupV3 a1 = addGroup(db, 2, 1);
+		PwGroupV3 a11 = addGroup(db, 3, 2);
+		// Skips a level, so it isn't in the tree and neither is its child
+		PwGroupV3 orphan = addGroup(db, 4, 4);
+		PwGroupV3 orphanChild = addGroup(db, 5, 5);
+		PwGroupV3 a2 = addGroup(db, 6, 1);
+		PwGroupV3 b = addGroup(db, 7, 0);
+
+		PwEntryV3 inA11 = addEntry(db, 3);
+		PwEntryV3 inB = addEntry(db, 7);
+		PwEntryV3 inOrphan = addEntry(db, 4);
+		PwEntryV3 inA = addEntry(db, 1);
+
+		db.constructTree();
+
+		PwGroup root = db.rootGroup;
+		assertEquals(2, root.childGroups.size());
+		assertSame(a, root.childGroups.get(0));
+		assertSame(b, root.childGroups.get(1));
+		assertSame(root, a.parent);
+
+		assertEquals(2, a.childGroups.size());
+		assertSame(a1, a.childGroups.get(0));
+		assertSame(a2, a.childGroups.get(1));
+		assertEquals(1, a1.childGroups.size());
+		assertSame(a11, a1.childGroups.get(0));
+		assertEquals(0, a11.childGroups.size());
+		assertEquals(0, a2.childGroups.size());
+		assertNull(orphan.parent);
+		assertNull(orphanChild.parent);
+
+		assertEquals(1, a.childEntries.size());
+		assertSame(inA, a.childEntries.get(0));
+		assertSame(a, inA.parent);
+		assertSame(inA11, a11.childEntries.get(0));
+		assertSame(inB, b.childEntries.get(0));
+		assertSame(b, inB.parent);
+		assertNull(inOrphan.parent);
+
+		assertEquals(1, db.getRootGroupId());
+	}
+
+	@Test
+	public void testRootsAfterEdits() {
+		PwDatabaseV3 db = new PwDatabaseV3();
+		PwGroupV3 a = addGroup(db, 1, 0);
+		addGroup(db, 2, 1);
+		PwGroupV3 b = addGroup(db, 3, 0);
+		db.constructTree();
+
+		PwGroupV3 c = new PwGroupV3();
+		c.groupId = 4;
+		db.addGroupTo(c, db.rootGroup);
+		db.removeGroupFrom(a, db.rootGroup);
+
+		assertEquals(2, db.getGrpRoots().size());
+		assertSame(b, db.getGrpRoots().get(0));
+		assertSame(c, db.getGrpRoots().get(1));
+		assertEquals(3, db.getRootGroupId());
+	}
+
+	@Test
+	public void testLargeTree() {
+		int groups = 5000;
+		int entries = 50000;
+
+		PwDatabaseV3 db = new PwDatabaseV3();
+		for (int i = 0; i < groups; i++) {
+			// Runs of ten levels deep
+			addGroup(db, i, i % 10);
+		}
+		for (int i = 0; i < entries; i++) {
+			addEntry(db, i % groups);
+		}
+
+		db.constructTree();
+
+		assertEquals(groups / 10, db.rootGroup.childGroups.size());
+		int found = 0;
+		for (PwGroup group : db.getGroups()) {
+			found += group.childEntries.size();
+		}
+		assertEquals(entries, found);
+	}
+
+	private PwGroupV3 addGroup(PwDatabaseV3 db, int id, int level) {
+		PwGroupV3 group = new PwGroupV3();
+		group.groupId = id;
+		group.level = level;
+		db.groups.add(group);
+
+		return group;
+	}
+
+	private PwEntryV3 addEntry(PwDatabaseV3 db, int groupId) {
+		PwEntryV3 entry = new PwEntryV3();
+		entry.groupId = groupId;
+		db.entries.add(entry);
+
+		return entry;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.database.save.PwDbOutput;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/** Builds and loads generated KDBX 4 databases for load tests and benchmarks */
+public class LargeDatabase {
+	public static final String PASSWORD = "1";
+
+	public static byte[] create(Context ctx, int entries, int backups) throws Exception {
+		PwDatabaseV4 db = load(ctx, read(ctx, "test-kdbxv4.kdbx"), PASSWORD, false, false);
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+
+		for (int i = 0; i < entries; i++) {
+			PwEntryV4 entry = new PwEntryV4(root);
+			entry.setTitle("Entry " + i, db);
+			entry.setUsername("user" + i, db);
+			entry.setUrl("https://example.com/" + i, db);
+			entry.setPassword("password " + i, db);
+			entry.setNotes("Notes for entry " + i, db);
+			entry.setString("Custom", "custom value " + i, true);
+			entry.autoType.defaultSequence = "{USERNAME}{TAB}{PASSWORD}{ENTER}";
+
+			for (int j = 0; j < backups; j++) {
+				entry.createBackup(db);
+				entry.setPassword("password " + i + "." + j, db);
+			}
+
+			root.AddEntry(entry, true);
+		}
+
+		return save(db);
+	}
+
+	public static byte[] read(Context ctx, String asset) throws Exception {
+		InputStream is = ctx.getAssets().open(asset, AssetManager.ACCESS_STREAMING);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			bos.write(buf, 0, read);
+		}
+		is.close();
+
+		return bos.toByteArray();
+	}
+
+	public static PwDatabaseV4 load(Context ctx, byte[] data, String password, boolean lazyEntries, boolean lazyHistory) throws Exception {
+		ImporterV4 importer = new ImporterV4(ctx.getFilesDir());
+		importer.lazyEntries = lazyEntries;
+		importer.lazyHistory = lazyHistory;
+
+		return importer.openDatabase(new ByteArrayInputStream(data), password, null);
+	}
+
+	public static PwDatabaseV4 load(Context ctx, byte[] data, String password, boolean lazyEntries, boolean lazyHistory, boolean parallelGroups) throws Exception {
+		ImporterV4 importer = new ImporterV4(ctx.getFilesDir());
+		importer.lazyEntries = lazyEntries;
+		importer.lazyHistory = lazyHistory;
+		importer.parallelGroups = parallelGroups;
+
+		return importer.openDatabase(new ByteArrayInputStream(data), password, null);
+	}
+
+	public static byte[] save(PwDatabaseV4 db) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PwDbOutput.getInstance(db, bos).output();
+
+		return bos.toByteArray();
+	}
+}
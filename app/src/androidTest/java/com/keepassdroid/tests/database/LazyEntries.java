@@ -0,0 +1,261 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.database.security.ProtectedString;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class LazyEntries {
+	private static final String TAG = "LazyEntries";
+	private static final int SMALL_ENTRIES = 300;
+	private static final int LARGE_ENTRIES = 10000;
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testListFieldsWithoutDecoding() throws Exception {
+		List<PwEntryV4> eager = entries(open("test.kdbx", "12345", false));
+		List<PwEntryV4> lazy = entries(open("test.kdbx", "12345", true));
+
+		assertEquals(eager.size(), lazy.size());
+		for (int i = 0; i < eager.size(); i++) {
+			PwEntryV4 expected = eager.get(i);
+			PwEntryV4 entry = lazy.get(i);
+
+			assertTrue(entry.isDeferred());
+			assertEquals(expected.getUUID(), entry.getUUID());
+			assertEquals(expected.getTitle(), entry.getTitle());
+			assertEquals(expected.getUsername(), entry.getUsername());
+			assertEquals(expected.getUrl(), entry.getUrl());
+			assertEquals(expected.getIcon(), entry.getIcon());
+			assertEquals(expected.getLastModificationTime(), entry.getLastModificationTime());
+			assertTrue(entry.isDeferred());
+
+			assertEquals(expected.getPassword(), entry.getPassword());
+			assertFalse(entry.isDeferred());
+		}
+	}
+
+	@Test
+	public void testMaterialize() throws Exception {
+		assertSameEntries(open("test.kdbx", "12345", false), open("test.kdbx", "12345", true));
+		assertSameEntries(open("test-kdbxv4.kdbx", "1", false), open("test-kdbxv4.kdbx", "1", true));
+	}
+
+	@Test
+	public void testDeferredHistory() throws Exception {
+		List<PwEntryV4> eager = entries(open("test.kdbx", "12345", false));
+		List<PwEntryV4> lazy = entries(open("test.kdbx", "12345", true));
+
+		boolean sawHistory = false;
+		for (int i = 0; i < eager.size(); i++) {
+			PwEntryV4 entry = lazy.get(i);
+			assertEquals(eager.get(i).getPassword(), entry.getPassword());
+			assertFalse(entry.isDeferred());
+
+			if (eager.get(i).history.size() > 0) {
+				sawHistory = true;
+				assertTrue(entry.isHistoryDeferred());
+			}
+
+			entry.materializeHistory();
+			assertFalse(entry.isHistoryDeferred());
+			assertEquals(dump(eager.get(i)), dump(entry));
+		}
+
+		assertTrue(sawHistory);
+	}
+
+	@Test
+	public void testDeferredHistoryOnly() throws Exception {
+		byte[] data = read("test.kdbx");
+		PwDatabaseV4 db = load(data, "12345", false, true);
+
+		for (PwEntryV4 entry : entries(db)) {
+			assertFalse(entry.isDeferred());
+		}
+
+		assertSameEntries(load(data, "12345", false), db);
+		assertSameEntries(load(data, "12345", false), load(save(load(data, "12345", false, true)), "12345", false));
+	}
+
+	@Test
+	public void testSaveWithoutDecoding() throws Exception {
+		PwDatabaseV4 lazy = open("test.kdbx", "12345", true);
+		PwDatabaseV4 saved = load(save(lazy), "12345", false);
+
+		assertSameEntries(open("test.kdbx", "12345", false), saved);
+	}
+
+	@Test
+	public void testGeneratedDatabase() throws Exception {
+		byte[] data = LargeDatabase.create(ctx, SMALL_ENTRIES, 3);
+
+		assertSameAsEager(data, load(data, LargeDatabase.PASSWORD, true), 1);
+	}
+
+	@Test
+	public void testLargeDatabase() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		byte[] data = LargeDatabase.create(ctx, LARGE_ENTRIES, 3);
+
+		long base = usedHeap();
+		long start = System.nanoTime();
+		PwDatabaseV4 eager = load(data, LargeDatabase.PASSWORD, false);
+		long eagerTime = System.nanoTime() - start;
+		long eagerHeap = usedHeap() - base;
+		eager = null;
+
+		base = usedHeap();
+		start = System.nanoTime();
+		PwDatabaseV4 lazy = load(data, LargeDatabase.PASSWORD, true);
+		long lazyTime = System.nanoTime() - start;
+		long lazyHeap = usedHeap() - base;
+
+		Log.i(TAG, LARGE_ENTRIES + " entries, eager load: " + eagerTime / 1000000 + " ms, "
+				+ eagerHeap / 1024 + " KiB; lazy load: " + lazyTime / 1000000 + " ms, "
+				+ lazyHeap / 1024 + " KiB");
+
+		// Spot check entries against an eager load
+		assertSameAsEager(data, lazy, 997);
+	}
+
+	/** Checks every step'th entry of a lazy load against an eager load */
+	private void assertSameAsEager(byte[] data, PwDatabaseV4 lazy, int step) throws Exception {
+		List<PwEntryV4> lazyEntries = entries(lazy);
+		for (PwEntryV4 entry : lazyEntries) {
+			assertTrue(entry.isDeferred());
+		}
+
+		List<PwEntryV4> eagerEntries = entries(load(data, LargeDatabase.PASSWORD, false));
+		assertEquals(eagerEntries.size(), lazyEntries.size());
+		for (int i = 0; i < lazyEntries.size(); i += step) {
+			assertEquals(dump(eagerEntries.get(i)), dump(lazyEntries.get(i)));
+		}
+	}
+
+	private long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		rt.gc();
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private PwDatabaseV4 open(String asset, String password, boolean lazy) throws Exception {
+		return load(read(asset), password, lazy);
+	}
+
+	private byte[] read(String asset) throws Exception {
+		return LargeDatabase.read(ctx, asset);
+	}
+
+	private PwDatabaseV4 load(byte[] data, String password, boolean lazy) throws Exception {
+		return load(data, password, lazy, lazy);
+	}
+
+	private PwDatabaseV4 load(byte[] data, String password, boolean lazyEntries, boolean lazyHistory) throws Exception {
+		return LargeDatabase.load(ctx, data, password, lazyEntries, lazyHistory);
+	}
+
+	private byte[] save(PwDatabaseV4 db) throws Exception {
+		return LargeDatabase.save(db);
+	}
+
+	private void assertSameEntries(PwDatabaseV4 expected, PwDatabaseV4 actual) {
+		List<PwEntryV4> expectedEntries = entries(expected);
+		List<PwEntryV4> actualEntries = entries(actual);
+
+		assertEquals(expectedEntries.size(), actualEntries.size());
+		for (int i = 0; i < expectedEntries.size(); i++) {
+			assertEquals(dump(expectedEntries.get(i)), dump(actualEntries.get(i)));
+		}
+	}
+
+	private String dump(PwEntryV4 entry) {
+		entry.materializeHistory();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(entry.getUUID()).append(' ').append(entry.getIcon()).append(' ')
+				.append(entry.foregroundColor).append(' ').append(entry.backgroupColor).append(' ')
+				.append(entry.overrideURL).append(' ').append(entry.tags).append(' ')
+				.append(entry.getUsageCount()).append(' ').append(entry.autoType.defaultSequence)
+				.append('\n');
+
+		for (Map.Entry<String, ProtectedString> pair : new TreeMap<String, ProtectedString>(entry.strings).entrySet()) {
+			sb.append(pair.getKey()).append('=').append(pair.getValue().toString())
+					.append(pair.getValue().isProtected() ? " protected" : "").append('\n');
+		}
+
+		for (Map.Entry<String, ProtectedBinary> pair : new TreeMap<String, ProtectedBinary>(entry.binaries).entrySet()) {
+			sb.append(pair.getKey()).append(" length ").append(pair.getValue().length()).append('\n');
+		}
+
+		for (PwEntryV4 backup : entry.history) {
+			sb.append("history ").append(dump(backup));
+		}
+
+		return sb.toString();
+	}
+
+	private List<PwEntryV4> entries(PwDatabaseV4 db) {
+		List<PwEntryV4> entries = new ArrayList<PwEntryV4>();
+		addEntries(db.rootGroup, entries);
+
+		return entries;
+	}
+
+	private void addEntries(PwGroup group, List<PwEntryV4> entries) {
+		for (PwEntry entry : group.childEntries) {
+			entries.add((PwEntryV4) entry);
+		}
+
+		for (PwGroup child : group.childGroups) {
+			addEntries(child, entries);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.load.ImporterV4;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+/**
+ * Times a full, eager parse of a generated database, to compare changes to
+ * the KDBX reader. Results go to the log. Skipped unless benchmarks are
+ * enabled, see {@link Benchmarks}.
+ */
+public class LoadBenchmark {
+	private static final String TAG = "LoadBenchmark";
+	private static final int ENTRIES = 5000;
+	private static final int BACKUPS = 3;
+	private static final int WARMUP = 2;
+	private static final int RUNS = 7;
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testEagerLoad() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		byte[] data = LargeDatabase.create(ctx, ENTRIES, BACKUPS);
+		int expected = load(data).getEntries().size();
+
+		for (int i = 0; i < WARMUP; i++) {
+			load(data);
+		}
+
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			PwDatabaseV4 db = load(data);
+			times[i] = System.nanoTime() - start;
+
+			assertEquals(expected, db.getEntries().size());
+		}
+		Arrays.sort(times);
+
+		Log.i(TAG, ENTRIES + " entries with " + BACKUPS + " backups each, " + data.length / 1024
+				+ " KiB: best " + times[0] / 1000000 + " ms, median " + times[RUNS / 2] / 1000000 + " ms");
+	}
+
+	private PwDatabaseV4 load(byte[] data) throws Exception {
+		ImporterV4 importer = new ImporterV4(ctx.getFilesDir());
+		importer.pipelined = false;
+		importer.lazyEntries = false;
+		importer.lazyHistory = false;
+
+		return importer.openDatabase(new ByteArrayInputStream(data), LargeDatabase.PASSWORD, null);
+	}
+}
@@ -0,0 +1,136 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.PwDatabase;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.exception.InvalidDBException;
+import com.keepassdroid.database.load.Importer;
+import com.keepassdroid.database.load.ImporterFactory;
+import com.keepassdroid.stream.MappedInputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MappedLoad {
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testLoadMapped() throws Exception {
+		assertSameEntries("test1.kdb", "12345");
+		assertSameEntries("test.kdbx", "12345");
+		assertSameEntries("test-kdbxv4.kdbx", LargeDatabase.PASSWORD);
+	}
+
+	@Test
+	public void testWrongPassword() throws Exception {
+		for (String asset : new String[] { "test1.kdb", "test-kdbxv4.kdbx" }) {
+			try {
+				load(map(asset), "wrong");
+				fail("Opened " + asset + " with the wrong password");
+			} catch (InvalidDBException e) {
+				// Expected
+			}
+		}
+	}
+
+	@Test
+	public void testMarkAndSlice() throws Exception {
+		MappedInputStream is = map("test1.kdb");
+		byte[] data = LargeDatabase.read(ctx, "test1.kdb");
+		assertEquals(data.length, is.available());
+
+		is.mark(8);
+		assertEquals(data[0] & 0xFF, is.read());
+		assertEquals(10, is.skip(10));
+		is.reset();
+		assertEquals(0, is.getCount());
+
+		byte[] start = new byte[16];
+		assertEquals(start.length, is.read(start));
+		assertEquals(data[15], start[15]);
+		assertEquals(data[16], is.slice(4).get(0));
+		assertEquals(20, is.getCount());
+
+		assertEquals(data.length - 20, is.slice(Integer.MAX_VALUE).remaining());
+		assertEquals(-1, is.read());
+		is.close();
+	}
+
+	private void assertSameEntries(String asset, String password) throws Exception {
+		PwDatabase expected = load(new ByteArrayInputStream(LargeDatabase.read(ctx, asset)), password);
+		PwDatabase mapped = load(map(asset), password);
+
+		List<String> expectedEntries = dump(expected);
+		assertTrue(expectedEntries.size() > 0);
+		assertEquals(expectedEntries, dump(mapped));
+	}
+
+	private List<String> dump(PwDatabase db) {
+		List<String> entries = new ArrayList<String>();
+		for (PwEntry entry : db.getEntries()) {
+			entries.add(entry.getUUID() + " " + entry.getTitle() + " " + entry.getPassword());
+		}
+
+		return entries;
+	}
+
+	private PwDatabase load(InputStream is, String password) throws Exception {
+		is.mark(10);
+		Importer importer = ImporterFactory.createImporter(is, ctx.getFilesDir());
+		is.reset();
+
+		return importer.openDatabase(is, password, null);
+	}
+
+	private MappedInputStream map(String asset) throws Exception {
+		File file = new File(ctx.getFilesDir(), "mapped-" + asset);
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write(LargeDatabase.read(ctx, asset));
+		fos.close();
+
+		try {
+			return MappedInputStream.open(file);
+		} finally {
+			// The mapping outlives the file
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwEntry;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.PwGroup;
+import com.keepassdroid.database.PwGroupV4;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.database.security.ProtectedString;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+public class ParallelGroups {
+	private static final int GROUPS = 20;
+	private static final int ENTRIES = 50;
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testSameTree() throws Exception {
+		assertSameTree(LargeDatabase.read(ctx, "test.kdbx"), "12345");
+		assertSameTree(LargeDatabase.read(ctx, "test-kdbxv4.kdbx"), LargeDatabase.PASSWORD);
+	}
+
+	@Test
+	public void testManyGroups() throws Exception {
+		PwDatabaseV4 db = LargeDatabase.load(ctx, LargeDatabase.read(ctx, "test-kdbxv4.kdbx"),
+				LargeDatabase.PASSWORD, false, false);
+		PwGroupV4 root = (PwGroupV4) db.rootGroup;
+
+		for (int i = 0; i < GROUPS; i++) {
+			PwGroupV4 group = new PwGroupV4(true, true, "Group " + i, db.iconFactory.getIcon(i % 10));
+			root.AddGroup(group, true);
+
+			PwGroupV4 child = new PwGroupV4(true, true, "Child " + i, db.iconFactory.getIcon(1));
+			group.AddGroup(child, true);
+
+			for (int j = 0; j < ENTRIES; j++) {
+				PwEntryV4 entry = new PwEntryV4(j % 2 == 0 ? group : child);
+				entry.setTitle("Entry " + i + "." + j, db);
+				entry.setPassword("password " + i + "." + j, db);
+				entry.createBackup(db);
+				entry.setPassword("new password " + i + "." + j, db);
+				((PwGroupV4) entry.parent).AddEntry(entry, true);
+			}
+		}
+
+		byte[] data = LargeDatabase.save(db);
+		assertSameTree(data, LargeDatabase.PASSWORD);
+
+		// Icons are shared between the threads' groups
+		PwDatabaseV4 parallel = LargeDatabase.load(ctx, data, LargeDatabase.PASSWORD, false, false, true);
+		PwGroup last = parallel.rootGroup.childGroups.get(parallel.rootGroup.childGroups.size() - 1);
+		assertSame(parallel.iconFactory.getIcon(1), last.childGroups.get(0).getIcon());
+	}
+
+	private void assertSameTree(byte[] data, String password) throws Exception {
+		for (boolean lazy : new boolean[] { false, true }) {
+			PwDatabaseV4 serial = LargeDatabase.load(ctx, data, password, lazy, lazy, false);
+			PwDatabaseV4 parallel = LargeDatabase.load(ctx, data, password, lazy, lazy, true);
+
+			assertEquals(dump(serial.rootGroup), dump(parallel.rootGroup));
+		}
+	}
+
+	private String dump(PwGroup group) {
+		StringBuilder sb = new StringBuilder();
+		dump(group, sb, "");
+
+		return sb.toString();
+	}
+
+	private void dump(PwGroup group, StringBuilder sb, String indent) {
+		PwGroupV4 groupV4 = (PwGroupV4) group;
+		sb.append(indent).append("group ").append(groupV4.uuid).append(' ')
+				.append(groupV4.getName()).append(' ').append(groupV4.getIcon()).append('\n');
+
+		for (PwEntry entry : group.childEntries) {
+			assertSame(group, entry.getParent());
+			dump((PwEntryV4) entry, sb, indent + " ");
+		}
+
+		for (PwGroup child : group.childGroups) {
+			assertSame(group, child.getParent());
+			dump(child, sb, indent + " ");
+		}
+	}
+
+	private void dump(PwEntryV4 entry, StringBuilder sb, String indent) {
+		entry.materializeHistory();
+
+		sb.append(indent).append("entry ").append(entry.getUUID()).append(' ').append(entry.getIcon())
+				.append(' ').append(entry.tags).append('\n');
+
+		for (Map.Entry<String, ProtectedString> pair : new TreeMap<String, ProtectedString>(entry.strings).entrySet()) {
+			sb.append(indent).append(pair.getKey()).append('=').append(pair.getValue().toString())
+					.append(pair.getValue().isProtected() ? " protected" : "").append('\n');
+		}
+
+		for (Map.Entry<String, ProtectedBinary> pair : new TreeMap<String, ProtectedBinary>(entry.binaries).entrySet()) {
+			sb.append(indent).append(pair.getKey()).append(" length ").append(pair.getValue().length()).append('\n');
+		}
+
+		for (PwEntryV4 backup : entry.history) {
+			dump(backup, sb, indent + "history ");
+		}
+	}
+}
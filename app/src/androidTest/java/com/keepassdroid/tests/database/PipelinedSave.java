@@ -0,0 +1,176 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDbHeader;
+import com.keepassdroid.database.PwEntryV4;
+import com.keepassdroid.database.exception.PwDbOutputException;
+import com.keepassdroid.database.save.PwDbV4Output;
+import com.keepassdroid.database.security.ProtectedBinary;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks that a pipelined save writes the same file as a serial one, and
+ * times both on a large database. Results go to the log. The timing run is
+ * skipped unless benchmarks are enabled, see {@link Benchmarks}.
+ */
+public class PipelinedSave {
+	private static final String TAG = "PipelinedSave";
+	private static final int ENTRIES = 20000;
+	private static final int BACKUPS = 1;
+	// Attachments that don't compress, to bring the file to about 50 MB
+	private static final int ATTACHMENTS = 20;
+	private static final int ATTACHMENT_SIZE = 2500 * 1024;
+	private static final int SMALL_ATTACHMENTS = 3;
+	private static final int SMALL_ATTACHMENT_SIZE = 64 * 1024;
+	private static final int RUNS = 3;
+
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testSameOutput() throws Exception {
+		assertSameOutput(load(LargeDatabase.read(ctx, "test-kdbxv4.kdbx")));
+		assertSameOutput(load(LargeDatabase.create(ctx, 500, 2)));
+
+		PwDatabaseV4 db = load(LargeDatabase.create(ctx, 500, 2));
+		addAttachments(db, SMALL_ATTACHMENTS, SMALL_ATTACHMENT_SIZE);
+		assertSameOutput(db);
+	}
+
+	@Test
+	public void testBenchmark() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		PwDatabaseV4 db = load(LargeDatabase.create(ctx, ENTRIES, BACKUPS));
+		addAttachments(db, ATTACHMENTS, ATTACHMENT_SIZE);
+		byte[] kdf = KdfParameters.serialize(db.kdfParameters);
+
+		byte[] expected = save(db, kdf, false);
+		assertArrayEquals(expected, save(db, kdf, true));
+
+		long serial = time(db, kdf, false);
+		long pipelined = time(db, kdf, true);
+
+		Log.i(TAG, ENTRIES + " entries with " + BACKUPS + " backups each and " + ATTACHMENTS
+				+ " attachments, " + expected.length / 1024
+				+ " KiB: serial " + serial / 1000000 + " ms, pipelined " + pipelined / 1000000 + " ms");
+	}
+
+	/** Adds random, incompressible attachments to the first entries */
+	private void addAttachments(PwDatabaseV4 db, int count, int size) {
+		Random random = new Random();
+		for (int i = 0; i < count; i++) {
+			byte[] content = new byte[size];
+			random.nextBytes(content);
+
+			PwEntryV4 entry = (PwEntryV4) db.getEntries().get(i);
+			entry.binaries.put("file" + i, new ProtectedBinary(false, content));
+		}
+	}
+
+	private void assertSameOutput(PwDatabaseV4 db) throws Exception {
+		byte[] kdf = KdfParameters.serialize(db.kdfParameters);
+
+		byte[] serial = save(db, kdf, false);
+		assertArrayEquals(serial, save(db, kdf, false));
+		assertArrayEquals(serial, save(db, kdf, true));
+
+		assertEquals(db.getEntries().size(),
+				LargeDatabase.load(ctx, serial, LargeDatabase.PASSWORD, false, false).getEntries().size());
+	}
+
+	/** @return the best time of several saves */
+	private long time(PwDatabaseV4 db, byte[] kdf, boolean pipelined) throws Exception {
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			save(db, kdf, pipelined);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		return times[0];
+	}
+
+	private PwDatabaseV4 load(byte[] data) throws Exception {
+		return LargeDatabase.load(ctx, data, LargeDatabase.PASSWORD, false, false);
+	}
+
+	/** Saves with the same seeds and IVs every time */
+	private byte[] save(final PwDatabaseV4 db, final byte[] kdf, boolean pipelined) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+		PwDbV4Output output = new PwDbV4Output(db, bos) {
+			@Override
+			protected SecureRandom createRandom() {
+				return new FixedRandom();
+			}
+
+			@Override
+			protected SecureRandom setIVs(PwDbHeader header) throws PwDbOutputException {
+				SecureRandom random = super.setIVs(header);
+				try {
+					db.kdfParameters = KdfParameters.deserialize(kdf);
+				} catch (IOException e) {
+					throw new PwDbOutputException(e);
+				}
+
+				return random;
+			}
+		};
+		output.pipelined = pipelined;
+		output.output();
+
+		return bos.toByteArray();
+	}
+
+	private static class FixedRandom extends SecureRandom {
+		private final Random random = new Random(42);
+
+		@Override
+		public synchronized void nextBytes(byte[] bytes) {
+			random.nextBytes(bytes);
+		}
+	}
+}
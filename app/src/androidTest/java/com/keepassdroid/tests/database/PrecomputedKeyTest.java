@@ -0,0 +1,121 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.database;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import android.content.Context;
+
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.database.PwDatabaseV3;
+import com.keepassdroid.database.PwDatabaseV4;
+import com.keepassdroid.database.PwDbHeaderV3;
+import com.keepassdroid.database.load.ImporterV3;
+import com.keepassdroid.database.save.PwDbOutput;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+public class PrecomputedKeyTest {
+	private Context ctx;
+
+	@Before
+	public void setUp() {
+		ctx = InstrumentationRegistry.getInstrumentation().getTargetContext();
+	}
+
+	@Test
+	public void testV4() throws Exception {
+		PwDatabaseV4 db = loadV4(LargeDatabase.read(ctx, "test-kdbxv4.kdbx"), LargeDatabase.PASSWORD);
+		byte[] old = KdfParameters.serialize(db.kdfParameters);
+
+		db.precomputeNextKey();
+		KdfParameters next = db.getNextKdfParameters();
+		assertNotNull(next);
+		assertFalse(Arrays.equals(old, KdfParameters.serialize(next)));
+
+		// The save writes the precomputed seed, and the key opens it
+		PwDatabaseV4 saved = loadV4(LargeDatabase.save(db), LargeDatabase.PASSWORD);
+		assertArrayEquals(KdfParameters.serialize(next), KdfParameters.serialize(saved.kdfParameters));
+		assertEquals(db.getEntries().size(), saved.getEntries().size());
+
+		// Without a new precomputation the next save picks its own seed
+		assertNull(db.getNextKdfParameters());
+		saved = loadV4(LargeDatabase.save(db), LargeDatabase.PASSWORD);
+		assertFalse(Arrays.equals(KdfParameters.serialize(next), KdfParameters.serialize(saved.kdfParameters)));
+	}
+
+	@Test
+	public void testV4PasswordChanged() throws Exception {
+		PwDatabaseV4 db = loadV4(LargeDatabase.read(ctx, "test-kdbxv4.kdbx"), LargeDatabase.PASSWORD);
+
+		db.precomputeNextKey();
+		db.setMasterKey("changed", null);
+		assertNull(db.getNextKdfParameters());
+
+		loadV4(LargeDatabase.save(db), "changed");
+	}
+
+	@Test
+	public void testV3() throws Exception {
+		PwDatabaseV3 db = loadV3(LargeDatabase.read(ctx, "test1.kdb"), "12345");
+
+		db.precomputeNextKey();
+		byte[] seed = db.getNextTransformSeed();
+		assertNotNull(seed);
+
+		byte[] data = saveV3(db);
+		PwDbHeaderV3 header = new PwDbHeaderV3();
+		header.loadFromFile(data, 0);
+		assertArrayEquals(seed, header.transformSeed);
+		assertEquals(db.getEntries().size(), loadV3(data, "12345").getEntries().size());
+
+		// Changing the rounds makes the seed unusable
+		db.precomputeNextKey();
+		db.setNumRounds(db.getNumRounds() + 1);
+		assertNull(db.getNextTransformSeed());
+		loadV3(saveV3(db), "12345");
+	}
+
+	private PwDatabaseV4 loadV4(byte[] data, String password) throws Exception {
+		return LargeDatabase.load(ctx, data, password, false, false);
+	}
+
+	private PwDatabaseV3 loadV3(byte[] data, String password) throws Exception {
+		return new ImporterV3().openDatabase(new ByteArrayInputStream(data), password, null);
+	}
+
+	private byte[] saveV3(PwDatabaseV3 db) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		PwDbOutput.getInstance(db, bos).output();
+
+		return bos.toByteArray();
+	}
+}
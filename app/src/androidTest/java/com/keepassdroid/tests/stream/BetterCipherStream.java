@@ -0,0 +1,172 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+
+import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.engine.AesEngine;
+import com.keepassdroid.crypto.engine.CipherEngine;
+import com.keepassdroid.stream.BetterCipherInputStream;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+
+public class BetterCipherStream {
+	private static final String TAG = "BetterCipherStream";
+	private static final int BENCHMARK_LENGTH = 8 * 1024 * 1024;
+
+	private Random rand = new Random();
+	private byte[] key = new byte[32];
+	private byte[] iv = new byte[16];
+
+	@Test
+	public void testSmallReads() throws Exception {
+		testReads(100 * 1024 + 7, 1024, 13);
+	}
+
+	@Test
+	public void testLargeReads() throws Exception {
+		testReads(100 * 1024 + 7, 1024, 64 * 1024);
+	}
+
+	@Test
+	public void testReadsSmallerThanBlock() throws Exception {
+		testReads(1000, 50 * 1024, 5);
+	}
+
+	@Test
+	public void testSingleBytes() throws Exception {
+		byte[] plaintext = randomBytes(5000);
+		InputStream is = new BetterCipherInputStream(new ByteArrayInputStream(encrypt(plaintext)), getCipher(Cipher.DECRYPT_MODE), 1024);
+
+		byte[] decrypted = new byte[plaintext.length];
+		for (int i = 0; i < decrypted.length; i++) {
+			int b = is.read();
+			decrypted[i] = (byte) b;
+		}
+		assertEquals(-1, is.read());
+		assertArrayEquals(plaintext, decrypted);
+	}
+
+	@Test
+	public void testAvailable() throws Exception {
+		byte[] plaintext = randomBytes(10000);
+		InputStream is = new BetterCipherInputStream(new ByteArrayInputStream(encrypt(plaintext)), getCipher(Cipher.DECRYPT_MODE), 4096);
+
+		assertEquals(0, is.available());
+		is.read();
+		assertEquals(is.available(), is.skip(Long.MAX_VALUE));
+		assertEquals(0, is.available());
+	}
+
+	@Test
+	public void testThroughput() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		byte[] plaintext = randomBytes(BENCHMARK_LENGTH);
+		byte[] secrettext = encrypt(plaintext);
+
+		// The way the loader reads the stream
+		long start = System.nanoTime();
+		InputStream is = new BetterCipherInputStream(new ByteArrayInputStream(secrettext), getCipher(Cipher.DECRYPT_MODE), 50 * 1024);
+		byte[] blocks = readAll(is, 64 * 1024);
+		long blockTime = System.nanoTime() - start;
+		assertArrayEquals(plaintext, blocks);
+
+		// Byte at a time, which is what every read used to fall back to
+		start = System.nanoTime();
+		is = new BetterCipherInputStream(new ByteArrayInputStream(secrettext), getCipher(Cipher.DECRYPT_MODE), 50 * 1024);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(plaintext.length);
+		int b;
+		while ((b = is.read()) != -1) {
+			bytes.write(b);
+		}
+		long byteTime = System.nanoTime() - start;
+		assertArrayEquals(plaintext, bytes.toByteArray());
+
+		start = System.nanoTime();
+		is = new CipherInputStream(new ByteArrayInputStream(secrettext), getCipher(Cipher.DECRYPT_MODE));
+		byte[] platform = readAll(is, 64 * 1024);
+		long platformTime = System.nanoTime() - start;
+		assertArrayEquals(plaintext, platform);
+
+		Log.i(TAG, "Block reads: " + rate(blockTime) + " MB/s, byte reads: " + rate(byteTime)
+				+ " MB/s, CipherInputStream: " + rate(platformTime) + " MB/s");
+	}
+
+	private void testReads(int length, int bufferSize, int readSize) throws Exception {
+		byte[] plaintext = randomBytes(length);
+		InputStream is = new BetterCipherInputStream(new ByteArrayInputStream(encrypt(plaintext)), getCipher(Cipher.DECRYPT_MODE), bufferSize);
+
+		assertArrayEquals(plaintext, readAll(is, readSize));
+	}
+
+	private byte[] readAll(InputStream is, int readSize) throws Exception {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[readSize + 3];
+		int read;
+		while ((read = is.read(buf, 3, readSize)) != -1) {
+			bos.write(buf, 3, read);
+		}
+		is.close();
+
+		return bos.toByteArray();
+	}
+
+	private String rate(long nanos) {
+		return String.format("%.1f", BENCHMARK_LENGTH / (nanos / 1000000000.0) / (1024 * 1024));
+	}
+
+	private byte[] randomBytes(int length) {
+		byte[] data = new byte[length];
+		rand.nextBytes(data);
+		return data;
+	}
+
+	private byte[] encrypt(byte[] plaintext) throws Exception {
+		rand.nextBytes(key);
+		rand.nextBytes(iv);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		CipherOutputStream cos = new CipherOutputStream(bos, getCipher(Cipher.ENCRYPT_MODE));
+		cos.write(plaintext);
+		cos.close();
+
+		return bos.toByteArray();
+	}
+
+	private Cipher getCipher(int mode) throws Exception {
+		CipherEngine aes = CipherFactory.getInstance(AesEngine.CIPHER_UUID);
+		return aes.getCipher(mode, key, iv);
+	}
+}
@@ -0,0 +1,162 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.os.Debug;
+
+import com.keepassdroid.stream.HashedBlockInputStream;
+import com.keepassdroid.stream.HashedBlockOutputStream;
+import com.keepassdroid.stream.HmacBlockInputStream;
+import com.keepassdroid.stream.HmacBlockOutputStream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Checks that streaming through the hashed and HMAC block streams allocates
+ * nothing per block once the first block has been handled.
+ */
+@SuppressWarnings("deprecation")
+public class BlockAllocation {
+	private static final int HASHED_BLOCK_SIZE = 64 * 1024;
+	private static final int HMAC_BLOCK_SIZE = 1024 * 1024;
+	private static final int BLOCKS = 8;
+
+	private Random rand = new Random();
+
+	@Test
+	public void testHashedBlockInput() throws IOException {
+		byte[] orig = randomBytes(BLOCKS * HASHED_BLOCK_SIZE);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new HashedBlockOutputStream(bos, HASHED_BLOCK_SIZE);
+		os.write(orig);
+		os.close();
+
+		InputStream is = new HashedBlockInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		assertNoBlockAllocations(is, orig, HASHED_BLOCK_SIZE);
+	}
+
+	@Test
+	public void testHmacBlockInput() throws IOException {
+		byte[] key = randomBytes(64);
+		byte[] orig = randomBytes(BLOCKS * HMAC_BLOCK_SIZE);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new HmacBlockOutputStream(bos, key);
+		os.write(orig);
+		os.close();
+
+		InputStream is = new HmacBlockInputStream(new ByteArrayInputStream(bos.toByteArray()), true, key);
+		assertNoBlockAllocations(is, orig, HMAC_BLOCK_SIZE);
+	}
+
+	@Test
+	public void testHashedBlockOutput() throws IOException {
+		assertNoBlockAllocations(new HashedBlockOutputStream(new DiscardOutputStream(), HASHED_BLOCK_SIZE), HASHED_BLOCK_SIZE);
+	}
+
+	@Test
+	public void testHmacBlockOutput() throws IOException {
+		assertNoBlockAllocations(new HmacBlockOutputStream(new DiscardOutputStream(), randomBytes(64)), HMAC_BLOCK_SIZE);
+	}
+
+	private void assertNoBlockAllocations(InputStream is, byte[] orig, int blockSize) throws IOException {
+		byte[] out = new byte[orig.length];
+
+		// The first block sets up the reused buffers
+		readFully(is, out, 0, blockSize);
+		startCounting();
+		stopCounting();
+
+		startCounting();
+		readFully(is, out, blockSize, orig.length - blockSize);
+		int allocations = stopCounting();
+
+		assertEquals("Allocations while streaming blocks", 0, allocations);
+		assertEquals(-1, is.read());
+		assertArrayEquals(orig, out);
+	}
+
+	private void assertNoBlockAllocations(OutputStream os, int blockSize) throws IOException {
+		byte[] data = randomBytes(blockSize);
+
+		// The first block sets up the reused buffers
+		os.write(data);
+		os.write(data);
+		startCounting();
+		stopCounting();
+
+		startCounting();
+		for (int i = 0; i < BLOCKS; i++) {
+			os.write(data);
+		}
+		os.close();
+		int allocations = stopCounting();
+
+		assertEquals("Allocations while streaming blocks", 0, allocations);
+	}
+
+	private static void startCounting() {
+		Debug.resetThreadAllocCount();
+		Debug.startAllocCounting();
+	}
+
+	private static int stopCounting() {
+		Debug.stopAllocCounting();
+		return Debug.getThreadAllocCount();
+	}
+
+	private void readFully(InputStream is, byte[] buf, int offset, int length) throws IOException {
+		while (length > 0) {
+			int read = is.read(buf, offset, length);
+			if (read == -1) {
+				throw new IOException("Unexpected end of stream");
+			}
+			offset += read;
+			length -= read;
+		}
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		rand.nextBytes(data);
+		return data;
+	}
+
+	private static class DiscardOutputStream extends OutputStream {
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertEquals;
+
+import com.keepassdroid.stream.CountInputStream;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+public class CountStream {
+
+	@Test
+	public void testCountsBytesRead() throws IOException {
+		CountInputStream is = new CountInputStream(new ByteArrayInputStream(new byte[100]));
+
+		assertEquals(0, is.read());
+		assertEquals(1, is.getCount());
+
+		byte[] buf = new byte[64];
+		assertEquals(64, is.read(buf));
+		assertEquals(65, is.getCount());
+
+		assertEquals(10, is.skip(10));
+		assertEquals(75, is.getCount());
+
+		// Short read at the end of the stream
+		assertEquals(25, is.read(buf, 0, buf.length));
+		assertEquals(100, is.getCount());
+
+		assertEquals(-1, is.read(buf));
+		assertEquals(-1, is.read());
+		assertEquals(0, is.skip(10));
+		assertEquals(100, is.getCount());
+	}
+}
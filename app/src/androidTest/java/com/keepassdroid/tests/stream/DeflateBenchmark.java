@@ -0,0 +1,135 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.util.Log;
+
+import com.keepassdroid.stream.ParallelDeflateOutputStream;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares deflating a large XML payload with GZIPOutputStream and with
+ * ParallelDeflateOutputStream, written the way the XML serializer writes
+ * it. Ratios and throughput go to the log. The timing run is skipped unless
+ * benchmarks are enabled, see {@link Benchmarks}.
+ */
+public class DeflateBenchmark {
+	private static final String TAG = "DeflateBenchmark";
+	private static final int SMALL_XML_SIZE = 1024 * 1024;
+	private static final int XML_SIZE = 50 * 1024 * 1024;
+	private static final int WRITE_SIZE = 8192;
+	private static final int WARMUP = 1;
+	private static final int RUNS = 3;
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		byte[] xml = createPayload(SMALL_XML_SIZE);
+
+		assertArrayEquals(xml, Inflate.readAll(new GZIPInputStream(
+				new ByteArrayInputStream(deflate(xml, true)))));
+	}
+
+	@Test
+	public void testDeflate() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		byte[] xml = createPayload(XML_SIZE);
+
+		byte[] serial = deflate(xml, false);
+		byte[] parallel = deflate(xml, true);
+		assertArrayEquals(xml, Inflate.readAll(new GZIPInputStream(new ByteArrayInputStream(parallel))));
+
+		long serialTime = time(xml, false);
+		long parallelTime = time(xml, true);
+
+		Log.i(TAG, String.format(Locale.US, "%d KiB of XML: GZIPOutputStream ratio %.2f, %.1f MB/s; "
+						+ "ParallelDeflateOutputStream ratio %.2f, %.1f MB/s",
+				xml.length / 1024, ratio(xml, serial), throughput(xml, serialTime),
+				ratio(xml, parallel), throughput(xml, parallelTime)));
+	}
+
+	/** @return the best time of several runs */
+	private long time(byte[] xml, boolean parallel) throws IOException {
+		for (int i = 0; i < WARMUP; i++) {
+			deflate(xml, parallel);
+		}
+
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			deflate(xml, parallel);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		return times[0];
+	}
+
+	private byte[] deflate(byte[] xml, boolean parallel) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(xml.length / 4);
+		OutputStream os = parallel ? new ParallelDeflateOutputStream(bos) : new GZIPOutputStream(bos);
+		for (int i = 0; i < xml.length; i += WRITE_SIZE) {
+			os.write(xml, i, Math.min(WRITE_SIZE, xml.length - i));
+		}
+		os.close();
+
+		return bos.toByteArray();
+	}
+
+	private double ratio(byte[] xml, byte[] gz) {
+		return (double) xml.length / gz.length;
+	}
+
+	private double throughput(byte[] xml, long nanos) {
+		return (xml.length / 1000000.0) / (nanos / 1000000000.0);
+	}
+
+	private byte[] createPayload(int size) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(size + 1024);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; bos.size() < size; i++) {
+			sb.setLength(0);
+			sb.append("<Entry><UUID>AAAAAAAAAAAAAAAAAAAA").append(i % 100).append("==</UUID>")
+					.append("<String><Key>Title</Key><Value>Entry ").append(i).append("</Value></String>")
+					.append("<String><Key>UserName</Key><Value>user").append(i).append("</Value></String>")
+					.append("<String><Key>Password</Key><Value Protected=\"True\">")
+					.append(Integer.toHexString(i * 0x9E3779B1)).append("</Value></String>")
+					.append("<Times><LastModificationTime>2026-01-01T00:00:00Z</LastModificationTime></Times>")
+					.append("</Entry>\n");
+			bos.write(sb.toString().getBytes("UTF-8"));
+		}
+
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import com.keepassdroid.stream.HmacBlockInputStream;
+import com.keepassdroid.stream.HmacBlockOutputStream;
+import com.keepassdroid.stream.MappedInputStream;
+
+import org.junit.Test;
+
+public class HmacBlock {
+	private static final int BLOCK_SIZE = 1024 * 1024;
+
+	private static Random rand = new Random();
+
+	@Test
+	public void testSequential() throws IOException {
+		testRoundTrip(3 * BLOCK_SIZE + 100, 0);
+	}
+
+	@Test
+	public void testReadAhead() throws IOException {
+		testRoundTrip(5 * BLOCK_SIZE + 100, HmacBlockInputStream.DEFAULT_READ_AHEAD);
+	}
+
+	@Test
+	public void testReadAheadShort() throws IOException {
+		testRoundTrip(100, HmacBlockInputStream.DEFAULT_READ_AHEAD);
+		testRoundTrip(0, HmacBlockInputStream.DEFAULT_READ_AHEAD);
+	}
+
+	@Test
+	public void testMapped() throws IOException {
+		testRoundTrip(3 * BLOCK_SIZE + 100, 0, true);
+		testRoundTrip(5 * BLOCK_SIZE + 100, HmacBlockInputStream.DEFAULT_READ_AHEAD, true);
+		testRoundTrip(0, 0, true);
+	}
+
+	@Test
+	public void testCorruptSequential() throws IOException {
+		testCorrupt(0, false);
+	}
+
+	@Test
+	public void testCorruptReadAhead() throws IOException {
+		testCorrupt(HmacBlockInputStream.DEFAULT_READ_AHEAD, false);
+	}
+
+	@Test
+	public void testCorruptMapped() throws IOException {
+		testCorrupt(0, true);
+		testCorrupt(HmacBlockInputStream.DEFAULT_READ_AHEAD, true);
+	}
+
+	@Test
+	public void testWrongKeyReadAhead() throws IOException {
+		byte[] key = randomBytes(64);
+		byte[] data = write(randomBytes(2 * BLOCK_SIZE), key);
+
+		InputStream is = new HmacBlockInputStream(new ByteArrayInputStream(data), true, randomBytes(64), 2);
+		try {
+			is.read();
+			fail("Expected HMAC failure");
+		} catch (IOException e) {
+			assertEquals("Invalid Hmac", e.getMessage());
+		}
+		is.close();
+	}
+
+	private void testCorrupt(int readAhead, boolean mapped) throws IOException {
+		byte[] key = randomBytes(64);
+		byte[] data = write(randomBytes(4 * BLOCK_SIZE), key);
+
+		// Flip a byte in the third block's data
+		int thirdBlock = 2 * (32 + 4 + BLOCK_SIZE);
+		data[thirdBlock + 32 + 4 + 10] ^= 1;
+
+		InputStream is = new HmacBlockInputStream(open(data, mapped), true, key, readAhead);
+		try {
+			readAll(is);
+			fail("Expected HMAC failure");
+		} catch (IOException e) {
+			assertEquals("Invalid Hmac", e.getMessage());
+		}
+		is.close();
+	}
+
+	private void testRoundTrip(int size, int readAhead) throws IOException {
+		testRoundTrip(size, readAhead, false);
+	}
+
+	private void testRoundTrip(int size, int readAhead, boolean mapped) throws IOException {
+		byte[] key = randomBytes(64);
+		byte[] orig = randomBytes(size);
+
+		InputStream is = new HmacBlockInputStream(open(write(orig, key), mapped), true, key, readAhead);
+		assertArrayEquals(orig, readAll(is));
+		is.close();
+	}
+
+	/** Reads data as a stream, or from a buffer outside the heap like a file mapping */
+	private InputStream open(byte[] data, boolean mapped) {
+		if (!mapped) {
+			return new ByteArrayInputStream(data);
+		}
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+		buf.put(data);
+		buf.flip();
+
+		return new MappedInputStream(buf);
+	}
+
+	private byte[] write(byte[] data, byte[] key) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		HmacBlockOutputStream os = new HmacBlockOutputStream(bos, key);
+		os.write(data);
+		os.close();
+
+		return bos.toByteArray();
+	}
+
+	private byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[64 * 1024];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			bos.write(buf, 0, read);
+		}
+
+		return bos.toByteArray();
+	}
+
+	private byte[] randomBytes(int size) {
+		byte[] data = new byte[size];
+		rand.nextBytes(data);
+		return data;
+	}
+}
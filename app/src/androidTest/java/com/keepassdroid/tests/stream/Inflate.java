@@ -0,0 +1,153 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import com.keepassdroid.stream.InflateInputStream;
+import com.keepassdroid.utils.MemUtil;
+
+import org.junit.Test;
+
+public class Inflate {
+	private static Random rand = new Random();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int size : new int[] { 0, 1, 1000, 300 * 1024 }) {
+			byte[] orig = compressible(size);
+			byte[] gz = MemUtil.compress(orig);
+
+			InflateInputStream is = new InflateInputStream(new ByteArrayInputStream(gz), 1024);
+			assertArrayEquals(orig, readAll(is));
+			assertEquals(gz.length, is.getCompressedBytes());
+			assertEquals(orig.length, is.getInflatedBytes());
+			is.close();
+
+			is = new InflateInputStream(gz, 0, gz.length);
+			assertArrayEquals(orig, readAll(is));
+			is.close();
+
+			assertArrayEquals(orig, MemUtil.decompress(gz));
+		}
+	}
+
+	@Test
+	public void testRandomData() throws IOException {
+		byte[] orig = new byte[200 * 1024];
+		rand.nextBytes(orig);
+
+		assertArrayEquals(orig, readAll(new InflateInputStream(new ByteArrayInputStream(MemUtil.compress(orig)), 7)));
+	}
+
+	@Test
+	public void testMembers() throws IOException {
+		byte[] first = compressible(5000);
+		byte[] second = compressible(7000);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(MemUtil.compress(first));
+		bos.write(MemUtil.compress(second));
+		byte[] gz = bos.toByteArray();
+
+		byte[] expected = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, expected, first.length, second.length);
+
+		assertArrayEquals(expected, readAll(new InflateInputStream(new ByteArrayInputStream(gz))));
+		// The size in the last trailer only covers the last member
+		assertArrayEquals(expected, MemUtil.decompress(gz));
+	}
+
+	@Test
+	public void testHeaderFields() throws IOException {
+		byte[] orig = compressible(5000);
+		byte[] gz = MemUtil.compress(orig);
+
+		// Insert a file name and a header CRC
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(gz, 0, 3);
+		bos.write(gz[3] | 8 | 2);
+		bos.write(gz, 4, 6);
+		bos.write("name.xml".getBytes("US-ASCII"));
+		bos.write(0);
+		CRC32 crc = new CRC32();
+		crc.update(bos.toByteArray());
+		bos.write((int) crc.getValue());
+		bos.write((int) crc.getValue() >> 8);
+		bos.write(gz, 10, gz.length - 10);
+
+		assertArrayEquals(orig, readAll(new InflateInputStream(new ByteArrayInputStream(bos.toByteArray()))));
+	}
+
+	@Test
+	public void testCorrupt() throws IOException {
+		byte[] gz = MemUtil.compress(compressible(5000));
+
+		byte[] badCrc = gz.clone();
+		badCrc[gz.length - 6] ^= 1;
+		assertFails(badCrc);
+
+		assertFails(Arrays.copyOf(gz, gz.length - 3));
+		assertFails(Arrays.copyOf(gz, gz.length / 2));
+
+		byte[] notGzip = gz.clone();
+		notGzip[0] = 0;
+		assertFails(notGzip);
+	}
+
+	private void assertFails(byte[] gz) {
+		try {
+			readAll(new InflateInputStream(new ByteArrayInputStream(gz)));
+			fail("Read corrupt gzip data");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	static byte[] compressible(int size) {
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; i++) {
+			data[i] = (byte) ('a' + rand.nextInt(4));
+		}
+
+		return data;
+	}
+
+	static byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			bos.write(buf, 0, read);
+		}
+
+		return bos.toByteArray();
+	}
+}
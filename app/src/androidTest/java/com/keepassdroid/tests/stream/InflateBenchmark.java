@@ -0,0 +1,150 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.util.Log;
+
+import com.keepassdroid.stream.InflateInputStream;
+import com.keepassdroid.tests.Benchmarks;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compares inflating a large, highly compressible XML payload with
+ * GZIPInputStream and with InflateInputStream, read the way the XML parser
+ * reads it. Results go to the log. The timing run is skipped unless
+ * benchmarks are enabled, see {@link Benchmarks}.
+ */
+public class InflateBenchmark {
+	private static final String TAG = "InflateBenchmark";
+	private static final int SMALL_XML_SIZE = 1024 * 1024;
+	private static final int XML_SIZE = 50 * 1024 * 1024;
+	private static final int WARMUP = 1;
+	private static final int RUNS = 5;
+
+	@Test
+	public void testSameOutput() throws Exception {
+		byte[] gz = createPayload(SMALL_XML_SIZE);
+
+		assertArrayEquals(readBytes(new GZIPInputStream(new ByteArrayInputStream(gz))),
+				readBytes(new InflateInputStream(new ByteArrayInputStream(gz))));
+	}
+
+	@Test
+	public void testInflate() throws Exception {
+		Benchmarks.assumeEnabled();
+
+		byte[] gz = createPayload(XML_SIZE);
+
+		long expected = read(new GZIPInputStream(new ByteArrayInputStream(gz)));
+		assertEquals(expected, read(new InflateInputStream(new ByteArrayInputStream(gz))));
+
+		long gzip = time(gz, false);
+		long inflate = time(gz, true);
+
+		Log.i(TAG, expected / 1024 + " KiB of XML from " + gz.length / 1024 + " KiB: GZIPInputStream "
+				+ gzip / 1000000 + " ms, InflateInputStream " + inflate / 1000000 + " ms");
+	}
+
+	/** @return the best time of several runs */
+	private long time(byte[] gz, boolean tuned) throws IOException {
+		for (int i = 0; i < WARMUP; i++) {
+			read(open(gz, tuned));
+		}
+
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			read(open(gz, tuned));
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		return times[0];
+	}
+
+	private InputStream open(byte[] gz, boolean tuned) throws IOException {
+		InputStream is = new ByteArrayInputStream(gz);
+
+		return tuned ? new InflateInputStream(is) : new GZIPInputStream(is);
+	}
+
+	/** Reads through a UTF-8 reader, like the XML parser does */
+	private long read(InputStream is) throws IOException {
+		Reader reader = new InputStreamReader(is, "UTF-8");
+		char[] buf = new char[8192];
+		long total = 0;
+		int read;
+		while ((read = reader.read(buf)) != -1) {
+			total += read;
+		}
+		reader.close();
+
+		return total;
+	}
+
+	private byte[] readBytes(InputStream is) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			bos.write(buf, 0, read);
+		}
+		is.close();
+
+		return bos.toByteArray();
+	}
+
+	private byte[] createPayload(int size) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(bos);
+
+		StringBuilder sb = new StringBuilder();
+		long written = 0;
+		for (int i = 0; written < size; i++) {
+			sb.setLength(0);
+			sb.append("<Entry><UUID>AAAAAAAAAAAAAAAAAAAA").append(i % 100).append("==</UUID>")
+					.append("<String><Key>Title</Key><Value>Entry ").append(i).append("</Value></String>")
+					.append("<String><Key>UserName</Key><Value>user").append(i).append("</Value></String>")
+					.append("<String><Key>URL</Key><Value>https://example.com/</Value></String>")
+					.append("<Times><LastModificationTime>2026-01-01T00:00:00Z</LastModificationTime></Times>")
+					.append("</Entry>\n");
+			byte[] entry = sb.toString().getBytes("UTF-8");
+			gzos.write(entry);
+			written += entry.length;
+		}
+		gzos.close();
+
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import com.keepassdroid.stream.InflateInputStream;
+import com.keepassdroid.stream.ParallelDeflateOutputStream;
+import com.keepassdroid.utils.MemUtil;
+
+import org.junit.Test;
+
+public class ParallelDeflate {
+	private static final int CHUNK = 16 * 1024;
+
+	private static Random rand = new Random();
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		for (int size : new int[] { 0, 1, 1000, CHUNK, 3 * CHUNK, 300 * 1024 + 7 }) {
+			byte[] orig = Inflate.compressible(size);
+			byte[] gz = compress(orig);
+
+			assertArrayEquals(orig, Inflate.readAll(new GZIPInputStream(new ByteArrayInputStream(gz))));
+			assertArrayEquals(orig, Inflate.readAll(new InflateInputStream(new ByteArrayInputStream(gz))));
+			assertSingleMember(orig, gz);
+		}
+	}
+
+	@Test
+	public void testRandomData() throws IOException {
+		byte[] orig = new byte[200 * 1024];
+		rand.nextBytes(orig);
+
+		byte[] gz = compress(orig);
+		assertArrayEquals(orig, Inflate.readAll(new GZIPInputStream(new ByteArrayInputStream(gz))));
+	}
+
+	@Test
+	public void testSmallWrites() throws IOException {
+		byte[] orig = Inflate.compressible(5 * CHUNK + 3);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(bos, Deflater.DEFAULT_COMPRESSION, CHUNK);
+		for (int i = 0; i < orig.length; ) {
+			int len = Math.min(orig.length - i, rand.nextInt(100));
+			if (len == 1) {
+				os.write(orig[i]);
+			} else {
+				os.write(orig, i, len);
+			}
+			i += len;
+			if (i % 7 == 0) {
+				os.flush();
+			}
+		}
+		os.close();
+
+		byte[] gz = bos.toByteArray();
+		assertEquals(orig.length, os.getBytesIn());
+		assertEquals(gz.length, os.getBytesOut());
+		assertArrayEquals(orig, Inflate.readAll(new GZIPInputStream(new ByteArrayInputStream(gz))));
+	}
+
+	@Test
+	public void testRatio() throws IOException {
+		byte[] orig = Inflate.compressible(1024 * 1024);
+
+		// The dictionary keeps chunking from costing much compression
+		int serial = MemUtil.compress(orig).length;
+		int parallel = compress(orig).length;
+		assertTrue("Parallel " + parallel + " serial " + serial, parallel < serial * 1.02);
+	}
+
+	@Test
+	public void testFinishThenClose() throws IOException {
+		byte[] orig = Inflate.compressible(3 * CHUNK);
+
+		final boolean[] closed = { false };
+		ByteArrayOutputStream bos = new ByteArrayOutputStream() {
+			@Override
+			public void close() throws IOException {
+				closed[0] = true;
+				super.close();
+			}
+		};
+
+		ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(bos, Deflater.DEFAULT_COMPRESSION, CHUNK);
+		os.write(orig);
+		os.finish();
+		assertFalse(closed[0]);
+		int length = bos.size();
+
+		// Like DeflaterOutputStream, close still closes the stream written to
+		os.close();
+		assertTrue(closed[0]);
+		assertEquals(length, bos.size());
+		assertArrayEquals(orig, Inflate.readAll(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray()))));
+	}
+
+	/** The trailer covers all of the data, so there is just the one member */
+	private void assertSingleMember(byte[] orig, byte[] gz) {
+		CRC32 crc = new CRC32();
+		crc.update(orig);
+
+		int end = gz.length;
+		long storedCrc = readInt(gz, end - 8);
+		long storedSize = readInt(gz, end - 4);
+		assertEquals(crc.getValue(), storedCrc);
+		assertEquals(orig.length, storedSize);
+	}
+
+	private long readInt(byte[] buf, int offset) {
+		return (buf[offset] & 0xFFL) | ((buf[offset + 1] & 0xFFL) << 8)
+				| ((buf[offset + 2] & 0xFFL) << 16) | ((buf[offset + 3] & 0xFFL) << 24);
+	}
+
+	private byte[] compress(byte[] orig) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ParallelDeflateOutputStream os = new ParallelDeflateOutputStream(bos, Deflater.DEFAULT_COMPRESSION, CHUNK);
+		os.write(orig);
+		os.close();
+
+		return bos.toByteArray();
+	}
+}
@@ -0,0 +1,258 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.keepassdroid.stream.HashedBlockInputStream;
+import com.keepassdroid.stream.HashedBlockOutputStream;
+import com.keepassdroid.stream.PipelinedInputStream;
+import com.keepassdroid.stream.PipelinedOutputStream;
+
+import org.junit.Test;
+
+public class PipelinedStream {
+
+	private static Random rand = new Random();
+
+	@Test
+	public void testSmall() throws IOException {
+		testSize(100, 1024, 2);
+	}
+
+	@Test
+	public void testBlockAligned() throws IOException {
+		testSize(4 * 1024, 1024, 2);
+	}
+
+	@Test
+	public void testLarge() throws IOException {
+		testSize(1024 * 1024 + 17, 4096, 2);
+	}
+
+	@Test
+	public void testChained() throws IOException {
+		byte[] orig = new byte[512 * 1024];
+		rand.nextBytes(orig);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		HashedBlockOutputStream hashed = new HashedBlockOutputStream(bos, 8 * 1024);
+		GZIPOutputStream gzip = new GZIPOutputStream(hashed);
+		gzip.write(orig);
+		gzip.close();
+
+		InputStream is = new ByteArrayInputStream(bos.toByteArray());
+		is = new PipelinedInputStream(new HashedBlockInputStream(is), "verify");
+		is = new PipelinedInputStream(new GZIPInputStream(is), "inflate");
+
+		assertArrayEquals(orig, readAll(is));
+		is.close();
+	}
+
+	@Test
+	public void testErrorPropagates() throws IOException {
+		final byte[] orig = new byte[10000];
+		rand.nextBytes(orig);
+
+		InputStream failing = new InputStream() {
+			private int pos = 0;
+
+			@Override
+			public int read() throws IOException {
+				if (pos == orig.length) {
+					throw new IOException("Broken source");
+				}
+				return orig[pos++] & 0xFF;
+			}
+		};
+
+		PipelinedInputStream is = new PipelinedInputStream(failing, "test", 1024, 2);
+
+		// All data read before the error must arrive first
+		byte[] buf = new byte[orig.length];
+		int count = 0;
+		try {
+			while (count < buf.length) {
+				int read = is.read(buf, count, buf.length - count);
+				if (read == -1) break;
+				count += read;
+			}
+		} catch (IOException e) {
+			fail("Error reported before the data preceding it");
+		}
+		assertArrayEquals(orig, buf);
+
+		try {
+			is.read();
+			fail("Expected source error");
+		} catch (IOException e) {
+			assertEquals("Broken source", e.getMessage());
+		}
+
+		is.close();
+	}
+
+	@Test
+	public void testStopEarly() throws IOException {
+		byte[] orig = new byte[1024 * 1024];
+		PipelinedInputStream is = new PipelinedInputStream(new ByteArrayInputStream(orig), "test", 1024, 2);
+		is.read(new byte[10]);
+
+		// Worker is blocked on a full queue, stop must not hang
+		is.stop();
+		assertEquals(-1, is.read());
+	}
+
+	@Test
+	public void testOutputSizes() throws IOException {
+		for (int size : new int[] { 0, 100, 4 * 1024, 1024 * 1024 + 17 }) {
+			byte[] orig = new byte[size];
+			rand.nextBytes(orig);
+
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			OutputStream os = new PipelinedOutputStream(bos, "test", 1024, 2);
+			for (int i = 0; i < size; ) {
+				int len = Math.min(size - i, rand.nextInt(3000));
+				if (len == 1) {
+					os.write(orig[i]);
+				} else {
+					os.write(orig, i, len);
+				}
+				i += len;
+			}
+			os.close();
+
+			assertArrayEquals(orig, bos.toByteArray());
+		}
+	}
+
+	@Test
+	public void testOutputChained() throws IOException {
+		byte[] orig = new byte[512 * 1024];
+		for (int i = 0; i < orig.length; i++) {
+			orig[i] = (byte) ('a' + rand.nextInt(4));
+		}
+
+		ByteArrayOutputStream serial = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(new HashedBlockOutputStream(serial, 8 * 1024));
+		gzip.write(orig);
+		gzip.close();
+
+		// Same bytes, however the writes are split up
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		OutputStream os = new PipelinedOutputStream(new HashedBlockOutputStream(bos, 8 * 1024), "hash");
+		os = new PipelinedOutputStream(new GZIPOutputStream(os), "deflate", 1000, 3);
+		for (int i = 0; i < orig.length; i += 777) {
+			os.write(orig, i, Math.min(777, orig.length - i));
+			if (i % 100 == 0) {
+				os.flush();
+			}
+		}
+		os.close();
+
+		assertArrayEquals(serial.toByteArray(), bos.toByteArray());
+	}
+
+	@Test
+	public void testOutputErrorPropagates() throws IOException {
+		OutputStream failing = new OutputStream() {
+			private int count = 0;
+
+			@Override
+			public void write(int oneByte) throws IOException {
+				if (++count > 5000) {
+					throw new IOException("Broken sink");
+				}
+			}
+		};
+
+		OutputStream os = new PipelinedOutputStream(failing, "test", 1024, 2);
+		byte[] buf = new byte[1000];
+		try {
+			for (int i = 0; i < 1000; i++) {
+				os.write(buf);
+			}
+			os.close();
+			fail("Expected sink error");
+		} catch (IOException e) {
+			assertEquals("Broken sink", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testOutputStopEarly() throws IOException {
+		final Object lock = new Object();
+		OutputStream blocked = new OutputStream() {
+			@Override
+			public void write(int oneByte) throws IOException {
+				synchronized (lock) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException();
+					}
+				}
+			}
+		};
+
+		PipelinedOutputStream os = new PipelinedOutputStream(blocked, "test", 1024, 2);
+		os.write(new byte[1500]);
+
+		// Worker is blocked in the sink, stop must not hang
+		os.stop();
+		try {
+			os.write(1);
+			fail("Wrote to a stopped stream");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private void testSize(int size, int blockSize, int depth) throws IOException {
+		byte[] orig = new byte[size];
+		rand.nextBytes(orig);
+
+		InputStream is = new PipelinedInputStream(new ByteArrayInputStream(orig), "test", blockSize, depth);
+		assertArrayEquals(orig, readAll(is));
+		is.close();
+	}
+
+	private byte[] readAll(InputStream is) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[3000];
+		int read;
+		while ((read = is.read(buf)) != -1) {
+			out.write(buf, 0, read);
+		}
+		return out.toByteArray();
+	}
+}
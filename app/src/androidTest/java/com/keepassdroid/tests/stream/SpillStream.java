@@ -0,0 +1,110 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.tests.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import com.keepassdroid.stream.SpillOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpillStream {
+	private static final int LIMIT = 128 * 1024;
+
+	private static Random rand = new Random();
+
+	private File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("spilltest", "");
+		dir.delete();
+		assertTrue(dir.mkdir());
+	}
+
+	@After
+	public void tearDown() {
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		for (int size : new int[] { 0, 1, 1000, LIMIT }) {
+			byte[] orig = new byte[size];
+			rand.nextBytes(orig);
+
+			SpillOutputStream sos = write(orig);
+			assertFalse(sos.isSpilled());
+			assertEquals(0, dir.list().length);
+			assertArrayEquals(orig, readBack(sos));
+		}
+	}
+
+	@Test
+	public void testSpill() throws IOException {
+		byte[] orig = new byte[3 * LIMIT + 7];
+		rand.nextBytes(orig);
+
+		SpillOutputStream sos = write(orig);
+		assertTrue(sos.isSpilled());
+		assertEquals(orig.length, sos.length());
+		assertArrayEquals(orig, readBack(sos));
+		// Reading the spill file back leaves the data in memory intact
+		assertArrayEquals(orig, readBack(sos));
+
+		sos.discard();
+		assertEquals(0, dir.list().length);
+	}
+
+	private SpillOutputStream write(byte[] orig) throws IOException {
+		SpillOutputStream sos = new SpillOutputStream(dir, LIMIT);
+		for (int i = 0; i < orig.length; ) {
+			int len = Math.min(orig.length - i, rand.nextInt(5000));
+			if (len == 1) {
+				sos.write(orig[i]);
+			} else {
+				sos.write(orig, i, len);
+			}
+			i += len;
+		}
+
+		return sos;
+	}
+
+	private byte[] readBack(SpillOutputStream sos) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		sos.writeTo(bos);
+
+		return bos.toByteArray();
+	}
+}
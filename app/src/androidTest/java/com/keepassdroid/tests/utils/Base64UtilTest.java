@@ -0,0 +1,81 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import android.util.Base64;
+
+import com.keepassdroid.utils.Base64Util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class Base64UtilTest {
+	private Random rand = new Random();
+
+	@Test
+	public void testMatchesAndroid() {
+		for (int length = 0; length < 100; length++) {
+			byte[] data = new byte[length];
+			rand.nextBytes(data);
+
+			assertDecodes(data, Base64.encodeToString(data, Base64.NO_WRAP));
+		}
+	}
+
+	@Test
+	public void testOffset() {
+		byte[] data = new byte[37];
+		rand.nextBytes(data);
+		String encoded = Base64.encodeToString(data, Base64.NO_WRAP);
+
+		byte[] buf = new byte[5 + Base64Util.maxDecodedLength(encoded)];
+		int length = Base64Util.decode(encoded, buf, 5);
+
+		assertEquals(data.length, length);
+		assertArrayEquals(data, Arrays.copyOfRange(buf, 5, 5 + length));
+	}
+
+	@Test
+	public void testWhitespaceAndPadding() {
+		byte[] data = "KeePassDroid".getBytes();
+		String encoded = Base64.encodeToString(data, Base64.NO_WRAP);
+
+		assertDecodes(data, " " + encoded.substring(0, 5) + "\n\t" + encoded.substring(5) + "\n");
+		assertDecodes(new byte[] { 'a' }, "YQ");
+		assertDecodes(new byte[] { 'a', 'b' }, "YWI=");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTruncated() {
+		Base64Util.decode("YWJjZ", new byte[16], 0);
+	}
+
+	private void assertDecodes(byte[] expected, String encoded) {
+		byte[] buf = new byte[Base64Util.maxDecodedLength(encoded)];
+		int length = Base64Util.decode(encoded, buf, 0);
+
+		assertArrayEquals(expected, Arrays.copyOf(buf, length));
+	}
+}
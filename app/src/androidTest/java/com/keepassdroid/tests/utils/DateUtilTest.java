@@ -0,0 +1,132 @@
+/*
+* Copyright 2026 Brian Pellin.
+*
+* This file is part of KeePassDroid.
+*
+* KeePassDroid is free software: you can redistribute it and/or modify
+* it under the terms of the GNU General Public License as published by
+* the Free Software Foundation, either version 2 of the License, or
+* (at your option) any later version.
+*
+* KeePassDroid is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License
+* along with KeePassDroid. If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+package com.keepassdroid.tests.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import com.keepassdroid.database.PwDatabaseV4XML;
+import com.keepassdroid.utils.DateUtil;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Seconds;
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Random;
+
+/** Checks the KDBX time codec against SimpleDateFormat and Joda-Time */
+public class DateUtilTest {
+	private static final DateTime dotNetEpoch = new DateTime(1, 1, 1, 0, 0, 0, DateTimeZone.UTC);
+	private static final DateTime javaEpoch = new DateTime(1970, 1, 1, 0, 0, 0, DateTimeZone.UTC);
+	private static final long MAX_MILLIS = 253402300799000L; // 9999-12-31T23:59:59Z
+
+	private Random rand = new Random();
+
+	@Test
+	public void testFormatKDBX3() {
+		SimpleDateFormat format = PwDatabaseV4XML.dateFormatter.get();
+		for (long millis : samples()) {
+			Date date = new Date(millis);
+			assertEquals(format.format(date), DateUtil.formatKDBX3Time(date));
+		}
+	}
+
+	@Test
+	public void testParseKDBX3() {
+		SimpleDateFormat format = PwDatabaseV4XML.dateFormatter.get();
+		for (long millis : samples()) {
+			String str = format.format(new Date(millis));
+			assertEquals(str, parse(str), DateUtil.parseKDBX3Time(str));
+		}
+
+		String[] odd = { "2010-02-30T12:00:00Z", "2010-01-01T24:61:61Z", "2010-00-01T00:00:00Z",
+				"2010-13-01T00:00:00Z", "1500-06-01T00:00:00Z", "0001-01-01T00:00:00Z",
+				"2010-01-01T00:00:00.5Z", "2010-01-01 00:00:00Z", "2010-1-1T0:0:0Z",
+				"2010-01-01T00:00:00", "", "garbage" };
+		for (String str : odd) {
+			assertEquals(str, parse(str), DateUtil.parseKDBX3Time(str));
+		}
+	}
+
+	@Test
+	public void testKDBX4() {
+		for (long millis : samples()) {
+			Date date = new Date(millis);
+			long seconds = DateUtil.convertDateToKDBX4Time(date);
+			assertEquals(jodaSeconds(new DateTime(date)), seconds);
+			assertEquals(jodaDate(seconds), DateUtil.convertKDBX4Time(seconds));
+		}
+
+		long[] odd = { 0, 1, -1, 62135596799L, 62135596800L, 62135596801L, Long.MAX_VALUE / 1000 };
+		for (long seconds : odd) {
+			assertEquals(jodaDate(seconds), DateUtil.convertKDBX4Time(seconds));
+		}
+	}
+
+	private long[] samples() {
+		long[] samples = new long[2000];
+		samples[0] = 0;
+		samples[1] = MAX_MILLIS;
+		samples[2] = -12219292800000L; // 1582-10-15, the Gregorian switch
+		samples[3] = -62135596800000L; // 0001-01-01
+		for (int i = 4; i < samples.length; i++) {
+			long range = i % 2 == 0 ? MAX_MILLIS : 4102444800000L; // 2100-01-01
+			samples[i] = (long) (rand.nextDouble() * range * 2) - range / 2;
+		}
+
+		return samples;
+	}
+
+	// The codecs used before DateUtil handled these directly
+
+	private static Date parse(String str) {
+		try {
+			Date date = PwDatabaseV4XML.dateFormatter.get().parse(str);
+			if (date != null) {
+				return date;
+			}
+		} catch (ParseException e) {
+			// Use the default below
+		}
+
+		return new Date(0L);
+	}
+
+	private static Date jodaDate(long seconds) {
+		DateTime dt = dotNetEpoch.plus(seconds * 1000L);
+		if (dt.isBefore(javaEpoch)) {
+			return javaEpoch.toDate();
+		}
+
+		return dt.toDate();
+	}
+
+	private static long jodaSeconds(DateTime dt) {
+		long offset = (javaEpoch.getMillis() - dotNetEpoch.getMillis()) / 1000L;
+		try {
+			return Seconds.secondsBetween(javaEpoch, dt).getSeconds() + offset;
+		} catch (ArithmeticException e) {
+			return dt.toDate().getTime() / 1000L + offset;
+		}
+	}
+}
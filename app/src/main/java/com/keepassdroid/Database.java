@@ -26,19 +26,20 @@ import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.android.keepass.R;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwGroup;
 import com.keepassdroid.database.exception.ContentFileNotFoundException;
 import com.keepassdroid.database.exception.FileUriException;
 import com.keepassdroid.database.exception.InvalidDBException;
-import com.keepassdroid.database.exception.InvalidPasswordException;
 import com.keepassdroid.database.exception.PwDbOutputException;
 import com.keepassdroid.database.load.Importer;
 import com.keepassdroid.database.load.ImporterFactory;
 import com.keepassdroid.database.save.PwDbOutput;
 import com.keepassdroid.icons.DrawableFactory;
 import com.keepassdroid.search.SearchDbHelper;
+import com.keepassdroid.stream.MappedInputStream;
 import com.keepassdroid.utils.UriUtil;
 import com.keepassdroid.utils.Util;
 
@@ -71,6 +72,9 @@ public class Database {
 
     private boolean loaded = false;
 
+    private DbMetrics metrics = null;
+    private DbMetrics.Listener metricsListener = null;
+
     public boolean Loaded() {
         return loaded;
     }
@@ -79,6 +83,23 @@ public class Database {
         loaded = true;
     }
 
+    /** Measurements from the last load or save, or null if there was none */
+    public DbMetrics getMetrics() {
+        return metrics;
+    }
+
+    /** Sets a listener to receive the measurements of every load and save */
+    public void setMetricsListener(DbMetrics.Listener listener) {
+        metricsListener = listener;
+    }
+
+    private void reportMetrics(DbMetrics metrics) {
+        this.metrics = metrics;
+        if (metricsListener != null) {
+            metricsListener.onMetrics(metrics);
+        }
+    }
+
     public void LoadData(Context ctx, InputStream is, String password, InputStream keyInputStream) throws IOException, InvalidDBException {
         LoadData(ctx, is, password, keyInputStream, new UpdateStatus(), !Importer.DEBUG);
     }
@@ -99,17 +120,8 @@ public class Database {
             readOnly = !file.canWrite();
         }
 
-        try {
-            passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, 0);
-        } catch (InvalidPasswordException e) {
-            // Retry with rounds fix
-            try {
-                passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, getFixRounds(ctx));
-            } catch (Exception e2) {
-                // Rethrow original exception
-                throw e;
-            }
-        }
+        // The importer tries the rounds fix alongside the stored rounds
+        passUrisAsInputStreams(ctx, uri, password, keyfile, status, debug, getFixRounds(ctx));
     }
 
     private long getFixRounds(Context ctx) {
@@ -121,7 +133,10 @@ public class Database {
     private void passUrisAsInputStreams(Context ctx, Uri uri, String password, Uri keyfile, UpdateStatus status, boolean debug, long roundsFix) throws IOException, FileNotFoundException, InvalidDBException {
         InputStream is, kfIs;
         try {
-            is = UriUtil.getUriInputStream(ctx, uri);
+            is = openMapped(uri);
+            if (is == null) {
+                is = UriUtil.getUriInputStream(ctx, uri);
+            }
         } catch (Exception e) {
             Log.e("KPD", "Database::LoadData", e);
             throw ContentFileNotFoundException.getInstance(uri);
@@ -133,7 +148,29 @@ public class Database {
             Log.e("KPD", "Database::LoadData", e);
             throw ContentFileNotFoundException.getInstance(keyfile);
         }
-        LoadData(ctx, is, password, kfIs, status, debug, roundsFix);
+        // Progress through the file needs its real length, which available() doesn't give
+        long fileSize = is instanceof MappedInputStream
+                ? ((MappedInputStream) is).length() : UriUtil.getUriLength(ctx, uri);
+
+        LoadData(ctx, is, password, kfIs, status, debug, roundsFix, fileSize);
+    }
+
+    /**
+     * Maps local database files, so the loaders can read them without
+     * copying through stream buffers
+     * @return null for content URIs, or files that can't be mapped
+     */
+    private InputStream openMapped(Uri uri) {
+        if (!"file".equals(uri.getScheme())) {
+            return null;
+        }
+
+        try {
+            return MappedInputStream.open(new File(uri.getPath()));
+        } catch (IOException e) {
+            Log.w("KPD", "Could not map database, reading it as a stream", e);
+            return null;
+        }
     }
 
     public void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, boolean debug) throws IOException, InvalidDBException {
@@ -145,7 +182,16 @@ public class Database {
     }
 
     public void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, UpdateStatus status, boolean debug, long roundsFix) throws IOException, InvalidDBException {
-        BufferedInputStream bis = new BufferedInputStream(is);
+        LoadData(ctx, is, password, kfIs, status, debug, roundsFix, 0);
+    }
+
+    /**
+     * @param fileSize Length of the database file, for the progress bar, or 0
+     *                 if unknown
+     */
+    public void LoadData(Context ctx, InputStream is, String password, InputStream kfIs, UpdateStatus status, boolean debug, long roundsFix, long fileSize) throws IOException, InvalidDBException {
+        // Mapped files can already be marked and don't need buffering
+        InputStream bis = is instanceof MappedInputStream ? is : new BufferedInputStream(is);
 
         if ( ! bis.markSupported() ) {
             throw new IOException("Input stream does not support mark.");
@@ -158,10 +204,19 @@ public class Database {
 
         bis.reset();  // Return to the start
 
-        pm = imp.openDatabase(bis, password, kfIs, status, roundsFix);
+        pm = imp.openDatabase(bis, password, kfIs, status, roundsFix, fileSize);
         if ( pm != null ) {
+            DbMetrics loadMetrics = imp.getMetrics();
+            loadMetrics.begin(DbMetrics.Stage.TREE_BUILD);
             PwGroup root = pm.rootGroup;
             pm.populateGlobals(root);
+            loadMetrics.end();
+            loadMetrics.finish();
+            reportMetrics(loadMetrics);
+
+            // Have the key for the first save ready by the time it's needed
+            pm.precomputeNextKey();
+
             LoadData(ctx, pm, password, kfIs, status);
         }
         loaded = true;
@@ -222,8 +277,12 @@ public class Database {
             PwDbOutput pmo = PwDbOutput.getInstance(pm, os);
             pmo.output();
             os.close();
+            reportMetrics(pmo.getMetrics());
         }
         mUri = uri;
+
+        // Each save needs a fresh seed, so start on the next one's key
+        pm.precomputeNextKey();
     }
 
     private void saveFile(File db) throws IOException, PwDbOutputException {
@@ -232,6 +291,7 @@ public class Database {
         PwDbOutput pmo = PwDbOutput.getInstance(pm, fos);
         pmo.output();
         fos.close();
+        reportMetrics(pmo.getMetrics());
 
         // Force data to disk before continuing
         try {
@@ -245,8 +305,10 @@ public class Database {
         dirty.clear();
         drawFactory.clear();
         // Delete the cache of the database if present
-        if (pm != null)
+        if (pm != null) {
+            pm.cancelNextKey();
             pm.clearCache();
+        }
         // In all cases, delete all the files in the temp dir
         try {
             Util.cleanDirectory(context.getFilesDir());
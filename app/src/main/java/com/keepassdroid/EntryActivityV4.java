@@ -52,6 +52,7 @@ public class EntryActivityV4 extends EntryActivity {
         }
 
         PwEntryV4 entry = (PwEntryV4) mEntry;
+        entry.materialize();
 
         PwDatabase pm = App.getDB().pm;
         SprEngine spr = SprEngineV4.getInstance(pm);
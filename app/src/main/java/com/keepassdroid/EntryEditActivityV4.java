@@ -119,6 +119,7 @@ public class EntryEditActivityV4 extends EntryEditActivity {
 		super.fillData();
 		
 		PwEntryV4 entry = (PwEntryV4) mEntry;
+		entry.materialize();
 		
 		LinearLayout container = (LinearLayout) findViewById(R.id.advanced_container);
 		
@@ -140,6 +141,7 @@ public class EntryEditActivityV4 extends EntryEditActivity {
 	@SuppressWarnings("unchecked")
 	@Override
 	protected PwEntry populateNewEntry() {
+		((PwEntryV4) mEntry).materializeHistory();
 		PwEntryV4 newEntry = (PwEntryV4) mEntry.clone(true);
 		newEntry.history = (ArrayList<PwEntryV4>) newEntry.history.clone();
 		newEntry.createBackup((PwDatabaseV4)App.getDB().pm);
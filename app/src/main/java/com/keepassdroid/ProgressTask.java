@@ -21,6 +21,7 @@ package com.keepassdroid;
 
 import android.app.Activity;
 import android.app.ProgressDialog;
+import android.content.DialogInterface;
 import android.os.Build;
 import android.os.Handler;
 
@@ -40,6 +41,7 @@ public class ProgressTask implements Runnable {
 	private Handler mHandler;
 	private RunnableOnFinish mTask;
 	private ProgressDialog mPd;
+	private UpdateStatus mStatus;
 	
 	public ProgressTask(Activity act, RunnableOnFinish task, int messageId) {
 		mAct = act;
@@ -51,9 +53,23 @@ public class ProgressTask implements Runnable {
 		mPd.setCanceledOnTouchOutside(false);
 		mPd.setTitle(act.getText(R.string.progress_title));
 		mPd.setMessage(act.getText(messageId));
+		// Indeterminate until the task reports progress
+		mPd.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		mPd.setIndeterminate(true);
+		mPd.setMax(UpdateStatus.PROGRESS_MAX);
+		mPd.setProgressNumberFormat(null);
+		mPd.setProgressPercentFormat(null);
 
 		// Set code to run when this is finished
-		mTask.setStatus(new UpdateStatus(act, mHandler, mPd));
+		mStatus = new UpdateStatus(act, mHandler, mPd);
+		mTask.setStatus(mStatus);
+		// Backing out of the dialog stops a key derivation in progress
+		mPd.setOnCancelListener(new DialogInterface.OnCancelListener() {
+			@Override
+			public void onCancel(DialogInterface dialog) {
+				mStatus.cancel();
+			}
+		});
 		mTask.mFinish = new AfterTask(task.mFinish, mHandler);
 		
 	}
@@ -76,6 +92,7 @@ public class ProgressTask implements Runnable {
 		@Override
 		public void run() {
 			super.run();
+			mStatus.stop();
 			// Remove the progress dialog
 			mHandler.post(new CloseProcessDialog());
 		}
@@ -23,10 +23,31 @@ import android.app.ProgressDialog;
 import android.content.Context;
 import android.os.Handler;
 
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+import com.keepassdroid.stream.CountInputStream;
+
+import java.text.NumberFormat;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class UpdateStatus {
+	// Range of the progress bar
+	public static final int PROGRESS_MAX = 1000;
+	// Minimum time between progress bar updates
+	private static final long PROGRESS_INTERVAL_MS = 50;
+	// Part of the bar given to key derivation, the payload fills the rest
+	private static final double KDF_SHARE = 0.5;
+
 	private ProgressDialog mPD;
 	private Context mCtx;
 	private Handler mHandler;
+
+	private volatile KdfProgress mKdf;
+	private volatile boolean mKdfDone = false;
+	private volatile boolean mCancelled = false;
+	private volatile CountInputStream mPayload;
+	private volatile long mPayloadSize;
+	private final AtomicBoolean mPolling = new AtomicBoolean(false);
+	private int mShown = -1;
 	
 	public UpdateStatus() {
 		
@@ -39,10 +60,108 @@ public class UpdateStatus {
 	}
 	
 	public void updateMessage(int resId) {
-		if ( mCtx != null && mPD != null && mHandler != null ) {
+		if ( hasDialog() ) {
 			mHandler.post(new UpdateMessage(resId));
 		}
 	}
+
+	/** Follows a key derivation until {@link #endKdf()} */
+	public void startKdf(KdfProgress progress) {
+		mKdf = progress;
+		mKdfDone = false;
+		if (mCancelled) {
+			progress.cancel();
+		}
+		startPolling();
+	}
+
+	public void endKdf() {
+		mKdfDone = true;
+		mKdf = null;
+	}
+
+	/**
+	 * Follows the bytes read from the database file until {@link #endPayload()}
+	 * @param size Length of the file, or 0 if unknown
+	 */
+	public void startPayload(CountInputStream payload, long size) {
+		mPayloadSize = size;
+		mPayload = size > 0 ? payload : null;
+		startPolling();
+	}
+
+	public void endPayload() {
+		mPayload = null;
+	}
+
+	/** Stops the running key derivation, and any started later */
+	public void cancel() {
+		mCancelled = true;
+
+		KdfProgress kdf = mKdf;
+		if (kdf != null) {
+			kdf.cancel();
+		}
+	}
+
+	/** Stops updating the progress bar */
+	public void stop() {
+		mKdf = null;
+		mPayload = null;
+		if ( hasDialog() && mPolling.getAndSet(false) ) {
+			mHandler.removeCallbacks(mPoll);
+		}
+	}
+
+	private boolean hasDialog() {
+		return mCtx != null && mPD != null && mHandler != null;
+	}
+
+	private void startPolling() {
+		if ( hasDialog() && mPolling.compareAndSet(false, true) ) {
+			mHandler.post(mPoll);
+		}
+	}
+
+	private double getFraction() {
+		double fraction = 0;
+
+		KdfProgress kdf = mKdf;
+		if (mKdfDone) {
+			fraction = KDF_SHARE;
+		} else if (kdf != null) {
+			fraction = KDF_SHARE * kdf.getFraction();
+		}
+
+		CountInputStream payload = mPayload;
+		if (payload != null) {
+			double read = Math.min(1.0, (double) payload.getCount() / mPayloadSize);
+			fraction = Math.max(fraction, KDF_SHARE + (1 - KDF_SHARE) * read);
+		}
+
+		return fraction;
+	}
+
+	private final Runnable mPoll = new Runnable() {
+		public void run() {
+			if ( !mPolling.get() || !mPD.isShowing() ) {
+				mPolling.set(false);
+				return;
+			}
+
+			int progress = (int) (getFraction() * PROGRESS_MAX);
+			if (mShown < 0) {
+				mPD.setIndeterminate(false);
+				mPD.setProgressPercentFormat(NumberFormat.getPercentInstance());
+			}
+			if (progress != mShown) {
+				mPD.setProgress(progress);
+				mShown = progress;
+			}
+
+			mHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+		}
+	};
 	
 	private class UpdateMessage implements Runnable {
 		private int mResId;
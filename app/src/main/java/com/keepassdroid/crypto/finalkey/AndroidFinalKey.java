@@ -21,7 +21,10 @@ package com.keepassdroid.crypto.finalkey;
 
 import android.annotation.SuppressLint;
 
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -32,10 +35,12 @@ import javax.crypto.ShortBufferException;
 import javax.crypto.spec.SecretKeySpec;
 
 public class AndroidFinalKey extends FinalKey {
+	// Rounds between progress updates
+	private static final int PROGRESS_ROUNDS = 4096;
 
 	@SuppressLint("GetInstance")
 	@Override
-	public byte[] transformMasterKey(byte[] pKeySeed, byte[] pKey, long rounds) throws IOException {
+	public byte[] transformMasterKey(byte[] pKeySeed, byte[] pKey, long rounds, KdfProgress progress) throws IOException {
 		Cipher cipher;
 		try {
 			cipher = Cipher.getInstance("AES/ECB/NoPadding");
@@ -55,7 +60,16 @@ public class AndroidFinalKey extends FinalKey {
 		byte[] newKey = new byte[pKey.length];
 		System.arraycopy(pKey, 0, newKey, 0, pKey.length);
 		byte[] destKey = new byte[pKey.length];
-		for (int i = 0; i < rounds; i++) {
+		if (progress != null) {
+			progress.start(rounds);
+		}
+		for (long i = 0; i < rounds; i++) {
+			if (progress != null && i % PROGRESS_ROUNDS == 0) {
+				if (progress.isCancelled()) {
+					throw new InterruptedIOException("Key derivation cancelled");
+				}
+				progress.setDone(i);
+			}
 			try {
 				cipher.update(newKey, 0, newKey.length, destKey, 0);
 				System.arraycopy(destKey, 0, newKey, 0, newKey.length);
@@ -65,6 +79,10 @@ public class AndroidFinalKey extends FinalKey {
 			}
 		}
 
+		if (progress != null) {
+			progress.setDone(rounds);
+		}
+
 		// Hash the key
 		MessageDigest md = null;
 		try {
@@ -19,8 +19,15 @@
  */
 package com.keepassdroid.crypto.finalkey;
 
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+
 import java.io.IOException;
 
 public abstract class FinalKey {
-	public abstract byte[] transformMasterKey(byte[] seed, byte[] key, long rounds) throws IOException;
+	public byte[] transformMasterKey(byte[] seed, byte[] key, long rounds) throws IOException {
+		return transformMasterKey(seed, key, rounds, null);
+	}
+
+	/** @param progress Updated as rounds complete, may be null */
+	public abstract byte[] transformMasterKey(byte[] seed, byte[] key, long rounds, KdfProgress progress) throws IOException;
 }
@@ -20,8 +20,11 @@
 package com.keepassdroid.crypto.finalkey;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 
 import com.keepassdroid.crypto.NativeLib;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 
 
 public class NativeFinalKey extends FinalKey {
@@ -31,14 +34,26 @@ public class NativeFinalKey extends FinalKey {
 	}
 
 	@Override
-	public byte[] transformMasterKey(byte[] seed, byte[] key, long rounds) throws IOException {
+	public byte[] transformMasterKey(byte[] seed, byte[] key, long rounds, KdfProgress progress) throws IOException {
 		NativeLib.init();
-		
-		return nTransformMasterKey(seed, key, rounds);
+
+		ByteBuffer state = null;
+		if (progress != null) {
+			// The rounds are split between two threads
+			progress.start(rounds, 2);
+			state = progress.getNativeState();
+		}
+
+		byte[] result = nTransformMasterKey(seed, key, rounds, state);
+		if (result == null && progress != null && progress.isCancelled()) {
+			throw new InterruptedIOException("Key derivation cancelled");
+		}
+
+		return result;
 
 	}
 	
-	private static native byte[] nTransformMasterKey(byte[] seed, byte[] key, long rounds);
+	private static native byte[] nTransformMasterKey(byte[] seed, byte[] key, long rounds, ByteBuffer progress);
 
 	// For testing
 	/*
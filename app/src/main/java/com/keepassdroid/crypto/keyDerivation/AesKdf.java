@@ -51,7 +51,7 @@ public class AesKdf extends KdfEngine {
     }
 
     @Override
-    public byte[] transform(byte[] masterKey, KdfParameters p) throws IOException {
+    public byte[] transform(byte[] masterKey, KdfParameters p, KdfProgress progress) throws IOException {
         long rounds = p.getUInt64(ParamRounds);
         byte[] seed = p.getByteArray(ParamSeed);
 
@@ -64,7 +64,7 @@ public class AesKdf extends KdfEngine {
         }
 
         FinalKey key = FinalKeyFactory.createFinalKey();
-        return key.transformMasterKey(seed, masterKey, rounds);
+        return key.transformMasterKey(seed, masterKey, rounds, progress);
     }
 
     @Override
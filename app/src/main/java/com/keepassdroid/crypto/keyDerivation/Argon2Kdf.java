@@ -100,7 +100,7 @@ public class Argon2Kdf extends KdfEngine {
     }
 
     @Override
-    public byte[] transform(byte[] masterKey, KdfParameters p) throws IOException {
+    public byte[] transform(byte[] masterKey, KdfParameters p, KdfProgress progress) throws IOException {
 
         byte[] salt = p.getByteArray(ParamSalt);
         int parallelism = (int)p.getUInt32(ParamParallelism);
@@ -111,7 +111,7 @@ public class Argon2Kdf extends KdfEngine {
         byte[] assocData = p.getByteArray(ParamAssocData);
 
         return Argon2Native.transformKey(masterKey, salt, parallelism, memory, iterations,
-                secretKey, assocData, version, type.value());
+                secretKey, assocData, version, type.value(), progress);
     }
 
     @Override
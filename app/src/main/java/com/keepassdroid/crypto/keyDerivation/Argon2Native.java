@@ -22,18 +22,44 @@ package com.keepassdroid.crypto.keyDerivation;
 import com.keepassdroid.crypto.NativeLib;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 
 public class Argon2Native {
+    // Slices in each pass over memory
+    private static final int SYNC_POINTS = 4;
 
     public static byte[] transformKey(byte[] password, byte[] salt, int parallelism,
                                               long memory, long iterations, byte[] secretKey,
                                               byte[] associatedData, long version, int type) throws IOException {
+        return transformKey(password, salt, parallelism, memory, iterations, secretKey,
+                associatedData, version, type, null);
+    }
+
+    /** @param progress Counts the completed slices, four per iteration. May be null. */
+    public static byte[] transformKey(byte[] password, byte[] salt, int parallelism,
+                                              long memory, long iterations, byte[] secretKey,
+                                              byte[] associatedData, long version, int type,
+                                              KdfProgress progress) throws IOException {
         NativeLib.init();
 
-        return nTransformMasterKey(password, salt, parallelism, memory, iterations, secretKey, associatedData, version, type);
+        ByteBuffer state = null;
+        if (progress != null) {
+            progress.start(iterations * SYNC_POINTS);
+            state = progress.getNativeState();
+        }
+
+        byte[] result = nTransformMasterKey(password, salt, parallelism, memory, iterations, secretKey,
+                associatedData, version, type, state);
+        if (result == null && progress != null && progress.isCancelled()) {
+            throw new InterruptedIOException("Key derivation cancelled");
+        }
+
+        return result;
     }
 
     private static native byte[] nTransformMasterKey(byte[] password, byte[] salt, int parallelism,
                                               long memory, long iterations, byte[] secretKey,
-                                              byte[] associatedData, long version, int type) throws IOException;
+                                              byte[] associatedData, long version, int type,
+                                              ByteBuffer progress) throws IOException;
 }
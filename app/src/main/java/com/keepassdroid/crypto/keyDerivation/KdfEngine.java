@@ -29,7 +29,15 @@ public abstract class KdfEngine {
         return new KdfParameters(uuid);
     }
 
-    public abstract byte[] transform(byte[] masterKey, KdfParameters p) throws IOException;
+    public byte[] transform(byte[] masterKey, KdfParameters p) throws IOException {
+        return transform(masterKey, p, null);
+    }
+
+    /**
+     * @param progress Updated as the transformation runs. Cancelling it makes
+     *                 the transformation throw InterruptedIOException. May be null.
+     */
+    public abstract byte[] transform(byte[] masterKey, KdfParameters p, KdfProgress progress) throws IOException;
 
     public abstract void randomize(KdfParameters p);
 
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.crypto.keyDerivation;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Progress of a key transformation, and a request to stop it. Written by
+ * the thread running the transformation and read from any other thread.
+ */
+public class KdfProgress {
+    // Native code shares the state as three 64 bit integers: the work done by
+    // each of up to two workers, then a cancel flag
+    private static final int WORKER_1 = 0;
+    private static final int WORKER_2 = 8;
+    private static final int CANCEL = 16;
+
+    private final ByteBuffer state = ByteBuffer.allocateDirect(24).order(ByteOrder.nativeOrder());
+    private volatile long total = 0;
+    private volatile int workers = 1;
+    private volatile boolean cancelled = false;
+
+    /** Starts a transformation doing total units of work on one worker */
+    public void start(long total) {
+        start(total, 1);
+    }
+
+    /** Starts a transformation with each of workers doing total units of work */
+    public void start(long total, int workers) {
+        state.putLong(WORKER_1, 0);
+        state.putLong(WORKER_2, 0);
+        this.workers = workers;
+        this.total = total;
+    }
+
+    public void setDone(long done) {
+        state.putLong(WORKER_1, done);
+    }
+
+    /** Asks the transformation to stop, it then throws InterruptedIOException */
+    public void cancel() {
+        cancelled = true;
+        state.putLong(CANCEL, 1);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Shared with native code, see the layout above */
+    public ByteBuffer getNativeState() {
+        return state;
+    }
+
+    /** @return The completed fraction, from 0 to 1 */
+    public double getFraction() {
+        long units = total;
+        if (units <= 0) {
+            return 0;
+        }
+
+        long done = state.getLong(WORKER_1);
+        if (workers > 1) {
+            done = Math.min(done, state.getLong(WORKER_2));
+        }
+        return Math.min(1.0, (double) done / units);
+    }
+}
@@ -21,14 +21,55 @@ package com.keepassdroid.database;
 
 import com.keepassdroid.database.security.ProtectedBinary;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
 
 public class BinaryPool {
 	private HashMap<Integer, ProtectedBinary> pool = new HashMap<Integer, ProtectedBinary>();
+	// Key of each binary object in the pool, or of the pooled binary with the same contents
+	private IdentityHashMap<ProtectedBinary, Integer> keys = new IdentityHashMap<ProtectedBinary, Integer>();
+	// Key of each distinct content, built by deduplicate
+	private HashMap<ContentKey, Integer> contentKeys = new HashMap<ContentKey, Integer>();
+	// Binaries merged into a pooled copy, still referenced by their entries
+	private Set<ProtectedBinary> merged = Collections.newSetFromMap(new IdentityHashMap<ProtectedBinary, Boolean>());
+
+	/** Identifies a binary by its content hash, so equal binaries can share a key */
+	private static class ContentKey {
+		private final byte[] hash;
+		private final int length;
+		private final boolean protect;
+
+		ContentKey(ProtectedBinary pb) throws IOException {
+			hash = pb.getHash();
+			length = pb.length();
+			protect = pb.isProtected();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof ContentKey)) return false;
+
+			ContentKey other = (ContentKey) o;
+			return length == other.length && protect == other.protect
+					&& Arrays.equals(hash, other.hash);
+		}
+
+		@Override
+		public int hashCode() {
+			// The hash is already well mixed
+			return (hash[0] & 0xFF) | (hash[1] & 0xFF) << 8 | (hash[2] & 0xFF) << 16 | hash[3] << 24;
+		}
+	}
 	
 	public BinaryPool() {
 		
@@ -43,7 +84,13 @@ public class BinaryPool {
 	}
 	
 	public ProtectedBinary put(int key, ProtectedBinary value) {
-		return pool.put(key, value);
+		ProtectedBinary old = pool.put(key, value);
+		if (old != null && old != value) {
+			keys.remove(old);
+		}
+		keys.put(value, key);
+
+		return old;
 	}
 
 
@@ -54,7 +101,12 @@ public class BinaryPool {
 	public void clear() {
         for (Entry<Integer, ProtectedBinary> entry: pool.entrySet())
             entry.getValue().clear();
+		for (ProtectedBinary pb : merged)
+			pb.clear();
 		pool.clear();
+		keys.clear();
+		contentKeys.clear();
+		merged.clear();
 	}
 
 	public Collection<ProtectedBinary> binaries() {
@@ -62,23 +114,31 @@ public class BinaryPool {
 	}
 	
 	private class AddBinaries extends EntryHandler<PwEntryV4> {
+		private IOException error = null;
 
 		@Override
 		public boolean operate(PwEntryV4 entry) {
-			for (PwEntryV4 histEntry : entry.history) {
-				poolAdd(histEntry.binaries);
-				
+			entry.materializeHistory();
+
+			try {
+				for (PwEntryV4 histEntry : entry.history) {
+					poolAdd(histEntry.binaries);
+
+				}
+
+				poolAdd(entry.binaries);
+			} catch (IOException e) {
+				error = e;
+				return false;
 			}
-			
-			poolAdd(entry.binaries);
 			return true;
 		}
 		
 	}
 	
-	private void poolAdd(Map<String, ProtectedBinary> dict) {
+	private void poolAdd(Map<String, ProtectedBinary> dict) throws IOException {
 		for (ProtectedBinary pb : dict.values()) {
-			poolAdd(pb);
+			poolAdd(pb, true);
 		}
 		
 	}
@@ -88,7 +148,52 @@ public class BinaryPool {
 		
 		if (poolFind(pb) != -1) return;
 		
-		pool.put(pool.size(), pb);
+		put(pool.size(), pb);
+	}
+
+	/** Adds pb under a new key unless the pool already holds it, or with
+	 * dedupContent, a binary with the same contents */
+	private void poolAdd(ProtectedBinary pb, boolean dedupContent) throws IOException {
+		if (keys.containsKey(pb)) return;
+
+		if (dedupContent) {
+			ContentKey content = new ContentKey(pb);
+			Integer key = contentKeys.get(content);
+			if (key != null) {
+				keys.put(pb, key);
+				merged.add(pb);
+				return;
+			}
+
+			contentKeys.put(content, pool.size());
+			merged.remove(pb);
+		}
+
+		put(pool.size(), pb);
+	}
+
+	/**
+	 * Rebuilds the pool with one copy of each distinct binary held by the
+	 * pool or by any entry or history entry under rootGroup, numbered from
+	 * zero in pool order. Binaries whose contents match an earlier one are
+	 * found under the earlier one's key.
+	 */
+	public void deduplicate(PwGroupV4 rootGroup) throws IOException {
+		List<ProtectedBinary> pooled = new ArrayList<ProtectedBinary>(new TreeMap<Integer, ProtectedBinary>(pool).values());
+
+		pool.clear();
+		keys.clear();
+		contentKeys.clear();
+		for (ProtectedBinary pb : pooled) {
+			poolAdd(pb, true);
+		}
+
+		AddBinaries adder = new AddBinaries();
+		EntryHandler eh = adder;
+		rootGroup.preOrderTraverseTree(null, eh);
+		if (adder.error != null) {
+			throw adder.error;
+		}
 	}
 
     public int findUnusedKey() {
@@ -99,15 +204,16 @@ public class BinaryPool {
     }
 	
 	public int poolFind(ProtectedBinary pb) {
-		for (Entry<Integer, ProtectedBinary> pair : pool.entrySet()) {
-			if (pair.getValue().equals(pb)) return pair.getKey();
-		}
+		Integer key = keys.get(pb);
 		
-		return -1;
+		return key != null ? key : -1;
 	}
 	
 	private void build(PwGroupV4 rootGroup) {
-		EntryHandler eh = new AddBinaries();
-		rootGroup.preOrderTraverseTree(null, eh);
+		try {
+			deduplicate(rootGroup);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 }
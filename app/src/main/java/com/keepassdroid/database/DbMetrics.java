@@ -0,0 +1,272 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *     
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Where the time of a database load or save went. Each stage reports the
+ * time spent in it, not counting time in the stages it reads from or writes
+ * to, the bytes it processed, and the peak heap use above the start of the
+ * operation seen while it ran.
+ *
+ * Stages are timed with {@link #begin(Stage)} and {@link #end(long)}, which
+ * nest on each thread. Stages running on pipeline threads are timed the
+ * same way, so their times can add up to more than the total.
+ */
+public class DbMetrics {
+
+	public enum Operation {
+		LOAD,
+		SAVE
+	}
+
+	public enum Stage {
+		/** Reading or writing the file header */
+		HEADER,
+		/** Hashing the password and key file into the composite key */
+		KEY_HASH,
+		/** Transforming the composite key with the key derivation function */
+		KDF,
+		/** Decrypting and verifying the payload, or encrypting and signing it */
+		CIPHER,
+		/** Inflating or deflating the payload */
+		COMPRESSION,
+		/** Parsing the payload into groups and entries, or serializing them */
+		PARSE,
+		/** Building the group tree and global lookups */
+		TREE_BUILD,
+		/** Writing to the destination */
+		WRITE_OUT
+	}
+
+	/** Receives the metrics of each load and save */
+	public interface Listener {
+		void onMetrics(DbMetrics metrics);
+	}
+
+	public static class StageMetrics {
+		public final Stage stage;
+		private long nanos;
+		private long bytes;
+		private long peakAllocation;
+		private long sampledBytes;
+
+		private StageMetrics(Stage stage) {
+			this.stage = stage;
+		}
+
+		public synchronized long getNanos() {
+			return nanos;
+		}
+
+		public synchronized long getBytes() {
+			return bytes;
+		}
+
+		public synchronized long getPeakAllocation() {
+			return peakAllocation;
+		}
+
+		private synchronized boolean add(long nanos, long bytes) {
+			this.nanos += nanos;
+			this.bytes += bytes;
+
+			return this.bytes - sampledBytes >= SAMPLE_BYTES || nanos >= SAMPLE_NANOS;
+		}
+
+		private synchronized void sample(long allocation) {
+			sampledBytes = bytes;
+			if (allocation > peakAllocation) {
+				peakAllocation = allocation;
+			}
+		}
+	}
+
+	/** An inner header attachment copied to its temp file */
+	public static class Attachment {
+		public final long size;
+		public final long nanos;
+
+		public Attachment(long size, long nanos) {
+			this.size = size;
+			this.nanos = nanos;
+		}
+
+		public double getMegabytesPerSecond() {
+			if (nanos <= 0) return 0;
+
+			return (size / 1000000.0) / (nanos / 1000000000.0);
+		}
+	}
+
+	// Heap use is sampled when a stage has processed this much since its last sample,
+	// or a single timing took this long
+	private static final long SAMPLE_BYTES = 256 * 1024;
+	private static final long SAMPLE_NANOS = 1000000;
+
+	private static class Section {
+		StageMetrics stage;
+		long start;
+		long inner;
+	}
+
+	private static class SectionStack {
+		Section[] sections = new Section[8];
+		int depth = 0;
+	}
+
+	public final Operation operation;
+	private final StageMetrics[] stages = new StageMetrics[Stage.values().length];
+	private final List<Attachment> attachments = new ArrayList<Attachment>();
+	private long compressedBytes;
+	private long inflatedBytes;
+	private final long start;
+	private final long baseHeap;
+	private long totalNanos;
+
+	private final ThreadLocal<SectionStack> stacks = new ThreadLocal<SectionStack>() {
+		@Override
+		protected SectionStack initialValue() {
+			return new SectionStack();
+		}
+	};
+
+	public DbMetrics(Operation operation) {
+		this.operation = operation;
+		for (Stage stage : Stage.values()) {
+			stages[stage.ordinal()] = new StageMetrics(stage);
+		}
+
+		baseHeap = usedHeap();
+		start = System.nanoTime();
+	}
+
+	public StageMetrics getStage(Stage stage) {
+		return stages[stage.ordinal()];
+	}
+
+	/** Time from the start of the operation to the last call to {@link #finish()} */
+	public synchronized long getTotalNanos() {
+		return totalNanos;
+	}
+
+	public synchronized void finish() {
+		totalNanos = System.nanoTime() - start;
+	}
+
+	/**
+	 * Starts timing stage on this thread, pausing the stage timed around it.
+	 * With a null stage the time until the matching end is not counted
+	 * anywhere, as when waiting on another thread.
+	 */
+	public void begin(Stage stage) {
+		SectionStack stack = stacks.get();
+		if (stack.depth == stack.sections.length) {
+			Section[] sections = new Section[stack.depth * 2];
+			System.arraycopy(stack.sections, 0, sections, 0, stack.depth);
+			stack.sections = sections;
+		}
+
+		Section section = stack.sections[stack.depth];
+		if (section == null) {
+			section = new Section();
+			stack.sections[stack.depth] = section;
+		}
+		stack.depth++;
+
+		section.stage = stage != null ? stages[stage.ordinal()] : null;
+		section.inner = 0;
+		section.start = System.nanoTime();
+	}
+
+	/** Ends the innermost stage begun on this thread, which processed bytes */
+	public void end(long bytes) {
+		long now = System.nanoTime();
+
+		SectionStack stack = stacks.get();
+		Section section = stack.sections[--stack.depth];
+		long elapsed = now - section.start;
+		if (stack.depth > 0) {
+			stack.sections[stack.depth - 1].inner += elapsed;
+		}
+
+		StageMetrics stage = section.stage;
+		if (stage != null && stage.add(elapsed - section.inner, bytes)) {
+			stage.sample(usedHeap() - baseHeap);
+		}
+	}
+
+	public void end() {
+		end(0);
+	}
+
+	public void addBytes(Stage stage, long bytes) {
+		stages[stage.ordinal()].add(0, bytes);
+	}
+
+	public synchronized void addAttachment(long size, long nanos) {
+		attachments.add(new Attachment(size, nanos));
+	}
+
+	public synchronized List<Attachment> getAttachments() {
+		return new ArrayList<Attachment>(attachments);
+	}
+
+	/** Counts gzip data inflated, or deflated, towards the compression ratio */
+	public synchronized void addCompression(long compressed, long inflated) {
+		compressedBytes += compressed;
+		inflatedBytes += inflated;
+	}
+
+	/** @return inflated bytes per compressed byte, or 0 without compressed data */
+	public synchronized double getCompressionRatio() {
+		if (compressedBytes <= 0) return 0;
+
+		return (double) inflatedBytes / compressedBytes;
+	}
+
+	private static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(operation).append(' ').append(getTotalNanos() / 1000000).append(" ms");
+		for (StageMetrics stage : stages) {
+			long nanos = stage.getNanos();
+			long bytes = stage.getBytes();
+			if (nanos == 0 && bytes == 0) continue;
+
+			sb.append(", ").append(stage.stage).append(' ').append(nanos / 1000000).append(" ms ")
+					.append(bytes).append(" B peak ").append(stage.getPeakAllocation() / 1024).append(" KiB");
+			if (stage.stage == Stage.COMPRESSION && getCompressionRatio() > 0) {
+				sb.append(String.format(Locale.US, " ratio %.1f", getCompressionRatio()));
+			}
+		}
+
+		return sb.toString();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+
+/**
+ * The transformed master key for the next save, derived ahead of time on a
+ * low priority thread. The seed is picked when the derivation starts; a
+ * save whose key derivation settings haven't changed since adopts it, and
+ * then only waits if the derivation hasn't finished yet.
+ *
+ * @param <T> the fresh seed, in whatever form the database keeps it
+ */
+public abstract class PrecomputedKey<T> {
+	private final byte[] masterKey;
+	private final byte[] settings;
+	private final byte[] params;
+	private final T seed;
+
+	private final KdfProgress progress = new KdfProgress();
+	private final FutureTask<byte[]> task;
+
+	/**
+	 * @param settings the key derivation settings the seed replaces the old
+	 *                 seed in, for deciding if a save can adopt it
+	 * @param params   the settings with the new seed, for recognising them
+	 *                 when a save derives its key
+	 */
+	protected PrecomputedKey(byte[] masterKey, byte[] settings, T seed, byte[] params) {
+		this.masterKey = masterKey.clone();
+		this.settings = settings;
+		this.seed = seed;
+		this.params = params;
+
+		task = new FutureTask<byte[]>(new Callable<byte[]>() {
+			@Override
+			public byte[] call() throws Exception {
+				return transform(PrecomputedKey.this.masterKey, PrecomputedKey.this.seed, progress);
+			}
+		});
+	}
+
+	/** Derives the transformed master key, on the precomputation thread */
+	protected abstract byte[] transform(byte[] masterKey, T seed, KdfProgress progress) throws IOException;
+
+	public void start() {
+		Thread thread = new Thread(task, "Key precompute");
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void cancel() {
+		progress.cancel();
+		task.cancel(false);
+	}
+
+	/** @return the seed, if a save with masterKey and settings can adopt it */
+	public T getSeed(byte[] masterKey, byte[] settings) {
+		if (!Arrays.equals(this.masterKey, masterKey) || !Arrays.equals(this.settings, settings)) {
+			return null;
+		}
+
+		return seed;
+	}
+
+	/**
+	 * Waits for the derivation if necessary
+	 * @return the transformed master key, or null if it wasn't derived from
+	 *         masterKey with params
+	 */
+	public byte[] getTransformed(byte[] masterKey, byte[] params) throws IOException {
+		if (!Arrays.equals(this.masterKey, masterKey) || !Arrays.equals(this.params, params)
+				|| task.isCancelled()) {
+			return null;
+		}
+
+		try {
+			return task.get().clone();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted waiting for the key");
+		} catch (CancellationException e) {
+			return null;
+		} catch (ExecutionException e) {
+			// Derive it again on the saving thread, to report the error there
+			return null;
+		}
+	}
+}
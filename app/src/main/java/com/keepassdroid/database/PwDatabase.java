@@ -21,6 +21,7 @@ package com.keepassdroid.database;
 
 import com.keepassdroid.crypto.finalkey.FinalKey;
 import com.keepassdroid.crypto.finalkey.FinalKeyFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.database.exception.KeyFileEmptyException;
 import com.keepassdroid.stream.NullOutputStream;
@@ -49,6 +50,8 @@ public abstract class PwDatabase {
     public Map<PwGroupId, PwGroup> groups = new HashMap<PwGroupId, PwGroup>();
     public Map<UUID, PwEntry> entries = new HashMap<UUID, PwEntry>();
 
+    private PrecomputedKey<?> nextKey;
+
 
     private static boolean isKDBExtension(String filename) {
         if (filename == null) { return false; }
@@ -68,6 +71,19 @@ public abstract class PwDatabase {
     }
 
     public void makeFinalKey(byte[] masterSeed, byte[] masterSeed2, int numRounds) throws IOException {
+        makeFinalKey(masterSeed, masterSeed2, numRounds, null);
+    }
+
+    public void makeFinalKey(byte[] masterSeed, byte[] masterSeed2, int numRounds, KdfProgress progress) throws IOException {
+        finalKey = deriveFinalKey(masterKey, masterSeed, masterSeed2, numRounds, progress);
+    }
+
+    /**
+     * Derives the final key for the given master key without changing the
+     * database, so several master keys can be tried from different threads.
+     */
+    public byte[] deriveFinalKey(byte[] key, byte[] masterSeed, byte[] masterSeed2, int numRounds,
+            KdfProgress progress) throws IOException {
 
         // Write checksum Checksum
         MessageDigest md = null;
@@ -79,11 +95,14 @@ public abstract class PwDatabase {
         NullOutputStream nos = new NullOutputStream();
         DigestOutputStream dos = new DigestOutputStream(nos, md);
 
-        byte[] transformedMasterKey = transformMasterKey(masterSeed2, masterKey, numRounds);
+        byte[] transformedMasterKey = getPrecomputedKey(key, getTransformParams(masterSeed2, numRounds));
+        if (transformedMasterKey == null) {
+            transformedMasterKey = transformMasterKey(masterSeed2, key, numRounds, progress);
+        }
         dos.write(masterSeed);
         dos.write(transformedMasterKey);
 
-        finalKey = md.digest();
+        return md.digest();
     }
 
 
@@ -91,13 +110,66 @@ public abstract class PwDatabase {
      * Encrypt the master key a few times to make brute-force key-search harder
      * @throws IOException
      */
-    protected static byte[] transformMasterKey( byte[] pKeySeed, byte[] pKey, int rounds ) throws IOException
+    protected static byte[] transformMasterKey( byte[] pKeySeed, byte[] pKey, int rounds, KdfProgress progress ) throws IOException
     {
         FinalKey key = FinalKeyFactory.createFinalKey();
 
-        return key.transformMasterKey(pKeySeed, pKey, rounds);
+        return key.transformMasterKey(pKeySeed, pKey, rounds, progress);
+    }
+
+
+    /** Identifies a transformation of the master key by seed and rounds */
+    protected static byte[] getTransformParams(byte[] seed, long rounds) {
+        byte[] params = new byte[8 + seed.length];
+        for (int i = 0; i < 8; i++) {
+            params[i] = (byte) (rounds >>> (8 * i));
+        }
+        System.arraycopy(seed, 0, params, 8, seed.length);
+
+        return params;
     }
 
+    /**
+     * Starts deriving the key for the next save in the background, replacing
+     * any derivation already running
+     */
+    public synchronized void precomputeNextKey() {
+        cancelNextKey();
+
+        nextKey = createNextKey();
+        if (nextKey != null) {
+            nextKey.start();
+        }
+    }
+
+    public synchronized void cancelNextKey() {
+        if (nextKey != null) {
+            nextKey.cancel();
+            nextKey = null;
+        }
+    }
+
+    /** @return the key derivation for the next save, with a fresh seed */
+    protected PrecomputedKey<?> createNextKey() {
+        return null;
+    }
+
+    protected synchronized PrecomputedKey<?> getNextKey() {
+        return nextKey;
+    }
+
+    /**
+     * @return the master key transformed in the background with params, or
+     *         null if it wasn't
+     */
+    protected byte[] getPrecomputedKey(byte[] key, byte[] params) throws IOException {
+        PrecomputedKey<?> next = getNextKey();
+        if (next == null) {
+            return null;
+        }
+
+        return next.getTransformed(key, params);
+    }
 
     public abstract byte[] getMasterKey(String key, InputStream keyInputStream) throws InvalidKeyFileException, IOException;
 
@@ -105,16 +177,22 @@ public abstract class PwDatabase {
             throws InvalidKeyFileException, IOException {
                 assert(key != null);
 
+                cancelNextKey();
                 masterKey = getMasterKey(key, keyInputStream);
             }
 
     protected byte[] getCompositeKey(String key, InputStream keyInputStream)
+            throws InvalidKeyFileException, IOException {
+                return getCompositeKey(key, keyInputStream, getPasswordEncoding());
+    }
+
+    protected byte[] getCompositeKey(String key, InputStream keyInputStream, String encoding)
             throws InvalidKeyFileException, IOException {
                 assert(key != null && keyInputStream != null);
 
                 byte[] fileKey = getFileKey(keyInputStream);
 
-                byte[] passwordKey = getPasswordKey(key);
+                byte[] passwordKey = getPasswordKey(key, encoding);
 
                 MessageDigest md;
                 try {
@@ -212,6 +290,10 @@ public abstract class PwDatabase {
     protected abstract String getPasswordEncoding();
 
     public byte[] getPasswordKey(String key) throws IOException {
+        return getPasswordKey(key, getPasswordEncoding());
+    }
+
+    public byte[] getPasswordKey(String key, String encoding) throws IOException {
         assert(key!=null);
 
         if ( key.length() == 0 )
@@ -226,7 +308,7 @@ public abstract class PwDatabase {
 
         byte[] bKey;
         try {
-            bKey = key.getBytes(getPasswordEncoding());
+            bKey = key.getBytes(encoding);
         } catch (UnsupportedEncodingException e) {
             assert false;
             bKey = key.getBytes();
@@ -46,13 +46,17 @@ Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
 package com.keepassdroid.database;
 
 // Java
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.utils.EmptyUtils;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -86,6 +90,36 @@ public class PwDatabaseV3 extends PwDatabase {
 		return numKeyEncRounds;
 	}
 
+	@Override
+	protected PrecomputedKey<?> createNextKey() {
+		final int rounds = numKeyEncRounds;
+		byte[] seed = new byte[32];
+		new SecureRandom().nextBytes(seed);
+
+		return new PrecomputedKey<byte[]>(masterKey, getTransformParams(new byte[0], rounds),
+				seed, getTransformParams(seed, rounds)) {
+			@Override
+			protected byte[] transform(byte[] masterKey, byte[] seed, KdfProgress progress)
+					throws IOException {
+				return transformMasterKey(seed, masterKey, rounds, progress);
+			}
+		};
+	}
+
+	/**
+	 * @return the transform seed derived with in the background, or null if
+	 *         the master key or rounds have changed since
+	 */
+	public byte[] getNextTransformSeed() {
+		PrecomputedKey<?> next = getNextKey();
+		if (next == null) {
+			return null;
+		}
+
+		byte[] seed = (byte[]) next.getSeed(masterKey, getTransformParams(new byte[0], numKeyEncRounds));
+		return seed != null ? seed.clone() : null;
+	}
+
 	@Override
 	public List<PwGroup> getGroups() {
 		return groups;
@@ -100,8 +134,16 @@ public class PwDatabaseV3 extends PwDatabase {
 		groups = grp;
 	}
 
+	/**
+	 * Groups directly under the root. Once the tree is built these are read
+	 * from it, so they stay right as groups are added and removed.
+	 */
 	@Override
 	public List<PwGroup> getGrpRoots() {
+		if (rootGroup != null) {
+			return new ArrayList<PwGroup>(rootGroup.childGroups);
+		}
+
 		int target = 0;
 		List<PwGroup> kids = new ArrayList<PwGroup>();
 		for (int i = 0; i < groups.size(); i++) {
@@ -113,84 +155,74 @@ public class PwDatabaseV3 extends PwDatabase {
 	}
 
 	public int getRootGroupId() {
-		for (int i = 0; i < groups.size(); i++) {
-			PwGroupV3 grp = (PwGroupV3) groups.get(i);
-			if (grp.level == 0) {
-				return grp.groupId;
-			}
+		List<PwGroup> roots = getGrpRoots();
+		if (roots.size() > 0) {
+			return ((PwGroupV3) roots.get(0)).groupId;
 		}
 
 		return -1;
 	}
 
-	public List<PwGroup> getGrpChildren(PwGroupV3 parent) {
-		int idx = groups.indexOf(parent);
-		int target = parent.level + 1;
-		List<PwGroup> kids = new ArrayList<PwGroup>();
-		while (++idx < groups.size()) {
-			PwGroupV3 grp = (PwGroupV3) groups.get(idx);
-			if (grp.level < target)
-				break;
-			else if (grp.level == target)
-				kids.add(grp);
-		}
-		return kids;
+	public String toString() {
+		return name;
 	}
 
-	public List<PwEntry> getEntries(PwGroupV3 parent) {
-		List<PwEntry> kids = new ArrayList<PwEntry>();
-		/*
-		 * for( Iterator i = entries.iterator(); i.hasNext(); ) { PwEntryV3 ent
-		 * = (PwEntryV3)i.next(); if( ent.groupId == parent.groupId ) kids.add(
-		 * ent ); }
-		 */
+	/**
+	 * Builds the tree from the group list, which holds each group followed
+	 * by its descendants, and the entries' group ids. Groups whose level
+	 * skips past their predecessor's child level are left out, along with
+	 * their descendants.
+	 */
+	public void constructTree() {
+		PwGroupV3 root = new PwGroupV3();
+		rootGroup = root;
+		root.childGroups = new ArrayList<PwGroup>();
+		root.childEntries = new ArrayList<PwEntry>();
+		root.level = -1;
+
+		Map<Integer, List<PwEntry>> entriesByGroup = new HashMap<Integer, List<PwEntry>>();
 		for (int i = 0; i < entries.size(); i++) {
 			PwEntryV3 ent = (PwEntryV3) entries.get(i);
-			if (ent.groupId == parent.groupId)
-				kids.add(ent);
+			List<PwEntry> kids = entriesByGroup.get(ent.groupId);
+			if (kids == null) {
+				kids = new ArrayList<PwEntry>();
+				entriesByGroup.put(ent.groupId, kids);
+			}
+			kids.add(ent);
 		}
-		return kids;
-	}
 
-	public String toString() {
-		return name;
-	}
-
-	public void constructTree(PwGroupV3 currentGroup) {
-		// I'm in root
-		if (currentGroup == null) {
-			PwGroupV3 root = new PwGroupV3();
-			rootGroup = root;
-
-			List<PwGroup> rootChildGroups = getGrpRoots();
-			root.setGroups(rootChildGroups);
-			root.childEntries = new ArrayList<PwEntry>();
-			root.level = -1;
-			for (int i = 0; i < rootChildGroups.size(); i++) {
-				PwGroupV3 grp = (PwGroupV3) rootChildGroups.get(i);
-				grp.parent = root;
-				constructTree(grp);
+		// The path from the root to the last group, including groups left out
+		List<PwGroupV3> path = new ArrayList<PwGroupV3>();
+		List<Boolean> inTree = new ArrayList<Boolean>();
+		path.add(root);
+		inTree.add(true);
+		for (int i = 0; i < groups.size(); i++) {
+			PwGroupV3 grp = (PwGroupV3) groups.get(i);
+			while (path.get(path.size() - 1).level >= grp.level) {
+				path.remove(path.size() - 1);
+				inTree.remove(inTree.size() - 1);
 			}
-			return;
-		}
 
-		// I'm in non-root
-		// get child groups
-		currentGroup.setGroups(getGrpChildren(currentGroup));
-		currentGroup.childEntries = getEntries(currentGroup);
+			PwGroupV3 parent = path.get(path.size() - 1);
+			boolean added = inTree.get(inTree.size() - 1) && grp.level == parent.level + 1;
+			if (added) {
+				parent.childGroups.add(grp);
+				grp.parent = parent;
+
+				List<PwEntry> kids = entriesByGroup.get(grp.groupId);
+				grp.setGroups(new ArrayList<PwGroup>());
+				grp.childEntries = kids != null ? new ArrayList<PwEntry>(kids) : new ArrayList<PwEntry>();
+
+				// set parent in child entries
+				for (int j = 0; j < grp.childEntries.size(); j++) {
+					PwEntryV3 entry = (PwEntryV3) grp.childEntries.get(j);
+					entry.parent = grp;
+				}
+			}
 
-		// set parent in child entries
-		for (int i = 0; i < currentGroup.childEntries.size(); i++) {
-			PwEntryV3 entry = (PwEntryV3) currentGroup.childEntries.get(i);
-			entry.parent = currentGroup;
+			path.add(grp);
+			inTree.add(added);
 		}
-		// recursively construct child groups
-		for (int i = 0; i < currentGroup.childGroups.size(); i++) {
-			PwGroupV3 grp = (PwGroupV3) currentGroup.childGroups.get(i);
-			grp.parent = currentGroup;
-			constructTree((PwGroupV3) currentGroup.childGroups.get(i));
-		}
-		return;
 	}
 
 	/*
@@ -222,12 +254,21 @@ public class PwDatabaseV3 extends PwDatabase {
 
 	public byte[] getMasterKey(String key, InputStream keyInputStream)
 			throws InvalidKeyFileException, IOException {
+		return getMasterKey(key, keyInputStream, getPasswordEncoding());
+	}
+
+	/**
+	 * Builds the master key with the password in the given encoding, for
+	 * databases saved by clients that don't use ISO-8859-1.
+	 */
+	public byte[] getMasterKey(String key, InputStream keyInputStream, String encoding)
+			throws InvalidKeyFileException, IOException {
 		assert (key != null);
 
 		if (key.length() > 0 && keyInputStream != null) {
-			return getCompositeKey(key, keyInputStream);
+			return getCompositeKey(key, keyInputStream, encoding);
 		} else if (key.length() > 0) {
-			return getPasswordKey(key);
+			return getPasswordKey(key, encoding);
 		} else if (keyInputStream != null) {
 			return getFileKey(keyInputStream);
 		} else {
@@ -240,6 +281,11 @@ public class PwDatabaseV3 extends PwDatabase {
 	protected String getPasswordEncoding() {
 		return "ISO-8859-1";
 	}
+
+	/** Encoding to try for passwords that don't fit {@link #getPasswordEncoding()} */
+	public String getAlternatePasswordEncoding() {
+		return "UTF-8";
+	}
 	
 	@Override
 	protected byte[] loadXmlKeyFile(InputStream keyInputStream) {
@@ -354,7 +400,7 @@ public class PwDatabaseV3 extends PwDatabase {
 			name = "KeePass Password Manager";
 		}
 		// Build the root group
-		constructTree(null);
+		constructTree();
 		
 		// Add a couple default groups
 		initAndAddGroup("Internet", 1, rootGroup);
@@ -31,6 +31,7 @@ import com.keepassdroid.crypto.keyDerivation.AesKdf;
 import com.keepassdroid.crypto.keyDerivation.KdfEngine;
 import com.keepassdroid.crypto.keyDerivation.KdfFactory;
 import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.utils.EmptyUtils;
 import com.keepassdroid.utils.Types;
@@ -152,9 +153,9 @@ public class PwDatabaseV4 extends PwDatabase {
 	}
 
 	@Override
-	public void makeFinalKey(byte[] masterSeed, byte[] masterSeed2, int numRounds) throws IOException {
+	public void makeFinalKey(byte[] masterSeed, byte[] masterSeed2, int numRounds, KdfProgress progress) throws IOException {
 
-		byte[] transformedMasterKey = transformMasterKey(masterSeed2, masterKey, numRounds);
+		byte[] transformedMasterKey = transformMasterKey(masterSeed2, masterKey, numRounds, progress);
 
 
 		byte[] cmpKey = new byte[65];
@@ -179,11 +180,11 @@ public class PwDatabaseV4 extends PwDatabase {
 
 	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP, long roundsFix)
 			throws IOException {
+		makeFinalKey(masterSeed, kdfP, roundsFix, null);
+	}
 
-		KdfEngine kdfEngine = KdfFactory.get(kdfP.kdfUUID);
-		if (kdfEngine == null) {
-			throw new IOException("Unknown key derivation function");
-		}
+	public void makeFinalKey(byte[] masterSeed, KdfParameters kdfP, long roundsFix, KdfProgress progress)
+			throws IOException {
 
 		// Set to 6000 rounds to open corrupted database
 		if (roundsFix > 0 && kdfP.kdfUUID.equals(AesKdf.CIPHER_UUID)) {
@@ -191,7 +192,36 @@ public class PwDatabaseV4 extends PwDatabase {
 			numKeyEncRounds = roundsFix;
 		}
 
-		byte[] transformedMasterKey = kdfEngine.transform(masterKey, kdfP);
+		setFinalKeys(deriveFinalKeys(masterSeed, kdfP, progress));
+	}
+
+	/** Keys derived from the master key, for trying several derivations at once */
+	public static class FinalKeys {
+		public final byte[] finalKey;
+		public final byte[] hmacKey;
+
+		FinalKeys(byte[] finalKey, byte[] hmacKey) {
+			this.finalKey = finalKey;
+			this.hmacKey = hmacKey;
+		}
+	}
+
+	/**
+	 * Derives the final and HMAC keys without changing the database, so
+	 * several parameter sets can be tried from different threads.
+	 */
+	public FinalKeys deriveFinalKeys(byte[] masterSeed, KdfParameters kdfP, KdfProgress progress)
+			throws IOException {
+
+		KdfEngine kdfEngine = KdfFactory.get(kdfP.kdfUUID);
+		if (kdfEngine == null) {
+			throw new IOException("Unknown key derivation function");
+		}
+
+		byte[] transformedMasterKey = getPrecomputedKey(masterKey, KdfParameters.serialize(kdfP));
+		if (transformedMasterKey == null) {
+			transformedMasterKey = kdfEngine.transform(masterKey, kdfP, progress);
+		}
 		if (transformedMasterKey.length != 32) {
 			transformedMasterKey = CryptoUtil.hashSha256(transformedMasterKey);
 		}
@@ -199,13 +229,13 @@ public class PwDatabaseV4 extends PwDatabase {
         byte[] cmpKey = new byte[65];
 		System.arraycopy(masterSeed, 0, cmpKey, 0, 32);
         System.arraycopy(transformedMasterKey, 0, cmpKey, 32, 32);
-		finalKey = CryptoUtil.resizeKey(cmpKey, 0, 64, dataEngine.keyLength());
+		byte[] derivedKey = CryptoUtil.resizeKey(cmpKey, 0, 64, dataEngine.keyLength());
 
         MessageDigest md;
 		try {
 			md = MessageDigest.getInstance("SHA-512");
 			cmpKey[64] = 1;
-			hmacKey = md.digest(cmpKey);
+			return new FinalKeys(derivedKey, md.digest(cmpKey));
 		} catch (NoSuchAlgorithmException e) {
 			throw new IOException("No SHA-512 implementation");
 		} finally {
@@ -213,6 +243,56 @@ public class PwDatabaseV4 extends PwDatabase {
 		}
 	}
 
+	public void setFinalKeys(FinalKeys keys) {
+		finalKey = keys.finalKey;
+		hmacKey = keys.hmacKey;
+	}
+
+	@Override
+	protected PrecomputedKey<?> createNextKey() {
+		final KdfEngine kdfEngine = KdfFactory.get(kdfParameters.kdfUUID);
+		if (kdfEngine == null) {
+			return null;
+		}
+
+		try {
+			byte[] settings = KdfParameters.serialize(kdfParameters);
+			KdfParameters next = KdfParameters.deserialize(settings);
+			kdfEngine.randomize(next);
+
+			return new PrecomputedKey<KdfParameters>(masterKey, settings, next,
+					KdfParameters.serialize(next)) {
+				@Override
+				protected byte[] transform(byte[] masterKey, KdfParameters kdfP, KdfProgress progress)
+						throws IOException {
+					return kdfEngine.transform(masterKey, kdfP, progress);
+				}
+			};
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return the key derivation parameters with the seed derived with in the
+	 *         background, or null if the master key or parameters have changed
+	 *         since
+	 */
+	public KdfParameters getNextKdfParameters() {
+		PrecomputedKey<?> next = getNextKey();
+		if (next == null) {
+			return null;
+		}
+
+		try {
+			KdfParameters seed = (KdfParameters) next.getSeed(masterKey,
+					KdfParameters.serialize(kdfParameters));
+			return seed != null ? KdfParameters.deserialize(KdfParameters.serialize(seed)) : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
 	@Override
 	protected String getPasswordEncoding() {
 		return "UTF-8";
@@ -592,6 +672,7 @@ public class PwDatabaseV4 extends PwDatabase {
 			}
 
 			PwEntryV4 e4 = (PwEntryV4)entry;
+			e4.materialize();
             if (!e4.qualityCheck) {
             	minVer = Math.max(minVer, PwDbHeaderV4.FILE_VERSION_32_4_1);
 			}
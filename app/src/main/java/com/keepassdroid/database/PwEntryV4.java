@@ -19,6 +19,7 @@
  */
 package com.keepassdroid.database;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
@@ -64,6 +65,21 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 	public UUID prevParentGroup = PwDatabaseV4.UUID_ZERO;
 	public boolean qualityCheck = true;
 
+	/**
+	 * Decodes the parts of an entry a lazy load left undecoded. Until then
+	 * only the uuid, icons, times and the title, user name and URL strings
+	 * are set. The history can be deferred on its own, see
+	 * {@link #materializeHistory()}.
+	 */
+	public interface Deferred {
+		void load(PwEntryV4 entry) throws IOException;
+	}
+
+	private volatile Deferred deferred = null;
+	private volatile Deferred deferredHistory = null;
+	// Set under the lock while a deferred part is loading
+	private boolean loading = false;
+
 	public class AutoType implements Cloneable {
 		private static final long OBF_OPT_NONE = 0;
 		
@@ -125,9 +141,94 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 		}
 	}
 
+	public void setDeferred(Deferred d) {
+		deferred = d;
+	}
+
+	public boolean isDeferred() {
+		return deferred != null;
+	}
+
+	public void setDeferredHistory(Deferred d) {
+		deferredHistory = d;
+	}
+
+	public boolean isHistoryDeferred() {
+		return deferred != null || deferredHistory != null;
+	}
+
+	/**
+	 * Decodes whatever a lazy load deferred. Needed before using any field
+	 * other than those listed on {@link Deferred}.
+	 */
+	public void materialize() {
+		if (deferred == null) return;
+
+		synchronized (this) {
+			Deferred d = deferred;
+			// The load itself may end up back here
+			if (d == null || loading) return;
+
+			loading = true;
+			try {
+				d.load(this);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				loading = false;
+			}
+
+			// Cleared only once every field is assigned, other threads wait on the lock until then
+			deferred = null;
+		}
+	}
+
+	/**
+	 * Decodes the history if it was deferred. Needed before using
+	 * {@link #history}.
+	 */
+	public void materializeHistory() {
+		materialize();
+		if (deferredHistory == null) return;
+
+		synchronized (this) {
+			Deferred d = deferredHistory;
+			if (d == null || loading) return;
+
+			loading = true;
+			try {
+				d.load(this);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			} finally {
+				loading = false;
+			}
+
+			deferredHistory = null;
+		}
+	}
+
+	/** Takes the deferred fields from a fully decoded copy of this entry */
+	public void assignDeferred(PwEntryV4 full) {
+		strings = full.strings;
+		binaries = full.binaries;
+		foregroundColor = full.foregroundColor;
+		backgroupColor = full.backgroupColor;
+		overrideURL = full.overrideURL;
+		qualityCheck = full.qualityCheck;
+		tags = full.tags;
+		prevParentGroup = full.prevParentGroup;
+		autoType = full.autoType;
+		customData = full.customData;
+		history = full.history;
+		deferredHistory = full.deferredHistory;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Override
 	public PwEntry clone(boolean deepStrings) {
+		materialize();
+
 		PwEntryV4 entry = (PwEntryV4) super.clone(deepStrings);
 		
 		if (deepStrings) {
@@ -158,6 +259,8 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 		super.assign(source);
 		
 		PwEntryV4 src = (PwEntryV4) source;
+		src.materialize();
+		deferred = null;
 		assign(src);
 	}
 
@@ -172,6 +275,7 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 		overrideURL = source.overrideURL;
 		autoType = source.autoType;
 		history = source.history;
+		deferredHistory = source.deferredHistory;
 		parentGroupLastMod = source.parentGroupLastMod;
 		creation = source.creation;
 		lastMod = source.lastMod;
@@ -315,6 +419,10 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 	}
 	
 	public String getString(String key) {
+		if (!IsListString(key)) {
+			materialize();
+		}
+
 		ProtectedString value = strings.get(key);
 		
 		if ( value == null ) return new String("");
@@ -323,6 +431,8 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 	}
 
 	public void setString(String key, String value, boolean protect) {
+		materialize();
+
 		ProtectedString ps = new ProtectedString(protect, value);
 		strings.put(key, ps);
 	}
@@ -377,16 +487,27 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 		  || key.equals(STR_PASSWORD) || key.equals(STR_URL)
 		  || key.equals(STR_NOTES);
 	}
+
+	/** Strings shown in entry lists, which a lazy load decodes up front */
+	public static boolean IsListString(String key) {
+		return key.equals(STR_TITLE) || key.equals(STR_USERNAME)
+		  || key.equals(STR_URL);
+	}
 	
 	public void createBackup(PwDatabaseV4 db) {
+		materializeHistory();
+
 		PwEntryV4 copy = cloneDeep();
 		copy.history = new ArrayList<PwEntryV4>();
+		copy.deferredHistory = null;
 		history.add(copy);
 		
 		if (db != null) maintainBackups(db);
 	}
 	
 	private boolean maintainBackups(PwDatabaseV4 db) {
+		materializeHistory();
+
 		boolean deleted = false;
 		
 		int maxItems = db.historyMaxItems;
@@ -438,6 +559,8 @@ public class PwEntryV4 extends PwEntry implements ITimeLogger {
 	
 	private static final long FIXED_LENGTH_SIZE = 128; // Approximate fixed length size
 	public long getSize() {
+		materializeHistory();
+
 		long size = FIXED_LENGTH_SIZE;
 		
 		for (Entry<String, ProtectedString> pair : strings.entrySet()) {
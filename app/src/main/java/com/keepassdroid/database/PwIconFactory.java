@@ -37,7 +37,7 @@ public class PwIconFactory {
 	 */
 	private ReferenceMap customCache = new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.WEAK);
 	
-	public PwIconStandard getIcon(int iconId) {
+	public synchronized PwIconStandard getIcon(int iconId) {
 		PwIconStandard icon = (PwIconStandard) cache.get(iconId);
 		
 		if (icon == null) {
@@ -53,7 +53,7 @@ public class PwIconFactory {
 		return icon;
 	}
 	
-	public PwIconCustom getIcon(UUID iconUuid) {
+	public synchronized PwIconCustom getIcon(UUID iconUuid) {
 		PwIconCustom icon = (PwIconCustom) customCache.get(iconUuid);
 		
 		if (icon == null) {
@@ -64,7 +64,7 @@ public class PwIconFactory {
 		return icon;
 	}
 	
-	public PwIconCustom getIcon(UUID iconUuid, byte[] data) {
+	public synchronized PwIconCustom getIcon(UUID iconUuid, byte[] data) {
 		PwIconCustom icon = (PwIconCustom) customCache.get(iconUuid);
 		
 		if (icon == null) {
@@ -81,7 +81,7 @@ public class PwIconFactory {
 		getIcon(iconUuid, data);
 	}
 	
-	public void put(PwIconCustom icon) {
+	public synchronized void put(PwIconCustom icon) {
 		customCache.put(icon.uuid, icon);
 	}
 
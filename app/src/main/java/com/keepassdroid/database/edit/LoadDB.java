@@ -21,6 +21,7 @@ package com.keepassdroid.database.edit;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 
 import android.content.Context;
 import android.content.SharedPreferences;
@@ -85,6 +86,10 @@ public class LoadDB extends RunnableOnFinish {
             }
             finish(false, mCtx.getString(R.string.FileNotFound));
             return;
+        } catch (InterruptedIOException e) {
+            // Cancelled by the user
+            finish(false);
+            return;
         } catch (IOException e) {
             finish(false, e.getMessage());
             return;
@@ -35,6 +35,7 @@ public class EntrySearchStringIteratorV4 extends EntrySearchStringIterator {
 
 	public EntrySearchStringIteratorV4(PwEntryV4 entry) {
 		this.sp = SearchParametersV4.DEFAULT;
+		entry.materialize();
 		setIterator = entry.strings.entrySet().iterator();
 		advance();
 		
@@ -42,6 +43,7 @@ public class EntrySearchStringIteratorV4 extends EntrySearchStringIterator {
 
 	public EntrySearchStringIteratorV4(PwEntryV4 entry, SearchParametersV4 sp) {
 		this.sp = sp;
+		entry.materialize();
 		setIterator = entry.strings.entrySet().iterator();
 		advance();
 	}
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import com.keepassdroid.database.DbMetrics;
+import com.keepassdroid.database.security.ProtectedBinary;
+
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.crypto.Cipher;
+
+/**
+ * Copies KDBX 4 inner header attachments into their encrypted temp files.
+ * The caller reads each attachment from the payload in large blocks, while
+ * worker threads encrypt and write them, several attachments at a time, so
+ * the caller can go on to parse the XML. With no workers the blocks are
+ * written on the calling thread.
+ *
+ * Each attachment's SHA-256 is computed on the way, for the binary pool,
+ * and its time and throughput go to the load metrics.
+ */
+class AttachmentWriter {
+    static final int BLOCK_SIZE = 256 * 1024;
+    private static final int BLOCKS = 8;
+
+    // Room for the padding block added by the file cipher
+    private static final int OUT_SIZE = BLOCK_SIZE + 32;
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final Block END = new Block(0);
+
+    private class Job {
+        final ProtectedBinary binary;
+        final ArrayBlockingQueue<Block> blocks = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+        volatile boolean done = false;
+        IOException error = null;
+
+        Job(ProtectedBinary binary) {
+            this.binary = binary;
+        }
+    }
+
+    private final DbMetrics metrics;
+    private final ArrayBlockingQueue<Block> free;
+    private final LinkedBlockingQueue<Job> jobs = new LinkedBlockingQueue<Job>();
+    private final List<Job> submitted = new ArrayList<Job>();
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private ByteBuffer callerOut = null;
+
+    /** @param threads number of worker threads, or 0 to write on the caller's thread */
+    AttachmentWriter(int threads, DbMetrics metrics) {
+        this.metrics = metrics;
+
+        int blocks = threads > 0 ? BLOCKS : 1;
+        free = new ArrayBlockingQueue<Block>(blocks);
+        for (int i = 0; i < blocks; i++) {
+            free.add(new Block(BLOCK_SIZE));
+        }
+
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(), "Attachment writer " + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
+    /** Reads size bytes of attachment data from is and writes them to binary's file */
+    void write(InputStream is, int size, ProtectedBinary binary) throws IOException {
+        if (workers.isEmpty()) {
+            if (callerOut == null) {
+                callerOut = ByteBuffer.allocateDirect(OUT_SIZE);
+            }
+            Block block = free.peek();
+            long start = System.nanoTime();
+            FileChannel channel = open(binary);
+            try {
+                Cipher cipher = binary.getFileCipher();
+                MessageDigest md = ProtectedBinary.newDigest();
+                int remaining = size;
+                while (remaining > 0) {
+                    block.length = readBlock(is, block.data, Math.min(remaining, BLOCK_SIZE));
+                    remaining -= block.length;
+                    md.update(block.data, 0, block.length);
+                    encrypt(cipher, block, channel, callerOut);
+                }
+                finish(cipher, channel, callerOut);
+                binary.setHash(md.digest());
+            } finally {
+                channel.close();
+            }
+            metrics.addAttachment(size, System.nanoTime() - start);
+            return;
+        }
+
+        Job job = new Job(binary);
+        submitted.add(job);
+        jobs.add(job);
+
+        try {
+            int remaining = size;
+            while (remaining > 0) {
+                Block block = free.take();
+                try {
+                    block.length = readBlock(is, block.data, Math.min(remaining, BLOCK_SIZE));
+                } catch (IOException e) {
+                    free.add(block);
+                    job.blocks.put(END);
+                    throw e;
+                }
+                remaining -= block.length;
+                job.blocks.put(block);
+            }
+            job.blocks.put(END);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /** Waits for every attachment to be written, rethrowing the first error */
+    void finish() throws IOException {
+        try {
+            for (Job job : submitted) {
+                synchronized (job) {
+                    while (!job.done) {
+                        job.wait();
+                    }
+                }
+                if (job.error != null) {
+                    throw job.error;
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            stop();
+        }
+    }
+
+    /** Stops the workers, abandoning any attachments not yet written */
+    void stop() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        workers.clear();
+    }
+
+    private class Worker implements Runnable {
+        private final ByteBuffer out = ByteBuffer.allocateDirect(OUT_SIZE);
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Job job = jobs.take();
+                    try {
+                        writeJob(job);
+                    } catch (IOException e) {
+                        job.error = e;
+                        drain(job);
+                    } finally {
+                        synchronized (job) {
+                            job.done = true;
+                            job.notifyAll();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopped
+            }
+        }
+
+        private void writeJob(Job job) throws IOException, InterruptedException {
+            long start = System.nanoTime();
+            long size = 0;
+
+            FileChannel channel = open(job.binary);
+            try {
+                Cipher cipher = job.binary.getFileCipher();
+                MessageDigest md = ProtectedBinary.newDigest();
+                Block block;
+                while ((block = job.blocks.take()) != END) {
+                    try {
+                        size += block.length;
+                        md.update(block.data, 0, block.length);
+                        encrypt(cipher, block, channel, out);
+                    } finally {
+                        free.put(block);
+                    }
+                }
+                finish(cipher, channel, out);
+                job.binary.setHash(md.digest());
+            } finally {
+                channel.close();
+            }
+
+            metrics.addAttachment(size, System.nanoTime() - start);
+        }
+
+        /** Hands back the blocks of a failed job so the reader isn't left waiting */
+        private void drain(Job job) throws InterruptedException {
+            Block block;
+            while ((block = job.blocks.take()) != END) {
+                free.put(block);
+            }
+        }
+    }
+
+    private static FileChannel open(ProtectedBinary binary) throws IOException {
+        return new FileOutputStream(binary.getFile()).getChannel();
+    }
+
+    private static void encrypt(Cipher cipher, Block block, FileChannel channel, ByteBuffer out) throws IOException {
+        out.clear();
+        try {
+            cipher.update(ByteBuffer.wrap(block.data, 0, block.length), out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+        writeOut(channel, out);
+    }
+
+    private static void finish(Cipher cipher, FileChannel channel, ByteBuffer out) throws IOException {
+        out.clear();
+        try {
+            cipher.doFinal(ByteBuffer.allocate(0), out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.getLocalizedMessage());
+        }
+        writeOut(channel, out);
+    }
+
+    private static void writeOut(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+    }
+
+    private static int readBlock(InputStream is, byte[] buf, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = is.read(buf, offset, length - offset);
+            if (read == -1) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+
+        return length;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Derives the keys a database may have been saved with at the same time,
+ * so trying a second candidate costs no more time than the first. The
+ * first candidate runs on the calling thread, the others on their own.
+ */
+class CandidateKeys<T> {
+    private final List<FutureTask<T>> tasks = new ArrayList<FutureTask<T>>();
+    private final List<KdfProgress> progress = new ArrayList<KdfProgress>();
+
+    /** @param progress Passed to the derivation, used to cancel it */
+    public void add(Callable<T> derivation, KdfProgress progress) {
+        tasks.add(new FutureTask<T>(derivation));
+        this.progress.add(progress);
+    }
+
+    public int size() {
+        return tasks.size();
+    }
+
+    /** Starts every candidate, returning once the first has been derived */
+    public void derive() {
+        for (int i = 1; i < tasks.size(); i++) {
+            Thread t = new Thread(tasks.get(i), "Key candidate " + i);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        tasks.get(0).run();
+    }
+
+    /** Stops the candidates still being derived, once one has been picked */
+    public void cancel() {
+        for (KdfProgress p : progress) {
+            p.cancel();
+        }
+    }
+
+    /** Waits for candidate i, rethrowing any error from its derivation */
+    public T get(int i) throws IOException {
+        try {
+            return tasks.get(i).get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while deriving the key");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+}
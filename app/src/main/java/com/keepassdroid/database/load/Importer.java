@@ -23,6 +23,7 @@ import java.io.IOException;
 import java.io.InputStream;
 
 import com.keepassdroid.UpdateStatus;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.exception.InvalidDBException;
 
@@ -30,10 +31,30 @@ public abstract class Importer {
 
 	public static final boolean DEBUG = true;
 
+	protected DbMetrics metrics = new DbMetrics(DbMetrics.Operation.LOAD);
+
+	/** Measurements from the last load */
+	public DbMetrics getMetrics() {
+		return metrics;
+	}
+
 	public abstract PwDatabase openDatabase( InputStream inStream, String password, InputStream keyInputStream)
 		throws IOException, InvalidDBException;
 
-	public abstract PwDatabase openDatabase( InputStream inStream, String password, InputStream keyInputStream, UpdateStatus status, long roundsFix)
+	/**
+	 * @param roundsFix If greater than zero, AES-KDF rounds to try alongside
+	 *                  the stored rounds, for databases saved with broken rounds
+	 */
+	public PwDatabase openDatabase( InputStream inStream, String password, InputStream keyInputStream, UpdateStatus status, long roundsFix)
+		throws IOException, InvalidDBException {
+		return openDatabase(inStream, password, keyInputStream, status, roundsFix, 0);
+	}
+
+	/**
+	 * @param fileSize Length of the database file, for the progress bar, or 0
+	 *                 if unknown
+	 */
+	public abstract PwDatabase openDatabase( InputStream inStream, String password, InputStream keyInputStream, UpdateStatus status, long roundsFix, long fileSize)
 		throws IOException, InvalidDBException;
 
 
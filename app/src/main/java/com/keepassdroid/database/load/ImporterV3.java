@@ -45,15 +45,22 @@ Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA  02110-1301  USA
 
 package com.keepassdroid.database.load;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
-import java.security.DigestOutputStream;
+import java.security.DigestInputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
@@ -68,6 +75,8 @@ import android.util.Log;
 import com.android.keepass.R;
 import com.keepassdroid.UpdateStatus;
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwDate;
 import com.keepassdroid.database.PwDbHeader;
@@ -81,10 +90,16 @@ import com.keepassdroid.database.exception.InvalidDBSignatureException;
 import com.keepassdroid.database.exception.InvalidDBVersionException;
 import com.keepassdroid.database.exception.InvalidKeyFileException;
 import com.keepassdroid.database.exception.InvalidPasswordException;
+import com.keepassdroid.stream.BetterCipherInputStream;
+import com.keepassdroid.stream.CopyInputStream;
+import com.keepassdroid.stream.CountInputStream;
 import com.keepassdroid.stream.LEDataInputStream;
 import com.keepassdroid.stream.LEDataOutputStream;
-import com.keepassdroid.stream.NullOutputStream;
+import com.keepassdroid.stream.MappedInputStream;
+import com.keepassdroid.stream.MeteredInputStream;
+import com.keepassdroid.stream.PipelinedInputStream;
 import com.keepassdroid.utils.Types;
+import com.keepassdroid.utils.Util;
 
 /**
  * Load a v3 database file.
@@ -94,6 +109,19 @@ import com.keepassdroid.utils.Types;
  */
 public class ImporterV3 extends Importer {
 
+	// Bytes of the body decrypted with each candidate key to rule out wrong ones
+	private static final int SCREEN_BYTES = 32;
+	private static final int BODY_BUFFER_SIZE = 50 * 1024;
+	private static final int FIELD_HEADER_SIZE = 6;
+	private static final int MAX_FIELD_TYPE = 0x000E;
+	private static final int MIN_FIELD_BUFFER = 64;
+
+	/** Decrypt on a thread of its own, while the records are parsed */
+	public boolean pipelined = PipelinedInputStream.isUseful();
+
+	// Whether to keep the decrypted body for PwDatabaseV3.copyEncrypted
+	protected boolean copyBody = false;
+
 	public ImporterV3() {
 		super();
 	}
@@ -131,20 +159,47 @@ public class ImporterV3 extends Importer {
 	public PwDatabaseV3 openDatabase( InputStream inStream, String password, InputStream kfIs, UpdateStatus status, long roundsFix)
 	throws IOException, InvalidDBException
 	{
-		PwDatabaseV3        newManager;
+		return openDatabase(inStream, password, kfIs, status, roundsFix, 0);
+	}
 
+	public PwDatabaseV3 openDatabase( InputStream inStream, String password, InputStream kfIs, UpdateStatus status, long roundsFix, long fileSize)
+	throws IOException, InvalidDBException
+	{
+		metrics = new DbMetrics(DbMetrics.Operation.LOAD);
+		try {
+			PwDatabaseV3 result = openDatabaseStreamed(inStream, password, kfIs, status, fileSize);
+			metrics.finish();
 
-		// Load entire file, most of it's encrypted.
-		int fileSize = inStream.available();
-		byte[] filebuf = new byte[fileSize + 16]; // Pad with a blocksize (Twofish uses 128 bits), since Android 4.3 tries to write more to the buffer
-		inStream.read(filebuf, 0, fileSize);
-		inStream.close();
+			return result;
+		} finally {
+			status.endPayload();
+			inStream.close();
+		}
+	}
 
-		// Parse header (unencrypted)
-		if( fileSize < PwDbHeaderV3.BUF_SIZE )
-			throw new IOException( "File too short for header" );
+	private PwDatabaseV3 openDatabaseStreamed(InputStream inStream, String password, InputStream kfIs, UpdateStatus status, long fileSize)
+	throws IOException, InvalidDBException
+	{
+		PwDatabaseV3        newManager;
+
+		// Progress past the key derivation follows the bytes read from the file
+		CountInputStream counted = inStream instanceof MappedInputStream
+				? (MappedInputStream) inStream : new CountInputStream(inStream);
+		inStream = counted;
+
+		metrics.begin(DbMetrics.Stage.HEADER);
 		PwDbHeaderV3 hdr = new PwDbHeaderV3();
-		hdr.loadFromFile(filebuf, 0 );
+		try {
+			byte[] headerBuf = new byte[PwDbHeaderV3.BUF_SIZE];
+
+			// Parse header (unencrypted)
+			if( LEDataInputStream.readBytes(inStream, headerBuf, 0, headerBuf.length) < headerBuf.length )
+				throw new IOException( "File too short for header" );
+			hdr.loadFromFile(headerBuf, 0 );
+		} finally {
+			metrics.end();
+		}
+		metrics.addBytes(DbMetrics.Stage.HEADER, PwDbHeaderV3.BUF_SIZE);
 
 		if( (hdr.signature1 != PwDbHeader.PWM_DBSIG_1) || (hdr.signature2 != PwDbHeaderV3.DBSIG_2) ) {
 			throw new InvalidDBSignatureException();
@@ -156,7 +211,31 @@ public class ImporterV3 extends Importer {
 
 		status.updateMessage(R.string.creating_db_key);
 		newManager = createDB();
-		newManager.setMasterKey(password, kfIs);
+		final List<byte[]> masterKeys = new ArrayList<byte[]>();
+		metrics.begin(DbMetrics.Stage.KEY_HASH);
+		try {
+			if (newManager.validatePasswordEncoding(password)) {
+				newManager.setMasterKey(password, kfIs);
+				masterKeys.add(newManager.masterKey);
+			} else {
+				// The password may have been saved by a client using another
+				// encoding, so try that too. Both need the key file.
+				byte[] keyData = null;
+				if (kfIs != null) {
+					ByteArrayOutputStream bos = new ByteArrayOutputStream();
+					Util.copyStream(kfIs, bos);
+					keyData = bos.toByteArray();
+				}
+
+				newManager.setMasterKey(password, keyData != null ? new ByteArrayInputStream(keyData) : null);
+				masterKeys.add(newManager.masterKey);
+				masterKeys.add(newManager.getMasterKey(password,
+						keyData != null ? new ByteArrayInputStream(keyData) : null,
+						newManager.getAlternatePasswordEncoding()));
+			}
+		} finally {
+			metrics.end();
+		}
 
 		// Select algorithm
 		if( (hdr.flags & PwDbHeaderV3.FLAG_RIJNDAEL) != 0 ) {
@@ -175,15 +254,137 @@ public class ImporterV3 extends Importer {
 		newManager.name = "KeePass Password Manager";
 
 		// Generate transformedMasterKey from masterKey
-		newManager.makeFinalKey(hdr.masterSeed, hdr.transformSeed, newManager.numKeyEncRounds);
+		final KdfProgress kdfProgress = new KdfProgress();
+		final PwDatabaseV3 db = newManager;
+		final PwDbHeaderV3 header = hdr;
+		CandidateKeys<byte[]> finalKeys = new CandidateKeys<byte[]>();
+		for (int i = 0; i < masterKeys.size(); i++) {
+			final byte[] masterKey = masterKeys.get(i);
+			final KdfProgress progress = i == 0 ? kdfProgress : new KdfProgress();
+			finalKeys.add(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					return db.deriveFinalKey(masterKey, header.masterSeed, header.transformSeed,
+							db.numKeyEncRounds, progress);
+				}
+			}, progress);
+		}
 
-		status.updateMessage(R.string.decrypting_db);
+		// Decrypt the start of the body with each candidate key, keeping the
+		// ones that decrypt to the start of a record
+		if (inStream instanceof MappedInputStream) {
+			inStream.mark(0);
+		}
+		byte[] head = new byte[SCREEN_BYTES];
+		int headSize = LEDataInputStream.readBytes(inStream, head, 0, head.length);
+		List<Integer> plausible = new ArrayList<Integer>();
+		List<byte[]> keys = new ArrayList<byte[]>();
+		Cipher cipher = null;
+		byte[] plainHead = null;
+		try {
+			status.startKdf(kdfProgress);
+			metrics.begin(DbMetrics.Stage.KDF);
+			try {
+				finalKeys.derive();
+			} finally {
+				metrics.end();
+				status.endKdf();
+			}
+
+			status.updateMessage(R.string.decrypting_db);
+			for (int i = 0; i < finalKeys.size(); i++) {
+				byte[] finalKey;
+				metrics.begin(DbMetrics.Stage.KDF);
+				try {
+					finalKey = finalKeys.get(i);
+				} finally {
+					metrics.end();
+				}
+				keys.add(finalKey);
+
+				Cipher candidate = initCipher(newManager.algorithm, finalKey, hdr);
+				byte[] out = candidate.update(head, 0, headSize);
+				if (isRecordStart(out, hdr)) {
+					plausible.add(i);
+					if (cipher == null) {
+						cipher = candidate;
+						plainHead = out;
+					}
+				}
+			}
+		} finally {
+			finalKeys.cancel();
+		}
+		status.startPayload(counted, fileSize);
+
+		int winner = -1;
+		if (plausible.size() == 1) {
+			winner = plausible.get(0);
+			InputStream decrypted = new BetterCipherInputStream(inStream, cipher, BODY_BUFFER_SIZE);
+			if (plainHead != null) {
+				decrypted = new SequenceInputStream(new ByteArrayInputStream(plainHead), decrypted);
+			}
+
+			if (!readBody(newManager, hdr, decrypted)) {
+				winner = -1;
+			}
+		} else if (plausible.size() > 1) {
+			// More than one key could be right, so keep the encrypted body to
+			// try each in turn. A mapped file can just be read again.
+			byte[] body = null;
+			if (!(inStream instanceof MappedInputStream)) {
+				ByteArrayOutputStream bos = new ByteArrayOutputStream();
+				bos.write(head, 0, headSize);
+				Util.copyStream(inStream, bos);
+				body = bos.toByteArray();
+			}
+
+			for (int i : plausible) {
+				InputStream encrypted;
+				if (body != null) {
+					encrypted = new ByteArrayInputStream(body);
+				} else {
+					inStream.reset();
+					encrypted = inStream;
+				}
+
+				Cipher c = initCipher(newManager.algorithm, keys.get(i), hdr);
+				if (readBody(newManager, hdr, new BetterCipherInputStream(encrypted, c, BODY_BUFFER_SIZE))) {
+					winner = i;
+					break;
+				}
+
+				newManager.groups.clear();
+				newManager.entries.clear();
+			}
+		}
+
+		if (winner < 0) {
+			Log.w("KeePassDroid","Database file did not decrypt correctly. (checksum code is broken)");
+			throw new InvalidPasswordException();
+		}
+		newManager.finalKey = keys.get(winner);
+		newManager.masterKey = masterKeys.get(winner);
+
+		metrics.begin(DbMetrics.Stage.TREE_BUILD);
+		newManager.constructTree();
+		metrics.end();
+
+		return newManager;
+	}
+
+	/**
+	 * Creates a new cipher for the body, since the native one can't be
+	 * initialized twice
+	 */
+	private Cipher initCipher(PwEncryptionAlgorithm algorithm, byte[] finalKey, PwDbHeaderV3 hdr)
+			throws IOException {
 		// Initialize Rijndael algorithm
 		Cipher cipher;
 		try {
-			if ( newManager.algorithm == PwEncryptionAlgorithm.Rjindal ) {
+			if ( algorithm == PwEncryptionAlgorithm.Rjindal ) {
 				cipher = CipherFactory.getInstance("AES/CBC/PKCS5Padding");
-			} else if ( newManager.algorithm == PwEncryptionAlgorithm.Twofish ) {
+			} else if ( algorithm == PwEncryptionAlgorithm.Twofish ) {
 				cipher = CipherFactory.getInstance("Twofish/CBC/PKCS7Padding");
 			} else {
 				throw new IOException( "Encryption algorithm is not supported" );
@@ -196,92 +397,186 @@ public class ImporterV3 extends Importer {
 		}
 
 		try {
-			cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( newManager.finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
+			cipher.init( Cipher.DECRYPT_MODE, new SecretKeySpec( finalKey, "AES" ), new IvParameterSpec( hdr.encryptionIV ) );
 		} catch (InvalidKeyException e1) {
 			throw new IOException("Invalid key");
 		} catch (InvalidAlgorithmParameterException e1) {
 			throw new IOException("Invalid algorithm parameter.");
 		}
 
-		// Decrypt! The first bytes aren't encrypted (that's the header)
-		int encryptedPartSize;
-		try {
-			encryptedPartSize = cipher.doFinal(filebuf, PwDbHeaderV3.BUF_SIZE, fileSize - PwDbHeaderV3.BUF_SIZE, filebuf, PwDbHeaderV3.BUF_SIZE );
-		} catch (ShortBufferException e1) {
-			throw new IOException("Buffer too short");
-		} catch (IllegalBlockSizeException e1) {
-			throw new IOException("Invalid block size");
-		} catch (BadPaddingException e1) {
-			throw new InvalidPasswordException();
+		return cipher;
+	}
+
+	/**
+	 * Whether plain, the first decrypted bytes of the body, could start a
+	 * group or entry record. If too little was decrypted to tell, it could.
+	 */
+	private static boolean isRecordStart(byte[] plain, PwDbHeaderV3 hdr) {
+		if (plain == null || plain.length < FIELD_HEADER_SIZE || hdr.numGroups + hdr.numEntries == 0) {
+			return true;
 		}
 
-		// Copy decrypted data for testing
-		newManager.copyEncrypted(filebuf, PwDbHeaderV3.BUF_SIZE, encryptedPartSize);
+		int fieldType = LEDataInputStream.readUShort(plain, 0);
+		int fieldSize = LEDataInputStream.readInt(plain, 2);
+
+		return (fieldType <= MAX_FIELD_TYPE || fieldType == 0xFFFF) && fieldSize >= 0;
+	}
 
-		MessageDigest md = null;
+	/**
+	 * Parses the groups and entries from the decrypted body as it is
+	 * decrypted, checking it against the contents hash
+	 *
+	 * @return false if the body doesn't match the hash, or could not be
+	 *         decrypted with this key
+	 */
+	private boolean readBody(PwDatabaseV3 db, PwDbHeaderV3 hdr, InputStream decrypted) throws IOException {
+		MessageDigest md;
 		try {
 			md = MessageDigest.getInstance("SHA-256");
 		} catch (NoSuchAlgorithmException e) {
 			throw new IOException("No SHA-256 algorithm");
 		}
-		NullOutputStream nos = new NullOutputStream();
-		DigestOutputStream dos = new DigestOutputStream(nos, md);
-		dos.write(filebuf, PwDbHeaderV3.BUF_SIZE, encryptedPartSize);
-		dos.close();
-		byte[] hash = md.digest();
-		
-		if( ! Arrays.equals(hash, hdr.contentsHash) ) {
 
-			Log.w("KeePassDroid","Database file did not decrypt correctly. (checksum code is broken)");
-			throw new InvalidPasswordException();
+		InputStream plain = new MeteredInputStream(decrypted, metrics, DbMetrics.Stage.CIPHER);
+		PipelinedInputStream stage = null;
+		if (pipelined) {
+			stage = new PipelinedInputStream(plain, "decrypt");
+
+			// Time spent waiting on the stage belongs to neither side
+			plain = new MeteredInputStream(stage, metrics, null);
 		}
 
-		// Import all groups
+		plain = new DigestInputStream(plain, md);
+		ByteArrayOutputStream copy = null;
+		if (copyBody) {
+			copy = new ByteArrayOutputStream();
+			plain = new CopyInputStream(plain, copy);
+		}
 
-		int pos = PwDbHeaderV3.BUF_SIZE;
-		PwGroupV3 newGrp = new PwGroupV3();
-		for( int i = 0; i < hdr.numGroups; ) {
-			int fieldType = LEDataInputStream.readUShort( filebuf, pos );
-			pos += 2;
-			int fieldSize = LEDataInputStream.readInt( filebuf, pos );
-			pos += 4;
+		FieldReader fields = new FieldReader(plain);
+		metrics.begin(DbMetrics.Stage.PARSE);
+		try {
+			// Import all groups
+			PwGroupV3 newGrp = new PwGroupV3();
+			for( int i = 0; i < hdr.numGroups; ) {
+				fields.next();
+
+				if( fields.type == 0xFFFF ) {
+
+					// End-Group record.  Save group and count it.
+					newGrp.populateBlankFields(db);
+					db.groups.add(newGrp);
+					newGrp = new PwGroupV3();
+					i++;
+				}
+				else {
+					readGroupField(db, newGrp, fields.type, fields.buf, 0);
+				}
+			}
 
-			if( fieldType == 0xFFFF ) {
+			// Import all entries
+			PwEntryV3 newEnt = new PwEntryV3();
+			for( int i = 0; i < hdr.numEntries; ) {
+				fields.next();
+
+				if( fields.type == 0xFFFF ) {
+					// End-Group record.  Save group and count it.
+					newEnt.populateBlankFields(db);
+					db.entries.add(newEnt);
+					newEnt = new PwEntryV3();
+					i++;
+				}
+				else {
+					readEntryField(db, newEnt, fields.type, fields.buf, 0, fields.size);
+				}
+			}
 
-				// End-Group record.  Save group and count it.
-				newGrp.populateBlankFields(newManager);
-				newManager.groups.add(newGrp);
-				newGrp = new PwGroupV3();
-				i++;
+			// Hash whatever follows the records, finishing the cipher
+			fields.drain();
+		} catch (EOFException e) {
+			return false;
+		} catch (IOException e) {
+			if (e.getCause() instanceof BadPaddingException) {
+				return false;
 			}
-			else {
-				readGroupField(newManager, newGrp, fieldType, filebuf, pos);
+			throw e;
+		} finally {
+			metrics.end(fields.count);
+			if (stage != null) {
+				stage.stop();
 			}
-			pos += fieldSize;
 		}
 
-		// Import all entries
-		PwEntryV3 newEnt = new PwEntryV3();
-		for( int i = 0; i < hdr.numEntries; ) {
-			int fieldType = LEDataInputStream.readUShort( filebuf, pos );
-			int fieldSize = LEDataInputStream.readInt( filebuf, pos + 2 );
-
-			if( fieldType == 0xFFFF ) {
-				// End-Group record.  Save group and count it.
-				newEnt.populateBlankFields(newManager);
-				newManager.entries.add(newEnt);
-				newEnt = new PwEntryV3();
-				i++;
+		if( ! Arrays.equals(md.digest(), hdr.contentsHash) ) {
+			return false;
+		}
+
+		if (copy != null) {
+			// Copy decrypted data for testing
+			db.copyEncrypted(copy.toByteArray(), 0, copy.size());
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the fields of group and entry records one at a time into a
+	 * buffer reused for every field. The field is followed by a zero, so
+	 * strings run into it rather than past the buffer.
+	 */
+	private static class FieldReader {
+		private final InputStream is;
+		private final byte[] fieldHeader = new byte[FIELD_HEADER_SIZE];
+
+		byte[] buf = new byte[MIN_FIELD_BUFFER];
+		int type;
+		int size;
+		long count = 0;
+
+		FieldReader(InputStream is) {
+			this.is = is;
+		}
+
+		void next() throws IOException {
+			readFully(fieldHeader, FIELD_HEADER_SIZE);
+			type = LEDataInputStream.readUShort(fieldHeader, 0);
+			size = LEDataInputStream.readInt(fieldHeader, 2);
+			if (size < 0) {
+				throw new EOFException("Field runs past the end of the file");
+			}
+
+			// Grow the buffer as the field arrives, so a corrupt size runs
+			// into the end of the file before it can take much memory
+			int read = 0;
+			while (read < size) {
+				if (read == buf.length - 1) {
+					buf = Arrays.copyOf(buf, (int) Math.min(size + 1L, buf.length * 2L));
+				}
+
+				int chunk = Math.min(size, buf.length - 1) - read;
+				read += readFully(buf, read, chunk);
 			}
-			else {
-				readEntryField(newManager, newEnt, filebuf, pos);
+			buf[size] = 0;
+		}
+
+		void drain() throws IOException {
+			while (is.read(buf) >= 0) {
+				// Read for the hash
 			}
-			pos += 2 + 4 + fieldSize;
 		}
 
-		newManager.constructTree(null);
-		
-		return newManager;
+		private void readFully(byte[] dst, int length) throws IOException {
+			readFully(dst, 0, length);
+		}
+
+		private int readFully(byte[] dst, int offset, int length) throws IOException {
+			if (LEDataInputStream.readBytes(is, dst, offset, length) < length) {
+				throw new EOFException();
+			}
+			count += length;
+
+			return length;
+		}
 	}
 
 	/**
@@ -371,14 +666,9 @@ public class ImporterV3 extends Importer {
 
 
 
-	void readEntryField(PwDatabaseV3 db, PwEntryV3 ent, byte[] buf, int offset)
+	void readEntryField(PwDatabaseV3 db, PwEntryV3 ent, int fieldType, byte[] buf, int offset, int fieldSize)
 	throws UnsupportedEncodingException
 	{
-		int fieldType = LEDataInputStream.readUShort(buf, offset);
-		offset += 2;
-		int fieldSize = LEDataInputStream.readInt(buf, offset);
-		offset += 4;
-
 		switch( fieldType ) {
 		case 0x0000 :
 			// Ignore field
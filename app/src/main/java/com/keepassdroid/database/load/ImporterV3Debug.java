@@ -28,6 +28,10 @@ import com.keepassdroid.database.exception.InvalidDBException;
 
 public class ImporterV3Debug extends ImporterV3 {
 
+	public ImporterV3Debug() {
+		copyBody = true;
+	}
+
 	@Override
 	protected PwDatabaseV3Debug createDB() {
 		return new PwDatabaseV3Debug();
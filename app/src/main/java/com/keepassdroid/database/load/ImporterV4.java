@@ -25,10 +25,13 @@ import com.keepassdroid.UpdateStatus;
 import com.keepassdroid.crypto.CipherFactory;
 import com.keepassdroid.crypto.PwStreamCipherFactory;
 import com.keepassdroid.crypto.engine.CipherEngine;
+import com.keepassdroid.crypto.keyDerivation.AesKdf;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
+import com.keepassdroid.crypto.keyDerivation.KdfProgress;
 import com.keepassdroid.database.ITimeLogger;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwCompressionAlgorithm;
 import com.keepassdroid.database.PwDatabaseV4;
-import com.keepassdroid.database.PwDatabaseV4XML;
 import com.keepassdroid.database.PwDbHeaderV4;
 import com.keepassdroid.database.PwDeletedObject;
 import com.keepassdroid.database.PwEntryV4;
@@ -40,41 +43,55 @@ import com.keepassdroid.database.exception.InvalidPasswordException;
 import com.keepassdroid.database.security.ProtectedBinary;
 import com.keepassdroid.database.security.ProtectedString;
 import com.keepassdroid.stream.BetterCipherInputStream;
+import com.keepassdroid.stream.CountInputStream;
 import com.keepassdroid.stream.HashedBlockInputStream;
 import com.keepassdroid.stream.HmacBlockInputStream;
+import com.keepassdroid.stream.InflateInputStream;
+import com.keepassdroid.stream.MappedInputStream;
 import com.keepassdroid.stream.LEDataInputStream;
+import com.keepassdroid.stream.MeteredInputStream;
+import com.keepassdroid.stream.PipelinedInputStream;
+import com.keepassdroid.utils.Base64Util;
 import com.keepassdroid.utils.DateUtil;
 import com.keepassdroid.utils.EmptyUtils;
 import com.keepassdroid.utils.MemUtil;
 import com.keepassdroid.utils.Types;
-import com.keepassdroid.utils.Util;
 
+import org.bouncycastle.crypto.SkippingStreamCipher;
 import org.bouncycastle.crypto.StreamCipher;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
-import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 import java.util.Stack;
 import java.util.TimeZone;
 import java.util.UUID;
-import java.util.zip.GZIPInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
 
 import static com.keepassdroid.database.PwDatabaseV4XML.*;
+import static com.keepassdroid.database.load.XmlElementTokens.*;
 
 public class ImporterV4 extends Importer {
 	
@@ -88,6 +105,31 @@ public class ImporterV4 extends Importer {
 	Calendar utcCal;
     private File streamDir;
 
+	/** Run HMAC verification, decryption and inflation on their own threads,
+	 * and verify KDBX 4 blocks ahead of the reader in parallel */
+	public boolean pipelined = PipelinedInputStream.isUseful();
+	/** Size of the buffer the compressed payload is read into */
+	public int inflateBufferSize = InflateInputStream.DEFAULT_BUFFER_SIZE;
+	private List<PipelinedInputStream> stages = new ArrayList<PipelinedInputStream>();
+	private InflateInputStream inflate = null;
+	private AttachmentWriter attachmentWriter = null;
+
+	/** Decode only the fields entry lists need while loading, and leave the
+	 * rest of each entry to be decoded on first use */
+	public boolean lazyEntries = true;
+	/** Keep each entry's history undecoded until it is used */
+	public boolean lazyHistory = true;
+	private ImporterV4 deferredReader = null;
+	private XmlSubtreeRecorder recorder = new XmlSubtreeRecorder();
+	private List<String> recordNames = null;
+
+	/** Record the subtrees of the top level groups while reading the file,
+	 * then parse them on several threads, each seeking its own inner random
+	 * stream to where its subtree starts */
+	public boolean parallelGroups = PipelinedInputStream.isUseful();
+	private static final int MAX_GROUP_THREADS = 8;
+	private List<GroupSubtree> subtrees = null;
+
 	public ImporterV4(File streamDir) {
 		this.utcCal = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
         this.streamDir = streamDir;
@@ -104,41 +146,112 @@ public class ImporterV4 extends Importer {
 		return openDatabase(inStream, password, keyInputStream, new UpdateStatus(), 0);
 	}
 	
+	@Override
+	public PwDatabaseV4 openDatabase(InputStream inStream, String password,
+			InputStream keyInputStream, UpdateStatus status, long roundsFix) throws IOException,
+			InvalidDBException {
+
+		return openDatabase(inStream, password, keyInputStream, status, roundsFix, 0);
+	}
+
 	@Override
     public PwDatabaseV4 openDatabase(InputStream inStream, String password,
-            InputStream keyInputStream, UpdateStatus status, long roundsFix) throws IOException,
+            InputStream keyInputStream, UpdateStatus status, long roundsFix, long fileSize) throws IOException,
             InvalidDBException {
+		metrics = new DbMetrics(DbMetrics.Operation.LOAD);
+		try {
+			PwDatabaseV4 result = openDatabaseStaged(inStream, password, keyInputStream, status, roundsFix, fileSize);
+			metrics.finish();
+
+			return result;
+		} finally {
+			status.endPayload();
+			stopStages();
+			// Only once the stages are stopped, one of them may be reading it
+			closeInflate();
+			if (attachmentWriter != null) {
+				attachmentWriter.stop();
+			}
+		}
+	}
+
+	private PwDatabaseV4 openDatabaseStaged(InputStream inStream, String password,
+			InputStream keyInputStream, UpdateStatus status, long roundsFix, long fileSize) throws IOException, InvalidDBException {
 		db = createDB();
+
+		// Progress past the key derivation follows the bytes read from the file
+		CountInputStream counted = inStream instanceof MappedInputStream
+				? (MappedInputStream) inStream : new CountInputStream(inStream);
+		inStream = counted;
 		
 		PwDbHeaderV4 header = new PwDbHeaderV4(db);
         db.binPool.clear();
 
-		PwDbHeaderV4.HeaderAndHash hh = header.loadFromFile(inStream);
+		metrics.begin(DbMetrics.Stage.HEADER);
+		PwDbHeaderV4.HeaderAndHash hh;
+		try {
+			hh = header.loadFromFile(inStream);
+		} finally {
+			metrics.end();
+		}
         version = header.version;
 		db.version = version;
 
 		hashOfHeader = hh.hash;
 		pbHeader = hh.header;
+		metrics.addBytes(DbMetrics.Stage.HEADER, pbHeader.length);
 			
-		db.setMasterKey(password, keyInputStream);
-		db.makeFinalKey(header.masterSeed, db.kdfParameters, roundsFix);
+		metrics.begin(DbMetrics.Stage.KEY_HASH);
+		try {
+			db.setMasterKey(password, keyInputStream);
+		} finally {
+			metrics.end();
+		}
 
 		CipherEngine engine;
-		Cipher cipher;
 		try {
 			engine = CipherFactory.getInstance(db.dataCipher);
 			db.dataEngine = engine;
-			cipher = engine.getCipher(Cipher.DECRYPT_MODE, db.finalKey, header.encryptionIV);
 		} catch (NoSuchAlgorithmException e) {
 			throw new IOException("Invalid algorithm.");
-		} catch (NoSuchPaddingException e) {
-			throw new IOException("Invalid algorithm.");
-		} catch (InvalidKeyException e) {
-			throw new IOException("Invalid algorithm.");
-		} catch (InvalidAlgorithmParameterException e) {
-			throw new IOException("Invalid algorithm.");
 		}
 
+		// Read what the candidate keys are checked against before deriving them
+		KeyCheck check;
+		LEDataInputStream isData = new LEDataInputStream(inStream);
+		if (version < PwDbHeaderV4.FILE_VERSION_32_4) {
+			byte[] encryptedStart = isData.readBytes(START_BYTES_PEEK);
+			inStream = new SequenceInputStream(new ByteArrayInputStream(encryptedStart), inStream);
+
+			check = new StartBytesCheck(engine, header, encryptedStart);
+		}
+		else { // KDBX 4
+			byte[] storedHash = isData.readBytes(32);
+			if (!Arrays.equals(storedHash,hashOfHeader)) {
+				throw new InvalidDBException();
+			}
+
+			byte[] storedHmac = isData.readBytes(32);
+			if (storedHmac == null || storedHmac.length != 32) {
+				throw new InvalidDBException();
+			}
+
+			check = new HmacCheck(storedHmac);
+		}
+
+		KdfProgress kdfProgress = new KdfProgress();
+		status.startKdf(kdfProgress);
+		metrics.begin(DbMetrics.Stage.KDF);
+		try {
+			MakeFinalKey(header, roundsFix, kdfProgress, check);
+		} finally {
+			metrics.end();
+			status.endKdf();
+		}
+		status.startPayload(counted, fileSize);
+
+		Cipher cipher = GetCipher(engine, db.finalKey, header.encryptionIV);
+
 		InputStream isPlain;
 		if (version < PwDbHeaderV4.FILE_VERSION_32_4) {
 
@@ -158,39 +271,44 @@ public class ImporterV4 extends Importer {
 				throw new InvalidPasswordException();
 			}
 
-			isPlain = new HashedBlockInputStream(dataDecrypted);
+			isPlain = AttachStage(new HashedBlockInputStream(dataDecrypted), "decrypt", DbMetrics.Stage.CIPHER);
 		}
 		else { // KDBX 4
-			LEDataInputStream isData = new LEDataInputStream(inStream);
-			byte[] storedHash = isData.readBytes(32);
-			if (!Arrays.equals(storedHash,hashOfHeader)) {
-				throw new InvalidDBException();
-			}
-
 			byte[] hmacKey = db.hmacKey;
-			byte[] headerHmac = PwDbHeaderV4.computeHeaderHmac(pbHeader, hmacKey);
-			byte[] storedHmac = isData.readBytes(32);
-			if (storedHmac == null || storedHmac.length != 32) {
-				throw new InvalidDBException();
-			}
-			// Mac doesn't match
-			if (! Arrays.equals(headerHmac, storedHmac)) {
-				throw new InvalidDBException();
-			}
+			int readAhead = pipelined ? HmacBlockInputStream.DEFAULT_READ_AHEAD : 0;
+			// Given the file mapping, if any, so blocks are verified in place
+			InputStream hmIs = AttachStage(new HmacBlockInputStream(inStream, true, hmacKey, readAhead),
+					"verify", DbMetrics.Stage.CIPHER);
 
-			HmacBlockInputStream hmIs = new HmacBlockInputStream(isData, true, hmacKey);
-
-			isPlain = AttachCipherStream(hmIs, cipher);
+			isPlain = AttachStage(AttachCipherStream(hmIs, cipher), "decrypt", DbMetrics.Stage.CIPHER);
 		}
 
 		InputStream isXml;
 		if ( db.compressionAlgorithm == PwCompressionAlgorithm.Gzip ) {
-			isXml = new GZIPInputStream(isPlain);
+			inflate = new InflateInputStream(isPlain, inflateBufferSize);
+			isXml = AttachStage(inflate, "inflate", DbMetrics.Stage.COMPRESSION);
 		} else {
 			isXml = isPlain;
 		}
 
+		isXml = new MeteredInputStream(isXml, metrics, DbMetrics.Stage.PARSE);
+		metrics.begin(DbMetrics.Stage.PARSE);
+		try {
+			ReadPayload(isXml, header);
+		} finally {
+			metrics.end();
+		}
+
+		if (inflate != null) {
+			metrics.addCompression(inflate.getCompressedBytes(), inflate.getInflatedBytes());
+		}
+
+		return db;
+	}
+
+	private void ReadPayload(InputStream isXml, PwDbHeaderV4 header) throws IOException, InvalidDBException {
 		if (version >= header.FILE_VERSION_32_4) {
+			attachmentWriter = new AttachmentWriter(pipelined ? AttachmentThreads() : 0, metrics);
 			LoadInnerHeader(isXml, header);
 		}
 		
@@ -205,17 +323,205 @@ public class ImporterV4 extends Importer {
 			throw new ArcFourException();
 		}
 		
+		if ((lazyEntries || lazyHistory) && randomStream instanceof SkippingStreamCipher) {
+			deferredReader = CreateDeferredReader(header);
+		}
+
+		if (parallelGroups && randomStream instanceof SkippingStreamCipher) {
+			subtrees = new ArrayList<GroupSubtree>();
+		}
+
 		ReadXmlStreamed(isXml);
 
-		return db;
-		
-		
+		if (subtrees != null) {
+			ParseSubtrees(header);
+		}
+
+		if (attachmentWriter != null) {
+			attachmentWriter.finish();
+		}
+	}
+
+	// Encrypted bytes needed to check the stream start bytes. A padded CBC
+	// cipher holds back the last block it decrypts, so read one extra.
+	private static final int START_BYTES_PEEK = 48;
+
+	/** Checks a derived key against the file before the payload is decrypted */
+	private interface KeyCheck {
+		boolean matches(PwDatabaseV4.FinalKeys keys) throws IOException;
+	}
+
+	private class StartBytesCheck implements KeyCheck {
+		private final CipherEngine engine;
+		private final PwDbHeaderV4 header;
+		private final byte[] encryptedStart;
+
+		StartBytesCheck(CipherEngine engine, PwDbHeaderV4 header, byte[] encryptedStart) {
+			this.engine = engine;
+			this.header = header;
+			this.encryptedStart = encryptedStart;
+		}
+
+		@Override
+		public boolean matches(PwDatabaseV4.FinalKeys keys) throws IOException {
+			Cipher cipher = GetCipher(engine, keys.finalKey, header.encryptionIV);
+			byte[] start = cipher.update(encryptedStart);
+
+			return start != null && start.length >= 32
+					&& Arrays.equals(Arrays.copyOf(start, 32), header.streamStartBytes);
+		}
+	}
+
+	private class HmacCheck implements KeyCheck {
+		private final byte[] storedHmac;
+
+		HmacCheck(byte[] storedHmac) {
+			this.storedHmac = storedHmac;
+		}
+
+		@Override
+		public boolean matches(PwDatabaseV4.FinalKeys keys) throws IOException {
+			return Arrays.equals(PwDbHeaderV4.computeHeaderHmac(pbHeader, keys.hmacKey), storedHmac);
+		}
+	}
+
+	/**
+	 * Derives the final keys and keeps the first that check accepts. When
+	 * roundsFix applies, the keys for the stored and the fixed AES-KDF rounds
+	 * are derived at the same time, so a database saved with broken rounds
+	 * opens without running the KDF twice.
+	 */
+	private void MakeFinalKey(PwDbHeaderV4 header, final long roundsFix, final KdfProgress progress,
+			KeyCheck check) throws IOException, InvalidDBException {
+		final byte[] masterSeed = header.masterSeed;
+		final KdfParameters kdfP = db.kdfParameters;
+
+		CandidateKeys<PwDatabaseV4.FinalKeys> candidates = new CandidateKeys<PwDatabaseV4.FinalKeys>();
+		candidates.add(new Callable<PwDatabaseV4.FinalKeys>() {
+			@Override
+			public PwDatabaseV4.FinalKeys call() throws IOException {
+				return db.deriveFinalKeys(masterSeed, kdfP, progress);
+			}
+		}, progress);
+
+		if (roundsFix > 0 && kdfP.kdfUUID.equals(AesKdf.CIPHER_UUID)
+				&& kdfP.getUInt64(AesKdf.ParamRounds) != roundsFix) {
+			final KdfParameters fixP = new KdfParameters(kdfP.kdfUUID);
+			fixP.copyTo(kdfP);
+			fixP.setUInt32(AesKdf.ParamRounds, roundsFix);
+			final KdfProgress fixProgress = new KdfProgress();
+
+			candidates.add(new Callable<PwDatabaseV4.FinalKeys>() {
+				@Override
+				public PwDatabaseV4.FinalKeys call() throws IOException {
+					return db.deriveFinalKeys(masterSeed, fixP, fixProgress);
+				}
+			}, fixProgress);
+		}
+
+		try {
+			candidates.derive();
+			for (int i = 0; i < candidates.size(); i++) {
+				PwDatabaseV4.FinalKeys keys = candidates.get(i);
+				if (check.matches(keys)) {
+					db.setFinalKeys(keys);
+					if (i > 0) {
+						// Set to the fixed rounds to open corrupted database
+						kdfP.setUInt32(AesKdf.ParamRounds, roundsFix);
+						db.numKeyEncRounds = roundsFix;
+					}
+					return;
+				}
+			}
+		} finally {
+			candidates.cancel();
+		}
+
+		if (version < PwDbHeaderV4.FILE_VERSION_32_4) {
+			throw new InvalidPasswordException();
+		}
+		// Mac doesn't match
+		throw new InvalidDBException();
+	}
+
+	private static Cipher GetCipher(CipherEngine engine, byte[] key, byte[] iv) throws IOException {
+		try {
+			return engine.getCipher(Cipher.DECRYPT_MODE, key, iv);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("Invalid algorithm.");
+		} catch (NoSuchPaddingException e) {
+			throw new IOException("Invalid algorithm.");
+		} catch (InvalidKeyException e) {
+			throw new IOException("Invalid algorithm.");
+		} catch (InvalidAlgorithmParameterException e) {
+			throw new IOException("Invalid algorithm.");
+		}
 	}
 
 	private InputStream AttachCipherStream(InputStream is, Cipher cipher) {
 		return new BetterCipherInputStream(is, cipher, 50 * 1024);
 	}
 
+	/** Times reads of is as the given stage of the load, and moves the work
+	 * they do onto its own thread, when pipelining */
+	private InputStream AttachStage(InputStream is, String name, DbMetrics.Stage metricsStage) {
+		InputStream metered = new MeteredInputStream(is, metrics, metricsStage);
+		if (!pipelined) {
+			return metered;
+		}
+
+		PipelinedInputStream stage = new PipelinedInputStream(metered, name);
+		stages.add(stage);
+
+		// Time spent waiting on the stage belongs to neither side
+		return new MeteredInputStream(stage, metrics, null);
+	}
+
+	/** Attachments are written alongside the other stages, so leave a core for those */
+	private static int AttachmentThreads() {
+		int cores = Runtime.getRuntime().availableProcessors();
+
+		return Math.min(4, Math.max(1, cores - 1));
+	}
+
+	/** Closes the payload's InflateInputStream, which hands its Inflater back for the next load */
+	private void closeInflate() {
+		if (inflate == null) {
+			return;
+		}
+
+		try {
+			inflate.close();
+		} catch (IOException e) {
+			// The payload has been read or given up on already
+		}
+		inflate = null;
+	}
+
+	private void stopStages() {
+		// Stop from the consumer end so no stage is left blocked on a full queue
+		for (int i = stages.size() - 1; i >= 0; i--) {
+			stages.get(i).stop();
+		}
+		stages.clear();
+	}
+
+	/** A separate importer to decode deferred entries and histories once
+	 * this one is done. It defers the histories of the entries it decodes. */
+	private ImporterV4 CreateDeferredReader(PwDbHeaderV4 header) {
+		ImporterV4 reader = new ImporterV4(streamDir);
+		reader.db = db;
+		reader.version = version;
+		reader.randomStream = PwStreamCipherFactory.getInstance(header.innerRandomStream, header.innerRandomStreamKey);
+		reader.lazyEntries = false;
+		reader.lazyHistory = lazyHistory;
+		reader.deferredReader = reader;
+		reader.recorder = recorder;
+		reader.recordNames = recorder.getNames();
+
+		return reader;
+	}
+
 	private void LoadInnerHeader(InputStream is, PwDbHeaderV4 header) throws IOException {
 		LEDataInputStream lis = new LEDataInputStream(is);
 
@@ -256,11 +562,9 @@ public class ImporterV4 extends Importer {
 				int binaryKey = db.binPool.findUnusedKey();
 				File file = new File(streamDir, String.valueOf(binaryKey));
 				ProtectedBinary protectedBinary = new ProtectedBinary(protectedFlag, file, size -1);
-				final OutputStream outputStream = protectedBinary.getOutputStream();
-				Util.copyStream(lis, outputStream, size -1);
-                outputStream.close();
+				attachmentWriter.write(lis, size - 1, protectedBinary);
 
-				db.binPool.poolAdd(protectedBinary);
+				db.binPool.put(binaryKey, protectedBinary);
 				break;
 			default:
 				assert(false);
@@ -306,6 +610,7 @@ public class ImporterV4 extends Importer {
 	private PwEntryV4 ctxEntry = null;
 	private String ctxStringName = null;
 	private ProtectedString ctxStringValue = null;
+	private boolean ctxStringDeferred = false;
 	private String ctxBinaryName = null;
 	private ProtectedBinary ctxBinaryValue = null;
 	private String ctxATName = null;
@@ -324,6 +629,15 @@ public class ImporterV4 extends Importer {
 	private String groupCustomDataValue = null;
 	private String entryCustomDataKey = null;
 	private String entryCustomDataValue = null;
+	private boolean deferEntry = false;
+
+	// Decoded Base64 values, reused from one element to the next
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int SCRATCH_SIZE = 256;
+	private static final int SCRATCH_KEEP = 64 * 1024;
+	private byte[] scratch = new byte[SCRATCH_SIZE];
+	private int scratchLength = 0;
+	private long deferredStreamOffset = 0;
 
 	private void ReadXmlStreamed(InputStream readerStream) throws IOException, InvalidDBException {
 		
@@ -355,7 +669,7 @@ public class ImporterV4 extends Importer {
 		
 		while (true) {
 			if ( readNextNode ) {
-				if( xpp.next() == XmlPullParser.END_DOCUMENT ) break;
+				if( NextEvent(xpp) == XmlPullParser.END_DOCUMENT ) break;
 			} else {
 				readNextNode = true;
 			}
@@ -390,28 +704,32 @@ public class ImporterV4 extends Importer {
 
 
 	private KdbContext ReadXmlElement(KdbContext ctx, XmlPullParser xpp) throws XmlPullParserException, IOException, InvalidDBException {
-		String name = xpp.getName();
+		int token = XmlElementTokens.lookup(xpp.getName());
 		switch (ctx) {
 		case Null:
-			if ( name.equalsIgnoreCase(ElemDocNode) ) {
+			if ( token == TokDocNode ) {
 				return SwitchContext(ctx, KdbContext.KeePassFile, xpp);
 			} else ReadUnknown(xpp);
 			break;
 			
 		case KeePassFile:
-			if ( name.equalsIgnoreCase(ElemMeta) ) {
+			switch ( token ) {
+			case TokMeta:
 				return SwitchContext(ctx, KdbContext.Meta, xpp);
-			} else if ( name.equalsIgnoreCase(ElemRoot) ) {
+			case TokRoot:
 				return SwitchContext(ctx, KdbContext.Root, xpp);
-			} else {
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case Meta:
-			if ( name.equalsIgnoreCase(ElemGenerator) ) {
+			switch ( token ) {
+			case TokGenerator:
 				ReadString(xpp); // Ignore
-			} else if ( name.equalsIgnoreCase(ElemHeaderHash) ) {
+				break;
+			case TokHeaderHash:
 				String encodedHash = ReadString(xpp);
 				if (!EmptyUtils.isNullOrEmpty(encodedHash) && (hashOfHeader != null)) {
 					byte[] hash = Base64.decode(encodedHash, Base64.NO_WRAP);
@@ -419,84 +737,115 @@ public class ImporterV4 extends Importer {
 						throw new InvalidDBException();
 					}
 				}
-			} else if (name.equalsIgnoreCase(ElemSettingsChanged)) {
+				break;
+			case TokSettingsChanged:
 				db.settingsChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbName) ) {
+				break;
+			case TokDbName:
 				db.name = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbNameChanged) ) {
+				break;
+			case TokDbNameChanged:
 				db.nameChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbDesc) ) {
+				break;
+			case TokDbDesc:
 				db.description = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbDescChanged) ) {
+				break;
+			case TokDbDescChanged:
 				db.descriptionChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbDefaultUser) ) {
+				break;
+			case TokDbDefaultUser:
 				db.defaultUserName = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbDefaultUserChanged) ) {
+				break;
+			case TokDbDefaultUserChanged:
 				db.defaultUserNameChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbColor)) {
+				break;
+			case TokDbColor:
 				// TODO: Add support to interpret the color if we want to allow changing the database color
 				db.color = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbMntncHistoryDays) ) {
+				break;
+			case TokDbMntncHistoryDays:
 				db.maintenanceHistoryDays = ReadUInt(xpp, DEFAULT_HISTORY_DAYS);
-			} else if ( name.equalsIgnoreCase(ElemDbKeyChanged) ) {
+				break;
+			case TokDbKeyChanged:
 				db.keyLastChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDbKeyChangeRec) ) {
+				break;
+			case TokDbKeyChangeRec:
 				db.keyChangeRecDays = ReadLong(xpp, -1);
-			} else if ( name.equalsIgnoreCase(ElemDbKeyChangeForce) ) {
+				break;
+			case TokDbKeyChangeForce:
 				db.keyChangeForceDays = ReadLong(xpp, -1);
-			} else if ( name.equalsIgnoreCase(ElemDbKeyChangeForceOnce) ) {
+				break;
+			case TokDbKeyChangeForceOnce:
 				db.keyChangeForceOnce = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemMemoryProt) ) {
+				break;
+			case TokMemoryProt:
 				return SwitchContext(ctx, KdbContext.MemoryProtection, xpp);
-			} else if ( name.equalsIgnoreCase(ElemCustomIcons) ) {
+			case TokCustomIcons:
 				return SwitchContext(ctx, KdbContext.CustomIcons, xpp);
-			} else if ( name.equalsIgnoreCase(ElemRecycleBinEnabled) ) {
+			case TokRecycleBinEnabled:
 				db.recycleBinEnabled = ReadBool(xpp, true);
-			} else if ( name.equalsIgnoreCase(ElemRecycleBinUuid) ) {
+				break;
+			case TokRecycleBinUuid:
 				db.recycleBinUUID = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemRecycleBinChanged) ) {
+				break;
+			case TokRecycleBinChanged:
 				db.recycleBinChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemEntryTemplatesGroup) ) {
+				break;
+			case TokEntryTemplatesGroup:
 				db.entryTemplatesGroup = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemEntryTemplatesGroupChanged) ) {
+				break;
+			case TokEntryTemplatesGroupChanged:
 				db.entryTemplatesGroupChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemHistoryMaxItems) ) {
+				break;
+			case TokHistoryMaxItems:
 				db.historyMaxItems = ReadInt(xpp, -1);
-			} else if ( name.equalsIgnoreCase(ElemHistoryMaxSize) ) {
+				break;
+			case TokHistoryMaxSize:
 				db.historyMaxSize = ReadLong(xpp, -1);
-			} else if ( name.equalsIgnoreCase(ElemEntryTemplatesGroupChanged) ) {
-				db.entryTemplatesGroupChanged = ReadTime(xpp);
-			} else if ( name.equalsIgnoreCase(ElemLastSelectedGroup) ) {
+				break;
+			case TokLastSelectedGroup:
 				db.lastSelectedGroup = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemLastTopVisibleGroup) ) {
+				break;
+			case TokLastTopVisibleGroup:
 				db.lastTopVisibleGroup = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemBinaries) ) {
+				break;
+			case TokBinaries:
 				return SwitchContext(ctx, KdbContext.Binaries, xpp);
-			} else if ( name.equalsIgnoreCase(ElemCustomData) ) {
+			case TokCustomData:
 				return SwitchContext(ctx, KdbContext.CustomData, xpp);
+			default:
+				break;
 			}
 			break;
 			
 		case MemoryProtection:
-			if ( name.equalsIgnoreCase(ElemProtTitle) ) {
+			switch ( token ) {
+			case TokProtTitle:
 				db.memoryProtection.protectTitle = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemProtUserName) ) {
+				break;
+			case TokProtUserName:
 				db.memoryProtection.protectUserName = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemProtPassword) ) {
+				break;
+			case TokProtPassword:
 				db.memoryProtection.protectPassword = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemProtURL) ) {
+				break;
+			case TokProtURL:
 				db.memoryProtection.protectUrl = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemProtNotes) ) {
+				break;
+			case TokProtNotes:
 				db.memoryProtection.protectNotes = ReadBool(xpp, false);
-			} else if ( name.equalsIgnoreCase(ElemProtAutoHide) ) {
+				break;
+			case TokProtAutoHide:
 				db.memoryProtection.autoEnableVisualHiding = ReadBool(xpp, false);
-			} else {
+				break;
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case CustomIcons:
-			if ( name.equalsIgnoreCase(ElemCustomIconItem) ) {
+			if ( token == TokCustomIconItem ) {
 				return SwitchContext(ctx, KdbContext.CustomIcon, xpp);
 			} else {
 				ReadUnknown(xpp);
@@ -504,26 +853,32 @@ public class ImporterV4 extends Importer {
 			break;
 			
 		case CustomIcon:
-			if ( name.equalsIgnoreCase(ElemCustomIconItemID) ) {
+			switch ( token ) {
+			case TokCustomIconItemID:
 				customIconID = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemCustomIconItemData) ) {
+				break;
+			case TokCustomIconItemData:
 				String strData = ReadString(xpp);
 				if (strData != null && strData.length() > 0) {
-					customIconData = Base64.decode(strData, Base64.NO_WRAP);
+					customIconData = DecodeBase64(strData);
 				} else {
 					assert (false);
 				}
-			} else if (name.equalsIgnoreCase(ElemName)) {
+				break;
+			case TokName:
 				customIconName = ReadString(xpp);
-			} else if (name.equalsIgnoreCase(ElemLastModTime)) {
+				break;
+			case TokLastModTime:
 				customIconLastMod = ReadTime(xpp);
-			} else {
+				break;
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case Binaries:
-			if ( name.equalsIgnoreCase(ElemBinary) ) {
+			if ( token == TokBinary ) {
 				String key = xpp.getAttributeValue(null, AttrId);
 				if ( key != null ) {
 					ProtectedBinary pbData = ReadProtectedBinary(xpp);
@@ -539,7 +894,7 @@ public class ImporterV4 extends Importer {
 			break;
 
 		case CustomData:
-			if ( name.equalsIgnoreCase(ElemStringDictExItem) ) {
+			if ( token == TokStringDictExItem ) {
 				return SwitchContext(ctx, KdbContext.CustomDataItem, xpp);
 			} else {
 				ReadUnknown(xpp);
@@ -547,19 +902,25 @@ public class ImporterV4 extends Importer {
 			break;
 			
 		case CustomDataItem:
-			if ( name.equalsIgnoreCase(ElemKey) ) {
+			switch ( token ) {
+			case TokKey:
 				customDataKey = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemValue) ) {
+				break;
+			case TokValue:
 				customDataValue = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemLastModTime)) {
+				break;
+			case TokLastModTime:
 				customDataLastMod = ReadTime(xpp);
-			} else {
+				break;
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case Root:
-			if ( name.equalsIgnoreCase(ElemGroup) ) {
+			switch ( token ) {
+			case TokGroup:
 				assert(ctxGroups.size() == 0);
 				if ( ctxGroups.size() != 0 ) throw new IOException("Group list should be empty.");
 				
@@ -568,69 +929,94 @@ public class ImporterV4 extends Importer {
 				ctxGroup = ctxGroups.peek();
 				
 				return SwitchContext(ctx, KdbContext.Group, xpp);
-			} else if ( name.equalsIgnoreCase(ElemDeletedObjects) ) {
+			case TokDeletedObjects:
 				return SwitchContext(ctx, KdbContext.RootDeletedObjects, xpp);
-			} else {
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case Group:
-			if ( name.equalsIgnoreCase(ElemUuid) ) {
+			switch ( token ) {
+			case TokUuid:
 				ctxGroup.uuid = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemName) ) {
+				break;
+			case TokName:
 				ctxGroup.name = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemNotes) ) {
+				break;
+			case TokNotes:
 				ctxGroup.notes = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemIcon) ) {
+				break;
+			case TokIcon:
 				ctxGroup.icon = db.iconFactory.getIcon((int)ReadUInt(xpp, 0));
-			} else if ( name.equalsIgnoreCase(ElemCustomIconID) ) {
+				break;
+			case TokCustomIconID:
 				ctxGroup.customIcon = db.iconFactory.getIcon(ReadUuid(xpp));
-			} else if ( name.equalsIgnoreCase(ElemTimes) ) {
+				break;
+			case TokTimes:
 				return SwitchContext(ctx, KdbContext.GroupTimes, xpp);
-			} else if ( name.equalsIgnoreCase(ElemIsExpanded) ) {
+			case TokIsExpanded:
 				ctxGroup.isExpanded = ReadBool(xpp, true);
-			} else if ( name.equalsIgnoreCase(ElemGroupDefaultAutoTypeSeq) ) {
+				break;
+			case TokGroupDefaultAutoTypeSeq:
 				ctxGroup.defaultAutoTypeSequence = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemEnableAutoType) ) {
+				break;
+			case TokEnableAutoType:
 				ctxGroup.enableAutoType = StringToBoolean(ReadString(xpp));
-			} else if ( name.equalsIgnoreCase(ElemEnableSearching) ) {
+				break;
+			case TokEnableSearching:
 				ctxGroup.enableSearching = StringToBoolean(ReadString(xpp));
-			} else if ( name.equalsIgnoreCase(ElemLastTopVisibleEntry) ) {
+				break;
+			case TokLastTopVisibleEntry:
 				ctxGroup.lastTopVisibleEntry = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemPreviousParentGroup)) {
+				break;
+			case TokPreviousParentGroup:
 				ctxGroup.prevParentGroup = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemTags)) {
+				break;
+			case TokTags:
 				ctxGroup.tags = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemCustomData) ) {
-                return SwitchContext(ctx, KdbContext.GroupCustomData, xpp);
-			} else if ( name.equalsIgnoreCase(ElemGroup) ) {
+				break;
+			case TokCustomData:
+				return SwitchContext(ctx, KdbContext.GroupCustomData, xpp);
+			case TokGroup:
 				ctxGroup = new PwGroupV4();
 				ctxGroups.peek().AddGroup(ctxGroup, true);
+
+				if ( subtrees != null && ctxGroups.size() == 1 && !xpp.isEmptyElementTag() ) {
+					DeferSubtree(xpp, ctxGroup);
+					ctxGroup = ctxGroups.peek();
+					return ctx;
+				}
+
 				ctxGroups.push(ctxGroup);
 				
 				return SwitchContext(ctx, KdbContext.Group, xpp);
-			} else if ( name.equalsIgnoreCase(ElemEntry) ) {
+			case TokEntry:
 				ctxEntry = new PwEntryV4();
 				ctxGroup.AddEntry(ctxEntry, true);
 				
 				entryInHistory = false;
+				if ( lazyEntries && deferredReader != null && !xpp.isEmptyElementTag() ) {
+					StartDeferredEntry(xpp);
+				}
 				return SwitchContext(ctx, KdbContext.Entry, xpp);
-			} else {
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
         case GroupCustomData:
-        	if (name.equalsIgnoreCase(ElemStringDictExItem)) {
+        	if (token == TokStringDictExItem) {
 				return SwitchContext(ctx, KdbContext.GroupCustomDataItem, xpp);
 			} else {
 				ReadUnknown(xpp);
 			}
             break;
         case GroupCustomDataItem:
-        	if (name.equalsIgnoreCase(ElemKey)) {
+        	if (token == TokKey) {
 				groupCustomDataKey = ReadString(xpp);
-			} else if (name.equalsIgnoreCase(ElemValue)) {
+			} else if (token == TokValue) {
 				groupCustomDataValue = ReadString(xpp);
             } else {
                 ReadUnknown(xpp);
@@ -639,58 +1025,80 @@ public class ImporterV4 extends Importer {
 
 			
 		case Entry:
-			if ( name.equalsIgnoreCase(ElemUuid) ) {
+			if ( deferEntry && IsDeferredElement(token) ) {
+				SkipElement(xpp);
+				break;
+			}
+
+			switch ( token ) {
+			case TokUuid:
 				ctxEntry.setUUID(ReadUuid(xpp));
-			} else if ( name.equalsIgnoreCase(ElemIcon) ) {
+				break;
+			case TokIcon:
 				ctxEntry.icon = db.iconFactory.getIcon((int)ReadUInt(xpp, 0));
-			} else if ( name.equalsIgnoreCase(ElemCustomIconID) ) {
+				break;
+			case TokCustomIconID:
 				ctxEntry.customIcon = db.iconFactory.getIcon(ReadUuid(xpp));
-			} else if ( name.equalsIgnoreCase(ElemFgColor) ) {
+				break;
+			case TokFgColor:
 				ctxEntry.foregroundColor = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemBgColor) ) {
+				break;
+			case TokBgColor:
 				ctxEntry.backgroupColor = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemOverrideUrl) ) {
+				break;
+			case TokOverrideUrl:
 				ctxEntry.overrideURL = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemQualityCheck)) {
+				break;
+			case TokQualityCheck:
 				ctxEntry.qualityCheck = ReadBool(xpp, true);
-			} else if ( name.equalsIgnoreCase(ElemTags) ) {
+				break;
+			case TokTags:
 				ctxEntry.tags = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemPreviousParentGroup)) {
+				break;
+			case TokPreviousParentGroup:
 				ctxEntry.prevParentGroup = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemTimes) ) {
+				break;
+			case TokTimes:
 				return SwitchContext(ctx, KdbContext.EntryTimes, xpp);
-			} else if ( name.equalsIgnoreCase(ElemString) ) {
+			case TokString:
 				return SwitchContext(ctx, KdbContext.EntryString, xpp);
-			} else if ( name.equalsIgnoreCase(ElemBinary) ) {
+			case TokBinary:
 				return SwitchContext(ctx, KdbContext.EntryBinary, xpp);
-			} else if ( name.equalsIgnoreCase(ElemAutoType) ) {
+			case TokAutoType:
 				return SwitchContext(ctx, KdbContext.EntryAutoType, xpp);
-			} else if ( name.equalsIgnoreCase(ElemCustomData)) {
+			case TokCustomData:
 				return SwitchContext(ctx, KdbContext.EntryCustomData, xpp);
-			} else if ( name.equalsIgnoreCase(ElemHistory) ) {
+			case TokHistory:
 				assert(!entryInHistory);
 				
 				if ( ! entryInHistory ) {
+					if ( lazyHistory && deferredReader != null && !xpp.isEmptyElementTag() ) {
+						DeferHistory(xpp);
+						return ctx;
+					}
+
 					ctxHistoryBase = ctxEntry;
 					return SwitchContext(ctx, KdbContext.EntryHistory, xpp);
 				} else {
 					ReadUnknown(xpp);
 				}
-			} else {
+				break;
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
         case EntryCustomData:
-            if (name.equalsIgnoreCase(ElemStringDictExItem)) {
+            if (token == TokStringDictExItem) {
                 return SwitchContext(ctx, KdbContext.EntryCustomDataItem, xpp);
             } else {
                 ReadUnknown(xpp);
             }
             break;
         case EntryCustomDataItem:
-            if (name.equalsIgnoreCase(ElemKey)) {
+            if (token == TokKey) {
                 entryCustomDataKey = ReadString(xpp);
-            } else if (name.equalsIgnoreCase(ElemValue)) {
+            } else if (token == TokValue) {
                 entryCustomDataValue = ReadString(xpp);
             } else {
                 ReadUnknown(xpp);
@@ -706,61 +1114,80 @@ public class ImporterV4 extends Importer {
 				tl = ctxEntry;
 			}
 			
-			if ( name.equalsIgnoreCase(ElemLastModTime) ) {
+			switch ( token ) {
+			case TokLastModTime:
 				tl.setLastModificationTime(ReadTime(xpp));
-			} else if ( name.equalsIgnoreCase(ElemCreationTime) ) {
+				break;
+			case TokCreationTime:
 				tl.setCreationTime(ReadTime(xpp));
-			} else if ( name.equalsIgnoreCase(ElemLastAccessTime) ) {
+				break;
+			case TokLastAccessTime:
 				tl.setLastAccessTime(ReadTime(xpp));
-			} else if ( name.equalsIgnoreCase(ElemExpiryTime) ) {
+				break;
+			case TokExpiryTime:
 				tl.setExpiryTime(ReadTime(xpp));
-			} else if ( name.equalsIgnoreCase(ElemExpires) ) {
+				break;
+			case TokExpires:
 				tl.setExpires(ReadBool(xpp, false));
-			} else if ( name.equalsIgnoreCase(ElemUsageCount) ) {
+				break;
+			case TokUsageCount:
 				tl.setUsageCount(ReadULong(xpp, 0));
-			} else if ( name.equalsIgnoreCase(ElemLocationChanged) ) {
+				break;
+			case TokLocationChanged:
 				tl.setLocationChanged(ReadTime(xpp));
-			} else {
+				break;
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case EntryString:
-			if ( name.equalsIgnoreCase(ElemKey) ) {
+			if ( token == TokKey ) {
 				ctxStringName = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemValue) ) {
-				ctxStringValue = ReadProtectedString(xpp); 
+			} else if ( token == TokValue ) {
+				if ( deferEntry && ctxStringName != null && !PwEntryV4.IsListString(ctxStringName) ) {
+					SkipElement(xpp);
+					ctxStringDeferred = true;
+				} else {
+					ctxStringValue = ReadProtectedString(xpp);
+				}
 			} else {
 				ReadUnknown(xpp);
 			}
 			break;
 			
 		case EntryBinary:
-			if ( name.equalsIgnoreCase(ElemKey) ) {
+			if ( token == TokKey ) {
 				ctxBinaryName = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemValue) ) {
+			} else if ( token == TokValue ) {
 				ctxBinaryValue = ReadProtectedBinary(xpp);
 			}
 			break;
 			
 		case EntryAutoType:
-			if ( name.equalsIgnoreCase(ElemAutoTypeEnabled) ) {
+			switch ( token ) {
+			case TokAutoTypeEnabled:
 				ctxEntry.autoType.enabled = ReadBool(xpp, true);
-			} else if ( name.equalsIgnoreCase(ElemAutoTypeObfuscation) ) {
+				break;
+			case TokAutoTypeObfuscation:
 				ctxEntry.autoType.obfuscationOptions = ReadUInt(xpp, 0);
-			} else if ( name.equalsIgnoreCase(ElemAutoTypeDefaultSeq) ) {
+				break;
+			case TokAutoTypeDefaultSeq:
 				ctxEntry.autoType.defaultSequence = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemAutoTypeItem) ) {
+				break;
+			case TokAutoTypeItem:
 				return SwitchContext(ctx, KdbContext.EntryAutoTypeItem, xpp);
-			} else {
+			default:
 				ReadUnknown(xpp);
+				break;
 			}
 			break;
 			
 		case EntryAutoTypeItem:
-			if ( name.equalsIgnoreCase(ElemWindow) ) {
+			if ( token == TokWindow ) {
 				ctxATName = ReadString(xpp);
-			} else if ( name.equalsIgnoreCase(ElemKeystrokeSequence) ) {
+			} else if ( token == TokKeystrokeSequence ) {
 				ctxATSeq = ReadString(xpp);
 			} else {
 				ReadUnknown(xpp);
@@ -768,7 +1195,7 @@ public class ImporterV4 extends Importer {
 			break;
 			
 		case EntryHistory:
-			if ( name.equalsIgnoreCase(ElemEntry) ) {
+			if ( token == TokEntry ) {
 				ctxEntry = new PwEntryV4();
 				ctxHistoryBase.history.add(ctxEntry);
 				
@@ -780,7 +1207,7 @@ public class ImporterV4 extends Importer {
 			break;
 			
 		case RootDeletedObjects:
-			if ( name.equalsIgnoreCase(ElemDeletedObject) ) {
+			if ( token == TokDeletedObject ) {
 				ctxDeletedObject = new PwDeletedObject();
 				db.deletedObjects.add(ctxDeletedObject);
 				
@@ -791,9 +1218,9 @@ public class ImporterV4 extends Importer {
 			break;
 			
 		case DeletedObject:
-			if ( name.equalsIgnoreCase(ElemUuid) ) {
+			if ( token == TokUuid ) {
 				ctxDeletedObject.uuid = ReadUuid(xpp);
-			} else if ( name.equalsIgnoreCase(ElemDeletionTime) ) {
+			} else if ( token == TokDeletionTime ) {
 				ctxDeletedObject.setDeletionTime(ReadTime(xpp));
 			} else {
 				ReadUnknown(xpp);
@@ -811,144 +1238,225 @@ public class ImporterV4 extends Importer {
 	private KdbContext EndXmlElement(KdbContext ctx, XmlPullParser xpp) throws XmlPullParserException {
 		assert(xpp.getEventType() == XmlPullParser.END_TAG);
 		
-		String name = xpp.getName();
-		if ( ctx == KdbContext.KeePassFile && name.equalsIgnoreCase(ElemDocNode) ) {
-			return KdbContext.Null;
-		} else if ( ctx == KdbContext.Meta && name.equalsIgnoreCase(ElemMeta) ) {
-			return KdbContext.KeePassFile;
-		} else if ( ctx == KdbContext.Root && name.equalsIgnoreCase(ElemRoot) ) {
-			return KdbContext.KeePassFile;
-		} else if ( ctx == KdbContext.MemoryProtection && name.equalsIgnoreCase(ElemMemoryProt) ) {
-			return KdbContext.Meta;
-		} else if ( ctx == KdbContext.CustomIcons && name.equalsIgnoreCase(ElemCustomIcons) ) {
-			return KdbContext.Meta;
-		} else if ( ctx == KdbContext.CustomIcon && name.equalsIgnoreCase(ElemCustomIconItem) ) {
-			if ( ! customIconID.equals(PwDatabaseV4.UUID_ZERO) ) {
-				PwIconCustom icon = new PwIconCustom(customIconID, customIconData);
-				if (customIconName != null) {
-					icon.name = customIconName;
+		int token = XmlElementTokens.lookup(xpp.getName());
+		switch ( ctx ) {
+		case KeePassFile:
+			if ( token == TokDocNode ) {
+				return KdbContext.Null;
+			}
+			break;
+		case Meta:
+			if ( token == TokMeta ) {
+				return KdbContext.KeePassFile;
+			}
+			break;
+		case Root:
+			if ( token == TokRoot ) {
+				return KdbContext.KeePassFile;
+			}
+			break;
+		case MemoryProtection:
+			if ( token == TokMemoryProt ) {
+				return KdbContext.Meta;
+			}
+			break;
+		case CustomIcons:
+			if ( token == TokCustomIcons ) {
+				return KdbContext.Meta;
+			}
+			break;
+		case CustomIcon:
+			if ( token == TokCustomIconItem ) {
+				if ( ! customIconID.equals(PwDatabaseV4.UUID_ZERO) ) {
+					PwIconCustom icon = new PwIconCustom(customIconID, customIconData);
+					if (customIconName != null) {
+						icon.name = customIconName;
+					}
+					if (customIconLastMod != null) {
+						icon.lastMod = customIconLastMod;
+					}
+
+					db.customIcons.add(icon);
+					db.iconFactory.put(icon);
+				} else assert(false);
+				
+				customIconID = PwDatabaseV4.UUID_ZERO;
+				customIconData = null;
+				customIconName = null;
+				customIconLastMod = null;
+				
+				return KdbContext.CustomIcons;
+			}
+			break;
+		case Binaries:
+			if ( token == TokBinaries ) {
+				return KdbContext.Meta;
+			}
+			break;
+		case CustomData:
+			if ( token == TokCustomData ) {
+				return KdbContext.Meta;
+			}
+			break;
+		case CustomDataItem:
+			if ( token == TokStringDictExItem ) {
+				if ( customDataKey != null && customDataValue != null) {
+					db.customData.put(customDataKey, customDataValue, customDataLastMod);
+				} else assert(false);
+				
+				customDataKey = null;
+				customDataValue = null;
+				customDataLastMod = null;
+				
+				return KdbContext.CustomData;
+			}
+			break;
+		case Group:
+			if ( token == TokGroup ) {
+				if ( ctxGroup.uuid == null || ctxGroup.uuid.equals(PwDatabaseV4.UUID_ZERO) ) {
+					ctxGroup.uuid = UUID.randomUUID();
 				}
-				if (customIconLastMod != null) {
-					icon.lastMod = customIconLastMod;
+				
+				ctxGroups.pop();
+				
+				if ( ctxGroups.size() == 0 ) {
+					ctxGroup = null;
+					return KdbContext.Root;
+				} else {
+					ctxGroup = ctxGroups.peek();
+					return KdbContext.Group;
 				}
-
-				db.customIcons.add(icon);
-				db.iconFactory.put(icon);
-			} else assert(false);
-			
-			customIconID = PwDatabaseV4.UUID_ZERO;
-			customIconData = null;
-			customIconName = null;
-			customIconLastMod = null;
-			
-			return KdbContext.CustomIcons;
-		} else if ( ctx == KdbContext.Binaries && name.equalsIgnoreCase(ElemBinaries) ) {
-			return KdbContext.Meta;
-		} else if ( ctx == KdbContext.CustomData && name.equalsIgnoreCase(ElemCustomData) ) {
-			return KdbContext.Meta;
-		} else if ( ctx == KdbContext.CustomDataItem && name.equalsIgnoreCase(ElemStringDictExItem) ) {
-			if ( customDataKey != null && customDataValue != null) {
-				db.customData.put(customDataKey, customDataValue, customDataLastMod);
-			} else assert(false);
-			
-			customDataKey = null;
-			customDataValue = null;
-			customDataLastMod = null;
-			
-			return KdbContext.CustomData;
-		} else if ( ctx == KdbContext.Group && name.equalsIgnoreCase(ElemGroup) ) {
-			if ( ctxGroup.uuid == null || ctxGroup.uuid.equals(PwDatabaseV4.UUID_ZERO) ) {
-				ctxGroup.uuid = UUID.randomUUID();
 			}
-			
-			ctxGroups.pop();
-			
-			if ( ctxGroups.size() == 0 ) {
-				ctxGroup = null;
-				return KdbContext.Root;
-			} else {
-				ctxGroup = ctxGroups.peek();
+			break;
+		case GroupTimes:
+			if ( token == TokTimes ) {
 				return KdbContext.Group;
 			}
-		} else if ( ctx == KdbContext.GroupTimes && name.equalsIgnoreCase(ElemTimes) ) {
-			return KdbContext.Group;
-		} else if ( ctx == KdbContext.GroupCustomData && name.equalsIgnoreCase(ElemCustomData) ) {
-			return KdbContext.Group;
-		} else if ( ctx == KdbContext.GroupCustomDataItem && name.equalsIgnoreCase(ElemStringDictExItem)) {
-			if (groupCustomDataKey != null && groupCustomDataValue != null) {
-				ctxGroup.customData.put(groupCustomDataKey, groupCustomDataKey, customDataLastMod);
-			} else {
-				assert(false);
+			break;
+		case GroupCustomData:
+			if ( token == TokCustomData ) {
+				return KdbContext.Group;
 			}
+			break;
+		case GroupCustomDataItem:
+			if ( token == TokStringDictExItem ) {
+				if (groupCustomDataKey != null && groupCustomDataValue != null) {
+					ctxGroup.customData.put(groupCustomDataKey, groupCustomDataKey, customDataLastMod);
+				} else {
+					assert(false);
+				}
 
-			groupCustomDataKey = null;
-			groupCustomDataValue = null;
+				groupCustomDataKey = null;
+				groupCustomDataValue = null;
 
-			return KdbContext.GroupCustomData;
+				return KdbContext.GroupCustomData;
+			}
+			break;
+		case Entry:
+			if ( token == TokEntry ) {
+				if ( ctxEntry.uuid == null || ctxEntry.uuid.equals(PwDatabaseV4.UUID_ZERO) ) {
+					ctxEntry.uuid = UUID.randomUUID();
+				}
+				
+				if ( entryInHistory ) {
+					ctxEntry = ctxHistoryBase;
+					return KdbContext.EntryHistory;
+				}
 
-		} else if ( ctx == KdbContext.Entry && name.equalsIgnoreCase(ElemEntry) ) {
-			if ( ctxEntry.uuid == null || ctxEntry.uuid.equals(PwDatabaseV4.UUID_ZERO) ) {
-				ctxEntry.uuid = UUID.randomUUID();
+				if ( deferEntry ) {
+					FinishDeferredEntry();
+				}
+				
+				return KdbContext.Group;
 			}
-			
-			if ( entryInHistory ) {
-				ctxEntry = ctxHistoryBase;
-				return KdbContext.EntryHistory;
+			break;
+		case EntryTimes:
+			if ( token == TokTimes ) {
+				return KdbContext.Entry;
 			}
-			
-			return KdbContext.Group;
-		} else if ( ctx == KdbContext.EntryTimes && name.equalsIgnoreCase(ElemTimes) ) {
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.EntryString && name.equalsIgnoreCase(ElemString) ) {
-			ctxEntry.strings.put(ctxStringName, ctxStringValue);
-			ctxStringName = null;
-			ctxStringValue = null;
-			
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.EntryBinary && name.equalsIgnoreCase(ElemBinary) ) {
-			ctxEntry.binaries.put(ctxBinaryName, ctxBinaryValue);
-			ctxBinaryName = null;
-			ctxBinaryValue = null;
-			
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.EntryAutoType && name.equalsIgnoreCase(ElemAutoType) ) {
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.EntryAutoTypeItem && name.equalsIgnoreCase(ElemAutoTypeItem) ) {
-			ctxEntry.autoType.put(ctxATName, ctxATSeq);
-			ctxATName = null;
-			ctxATSeq = null;
-
-			return KdbContext.EntryAutoType;
-		} else if ( ctx == KdbContext.EntryCustomData && name.equalsIgnoreCase(ElemCustomData)) {
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.EntryCustomDataItem && name.equalsIgnoreCase(ElemStringDictExItem)) {
-			if (entryCustomDataKey != null && entryCustomDataValue != null) {
-				ctxEntry.customData.put(entryCustomDataKey, entryCustomDataValue);
-			} else {
-				assert(false);
+			break;
+		case EntryString:
+			if ( token == TokString ) {
+				if ( !ctxStringDeferred ) {
+					ctxEntry.strings.put(ctxStringName, ctxStringValue);
+				}
+				ctxStringName = null;
+				ctxStringValue = null;
+				ctxStringDeferred = false;
+				
+				return KdbContext.Entry;
+			}
+			break;
+		case EntryBinary:
+			if ( token == TokBinary ) {
+				ctxEntry.binaries.put(ctxBinaryName, ctxBinaryValue);
+				ctxBinaryName = null;
+				ctxBinaryValue = null;
+				
+				return KdbContext.Entry;
 			}
+			break;
+		case EntryAutoType:
+			if ( token == TokAutoType ) {
+				return KdbContext.Entry;
+			}
+			break;
+		case EntryAutoTypeItem:
+			if ( token == TokAutoTypeItem ) {
+				ctxEntry.autoType.put(ctxATName, ctxATSeq);
+				ctxATName = null;
+				ctxATSeq = null;
 
-			entryCustomDataKey = null;
-			entryCustomDataValue = null;
+				return KdbContext.EntryAutoType;
+			}
+			break;
+		case EntryCustomData:
+			if ( token == TokCustomData ) {
+				return KdbContext.Entry;
+			}
+			break;
+		case EntryCustomDataItem:
+			if ( token == TokStringDictExItem ) {
+				if (entryCustomDataKey != null && entryCustomDataValue != null) {
+					ctxEntry.customData.put(entryCustomDataKey, entryCustomDataValue);
+				} else {
+					assert(false);
+				}
 
-			return KdbContext.EntryCustomData;
-		} else if ( ctx == KdbContext.EntryHistory && name.equalsIgnoreCase(ElemHistory) ) {
-			entryInHistory = false;
-			return KdbContext.Entry;
-		} else if ( ctx == KdbContext.RootDeletedObjects && name.equalsIgnoreCase(ElemDeletedObjects) ) {
-			return KdbContext.Root;
-		} else if ( ctx == KdbContext.DeletedObject && name.equalsIgnoreCase(ElemDeletedObject) ) {
-			ctxDeletedObject = null;
-			return KdbContext.RootDeletedObjects;
-		} else {
-			assert(false);
+				entryCustomDataKey = null;
+				entryCustomDataValue = null;
 
-			String contextName = "";
-			if (ctx != null) {
-				contextName = ctx.name();
+				return KdbContext.EntryCustomData;
+			}
+			break;
+		case EntryHistory:
+			if ( token == TokHistory ) {
+				entryInHistory = false;
+				return KdbContext.Entry;
+			}
+			break;
+		case RootDeletedObjects:
+			if ( token == TokDeletedObjects ) {
+				return KdbContext.Root;
+			}
+			break;
+		case DeletedObject:
+			if ( token == TokDeletedObject ) {
+				ctxDeletedObject = null;
+				return KdbContext.RootDeletedObjects;
 			}
-			throw new RuntimeException("Invalid end element: Context " +  contextName + "End element: " + name);
+			break;
+		default:
+			break;
 		}
+
+		assert(false);
+
+		String contextName = "";
+		if (ctx != null) {
+			contextName = ctx.name();
+		}
+		throw new RuntimeException("Invalid end element: Context " +  contextName + "End element: " + xpp.getName());
 	}
 	
 	private Date ReadTime(XmlPullParser xpp) throws IOException, XmlPullParserException {
@@ -956,27 +1464,16 @@ public class ImporterV4 extends Importer {
 		Date utcDate = null;
 
 		if (version >= PwDbHeaderV4.FILE_VERSION_32_4) {
-			byte[] buf = Base64.decode(sDate, Base64.NO_WRAP);
-			if (buf.length != 8) {
-				byte[] buf8 = new byte[8];
-				System.arraycopy(buf, 0, buf8, 0, Math.min(buf.length, 8));
-				buf = buf8;
+			DecodeScratch(sDate);
+			if (scratchLength < 8) {
+				Arrays.fill(scratch, scratchLength, 8, (byte) 0);
 			}
 
-			long seconds = LEDataInputStream.readLong(buf, 0);
+			long seconds = LEDataInputStream.readLong(scratch, 0);
 			utcDate = DateUtil.convertKDBX4Time(seconds);
 
 		} else {
-
-			try {
-				utcDate = PwDatabaseV4XML.dateFormatter.get().parse(sDate);
-			} catch (ParseException e) {
-				// Catch with null test below
-			}
-
-			if (utcDate == null) {
-				utcDate = new Date(0L);
-			}
+			utcDate = DateUtil.parseKDBX3Time(sDate);
 		}
 		
 		return utcDate;
@@ -991,7 +1488,7 @@ public class ImporterV4 extends Importer {
 		String unknownName = xpp.getName();
 		ProcessNode(xpp);
 		
-		while (xpp.next() != XmlPullParser.END_DOCUMENT ) {
+		while (NextEvent(xpp) != XmlPullParser.END_DOCUMENT ) {
 			if ( xpp.getEventType() == XmlPullParser.END_TAG ) break;
 			if ( xpp.getEventType() == XmlPullParser.START_TAG ) continue;
 			
@@ -1021,9 +1518,12 @@ public class ImporterV4 extends Importer {
 			return PwDatabaseV4.UUID_ZERO;
 		}
 		
-		byte[] buf = Base64.decode(encoded, Base64.NO_WRAP);
+		DecodeScratch(encoded);
+		if ( scratchLength < 16 ) {
+			Arrays.fill(scratch, scratchLength, 16, (byte) 0);
+		}
 		
-		return Types.bytestoUUID(buf);
+		return Types.bytestoUUID(scratch);
 	}
 	
 	private int ReadInt(XmlPullParser xpp, int def) throws IOException, XmlPullParserException {
@@ -1077,15 +1577,8 @@ public class ImporterV4 extends Importer {
 	}
 	
 	private ProtectedString ReadProtectedString(XmlPullParser xpp) throws XmlPullParserException, IOException {
-		byte[] buf = ProcessNode(xpp);
-		
-		if ( buf != null) {
-			try {
-				return new ProtectedString(true, new String(buf, "UTF-8"));
-			} catch (UnsupportedEncodingException e) {
-				e.printStackTrace();
-				throw new IOException(e.getLocalizedMessage());
-			} 
+		if ( ProcessNode(xpp) ) {
+			return new ProtectedString(true, ScratchToString());
 		}
 		
 		return new ProtectedString(false, ReadString(xpp));
@@ -1094,7 +1587,7 @@ public class ImporterV4 extends Importer {
 	private ProtectedBinary ReadProtectedBinary(XmlPullParser xpp) throws XmlPullParserException, IOException {
 		String ref = xpp.getAttributeValue(null, AttrRef);
 		if (ref != null) {
-			xpp.next(); // Consume end tag
+			NextEvent(xpp); // Consume end tag
 
 			int id = Integer.parseInt(ref);
 			return db.binPool.get(id);
@@ -1106,81 +1599,427 @@ public class ImporterV4 extends Importer {
 			compressed = comp.equalsIgnoreCase(ValTrue);
 		}
 		
-		byte[] buf = ProcessNode(xpp);
-		
-		if ( buf != null ) return new ProtectedBinary(true, buf);
+		if ( ProcessNode(xpp) ) {
+			byte[] data = Arrays.copyOf(scratch, scratchLength);
+			WipeScratch();
+
+			return new ProtectedBinary(true, data);
+		}
 		
 		String base64 = ReadString(xpp);
 		if ( base64.length() == 0 ) return ProtectedBinary.EMPTY;
 		
-		byte[] data = Base64.decode(base64, Base64.NO_WRAP);
+		DecodeScratch(base64);
 		
+		byte[] data;
 		if (compressed) {
-			data = MemUtil.decompress(data);
+			metrics.begin(DbMetrics.Stage.COMPRESSION);
+			try {
+				data = MemUtil.decompress(scratch, 0, scratchLength);
+			} finally {
+				metrics.end();
+			}
+			metrics.addBytes(DbMetrics.Stage.COMPRESSION, data.length);
+			metrics.addCompression(scratchLength, data.length);
+		} else {
+			data = Arrays.copyOf(scratch, scratchLength);
 		}
 		
 		return new ProtectedBinary(false, data);
 	}
 	
 	private String ReadString(XmlPullParser xpp) throws IOException, XmlPullParserException {
-		byte[] buf = ProcessNode(xpp);
-		
-		if ( buf != null ) {
-			try {
-				return new String(buf, "UTF-8");
-			} catch (UnsupportedEncodingException e) {
-				throw new IOException(e.getLocalizedMessage());
-			}
+		if ( ProcessNode(xpp) ) {
+			return ScratchToString();
 		}
 		
 		//readNextNode = false;
-		return xpp.nextText();
+		return NextText(xpp);
 		
 	}
 	
 	private String ReadStringRaw(XmlPullParser xpp) throws XmlPullParserException, IOException {
 		
 		//readNextNode = false;
-		return xpp.nextText();
+		return NextText(xpp);
 	}
 
-	private byte[] ProcessNode(XmlPullParser xpp) throws XmlPullParserException, IOException {
+	/** If the element is protected, reads and decrypts its value into
+	 * scratch and returns true */
+	private boolean ProcessNode(XmlPullParser xpp) throws XmlPullParserException, IOException {
 		assert(xpp.getEventType() == XmlPullParser.START_TAG);
 		
-		byte[] buf = null;
-		
 		if ( xpp.getAttributeCount() > 0 ) {
 			String protect = xpp.getAttributeValue(null, AttrProtected);
 			if ( protect != null && protect.equalsIgnoreCase(ValTrue) ) {
-				String encrypted = ReadStringRaw(xpp);
+				DecodeScratch(ReadStringRaw(xpp));
+				randomStream.processBytes(scratch, 0, scratchLength, scratch, 0);
 				
-				if ( encrypted.length() > 0 ) {
-					buf = Base64.decode(encrypted, Base64.NO_WRAP);
-					byte[] plainText = new byte[buf.length];
-					
-					randomStream.processBytes(buf, 0, buf.length, plainText, 0);
-					
-					return plainText;
-				} else {
-					buf = new byte[0];
-				}
+				return true;
 			}
 		}
 		
-		return buf;
+		return false;
+	}
+
+	/** Decodes Base64 text into scratch, which is reused for every value */
+	private void DecodeScratch(String encoded) {
+		int max = Base64Util.maxDecodedLength(encoded);
+		if ( scratch.length < max ) {
+			WipeScratch();
+			scratch = new byte[Math.max(max, scratch.length * 2)];
+		}
+
+		scratchLength = Base64Util.decode(encoded, scratch, 0);
+	}
+
+	/** Decodes Base64 text into a new array, going through scratch */
+	private byte[] DecodeBase64(String encoded) {
+		DecodeScratch(encoded);
+
+		return Arrays.copyOf(scratch, scratchLength);
+	}
+
+	/** Builds a string from the UTF-8 value in scratch, then clears it */
+	private String ScratchToString() {
+		String str = new String(scratch, 0, scratchLength, UTF8);
+		WipeScratch();
+
+		return str;
+	}
+
+	private void WipeScratch() {
+		Arrays.fill(scratch, 0, scratchLength, (byte) 0);
+		scratchLength = 0;
 	}
 
 	private KdbContext SwitchContext(KdbContext ctxCurrent, KdbContext ctxNew,
 			XmlPullParser xpp) throws XmlPullParserException, IOException {
 
 		if ( xpp.isEmptyElementTag() ) {
-			xpp.next();  // Consume the end tag
+			NextEvent(xpp);  // Consume the end tag
 			return ctxCurrent;
 		}
 		return ctxNew;
 	}
 
 
+	/** Advances the parser, recording the event when inside a deferred entry */
+	private int NextEvent(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		int event = xpp.next();
+		recorder.event(xpp);
+
+		return event;
+	}
+
+	private String NextText(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		String text = xpp.nextText();
+		if (recorder.isRecording()) {
+			recorder.text(text);
+			recorder.endTag();
+		}
+
+		return text;
+	}
+
+	private void StartDeferredEntry(XmlPullParser xpp) throws XmlPullParserException {
+		deferEntry = true;
+		deferredStreamOffset = ((SkippingStreamCipher) randomStream).getPosition();
+		recorder.start(xpp);
+	}
+
+	private void FinishDeferredEntry() {
+		ctxEntry.setDeferred(new DeferredRecord(deferredReader, recorder.finish(), deferredStreamOffset, false));
+		deferEntry = false;
+	}
+
+	/** Records the history subtree along with the inner random stream
+	 * position it starts at, and skips over it */
+	private void DeferHistory(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		long streamOffset = ((SkippingStreamCipher) randomStream).getPosition();
+		recorder.start(xpp);
+		SkipElement(xpp);
+		ctxEntry.setDeferredHistory(new DeferredRecord(deferredReader, recorder.finish(), streamOffset, true));
+	}
+
+	/** A top level group's subtree, recorded to be parsed on another thread */
+	private static class GroupSubtree {
+		final PwGroupV4 group;
+		final byte[] xml;
+		final long streamOffset;
+
+		GroupSubtree(PwGroupV4 group, byte[] xml, long streamOffset) {
+			this.group = group;
+			this.xml = xml;
+			this.streamOffset = streamOffset;
+		}
+	}
+
+	/** Records the subtree of a top level group along with the inner random
+	 * stream position it starts at, and skips over it. The group is already
+	 * in place under the root, and is filled in by ParseSubtrees. */
+	private void DeferSubtree(XmlPullParser xpp, PwGroupV4 group) throws XmlPullParserException, IOException {
+		long streamOffset = ((SkippingStreamCipher) randomStream).getPosition();
+		recorder.start(xpp);
+		SkipElement(xpp);
+		subtrees.add(new GroupSubtree(group, recorder.finish(), streamOffset));
+	}
+
+	/** Parses the recorded subtrees, on as many threads as there are cores
+	 * to use. The first thread is the caller's. */
+	private void ParseSubtrees(PwDbHeaderV4 header) throws IOException {
+		final List<GroupSubtree> pending = subtrees;
+		subtrees = null;
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		int threads = Math.min(pending.size(), Math.min(MAX_GROUP_THREADS, cores));
+		final AtomicInteger next = new AtomicInteger(0);
+		final AtomicBoolean failed = new AtomicBoolean(false);
+
+		List<FutureTask<Void>> tasks = new ArrayList<FutureTask<Void>>();
+		for (int i = 0; i < threads; i++) {
+			final ImporterV4 reader = CreateSubtreeReader(header);
+			tasks.add(new FutureTask<Void>(new Callable<Void>() {
+				@Override
+				public Void call() throws IOException {
+					metrics.begin(DbMetrics.Stage.PARSE);
+					try {
+						int i;
+						while ( !failed.get() && (i = next.getAndIncrement()) < pending.size() ) {
+							reader.ReadSubtree(pending.get(i));
+						}
+					} catch (IOException e) {
+						failed.set(true);
+						throw e;
+					} catch (RuntimeException e) {
+						failed.set(true);
+						throw e;
+					} finally {
+						metrics.end();
+					}
+
+					return null;
+				}
+			}));
+		}
+
+		for (int i = 1; i < tasks.size(); i++) {
+			Thread t = new Thread(tasks.get(i), "Group parser " + i);
+			t.setDaemon(true);
+			t.start();
+		}
+		if (tasks.size() > 0) {
+			tasks.get(0).run();
+		}
+
+		// Time spent waiting on the other threads belongs to no stage
+		metrics.begin(null);
+		try {
+			for (FutureTask<Void> task : tasks) {
+				task.get();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Interrupted parsing groups");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		} finally {
+			metrics.end();
+		}
+	}
+
+	/** An importer to parse recorded group subtrees. It defers entries the
+	 * same way this one does, through a deferred reader of its own. */
+	private ImporterV4 CreateSubtreeReader(PwDbHeaderV4 header) {
+		ImporterV4 reader = new ImporterV4(streamDir);
+		reader.db = db;
+		reader.version = version;
+		reader.randomStream = PwStreamCipherFactory.getInstance(header.innerRandomStream, header.innerRandomStreamKey);
+		reader.metrics = metrics;
+		reader.lazyEntries = lazyEntries;
+		reader.lazyHistory = lazyHistory;
+		reader.recordNames = recorder.getNames();
+		if (lazyEntries || lazyHistory) {
+			reader.deferredReader = reader.CreateDeferredReader(header);
+		}
+
+		return reader;
+	}
+
+	private void ReadSubtree(GroupSubtree subtree) throws IOException {
+		ctxGroups.clear();
+		ctxGroups.push(subtree.group);
+		ctxGroup = subtree.group;
+
+		ReadRecord(subtree.xml, subtree.streamOffset, KdbContext.Group, KdbContext.Root);
+	}
+
+	/** Entry fields that are not needed to list entries */
+	private static boolean IsDeferredElement(int token) {
+		switch ( token ) {
+		case TokFgColor:
+		case TokBgColor:
+		case TokOverrideUrl:
+		case TokQualityCheck:
+		case TokTags:
+		case TokPreviousParentGroup:
+		case TokBinary:
+		case TokAutoType:
+		case TokCustomData:
+		case TokHistory:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/** Passes over an element without decoding it, keeping the inner random
+	 * stream in step with any protected values inside */
+	private void SkipElement(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		if ( SkipProtected(xpp) ) return;
+
+		int depth = 1;
+		while ( depth > 0 ) {
+			switch ( NextEvent(xpp) ) {
+			case XmlPullParser.START_TAG:
+				if ( !SkipProtected(xpp) ) depth++;
+				break;
+			case XmlPullParser.END_TAG:
+				depth--;
+				break;
+			case XmlPullParser.END_DOCUMENT:
+				throw new IOException("Malformed");
+			default:
+				break;
+			}
+		}
+	}
+
+	private boolean SkipProtected(XmlPullParser xpp) throws XmlPullParserException, IOException {
+		if ( xpp.getAttributeCount() > 0 ) {
+			String protect = xpp.getAttributeValue(null, AttrProtected);
+			if ( protect != null && protect.equalsIgnoreCase(ValTrue) ) {
+				String encrypted = ReadStringRaw(xpp);
+				((SkippingStreamCipher) randomStream).skip(Base64DecodedLength(encrypted));
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static long Base64DecodedLength(String encoded) {
+		long chars = 0;
+		for (int i = 0; i < encoded.length(); i++) {
+			char c = encoded.charAt(i);
+			if ( c != '=' && !Character.isWhitespace(c) ) {
+				chars++;
+			}
+		}
+
+		return chars * 6 / 8;
+	}
+
+	/** Parses a recorded entry, starting the inner random stream where it was
+	 * when the entry was first read */
+	private synchronized PwEntryV4 ReadDeferredEntry(byte[] xml, long streamOffset) throws IOException {
+		PwEntryV4 entry = new PwEntryV4();
+		ctxEntry = entry;
+		ReadRecord(xml, streamOffset, KdbContext.Entry, KdbContext.Group);
+
+		return entry;
+	}
+
+	/** Parses a recorded history the same way */
+	private synchronized ArrayList<PwEntryV4> ReadDeferredHistory(byte[] xml, long streamOffset) throws IOException {
+		PwEntryV4 owner = new PwEntryV4();
+		ctxHistoryBase = owner;
+		ReadRecord(xml, streamOffset, KdbContext.EntryHistory, KdbContext.Entry);
+
+		return owner.history;
+	}
+
+	private void ReadRecord(byte[] xml, long streamOffset, KdbContext start, KdbContext end) throws IOException {
+		((SkippingStreamCipher) randomStream).seekTo(streamOffset);
+
+		try {
+			XmlPullParser xpp = new RecordedPullParser(xml, recordNames);
+			if ( xpp.nextTag() != XmlPullParser.START_TAG ) {
+				throw new IOException("Malformed");
+			}
+
+			entryInHistory = false;
+
+			// Runs until the end tag of the recorded element
+			KdbContext ctx = start;
+			boolean done = false;
+			while ( !done ) {
+				switch ( NextEvent(xpp) ) {
+				case XmlPullParser.START_TAG:
+					ctx = ReadXmlElement(ctx, xpp);
+					break;
+				case XmlPullParser.END_TAG:
+					ctx = EndXmlElement(ctx, xpp);
+					done = xpp.getDepth() == 1;
+					break;
+				case XmlPullParser.END_DOCUMENT:
+					throw new IOException("Malformed");
+				default:
+					break;
+				}
+			}
+
+			if ( ctx != end ) {
+				throw new IOException("Malformed");
+			}
+		} catch (XmlPullParserException e) {
+			throw new IOException(e.getLocalizedMessage());
+		} catch (InvalidDBException e) {
+			throw new IOException(e.getLocalizedMessage());
+		} finally {
+			ctxEntry = null;
+			ctxHistoryBase = null;
+
+			// This importer lives as long as the database, so don't hold on
+			// to a buffer grown for a large attachment
+			WipeScratch();
+			if ( scratch.length > SCRATCH_KEEP ) {
+				scratch = new byte[SCRATCH_SIZE];
+			}
+		}
+	}
+
+	/** An entry or history left undecoded by a lazy load */
+	private static class DeferredRecord implements PwEntryV4.Deferred {
+		private final ImporterV4 reader;
+		private final byte[] xml;
+		private final long streamOffset;
+		private final boolean history;
+
+		public DeferredRecord(ImporterV4 reader, byte[] xml, long streamOffset, boolean history) {
+			this.reader = reader;
+			this.xml = xml;
+			this.streamOffset = streamOffset;
+			this.history = history;
+		}
+
+		@Override
+		public void load(PwEntryV4 entry) throws IOException {
+			if (history) {
+				entry.history = reader.ReadDeferredHistory(xml, streamOffset);
+			} else {
+				entry.assignDeferred(reader.ReadDeferredEntry(xml, streamOffset));
+			}
+		}
+	}
+
 	private Boolean StringToBoolean(String str) {
 		if ( str == null || str.length() == 0 ) {
 			return null;
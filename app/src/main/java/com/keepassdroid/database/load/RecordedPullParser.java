@@ -0,0 +1,388 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays a subtree recorded by {@link XmlSubtreeRecorder}. Supports the
+ * parts of the pull parser interface the importer uses; names are reported
+ * without namespaces.
+ */
+class RecordedPullParser implements XmlPullParser {
+    private final byte[] record;
+    private final List<String> names;
+    private int pos = 0;
+
+    private int type = START_DOCUMENT;
+    private String name;
+    private String text;
+    private boolean empty;
+    private String[] stack = new String[16];
+    private int depth = 0;
+
+    private int attributeCount = -1;
+    private String[] attributeNames = new String[4];
+    private String[] attributeValues = new String[4];
+
+    private char[] chars = new char[64];
+
+    public RecordedPullParser(byte[] record, List<String> names) {
+        this.record = record;
+        this.names = names;
+    }
+
+    @Override
+    public int next() throws XmlPullParserException {
+        if (type == END_TAG) {
+            depth--;
+        }
+
+        name = null;
+        text = null;
+        attributeCount = -1;
+
+        if (pos >= record.length) {
+            return type = END_DOCUMENT;
+        }
+
+        byte op = record[pos++];
+        switch (op) {
+            case XmlSubtreeRecorder.START_TAG:
+            case XmlSubtreeRecorder.EMPTY_TAG:
+                empty = op == XmlSubtreeRecorder.EMPTY_TAG;
+                name = names.get(readVarInt());
+                attributeCount = readVarInt();
+                if (attributeCount > attributeNames.length) {
+                    attributeNames = new String[attributeCount];
+                    attributeValues = new String[attributeCount];
+                }
+                for (int i = 0; i < attributeCount; i++) {
+                    attributeNames[i] = names.get(readVarInt());
+                    attributeValues[i] = readString();
+                }
+
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                }
+                stack[depth++] = name;
+                return type = START_TAG;
+            case XmlSubtreeRecorder.TEXT:
+                text = readString();
+                return type = TEXT;
+            case XmlSubtreeRecorder.END_TAG:
+                if (depth == 0) {
+                    throw new XmlPullParserException("Unbalanced end tag", this, null);
+                }
+                name = stack[depth - 1];
+                return type = END_TAG;
+            default:
+                throw new XmlPullParserException("Corrupt record", this, null);
+        }
+    }
+
+    @Override
+    public int nextToken() throws XmlPullParserException {
+        return next();
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException {
+        if (type != START_TAG) {
+            throw new XmlPullParserException("Expected start tag", this, null);
+        }
+
+        int event = next();
+        if (event == END_TAG) {
+            return "";
+        } else if (event == TEXT) {
+            String result = text;
+            if (next() != END_TAG) {
+                throw new XmlPullParserException("Expected end tag", this, null);
+            }
+            return result;
+        }
+
+        throw new XmlPullParserException("Expected text", this, null);
+    }
+
+    @Override
+    public int nextTag() throws XmlPullParserException {
+        next();
+        if (type == TEXT && isWhitespace()) {
+            next();
+        }
+
+        if (type != START_TAG && type != END_TAG) {
+            throw new XmlPullParserException("Expected start or end tag", this, null);
+        }
+
+        return type;
+    }
+
+    @Override
+    public void require(int type, String namespace, String name) throws XmlPullParserException {
+        if (type != this.type || (name != null && !name.equals(this.name))) {
+            throw new XmlPullParserException("Expected " + name, this, null);
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        return type;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (text == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = text.length();
+        return text.toCharArray();
+    }
+
+    @Override
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (type != TEXT) {
+            throw new XmlPullParserException("Not text", this, null);
+        }
+
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean isEmptyElementTag() throws XmlPullParserException {
+        if (type != START_TAG) {
+            throw new XmlPullParserException("Not a start tag", this, null);
+        }
+
+        return empty;
+    }
+
+    @Override
+    public int getDepth() {
+        return depth;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return attributeCount;
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        checkAttribute(index);
+        return attributeNames[index];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttribute(index);
+        return attributeValues[index];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        for (int i = 0; i < attributeCount; i++) {
+            if (attributeNames[i].equals(name)) {
+                return attributeValues[i];
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttribute(index);
+        return NO_NAMESPACE;
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        checkAttribute(index);
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        checkAttribute(index);
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeDefault(int index) {
+        checkAttribute(index);
+        return false;
+    }
+
+    @Override
+    public String getNamespace() {
+        return (type == START_TAG || type == END_TAG) ? NO_NAMESPACE : null;
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    @Override
+    public int getNamespaceCount(int depth) {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("No namespaces", this, null);
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) throws XmlPullParserException {
+        throw new XmlPullParserException("No namespaces", this, null);
+    }
+
+    @Override
+    public String getPositionDescription() {
+        return "record offset " + pos;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state) {
+            throw new XmlPullParserException("Unsupported feature " + name, this, null);
+        }
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property " + name, this, null);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void setInput(Reader in) throws XmlPullParserException {
+        throw new XmlPullParserException("Input is fixed", this, null);
+    }
+
+    @Override
+    public void setInput(InputStream inputStream, String inputEncoding) throws XmlPullParserException {
+        throw new XmlPullParserException("Input is fixed", this, null);
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return null;
+    }
+
+    @Override
+    public void defineEntityReplacementText(String entityName, String replacementText) throws XmlPullParserException {
+        throw new XmlPullParserException("Entities are already replaced", this, null);
+    }
+
+    private void checkAttribute(int index) {
+        if (index < 0 || index >= attributeCount) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = record[pos++];
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private String readString() {
+        int bytes = readVarInt();
+        if (chars.length < bytes) {
+            chars = new char[bytes];
+        }
+
+        int end = pos + bytes;
+        int count = 0;
+        while (pos < end) {
+            int b = record[pos++] & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) (((b & 0x1F) << 6) | (record[pos++] & 0x3F));
+            } else {
+                chars[count++] = (char) (((b & 0x0F) << 12) | ((record[pos++] & 0x3F) << 6)
+                        | (record[pos++] & 0x3F));
+            }
+        }
+
+        return new String(chars, 0, count);
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import java.util.Locale;
+
+import static com.keepassdroid.database.PwDatabaseV4XML.*;
+
+/**
+ * Maps KDBX element names to small integer tokens, so the importer can
+ * dispatch on a switch instead of comparing the name against every element
+ * it knows. Names are looked up in a hash table built once; a name that
+ * differs only in case falls back to a second, lower case table.
+ */
+final class XmlElementTokens {
+    static final int TokUnknown = 0;
+    static final int TokDocNode = 1;
+    static final int TokMeta = 2;
+    static final int TokRoot = 3;
+    static final int TokGroup = 4;
+    static final int TokEntry = 5;
+    static final int TokGenerator = 6;
+    static final int TokHeaderHash = 7;
+    static final int TokSettingsChanged = 8;
+    static final int TokDbName = 9;
+    static final int TokDbNameChanged = 10;
+    static final int TokDbDesc = 11;
+    static final int TokDbDescChanged = 12;
+    static final int TokDbDefaultUser = 13;
+    static final int TokDbDefaultUserChanged = 14;
+    static final int TokDbMntncHistoryDays = 15;
+    static final int TokDbColor = 16;
+    static final int TokDbKeyChanged = 17;
+    static final int TokDbKeyChangeRec = 18;
+    static final int TokDbKeyChangeForce = 19;
+    static final int TokDbKeyChangeForceOnce = 20;
+    static final int TokRecycleBinEnabled = 21;
+    static final int TokRecycleBinUuid = 22;
+    static final int TokRecycleBinChanged = 23;
+    static final int TokEntryTemplatesGroup = 24;
+    static final int TokEntryTemplatesGroupChanged = 25;
+    static final int TokHistoryMaxItems = 26;
+    static final int TokHistoryMaxSize = 27;
+    static final int TokLastSelectedGroup = 28;
+    static final int TokLastTopVisibleGroup = 29;
+    static final int TokPreviousParentGroup = 30;
+    static final int TokMemoryProt = 31;
+    static final int TokProtTitle = 32;
+    static final int TokProtUserName = 33;
+    static final int TokProtPassword = 34;
+    static final int TokProtURL = 35;
+    static final int TokProtNotes = 36;
+    static final int TokProtAutoHide = 37;
+    static final int TokCustomIcons = 38;
+    static final int TokCustomIconItem = 39;
+    static final int TokCustomIconItemData = 40;
+    static final int TokAutoType = 41;
+    static final int TokHistory = 42;
+    static final int TokName = 43;
+    static final int TokNotes = 44;
+    static final int TokUuid = 45;
+    static final int TokIcon = 46;
+    static final int TokCustomIconID = 47;
+    static final int TokFgColor = 48;
+    static final int TokBgColor = 49;
+    static final int TokOverrideUrl = 50;
+    static final int TokQualityCheck = 51;
+    static final int TokTimes = 52;
+    static final int TokTags = 53;
+    static final int TokCreationTime = 54;
+    static final int TokLastModTime = 55;
+    static final int TokLastAccessTime = 56;
+    static final int TokExpiryTime = 57;
+    static final int TokExpires = 58;
+    static final int TokUsageCount = 59;
+    static final int TokLocationChanged = 60;
+    static final int TokGroupDefaultAutoTypeSeq = 61;
+    static final int TokEnableAutoType = 62;
+    static final int TokEnableSearching = 63;
+    static final int TokString = 64;
+    static final int TokBinary = 65;
+    static final int TokKey = 66;
+    static final int TokValue = 67;
+    static final int TokAutoTypeEnabled = 68;
+    static final int TokAutoTypeObfuscation = 69;
+    static final int TokAutoTypeDefaultSeq = 70;
+    static final int TokAutoTypeItem = 71;
+    static final int TokWindow = 72;
+    static final int TokKeystrokeSequence = 73;
+    static final int TokBinaries = 74;
+    static final int TokIsExpanded = 75;
+    static final int TokLastTopVisibleEntry = 76;
+    static final int TokDeletedObjects = 77;
+    static final int TokDeletedObject = 78;
+    static final int TokDeletionTime = 79;
+    static final int TokCustomData = 80;
+    static final int TokStringDictExItem = 81;
+
+    // Elements that share a name with another element
+    static final int TokCustomIconItemID = TokUuid;
+
+    private static final int SIZE = 256;
+    private static final String[] names = new String[SIZE];
+    private static final int[] tokens = new int[SIZE];
+    private static final String[] lowerNames = new String[SIZE];
+    private static final int[] lowerTokens = new int[SIZE];
+
+    static {
+        add(ElemDocNode, TokDocNode);
+        add(ElemMeta, TokMeta);
+        add(ElemRoot, TokRoot);
+        add(ElemGroup, TokGroup);
+        add(ElemEntry, TokEntry);
+        add(ElemGenerator, TokGenerator);
+        add(ElemHeaderHash, TokHeaderHash);
+        add(ElemSettingsChanged, TokSettingsChanged);
+        add(ElemDbName, TokDbName);
+        add(ElemDbNameChanged, TokDbNameChanged);
+        add(ElemDbDesc, TokDbDesc);
+        add(ElemDbDescChanged, TokDbDescChanged);
+        add(ElemDbDefaultUser, TokDbDefaultUser);
+        add(ElemDbDefaultUserChanged, TokDbDefaultUserChanged);
+        add(ElemDbMntncHistoryDays, TokDbMntncHistoryDays);
+        add(ElemDbColor, TokDbColor);
+        add(ElemDbKeyChanged, TokDbKeyChanged);
+        add(ElemDbKeyChangeRec, TokDbKeyChangeRec);
+        add(ElemDbKeyChangeForce, TokDbKeyChangeForce);
+        add(ElemDbKeyChangeForceOnce, TokDbKeyChangeForceOnce);
+        add(ElemRecycleBinEnabled, TokRecycleBinEnabled);
+        add(ElemRecycleBinUuid, TokRecycleBinUuid);
+        add(ElemRecycleBinChanged, TokRecycleBinChanged);
+        add(ElemEntryTemplatesGroup, TokEntryTemplatesGroup);
+        add(ElemEntryTemplatesGroupChanged, TokEntryTemplatesGroupChanged);
+        add(ElemHistoryMaxItems, TokHistoryMaxItems);
+        add(ElemHistoryMaxSize, TokHistoryMaxSize);
+        add(ElemLastSelectedGroup, TokLastSelectedGroup);
+        add(ElemLastTopVisibleGroup, TokLastTopVisibleGroup);
+        add(ElemPreviousParentGroup, TokPreviousParentGroup);
+        add(ElemMemoryProt, TokMemoryProt);
+        add(ElemProtTitle, TokProtTitle);
+        add(ElemProtUserName, TokProtUserName);
+        add(ElemProtPassword, TokProtPassword);
+        add(ElemProtURL, TokProtURL);
+        add(ElemProtNotes, TokProtNotes);
+        add(ElemProtAutoHide, TokProtAutoHide);
+        add(ElemCustomIcons, TokCustomIcons);
+        add(ElemCustomIconItem, TokCustomIconItem);
+        add(ElemCustomIconItemData, TokCustomIconItemData);
+        add(ElemAutoType, TokAutoType);
+        add(ElemHistory, TokHistory);
+        add(ElemName, TokName);
+        add(ElemNotes, TokNotes);
+        add(ElemUuid, TokUuid);
+        add(ElemIcon, TokIcon);
+        add(ElemCustomIconID, TokCustomIconID);
+        add(ElemFgColor, TokFgColor);
+        add(ElemBgColor, TokBgColor);
+        add(ElemOverrideUrl, TokOverrideUrl);
+        add(ElemQualityCheck, TokQualityCheck);
+        add(ElemTimes, TokTimes);
+        add(ElemTags, TokTags);
+        add(ElemCreationTime, TokCreationTime);
+        add(ElemLastModTime, TokLastModTime);
+        add(ElemLastAccessTime, TokLastAccessTime);
+        add(ElemExpiryTime, TokExpiryTime);
+        add(ElemExpires, TokExpires);
+        add(ElemUsageCount, TokUsageCount);
+        add(ElemLocationChanged, TokLocationChanged);
+        add(ElemGroupDefaultAutoTypeSeq, TokGroupDefaultAutoTypeSeq);
+        add(ElemEnableAutoType, TokEnableAutoType);
+        add(ElemEnableSearching, TokEnableSearching);
+        add(ElemString, TokString);
+        add(ElemBinary, TokBinary);
+        add(ElemKey, TokKey);
+        add(ElemValue, TokValue);
+        add(ElemAutoTypeEnabled, TokAutoTypeEnabled);
+        add(ElemAutoTypeObfuscation, TokAutoTypeObfuscation);
+        add(ElemAutoTypeDefaultSeq, TokAutoTypeDefaultSeq);
+        add(ElemAutoTypeItem, TokAutoTypeItem);
+        add(ElemWindow, TokWindow);
+        add(ElemKeystrokeSequence, TokKeystrokeSequence);
+        add(ElemBinaries, TokBinaries);
+        add(ElemIsExpanded, TokIsExpanded);
+        add(ElemLastTopVisibleEntry, TokLastTopVisibleEntry);
+        add(ElemDeletedObjects, TokDeletedObjects);
+        add(ElemDeletedObject, TokDeletedObject);
+        add(ElemDeletionTime, TokDeletionTime);
+        add(ElemCustomData, TokCustomData);
+        add(ElemStringDictExItem, TokStringDictExItem);
+        add(ElemCustomIconItemID, TokCustomIconItemID);
+    }
+
+    private XmlElementTokens() {
+    }
+
+    /** Returns the token for an element name, or TokUnknown */
+    static int lookup(String name) {
+        int token = find(names, tokens, name);
+        if (token != TokUnknown) {
+            return token;
+        }
+
+        return find(lowerNames, lowerTokens, name.toLowerCase(Locale.US));
+    }
+
+    private static int find(String[] keys, int[] values, String name) {
+        int i = slot(name);
+        String key;
+        while ((key = keys[i]) != null) {
+            if (key.equals(name)) {
+                return values[i];
+            }
+            i = (i + 1) & (SIZE - 1);
+        }
+
+        return TokUnknown;
+    }
+
+    private static void add(String name, int token) {
+        put(names, tokens, name, token);
+        put(lowerNames, lowerTokens, name.toLowerCase(Locale.US), token);
+    }
+
+    private static void put(String[] keys, int[] values, String name, int token) {
+        int i = slot(name);
+        while (keys[i] != null) {
+            if (keys[i].equals(name)) {
+                if (values[i] != token) {
+                    throw new IllegalStateException("Duplicate element name " + name);
+                }
+                return;
+            }
+            i = (i + 1) & (SIZE - 1);
+        }
+
+        keys[i] = name;
+        values[i] = token;
+    }
+
+    private static int slot(String name) {
+        int h = name.hashCode();
+        return (h ^ (h >>> 16)) & (SIZE - 1);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.database.load;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Records the pull parser events of an XML subtree in a compact binary form,
+ * so the subtree can be replayed later by {@link RecordedPullParser}. Element
+ * and attribute names are stored as indexes into a name table shared by all
+ * recordings, and indentation between elements is dropped. Protected values
+ * are recorded exactly as they appear in the file, still encrypted.
+ */
+class XmlSubtreeRecorder {
+    static final byte START_TAG = 1;
+    static final byte EMPTY_TAG = 2;
+    static final byte TEXT = 3;
+    static final byte END_TAG = 4;
+
+    private final List<String> names = new ArrayList<String>();
+    private final HashMap<String, Integer> nameIndexes = new HashMap<String, Integer>();
+
+    private static final int BUFFER_SIZE = 1024;
+    private static final int BUFFER_KEEP = 64 * 1024;
+
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int length = 0;
+    private boolean recording = false;
+
+    // Whitespace after a start tag, dropped if it turns out to be indentation
+    private String pendingWhitespace = null;
+    private boolean afterEndTag = false;
+
+    /** The name table recordings refer to */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /** Starts a new recording at the current start tag of xpp */
+    public void start(XmlPullParser xpp) throws XmlPullParserException {
+        length = 0;
+        pendingWhitespace = null;
+        afterEndTag = false;
+        recording = true;
+        event(xpp);
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /** Records the event xpp is currently positioned on */
+    public void event(XmlPullParser xpp) throws XmlPullParserException {
+        if (!recording) return;
+
+        switch (xpp.getEventType()) {
+            case XmlPullParser.START_TAG:
+                pendingWhitespace = null;
+                afterEndTag = false;
+
+                writeByte(xpp.isEmptyElementTag() ? EMPTY_TAG : START_TAG);
+                writeName(xpp.getName());
+                int count = xpp.getAttributeCount();
+                writeVarInt(count);
+                for (int i = 0; i < count; i++) {
+                    writeName(xpp.getAttributeName(i));
+                    writeString(xpp.getAttributeValue(i));
+                }
+                break;
+            case XmlPullParser.END_TAG:
+                endTag();
+                break;
+            case XmlPullParser.TEXT:
+                String text = xpp.getText();
+                if (isWhitespace(text)) {
+                    // Indentation between elements is not worth keeping
+                    if (!afterEndTag) {
+                        pendingWhitespace = text;
+                    }
+                } else {
+                    text(text);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    public void text(String text) {
+        if (!recording) return;
+
+        pendingWhitespace = null;
+        writeByte(TEXT);
+        writeString(text);
+    }
+
+    public void endTag() {
+        if (!recording) return;
+
+        if (pendingWhitespace != null) {
+            text(pendingWhitespace);
+        }
+        writeByte(END_TAG);
+        afterEndTag = true;
+    }
+
+    /** Ends the recording and returns the recorded subtree */
+    public byte[] finish() {
+        recording = false;
+
+        byte[] record = Arrays.copyOf(buf, length);
+
+        // Recorders live as long as the database, so don't hold on to a
+        // buffer grown for a large subtree
+        if (buf.length > BUFFER_KEEP) {
+            buf = new byte[BUFFER_SIZE];
+        }
+
+        return record;
+    }
+
+    private static boolean isWhitespace(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+
+        return true;
+    }
+
+    private void writeName(String name) {
+        Integer index = nameIndexes.get(name);
+        if (index == null) {
+            index = names.size();
+            names.add(name);
+            nameIndexes.put(name, index);
+        }
+
+        writeVarInt(index);
+    }
+
+    /** Writes the length in bytes, then each char as one to three bytes, like modified UTF-8 */
+    private void writeString(String s) {
+        int chars = s.length();
+        int bytes = 0;
+        for (int i = 0; i < chars; i++) {
+            char c = s.charAt(i);
+            if (c != 0 && c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+
+        writeVarInt(bytes);
+        ensureCapacity(bytes);
+        for (int i = 0; i < chars; i++) {
+            char c = s.charAt(i);
+            if (c != 0 && c < 0x80) {
+                buf[length++] = (byte) c;
+            } else if (c < 0x800) {
+                buf[length++] = (byte) (0xC0 | (c >> 6));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buf[length++] = (byte) (0xE0 | (c >> 12));
+                buf[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[length++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private void writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7F) != 0) {
+            buf[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf[length++] = (byte) value;
+    }
+
+    private void writeByte(byte b) {
+        ensureCapacity(1);
+        buf[length++] = b;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, length + extra));
+        }
+    }
+}
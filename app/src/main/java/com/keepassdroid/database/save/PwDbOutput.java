@@ -23,15 +23,18 @@ import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwDatabase;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwDatabaseV4;
 import com.keepassdroid.database.PwDbHeader;
 import com.keepassdroid.database.exception.PwDbOutputException;
+import com.keepassdroid.stream.MeteredOutputStream;
 
 public abstract class PwDbOutput {
 	
 	protected OutputStream mOS;
+	protected DbMetrics metrics = new DbMetrics(DbMetrics.Operation.SAVE);
 	
 	public static PwDbOutput getInstance(PwDatabase pm, OutputStream os) {
 		if ( pm instanceof PwDatabaseV3 ) {
@@ -44,16 +47,24 @@ public abstract class PwDbOutput {
 	}
 	
 	protected PwDbOutput(OutputStream os) {
-		mOS = os;
+		mOS = new MeteredOutputStream(os, metrics, DbMetrics.Stage.WRITE_OUT);
+	}
+
+	/** Measurements of the save done by {@link #output()} */
+	public DbMetrics getMetrics() {
+		return metrics;
 	}
 	
-	protected SecureRandom setIVs(PwDbHeader header) throws PwDbOutputException  {
-		SecureRandom random;
+	protected SecureRandom createRandom() throws PwDbOutputException {
 		try {
-			random = SecureRandom.getInstance("SHA1PRNG");
+			return SecureRandom.getInstance("SHA1PRNG");
 		} catch (NoSuchAlgorithmException e) {
 			throw new PwDbOutputException("Does not support secure random number generation.");
 		}
+	}
+
+	protected SecureRandom setIVs(PwDbHeader header) throws PwDbOutputException  {
+		SecureRandom random = createRandom();
 		random.nextBytes(header.encryptionIV);
 		random.nextBytes(header.masterSeed);
 
@@ -38,6 +38,7 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 
 import com.keepassdroid.crypto.CipherFactory;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.PwDatabaseV3;
 import com.keepassdroid.database.PwDbHeader;
 import com.keepassdroid.database.PwDbHeaderV3;
@@ -47,7 +48,9 @@ import com.keepassdroid.database.PwGroup;
 import com.keepassdroid.database.PwGroupV3;
 import com.keepassdroid.database.exception.PwDbOutputException;
 import com.keepassdroid.stream.LEDataOutputStream;
+import com.keepassdroid.stream.MeteredOutputStream;
 import com.keepassdroid.stream.NullOutputStream;
+import com.keepassdroid.stream.SpillOutputStream;
 
 public class PwDbV3Output extends PwDbOutput {
 	private PwDatabaseV3 mPM;
@@ -74,9 +77,21 @@ public class PwDbV3Output extends PwDbOutput {
 	public void output() throws PwDbOutputException {
 		prepForOutput();
 		
-		PwDbHeader header = outputHeader(mOS);
+		metrics.begin(DbMetrics.Stage.HEADER);
+		PwDbHeaderV3 header;
+		try {
+			header = buildHeader();
+		} finally {
+			metrics.end();
+		}
 		
-		byte[] finalKey = getFinalKey(header);
+		metrics.begin(DbMetrics.Stage.KDF);
+		byte[] finalKey;
+		try {
+			finalKey = getFinalKey(header);
+		} finally {
+			metrics.end();
+		}
 		
 		Cipher cipher;
 		try {
@@ -91,13 +106,43 @@ public class PwDbV3Output extends PwDbOutput {
 			throw new PwDbOutputException("Algorithm not supported.");
 		}
 
+		// The content hash goes in the header, ahead of the encrypted content
+		// it covers. Rather than serializing twice, hash and encrypt in one
+		// pass and hold on to the encrypted content until the header is out.
+		SpillOutputStream encrypted = new SpillOutputStream(null, SpillOutputStream.DEFAULT_MEMORY_LIMIT);
 		try {
+			MessageDigest md;
+			try {
+				md = MessageDigest.getInstance("SHA-256");
+			} catch (NoSuchAlgorithmException e) {
+				throw new PwDbOutputException("SHA-256 not implemented here.");
+			}
+
 			cipher.init( Cipher.ENCRYPT_MODE, new SecretKeySpec(finalKey, "AES" ), new IvParameterSpec(header.encryptionIV) );
-			CipherOutputStream cos = new CipherOutputStream(mOS, cipher);
-			BufferedOutputStream bos = new BufferedOutputStream(cos);
-			outputPlanGroupAndEntries(bos);
-			bos.flush();
-			bos.close();
+			CipherOutputStream cos = new CipherOutputStream(encrypted, cipher);
+			BufferedOutputStream bos = new BufferedOutputStream(new DigestOutputStream(
+					new MeteredOutputStream(cos, metrics, DbMetrics.Stage.CIPHER), md));
+			metrics.begin(DbMetrics.Stage.PARSE);
+			try {
+				outputPlanGroupAndEntries(bos);
+				bos.flush();
+				bos.close();
+			} finally {
+				metrics.end();
+			}
+
+			header.contentsHash = md.digest();
+
+			metrics.begin(DbMetrics.Stage.HEADER);
+			try {
+				new PwDbHeaderOutputV3(header, mOS).output();
+			} finally {
+				metrics.end(PwDbHeaderV3.BUF_SIZE);
+			}
+
+			encrypted.writeTo(mOS);
+			mOS.flush();
+			metrics.finish();
 
 		} catch (InvalidKeyException e) {
 			throw new PwDbOutputException("Invalid key");
@@ -105,6 +150,8 @@ public class PwDbV3Output extends PwDbOutput {
 			throw new PwDbOutputException("Invalid algorithm parameter.");
 		} catch (IOException e) {
 			throw new PwDbOutputException("Failed to output final encrypted part.");
+		} finally {
+			encrypted.discard();
 		}
 	}
 	
@@ -118,12 +165,19 @@ public class PwDbV3Output extends PwDbOutput {
 		SecureRandom random = super.setIVs(header);
 
 		PwDbHeaderV3 h3 = (PwDbHeaderV3) header;
-		random.nextBytes(h3.transformSeed);
+		// Use the seed the key was already derived with, if there is one
+		byte[] seed = mPM.getNextTransformSeed();
+		if (seed != null) {
+			System.arraycopy(seed, 0, h3.transformSeed, 0, h3.transformSeed.length);
+		} else {
+			random.nextBytes(h3.transformSeed);
+		}
 
 		return random;
 	}
 
-	public PwDbHeaderV3 outputHeader(OutputStream os) throws PwDbOutputException {
+	/** Fills in a header, with everything but the content hash */
+	private PwDbHeaderV3 buildHeader() throws PwDbOutputException {
 		// Build header
 		PwDbHeaderV3 header = new PwDbHeaderV3();
 		header.signature1 = PwDbHeader.PWM_DBSIG_1;
@@ -145,14 +199,6 @@ public class PwDbV3Output extends PwDbOutput {
 		
 		setIVs(header);
 		
-		// Content checksum
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new PwDbOutputException("SHA-256 not implemented here.");
-		}
-		
 		// Header checksum
 		MessageDigest headerDigest;
 		try {
@@ -176,22 +222,44 @@ public class PwDbV3Output extends PwDbOutput {
 		byte[] headerHash = headerDigest.digest();
 		headerHashBlock = getHeaderHashBuffer(headerHash);
 		
+		return header;
+	}
+
+	/**
+	 * Outputs the header on its own, serializing the groups and entries just
+	 * for the content hash
+	 */
+	public PwDbHeaderV3 outputHeader(OutputStream os) throws PwDbOutputException {
+		PwDbHeaderV3 header = buildHeader();
+		
+		// Content checksum
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new PwDbOutputException("SHA-256 not implemented here.");
+		}
+		
+		NullOutputStream nos;
 		// Output database for the purpose of calculating the content checksum
 		nos = new NullOutputStream();
 		DigestOutputStream dos = new DigestOutputStream(nos, md);
 		BufferedOutputStream bos = new BufferedOutputStream(dos);
+		metrics.begin(DbMetrics.Stage.PARSE);
 		try {
 			outputPlanGroupAndEntries(bos);
 			bos.flush();
 			bos.close();
 		} catch (IOException e) {
 			throw new PwDbOutputException("Failed to generate checksum.");
+		} finally {
+			metrics.end();
 		}
 
 		header.contentsHash = md.digest();
 		
 		// Output header for real output, containing content hash
-		pho = new PwDbHeaderOutputV3(header, os);
+		PwDbHeaderOutputV3 pho = new PwDbHeaderOutputV3(header, os);
 		try {
 			pho.outputStart();
 			dos.on(false);
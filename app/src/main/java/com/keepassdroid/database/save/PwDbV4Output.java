@@ -27,9 +27,11 @@ import com.keepassdroid.crypto.PwStreamCipherFactory;
 import com.keepassdroid.crypto.engine.CipherEngine;
 import com.keepassdroid.crypto.keyDerivation.KdfEngine;
 import com.keepassdroid.crypto.keyDerivation.KdfFactory;
+import com.keepassdroid.crypto.keyDerivation.KdfParameters;
 import com.keepassdroid.database.CrsAlgorithm;
 import com.keepassdroid.database.EntryHandler;
 import com.keepassdroid.database.GroupHandler;
+import com.keepassdroid.database.DbMetrics;
 import com.keepassdroid.database.ITimeLogger;
 import com.keepassdroid.database.PwCompressionAlgorithm;
 import com.keepassdroid.database.PwCustomData;
@@ -52,19 +54,23 @@ import com.keepassdroid.database.security.ProtectedString;
 import com.keepassdroid.stream.HashedBlockOutputStream;
 import com.keepassdroid.stream.HmacBlockOutputStream;
 import com.keepassdroid.stream.LEDataOutputStream;
+import com.keepassdroid.stream.MeteredOutputStream;
+import com.keepassdroid.stream.ParallelDeflateOutputStream;
+import com.keepassdroid.stream.PipelinedInputStream;
+import com.keepassdroid.stream.PipelinedOutputStream;
 import com.keepassdroid.utils.DateUtil;
 import com.keepassdroid.utils.EmptyUtils;
-import com.keepassdroid.utils.MemUtil;
 import com.keepassdroid.utils.Types;
 
-import org.joda.time.DateTime;
 import org.bouncycastle.crypto.StreamCipher;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -163,6 +169,8 @@ import static com.keepassdroid.database.PwDatabaseV4XML.ValFalse;
 import static com.keepassdroid.database.PwDatabaseV4XML.ValTrue;
 
 public class PwDbV4Output extends PwDbOutput {
+	// A multiple of 3, so each piece of Base64 ends without padding
+	private static final int BINARY_CHUNK_SIZE = 48 * 1024;
 
 	PwDatabaseV4 mPM;
 	private StreamCipher randomStream;
@@ -171,6 +179,13 @@ public class PwDbV4Output extends PwDbOutput {
 	private byte[] hashOfHeader;
 	private byte[] headerHmac;
     private CipherEngine engine = null;
+	private final byte[] timeBuf = new byte[8];
+
+	/** Serialize, compress, encrypt and authenticate on separate threads */
+	public boolean pipelined = PipelinedInputStream.isUseful();
+	/** Deflate the payload on several threads */
+	public boolean parallelDeflate = ParallelDeflateOutputStream.isUseful();
+	private List<PipelinedOutputStream> stages = new ArrayList<PipelinedOutputStream>();
 
 	protected PwDbV4Output(PwDatabaseV4 pm, OutputStream os) {
 		super(os);
@@ -188,41 +203,79 @@ public class PwDbV4Output extends PwDbOutput {
 				throw new PwDbOutputException("No such cipher", e);
 			}
 
-			header = (PwDbHeaderV4) outputHeader(mOS);
+			// Store one copy of each distinct attachment
+			metrics.begin(DbMetrics.Stage.TREE_BUILD);
+			try {
+				mPM.binPool.deduplicate((PwGroupV4) mPM.rootGroup);
+			} finally {
+				metrics.end();
+			}
+
+			long written = metrics.getStage(DbMetrics.Stage.WRITE_OUT).getBytes();
+			metrics.begin(DbMetrics.Stage.HEADER);
+			try {
+				header = (PwDbHeaderV4) outputHeader(mOS);
+			} finally {
+				metrics.end(metrics.getStage(DbMetrics.Stage.WRITE_OUT).getBytes() - written);
+			}
 
 			OutputStream osPlain;
 			if (header.version < PwDbHeaderV4.FILE_VERSION_32_4) {
 				CipherOutputStream cos = attachStreamEncryptor(header, mOS);
 				cos.write(header.streamStartBytes);
 
-				HashedBlockOutputStream hashed = new HashedBlockOutputStream(cos);
-				osPlain = hashed;
+				HashedBlockOutputStream hashed = new HashedBlockOutputStream(
+						attachStage(cos, "cipher", DbMetrics.Stage.CIPHER));
+				osPlain = attachStage(hashed, "hashed blocks", DbMetrics.Stage.CIPHER);
 			} else {
 				mOS.write(hashOfHeader);
 				mOS.write(headerHmac);
 
 				HmacBlockOutputStream hbos = new HmacBlockOutputStream(mOS, mPM.hmacKey);
-				osPlain = attachStreamEncryptor(header, hbos);
+				osPlain = attachStreamEncryptor(header,
+						attachStage(hbos, "HMAC blocks", DbMetrics.Stage.CIPHER));
+				osPlain = attachStage(osPlain, "cipher", DbMetrics.Stage.CIPHER);
 			}
 
 			OutputStream osXml;
 			try {
 
 
+				ParallelDeflateOutputStream parallelGzip = null;
+				CountingGzipOutputStream gzip = null;
 				if (mPM.compressionAlgorithm == PwCompressionAlgorithm.Gzip) {
-					osXml = new GZIPOutputStream(osPlain);
+					if (parallelDeflate) {
+						parallelGzip = new ParallelDeflateOutputStream(osPlain);
+						osXml = parallelGzip;
+					} else {
+						gzip = new CountingGzipOutputStream(osPlain);
+						osXml = gzip;
+					}
+					osXml = attachStage(osXml, "compression", DbMetrics.Stage.COMPRESSION);
 				} else {
 					osXml = osPlain;
 				}
+				osXml = new MeteredOutputStream(osXml, metrics, DbMetrics.Stage.PARSE);
 
-				if (header.version >= PwDbHeaderV4.FILE_VERSION_32_4) {
-					PwDbInnerHeaderOutputV4 ihOut =  new PwDbInnerHeaderOutputV4((PwDatabaseV4)mPM, header, osXml);
-                    ihOut.output();
-				}
+				metrics.begin(DbMetrics.Stage.PARSE);
+				try {
+					if (header.version >= PwDbHeaderV4.FILE_VERSION_32_4) {
+						PwDbInnerHeaderOutputV4 ihOut =  new PwDbInnerHeaderOutputV4((PwDatabaseV4)mPM, header, osXml);
+						ihOut.output();
+					}
 
 
-				outputDatabase(osXml);
-				osXml.close();
+					outputDatabase(osXml);
+					osXml.close();
+				} finally {
+					metrics.end();
+				}
+				if (parallelGzip != null) {
+					metrics.addCompression(parallelGzip.getBytesOut(), parallelGzip.getBytesIn());
+				} else if (gzip != null) {
+					metrics.addCompression(gzip.bytesOut, gzip.bytesIn);
+				}
+				metrics.finish();
 			} catch (IllegalArgumentException e) {
 				throw new PwDbOutputException(e);
 			} catch (IllegalStateException e) {
@@ -230,8 +283,54 @@ public class PwDbV4Output extends PwDbOutput {
 			}
 		} catch (IOException e) {
 			throw new PwDbOutputException(e);
+		} finally {
+			stopStages();
 		}
 	}
+
+	/** Times writes to os as the given stage of the save, and moves the work
+	 * they do onto its own thread, when pipelining */
+	private OutputStream attachStage(OutputStream os, String name, DbMetrics.Stage metricsStage) {
+		OutputStream metered = new MeteredOutputStream(os, metrics, metricsStage);
+		if (!pipelined) {
+			return metered;
+		}
+
+		PipelinedOutputStream stage = new PipelinedOutputStream(metered, name);
+		stages.add(stage);
+
+		// Time spent waiting on the stage belongs to neither side
+		return new MeteredOutputStream(stage, metrics, null);
+	}
+
+	/** GZIPOutputStream that keeps its byte counts for the metrics once it is finished */
+	private static class CountingGzipOutputStream extends GZIPOutputStream {
+		// Header and trailer
+		private static final int FRAMING = 18;
+
+		long bytesIn;
+		long bytesOut;
+
+		CountingGzipOutputStream(OutputStream os) throws IOException {
+			super(os);
+		}
+
+		@Override
+		public void finish() throws IOException {
+			super.finish();
+
+			bytesIn = def.getBytesRead();
+			bytesOut = def.getBytesWritten() + FRAMING;
+		}
+	}
+
+	/** Stops any stages left running by a failed save */
+	private void stopStages() {
+		for (PipelinedOutputStream stage : stages) {
+			stage.stop();
+		}
+		stages.clear();
+	}
 	
 	private class GroupWriter extends GroupHandler<PwGroup> {
 		private Stack<PwGroupV4> groupStack;
@@ -391,9 +490,15 @@ public class PwDbV4Output extends PwDbOutput {
 		}
 		random.nextBytes(h.encryptionIV);
 
-		UUID kdfUUID = mPM.kdfParameters.kdfUUID;
-		KdfEngine kdf = KdfFactory.get(kdfUUID);
-		kdf.randomize(mPM.kdfParameters);
+		// Use the seed the key was already derived with, if there is one
+		KdfParameters next = mPM.getNextKdfParameters();
+		if (next != null) {
+			mPM.kdfParameters = next;
+		} else {
+			UUID kdfUUID = mPM.kdfParameters.kdfUUID;
+			KdfEngine kdf = KdfFactory.get(kdfUUID);
+			kdf.randomize(mPM.kdfParameters);
+		}
 
 		if (h.version < PwDbHeaderV4.FILE_VERSION_32_4) {
 			h.innerRandomStream = CrsAlgorithm.Salsa20;
@@ -422,7 +527,14 @@ public class PwDbV4Output extends PwDbOutput {
 		header.version = mPM.getMinKdbxVersion();
 		setIVs(header);
 
-		PwDbHeaderOutputV4 pho = new PwDbHeaderOutputV4(mPM, header, os);
+		// Creating the header output derives the keys
+		metrics.begin(DbMetrics.Stage.KDF);
+		PwDbHeaderOutputV4 pho;
+		try {
+			pho = new PwDbHeaderOutputV4(mPM, header, os);
+		} finally {
+			metrics.end();
+		}
 		try {
 			pho.output();
 		} catch (IOException e) {
@@ -471,6 +583,7 @@ public class PwDbV4Output extends PwDbOutput {
 	
 	private void writeEntry(PwEntryV4 entry, boolean isHistory) throws IllegalArgumentException, IllegalStateException, IOException {
 		assert(entry != null);
+		entry.materialize();
 		
 		xml.startTag(null, ElemEntry);
 		
@@ -503,6 +616,7 @@ public class PwDbV4Output extends PwDbOutput {
 		writeList(ElemAutoType, entry.autoType);
 		
 		if (!isHistory) {
+			entry.materializeHistory();
 			writeList(ElemHistory, entry.history, true);
 		} else {
 			assert(entry.history.size() == 0);
@@ -542,26 +656,88 @@ public class PwDbV4Output extends PwDbOutput {
 
 		int valLength = (int) value.length();
 		if (valLength > 0) {
-			byte[] buffer = new byte[valLength];
-			value.getData().read(buffer, 0, valLength);
-
-			if (value.isProtected()) {
+			boolean isProtected = value.isProtected();
+			boolean compress = false;
+			if (isProtected) {
 				xml.attribute(null, AttrProtected, ValTrue);
+			} else if (mPM.compressionAlgorithm == PwCompressionAlgorithm.Gzip) {
+				xml.attribute(null, AttrCompressed, ValTrue);
+				compress = true;
+			}
 
-				byte[] encoded = new byte[valLength];
-				randomStream.processBytes(buffer, 0, valLength, encoded, 0);
-				xml.text(Base64.encodeToString(encoded, Base64.NO_WRAP));
+			// Stream the binary through in pieces, so large attachments
+			// don't need several copies of themselves in memory
+			Base64TextOutputStream b64 = new Base64TextOutputStream(xml);
+			OutputStream os = compress ? new GZIPOutputStream(b64, BINARY_CHUNK_SIZE) : b64;
 
-			} else {
-				if (mPM.compressionAlgorithm == PwCompressionAlgorithm.Gzip) {
-					xml.attribute(null, AttrCompressed, ValTrue);
-					byte[] compressData = MemUtil.compress(buffer);
-					xml.text(Base64.encodeToString(compressData, Base64.NO_WRAP));
-				} else {
-					xml.text(Base64.encodeToString(buffer, Base64.NO_WRAP));
+			byte[] buffer = new byte[BINARY_CHUNK_SIZE];
+			byte[] encoded = isProtected ? new byte[BINARY_CHUNK_SIZE] : null;
+			InputStream is = value.getData();
+			try {
+				int read;
+				while ((read = is.read(buffer)) != -1) {
+					if (isProtected) {
+						randomStream.processBytes(buffer, 0, read, encoded, 0);
+						os.write(encoded, 0, read);
+					} else {
+						os.write(buffer, 0, read);
+					}
 				}
+			} finally {
+				is.close();
+			}
+			os.close();
+		}
+	}
 
+	/**
+	 * Writes Base64 of the bytes written to it as text of the current
+	 * element, a whole number of 3 byte groups at a time so the pieces join
+	 * up into the same text as encoding everything at once
+	 */
+	private static class Base64TextOutputStream extends OutputStream {
+		private final XmlSerializer xml;
+		private final byte[] buf = new byte[BINARY_CHUNK_SIZE];
+		private int count = 0;
+
+		Base64TextOutputStream(XmlSerializer xml) {
+			this.xml = xml;
+		}
+
+		@Override
+		public void write(int oneByte) throws IOException {
+			if (count == buf.length) {
+				writeText();
 			}
+			buf[count++] = (byte) oneByte;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == buf.length) {
+					writeText();
+				}
+
+				int copy = Math.min(buf.length - count, len);
+				System.arraycopy(b, off, buf, count, copy);
+				count += copy;
+				off += copy;
+				len -= copy;
+			}
+		}
+
+		private void writeText() throws IOException {
+			if (count > 0) {
+				xml.text(Base64.encodeToString(buf, 0, count, Base64.NO_WRAP));
+				count = 0;
+			}
+		}
+
+		/** Writes the rest, leaving the serializer open */
+		@Override
+		public void close() throws IOException {
+			writeText();
 		}
 	}
 	
@@ -584,12 +760,11 @@ public class PwDbV4Output extends PwDbOutput {
 	
 	private void writeObject(String name, Date value) throws IllegalArgumentException, IllegalStateException, IOException {
 		if (header.version < PwDbHeaderV4.FILE_VERSION_32_4) {
-			writeObject(name, PwDatabaseV4XML.dateFormatter.get().format(value));
+			writeObject(name, DateUtil.formatKDBX3Time(value));
 		} else {
-			DateTime dt = new DateTime(value);
-			long seconds = DateUtil.convertDateToKDBX4Time(dt);
-			byte[] buf = LEDataOutputStream.writeLongBuf(seconds);
-			String b64 = Base64.encodeToString(buf, Base64.NO_WRAP);
+			long seconds = DateUtil.convertDateToKDBX4Time(value);
+			LEDataOutputStream.writeLong(seconds, timeBuf, 0);
+			String b64 = Base64.encodeToString(timeBuf, Base64.NO_WRAP);
 			writeObject(name, b64);
 		}
 
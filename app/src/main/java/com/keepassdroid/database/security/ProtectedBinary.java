@@ -33,6 +33,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
@@ -55,11 +56,11 @@ public class ProtectedBinary {
 	private int size;
 	private static final SecureRandom secureRandom = new SecureRandom();
 	private FileParams fileParams;
+	private byte[] hash;
 
 	private class FileParams {
 
 		private File dataFile;
-		public CipherOutputStream cos;
 		public SecretKeySpec keySpec;
 		public IvParameterSpec ivSpec;
 
@@ -91,16 +92,6 @@ public class ProtectedBinary {
 
 			keySpec = new SecretKeySpec(key, "AES");
 			ivSpec = new IvParameterSpec((iv));
-
-			Cipher cipherOut = initCipher(Cipher.ENCRYPT_MODE);
-			FileOutputStream fos;
-			try {
-				fos = new FileOutputStream(file);
-			} catch (FileNotFoundException e) {
-				throw new IllegalStateException(e);
-			}
-
-			cos = new CipherOutputStream(fos, cipherOut);
 		}
 
 		public FileParams(File dataFile) {
@@ -149,7 +140,26 @@ public class ProtectedBinary {
 
 	public OutputStream getOutputStream() {
 		assert(fileParams != null);
-	    return fileParams.cos;
+		FileOutputStream fos;
+		try {
+			fos = new FileOutputStream(dataFile);
+		} catch (FileNotFoundException e) {
+			throw new IllegalStateException(e);
+		}
+
+		return new CipherOutputStream(fos, fileParams.initCipher(Cipher.ENCRYPT_MODE));
+	}
+
+	/** The file holding the encrypted data, or null if the data is in memory */
+	public File getFile() {
+		return dataFile;
+	}
+
+	/** A new cipher to encrypt data for the file, for writers that
+	 * don't go through {@link #getOutputStream()} */
+	public Cipher getFileCipher() {
+		assert(fileParams != null);
+		return fileParams.initCipher(Cipher.ENCRYPT_MODE);
 	}
 
 	public InputStream getData() throws IOException {
@@ -161,6 +171,45 @@ public class ProtectedBinary {
 			return null;
 	}
 
+	/** SHA-256 of the contents, computed on first use unless a writer
+	 * already supplied it with {@link #setHash(byte[])} */
+	public synchronized byte[] getHash() throws IOException {
+		if (hash == null) {
+			MessageDigest md = newDigest();
+			if (data != null) {
+				md.update(data);
+			} else if (dataFile != null) {
+				InputStream is = getData();
+				try {
+					byte[] buf = new byte[8192];
+					int read;
+					while ((read = is.read(buf)) != -1) {
+						md.update(buf, 0, read);
+					}
+				} finally {
+					is.close();
+				}
+			}
+
+			hash = md.digest();
+		}
+
+		return hash;
+	}
+
+	/** Records the SHA-256 of the contents, for writers that hash them as they go */
+	public synchronized void setHash(byte[] hash) {
+		this.hash = hash;
+	}
+
+	public static MessageDigest newDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	public void clear() {
 		data = null;
 		if (dataFile != null && !dataFile.delete())
@@ -40,8 +40,9 @@ public class BetterCipherInputStream extends FilterInputStream {
     private final Cipher cipher;
     private static final int I_DEFAULT_BUFFER_SIZE = 8 * 1024;
     private final byte[] i_buffer;
-    private int index; // index of the bytes to return from o_buffer
     private byte[] o_buffer;
+    private int index; // index of the bytes to return from o_buffer
+    private int o_length; // number of valid bytes in o_buffer
     private boolean finished;
 
     /**
@@ -96,30 +97,14 @@ public class BetterCipherInputStream extends FilterInputStream {
      */
     @Override
     public int read() throws IOException {
-        if (finished) {
-            return ((o_buffer == null) || (index == o_buffer.length))
-                            ? -1
-                            : o_buffer[index++] & 0xFF;
-        }
-        if ((o_buffer != null) && (index < o_buffer.length)) {
-            return o_buffer[index++] & 0xFF;
-        }
-        index = 0;
-        o_buffer = null;
-        int num_read;
-        while (o_buffer == null) {
-            if ((num_read = in.read(i_buffer)) == -1) {
-                try {
-                    o_buffer = cipher.doFinal();
-                } catch (Exception e) {
-                    throw new IOException(e.getMessage());
-                }
-                finished = true;
-                break;
+        while (index == o_length) {
+            if (finished) {
+                return -1;
             }
-            o_buffer = cipher.update(i_buffer, 0, num_read);
+            process(null, 0, 0);
         }
-        return read();
+
+        return o_buffer[index++] & 0xFF;
     }
 
     /**
@@ -142,6 +127,10 @@ public class BetterCipherInputStream extends FilterInputStream {
      * Reads the next {@code len} bytes from this input stream into buffer
      * {@code b} starting at offset {@code off}.
      * <p>
+     * Output of the cipher buffered by an earlier read is copied first. After
+     * that, whenever the space left in {@code b} can hold the output of a whole
+     * {@code update} the cipher writes straight into {@code b}.
+     * <p>
      * if {@code b} is {@code null}, the next {@code len} bytes are read and
      * discarded.
      *
@@ -163,18 +152,73 @@ public class BetterCipherInputStream extends FilterInputStream {
         if (in == null) {
             throw new NullPointerException("Underlying input stream is null");
         }
+        if (len == 0) {
+            return 0;
+        }
 
-        int read_b;
-        int i;
-        for (i=0; i<len; i++) {
-            if ((read_b = read()) == -1) {
-                return (i == 0) ? -1 : i;
+        int total = 0;
+        while (total < len) {
+            if (index < o_length) {
+                int copy = Math.min(o_length - index, len - total);
+                if (b != null) {
+                    System.arraycopy(o_buffer, index, b, off + total, copy);
+                }
+                index += copy;
+                total += copy;
+                continue;
+            }
+
+            // Don't block on the underlying stream once there is something to return
+            if (finished || (total > 0 && in.available() <= 0)) {
+                break;
             }
-            if (b != null) {
-                b[off+i] = (byte) read_b;
+
+            total += process(b, off + total, len - total);
+        }
+
+        return (total == 0) ? -1 : total;
+    }
+
+    /**
+     * Runs the next buffer of the underlying stream through the cipher,
+     * finishing the cipher once the underlying stream is exhausted.
+     * <p>
+     * The output goes into {@code out} if it is guaranteed to fit in
+     * {@code len} bytes, otherwise into the internal buffer.
+     *
+     * @return the number of bytes written to {@code out}
+     */
+    private int process(byte[] out, int off, int len) throws IOException {
+        int num_read = in.read(i_buffer);
+        try {
+            if (num_read == -1) {
+                finished = true;
+                if (out != null && cipher.getOutputSize(0) <= len) {
+                    return cipher.doFinal(out, off);
+                }
+
+                ensureBuffer(cipher.getOutputSize(0));
+                o_length = cipher.doFinal(o_buffer, 0);
+            } else {
+                if (out != null && cipher.getOutputSize(num_read) <= len) {
+                    return cipher.update(i_buffer, 0, num_read, out, off);
+                }
+
+                ensureBuffer(cipher.getOutputSize(num_read));
+                o_length = cipher.update(i_buffer, 0, num_read, o_buffer, 0);
             }
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+
+        index = 0;
+        return 0;
+    }
+
+    private void ensureBuffer(int size) {
+        if (o_buffer == null || o_buffer.length < size) {
+            o_buffer = new byte[size];
         }
-        return i;
     }
 
     /**
@@ -192,32 +236,31 @@ public class BetterCipherInputStream extends FilterInputStream {
      */
     @Override
     public long skip(long n) throws IOException {
-        long i = 0;
-        int available = available();
-        if (available < n) {
-            n = available;
+        if (n <= 0) {
+            return 0;
         }
-        while ((i < n) && (read() != -1)) {
-            i++;
-        }
-        return i;
+
+        int skipped = (int) Math.min(available(), n);
+        index += skipped;
+        return skipped;
     }
 
     /**
      * Returns the number of bytes available without blocking.
      *
-     * @return the number of bytes available, currently zero.
+     * @return the number of bytes of cipher output buffered in this stream.
      * @throws IOException
      *             if an error occurs
      */
     @Override
     public int available() throws IOException {
-        return 0;
+        return o_length - index;
     }
 
     /**
      * Closes this {@code BetterCipherInputStream}, also closes the underlying input
-     * stream and call {@code doFinal} on the cipher object.
+     * stream and call {@code doFinal} on the cipher object if the stream was
+     * not read to the end.
      *
      * @throws IOException
      *             if an error occurs.
@@ -225,6 +268,10 @@ public class BetterCipherInputStream extends FilterInputStream {
     @Override
     public void close() throws IOException {
         in.close();
+        if (finished) {
+            return;
+        }
+        finished = true;
         try {
             cipher.doFinal();
         } catch (GeneralSecurityException ignore) {
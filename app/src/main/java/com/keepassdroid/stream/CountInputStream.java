@@ -24,7 +24,8 @@ import java.io.InputStream;
 
 public class CountInputStream extends InputStream {
 	InputStream is;
-	long bytes = 0;
+	// Written by the reading thread, may be polled from others
+	volatile long bytes = 0;
 	
 	public CountInputStream(InputStream is) {
 		this.is = is;
@@ -52,20 +53,25 @@ public class CountInputStream extends InputStream {
 
 	@Override
 	public int read() throws IOException {
-		bytes++;
-		return is.read();
+		int b = is.read();
+		if (b >= 0) {
+			bytes++;
+		}
+		return b;
 	}
 
 	@Override
 	public int read(byte[] buffer, int offset, int length) throws IOException {
-		bytes += length;
-		return is.read(buffer, offset, length);
+		int read = is.read(buffer, offset, length);
+		if (read > 0) {
+			bytes += read;
+		}
+		return read;
 	}
 
 	@Override
 	public int read(byte[] buffer) throws IOException {
-		bytes += buffer.length;
-		return is.read(buffer);
+		return read(buffer, 0, buffer.length);
 	}
 
 	@Override
@@ -75,8 +81,14 @@ public class CountInputStream extends InputStream {
 
 	@Override
 	public long skip(long byteCount) throws IOException {
-		bytes += byteCount;
-		return is.skip(byteCount);
+		long skipped = is.skip(byteCount);
+		bytes += skipped;
+		return skipped;
+	}
+
+	/** @return The number of bytes read or skipped so far */
+	public long getCount() {
+		return bytes;
 	}
 
 }
@@ -21,11 +21,10 @@ package com.keepassdroid.stream;
 
 import com.keepassdroid.utils.Types;
 
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
 
 
 public class HashedBlockInputStream extends InputStream {
@@ -35,8 +34,15 @@ public class HashedBlockInputStream extends InputStream {
 	private LEDataInputStream baseStream;
 	private int bufferPos = 0;
 	private byte[] buffer = new byte[0];
+	private int bufferLength = 0;
 	private long bufferIndex = 0;
 	private boolean atEnd = false;
+
+	// Reused for every block
+	private SHA256Digest md = new SHA256Digest();
+	private byte[] storedHash = new byte[HASH_SIZE];
+	private byte[] computedHash = new byte[HASH_SIZE];
+	private byte[] intBuf = new byte[4];
 	
 	
 	@Override
@@ -55,7 +61,7 @@ public class HashedBlockInputStream extends InputStream {
 		int remaining = length;
 		
 		while ( remaining > 0 ) {
-			if ( bufferPos == buffer.length ) {
+			if ( bufferPos == bufferLength ) {
 				// Get more from the source into the buffer
 				if ( ! ReadHashedBlock() ) {
 					return length - remaining;
@@ -64,7 +70,7 @@ public class HashedBlockInputStream extends InputStream {
 			}
 
 			// Copy from buffer out
-			int copyLen = Math.min(buffer.length - bufferPos, remaining);
+			int copyLen = Math.min(bufferLength - bufferPos, remaining);
 			
 			System.arraycopy(buffer, bufferPos, b, offset, copyLen);
 			
@@ -86,18 +92,15 @@ public class HashedBlockInputStream extends InputStream {
 		
 		bufferPos = 0;
 		
-		long index = baseStream.readUInt();
+		long index = LEDataInputStream.readUInt(readHeader(intBuf), 0);
 		if ( index != bufferIndex ) {
 			throw new IOException("Invalid data format");
 		}
 		bufferIndex++;
 		
-		byte[] storedHash = baseStream.readBytes(32);
-		if ( storedHash == null || storedHash.length != HASH_SIZE) {
-			throw new IOException("Invalid data format");
-		}
+		readHeader(storedHash);
 		
-		int bufferSize = LEDataInputStream.readInt(baseStream);
+		int bufferSize = LEDataInputStream.readInt(readHeader(intBuf), 0);
 		if ( bufferSize < 0 ) {
 			throw new IOException("Invalid data format");
 		}
@@ -110,34 +113,40 @@ public class HashedBlockInputStream extends InputStream {
 			}
 				
 			atEnd = true;
-			buffer = new byte[0];
+			bufferLength = 0;
 			return false;
 		}
 		
-		buffer = baseStream.readBytes(bufferSize);
-		if ( buffer == null || buffer.length != bufferSize ) {
+		if ( buffer.length < bufferSize ) {
+			buffer = new byte[bufferSize];
+		}
+		bufferLength = baseStream.readBytes(buffer, 0, bufferSize);
+		if ( bufferLength != bufferSize ) {
 			throw new IOException("Invalid data format");
 		}
 		
-		MessageDigest md = null;
-		try {
-			md = MessageDigest.getInstance("SHA-256");
-		} catch (NoSuchAlgorithmException e) {
-			throw new IOException("SHA-256 not implemented here.");
-		}
+		md.update(buffer, 0, bufferLength);
+		md.doFinal(computedHash, 0);
 		
-		byte[] computedHash = md.digest(buffer);
-		if ( computedHash == null || computedHash.length != HASH_SIZE ) {
-			throw new IOException("Hash wrong size");
+		int diff = 0;
+		for (int i = 0; i < HASH_SIZE; i++) {
+			diff |= storedHash[i] ^ computedHash[i];
 		}
-		
-		if ( ! Arrays.equals(storedHash, computedHash) ) {
+		if ( diff != 0 ) {
 			throw new IOException("Hashes didn't match.");
 		}
 
 		return true;
 	}
 
+	private byte[] readHeader(byte[] buf) throws IOException {
+		if ( baseStream.readBytes(buf, 0, buf.length) != buf.length ) {
+			throw new IOException("Invalid data format");
+		}
+		
+		return buf;
+	}
+
 	@Override
 	public long skip(long n) throws IOException {
 		return 0;
@@ -147,7 +156,7 @@ public class HashedBlockInputStream extends InputStream {
 	public int read() throws IOException {
 		if ( atEnd ) return -1;
 		
-		if ( bufferPos == buffer.length ) {
+		if ( bufferPos == bufferLength ) {
 			if ( ! ReadHashedBlock() ) return -1;
 		}
 		
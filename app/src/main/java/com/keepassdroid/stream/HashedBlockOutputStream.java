@@ -19,10 +19,11 @@
  */
 package com.keepassdroid.stream;
 
+import org.bouncycastle.crypto.digests.SHA256Digest;
+
 import java.io.IOException;
 import java.io.OutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
 
 public class HashedBlockOutputStream extends OutputStream {
 
@@ -32,6 +33,10 @@ public class HashedBlockOutputStream extends OutputStream {
 	private int bufferPos = 0;
 	private byte[] buffer;
 	private long bufferIndex = 0;
+
+	// Reused for every block
+	private SHA256Digest md = new SHA256Digest();
+	private byte[] header = new byte[4 + 32 + 4];
 	
 	public HashedBlockOutputStream(OutputStream os) {
 		init(os, DEFAULT_BUFFER_SIZE);
@@ -53,9 +58,11 @@ public class HashedBlockOutputStream extends OutputStream {
 
 	@Override
 	public void write(int oneByte) throws IOException {
-		byte[] buf = new byte[1];
-		buf[0] = (byte)oneByte;
-		write(buf, 0, 1);
+		if ( bufferPos == buffer.length ) {
+			WriteHashedBlock();
+		}
+		
+		buffer[bufferPos++] = (byte)oneByte;
 	}
 
 	@Override
@@ -96,41 +103,19 @@ public class HashedBlockOutputStream extends OutputStream {
 	}
 
 	private void WriteHashedBlock() throws IOException {
-		baseStream.writeUInt(bufferIndex);
+		LEDataOutputStream.writeInt((int) bufferIndex, header, 0);
 		bufferIndex++;
 		
 		if ( bufferPos > 0 ) {
-			MessageDigest md = null;
-			try {
-				md = MessageDigest.getInstance("SHA-256");
-			} catch (NoSuchAlgorithmException e) {
-				throw new IOException("SHA-256 not implemented here.");
-			}
-			
-			byte[] hash;
 			md.update(buffer, 0, bufferPos);
-			hash = md.digest();
-			/*
-			if ( bufferPos == buffer.length) {
-				hash = md.digest(buffer);
-			} else {
-				byte[] b = new byte[bufferPos];
-				System.arraycopy(buffer, 0, b, 0, bufferPos);
-				hash = md.digest(b);
-			}
-			*/
-			
-			baseStream.write(hash);
-
+			md.doFinal(header, 4);
 		} else {
-			// Write 32-bits of zeros
-			baseStream.writeLong(0L);
-			baseStream.writeLong(0L);
-			baseStream.writeLong(0L);
-			baseStream.writeLong(0L);
+			// Terminating block has an all zero hash
+			Arrays.fill(header, 4, 36, (byte) 0);
 		}
 		
-		baseStream.writeInt(bufferPos);
+		LEDataOutputStream.writeInt(bufferPos, header, 36);
+		baseStream.write(header);
 		
 		if ( bufferPos > 0 ) {
 			baseStream.write(buffer, 0, bufferPos);
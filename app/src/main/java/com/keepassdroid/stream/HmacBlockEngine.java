@@ -0,0 +1,152 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Computes the HMAC-SHA-256 of KDBX 4 HMAC blocks. Digest state and scratch
+ * buffers are kept between blocks, so computing a block's HMAC allocates
+ * nothing.
+ *
+ * Block keys are 64 bytes, exactly the SHA-256 block size, so the HMAC is
+ * built directly from the inner and outer padded keys.
+ *
+ * Not thread safe, use one engine per thread.
+ */
+public class HmacBlockEngine {
+    public static final int HMAC_SIZE = 32;
+
+    private static final byte IPAD = 0x36;
+    private static final byte OPAD = 0x5C;
+
+    private final byte[] key;
+    private final SHA512Digest keyHash = new SHA512Digest();
+    private final SHA256Digest hash = new SHA256Digest();
+
+    private final byte[] blockKey = new byte[HmacBlockStream.HMAC_KEY_SIZE];
+    private final byte[] pad = new byte[HmacBlockStream.HMAC_KEY_SIZE];
+    private final byte[] header = new byte[12];
+    private final byte[] inner = new byte[HMAC_SIZE];
+    private final byte[] computed = new byte[HMAC_SIZE];
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private byte[] chunk;
+
+    public HmacBlockEngine(byte[] key) {
+        this.key = key;
+    }
+
+    /**
+     * Writes the HMAC of a block, covering its index, length and data, to out
+     */
+    public void computeHmac(long blockIndex, byte[] data, int offset, int length,
+                            byte[] out, int outOffset) {
+        startHmac(blockIndex, length);
+        if (length > 0) {
+            hash.update(data, offset, length);
+        }
+        finishHmac(out, outOffset);
+    }
+
+    /**
+     * Writes the HMAC of a block held in a buffer without an accessible
+     * array, such as a file mapping, to out. The data is hashed through a
+     * small scratch buffer rather than copied out whole.
+     */
+    public void computeHmac(long blockIndex, ByteBuffer data, byte[] out, int outOffset) {
+        if (data.hasArray()) {
+            computeHmac(blockIndex, data.array(), data.arrayOffset() + data.position(),
+                    data.remaining(), out, outOffset);
+            return;
+        }
+
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+
+        ByteBuffer source = data.duplicate();
+        startHmac(blockIndex, source.remaining());
+        while (source.hasRemaining()) {
+            int length = Math.min(chunk.length, source.remaining());
+            source.get(chunk, 0, length);
+            hash.update(chunk, 0, length);
+        }
+        finishHmac(out, outOffset);
+    }
+
+    private void startHmac(long blockIndex, int length) {
+        HmacBlockStream.GetHmacKey64(keyHash, key, blockIndex, header, blockKey);
+
+        LEDataOutputStream.writeLong(blockIndex, header, 0);
+        LEDataOutputStream.writeInt(length, header, 8);
+
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) (blockKey[i] ^ IPAD);
+        }
+        hash.update(pad, 0, pad.length);
+        hash.update(header, 0, header.length);
+    }
+
+    private void finishHmac(byte[] out, int outOffset) {
+        hash.doFinal(inner, 0);
+
+        for (int i = 0; i < pad.length; i++) {
+            pad[i] = (byte) (blockKey[i] ^ OPAD);
+        }
+        hash.update(pad, 0, pad.length);
+        hash.update(inner, 0, inner.length);
+        hash.doFinal(out, outOffset);
+
+        Arrays.fill(blockKey, (byte) 0);
+        Arrays.fill(pad, (byte) 0);
+    }
+
+    /**
+     * @return true if storedHmac matches the HMAC of the block
+     */
+    public boolean verify(long blockIndex, byte[] data, int offset, int length, byte[] storedHmac) {
+        computeHmac(blockIndex, data, offset, length, computed, 0);
+
+        return matches(storedHmac);
+    }
+
+    /**
+     * @return true if storedHmac matches the HMAC of the block in data
+     */
+    public boolean verify(long blockIndex, ByteBuffer data, byte[] storedHmac) {
+        computeHmac(blockIndex, data, computed, 0);
+
+        return matches(storedHmac);
+    }
+
+    private boolean matches(byte[] storedHmac) {
+        int diff = 0;
+        for (int i = 0; i < HMAC_SIZE; i++) {
+            diff |= computed[i] ^ storedHmac[i];
+        }
+
+        return diff == 0;
+    }
+}
@@ -19,54 +19,137 @@
  */
 package com.keepassdroid.stream;
 
-import com.keepassdroid.utils.Types;
-
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Arrays;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class HmacBlockInputStream extends InputStream {
+    /** Number of blocks to verify ahead of the reader in read-ahead mode */
+    public static final int DEFAULT_READ_AHEAD = 4;
+
+    private static ExecutorService verifyPool;
+
     private LEDataInputStream baseStream;
+    // Set when blocks can be sliced out of a file mapping instead of copied
+    private MappedInputStream mapped;
     private boolean verify;
     private byte[] key;
-    private byte[] buffer;
-    private int bufferPos = 0;
+    private ByteBuffer buffer;
     private long blockIndex = 0;
     private boolean endOfStream = false;
 
+    private HmacBlockEngine engine;
+    private Block current;
+    private byte[] sizeBuf = new byte[4];
+
+    private int readAhead;
+    private ArrayDeque<Block> pending = new ArrayDeque<Block>();
+    private ArrayDeque<Block> free = new ArrayDeque<Block>();
+    private ArrayBlockingQueue<HmacBlockEngine> engines;
+    private boolean baseEnded = false;
+
+    private static final int PENDING = 0;
+    private static final int VERIFIED = 1;
+    private static final int INVALID = 2;
+
+    private class Block implements Runnable {
+        long index;
+        byte[] storedHmac = new byte[HmacBlockEngine.HMAC_SIZE];
+        byte[] data = new byte[0];
+        // Wraps data, kept so copied blocks don't allocate a buffer each
+        ByteBuffer wrapped = ByteBuffer.wrap(data);
+        ByteBuffer content;
+        int blockSize;
+        int length;
+        int state;
+
+        @Override
+        public void run() {
+            HmacBlockEngine blockEngine = engines.poll();
+            if (blockEngine == null) {
+                blockEngine = new HmacBlockEngine(key);
+            }
+
+            boolean valid = blockEngine.verify(index, content, storedHmac);
+            engines.offer(blockEngine);
+
+            synchronized (this) {
+                state = valid ? VERIFIED : INVALID;
+                notifyAll();
+            }
+        }
+
+        synchronized boolean isDone() {
+            return state != PENDING;
+        }
+
+        synchronized boolean awaitVerified() throws InterruptedIOException {
+            while (state == PENDING) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted waiting for Hmac");
+                }
+            }
+
+            return state == VERIFIED;
+        }
+    }
+
     public HmacBlockInputStream(InputStream baseStream, boolean verify, byte[] key) {
+        this(baseStream, verify, key, 0);
+    }
+
+    /**
+     * @param readAhead number of blocks to read from baseStream and verify on
+     *                  background threads ahead of the reader, 0 to verify
+     *                  each block as it is reached
+     *
+     * When baseStream is a {@link MappedInputStream}, blocks are verified and
+     * read straight out of the mapping.
+     */
+    public HmacBlockInputStream(InputStream baseStream, boolean verify, byte[] key, int readAhead) {
         super();
 
         this.baseStream = new LEDataInputStream(baseStream);
+        if (baseStream instanceof MappedInputStream) {
+            mapped = (MappedInputStream) baseStream;
+        }
         this.verify = verify;
         this.key = key;
-        buffer = new byte[0];
+        this.readAhead = verify ? readAhead : 0;
+        buffer = ByteBuffer.allocate(0);
+
+        if (this.readAhead > 0) {
+            engines = new ArrayBlockingQueue<HmacBlockEngine>(this.readAhead + 1);
+        } else {
+            engine = new HmacBlockEngine(key);
+            current = new Block();
+        }
     }
 
     @Override
     public int read() throws IOException {
         if (endOfStream) return -1;
 
-        if (bufferPos == buffer.length) {
+        if (!buffer.hasRemaining()) {
             if (!readSafeBlock()) return -1;
         }
 
-        int output = Types.readUByte(buffer, bufferPos);
-        bufferPos++;
-
-        return output;
+        return buffer.get() & 0xFF;
     }
 
     @Override
     public int read(byte[] outBuffer, int byteOffset, int byteCount) throws IOException {
         int remaining = byteCount;
         while (remaining > 0) {
-            if (bufferPos == buffer.length) {
+            if (!buffer.hasRemaining()) {
                 if (!readSafeBlock()) {
                     int read = byteCount - remaining;
                     if (read <= 0) {
@@ -77,12 +160,11 @@ public class HmacBlockInputStream extends InputStream {
                 }
             }
 
-            int copy = Math.min(buffer.length - bufferPos, remaining);
+            int copy = Math.min(buffer.remaining(), remaining);
             assert(copy > 0);
 
-            System.arraycopy(buffer, bufferPos, outBuffer, byteOffset, copy);
+            buffer.get(outBuffer, byteOffset, copy);
             byteOffset += copy;
-            bufferPos += copy;
 
             remaining -= copy;
         }
@@ -98,54 +180,91 @@ public class HmacBlockInputStream extends InputStream {
     private boolean readSafeBlock() throws IOException {
         if (endOfStream) return false;
 
-        byte[] storedHmac = baseStream.readBytes(32);
-        if (storedHmac == null || storedHmac.length != 32) {
-            throw new IOException("File corrupted");
+        if (readAhead > 0) {
+            return readVerifiedAhead();
         }
 
-        byte[] pbBlockIndex = LEDataOutputStream.writeLongBuf(blockIndex);
-        byte[] pbBlockSize = baseStream.readBytes(4);
-        if (pbBlockSize == null || pbBlockSize.length != 4) {
-            throw new IOException("File corrupted");
+        readBlock(current);
+        if (verify && !engine.verify(current.index, current.content, current.storedHmac)) {
+            throw new IOException("Invalid Hmac");
         }
-        int blockSize = LEDataInputStream.readInt(pbBlockSize, 0);
-        bufferPos = 0;
 
-        buffer = baseStream.readBytes(blockSize);
+        return useBlock(current);
+    }
 
-        if (verify) {
-            byte[] cmpHmac;
-            byte[] blockKey = HmacBlockStream.GetHmacKey64(key, blockIndex);
-            Mac hmac;
-            try {
-                hmac = Mac.getInstance("HmacSHA256");
-                SecretKeySpec signingKey = new SecretKeySpec(blockKey, "HmacSHA256");
-                hmac.init(signingKey);
-            } catch (NoSuchAlgorithmException e) {
-                throw new IOException("Invalid Hmac");
-            } catch (InvalidKeyException e) {
-                throw new IOException("Invalid Hmac");
+    private boolean readVerifiedAhead() throws IOException {
+        while (!baseEnded && pending.size() <= readAhead) {
+            Block block = free.poll();
+            if (block == null) {
+                block = new Block();
             }
 
-            hmac.update(pbBlockIndex);
-            hmac.update(pbBlockSize);
+            readBlock(block);
+            baseEnded = block.length == 0;
 
-            if (buffer.length > 0) {
-                hmac.update(buffer);
-            }
-
-            cmpHmac = hmac.doFinal();
-            Arrays.fill(blockKey, (byte)0);
+            block.state = PENDING;
+            pending.add(block);
+            getVerifyPool().execute(block);
+        }
 
-            if (!Arrays.equals(cmpHmac, storedHmac)) {
+        // Fail on any bad block that is already known about, not just the next one
+        for (Block block : pending) {
+            if (block.isDone() && !block.awaitVerified()) {
                 throw new IOException("Invalid Hmac");
             }
+        }
+
+        Block block = pending.poll();
+        if (!block.awaitVerified()) {
+            throw new IOException("Invalid Hmac");
+        }
+
+        // The reader is done with the previous block
+        if (current != null) {
+            free.add(current);
+        }
+        current = block;
+
+        return useBlock(block);
+    }
+
+    private void readBlock(Block block) throws IOException {
+        block.index = blockIndex++;
+
+        int read = baseStream.readBytes(block.storedHmac, 0, HmacBlockEngine.HMAC_SIZE);
+        if (read != HmacBlockEngine.HMAC_SIZE) {
+            throw new IOException("File corrupted");
+        }
 
+        read = baseStream.readBytes(sizeBuf, 0, sizeBuf.length);
+        if (read != sizeBuf.length) {
+            throw new IOException("File corrupted");
+        }
+
+        block.blockSize = LEDataInputStream.readInt(sizeBuf, 0);
+        if (block.blockSize < 0) {
+            throw new IOException("File corrupted");
+        }
+
+        if (mapped != null) {
+            block.content = mapped.slice(block.blockSize);
+        } else {
+            if (block.data.length < block.blockSize) {
+                block.data = new byte[block.blockSize];
+                block.wrapped = ByteBuffer.wrap(block.data);
+            }
+            read = baseStream.readBytes(block.data, 0, block.blockSize);
+            block.wrapped.clear();
+            block.wrapped.limit(read);
+            block.content = block.wrapped;
         }
+        block.length = block.content.remaining();
+    }
 
-        blockIndex++;
+    private boolean useBlock(Block block) {
+        buffer = block.content;
 
-        if (blockSize == 0) {
+        if (block.blockSize == 0) {
             endOfStream = true;
             return false;
         }
@@ -153,6 +272,22 @@ public class HmacBlockInputStream extends InputStream {
         return true;
     }
 
+    private static synchronized ExecutorService getVerifyPool() {
+        if (verifyPool == null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), DEFAULT_READ_AHEAD);
+            verifyPool = Executors.newFixedThreadPool(Math.max(threads, 1), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Hmac verify");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return verifyPool;
+    }
+
     @Override
     public boolean markSupported() {
         return false;
@@ -160,6 +295,9 @@ public class HmacBlockInputStream extends InputStream {
 
     @Override
     public void close() throws IOException {
+        pending.clear();
+        free.clear();
+
         baseStream.close();
     }
 
@@ -170,6 +308,6 @@ public class HmacBlockInputStream extends InputStream {
 
     @Override
     public int available() throws IOException {
-        return buffer.length - bufferPos;
+        return buffer.remaining();
     }
 }
@@ -21,24 +21,22 @@ package com.keepassdroid.stream;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 public class HmacBlockOutputStream extends OutputStream {
     private static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
     private LEDataOutputStream baseStream;
-    private byte[] key;
+    private HmacBlockEngine engine;
 
     private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
     private int bufferPos = 0;
     private long blockIndex = 0;
 
+    private byte[] blockHmac = new byte[HmacBlockEngine.HMAC_SIZE];
+    private byte[] blockSizeBuf = new byte[4];
+
     public HmacBlockOutputStream(OutputStream os, byte[] key) {
         this.baseStream = new LEDataOutputStream(os);
-        this.key = key;
+        this.engine = new HmacBlockEngine(key);
     }
 
     @Override
@@ -84,36 +82,16 @@ public class HmacBlockOutputStream extends OutputStream {
 
     @Override
     public void write(int oneByte) throws IOException {
-        byte[] outByte = new byte[1];
-        write(outByte, 0, 1);
-    }
-
-    private void WriteSafeBlock() throws IOException {
-        byte[] bufBlockIndex = LEDataOutputStream.writeLongBuf(blockIndex);
-        byte[] blockSizeBuf = LEDataOutputStream.writeIntBuf(bufferPos);
-
-        byte[] blockHmac;
-        byte[] blockKey = HmacBlockStream.GetHmacKey64(key, blockIndex);
-
-        Mac hmac;
-        try {
-            hmac = Mac.getInstance("HmacSHA256");
-            SecretKeySpec signingKey = new SecretKeySpec(blockKey, "HmacSHA256");
-            hmac.init(signingKey);
-        } catch (NoSuchAlgorithmException e) {
-            throw new IOException("Invalid Hmac");
-        } catch (InvalidKeyException e) {
-            throw new IOException("Invalid HMAC");
+        if (bufferPos == buffer.length) {
+            WriteSafeBlock();
         }
 
-        hmac.update(bufBlockIndex);
-        hmac.update(blockSizeBuf);
-
-        if (bufferPos > 0) {
-            hmac.update(buffer, 0, bufferPos);
-        }
+        buffer[bufferPos++] = (byte) oneByte;
+    }
 
-        blockHmac = hmac.doFinal();
+    private void WriteSafeBlock() throws IOException {
+        engine.computeHmac(blockIndex, buffer, 0, bufferPos, blockHmac, 0);
+        LEDataOutputStream.writeInt(bufferPos, blockSizeBuf, 0);
 
         baseStream.write(blockHmac);
         baseStream.write(blockSizeBuf);
@@ -19,37 +19,33 @@
  */
 package com.keepassdroid.stream;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.security.DigestOutputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import org.bouncycastle.crypto.digests.SHA512Digest;
 
 public class HmacBlockStream {
-    public static byte[] GetHmacKey64(byte[] key, long blockIndex) {
-        MessageDigest hash;
-        try {
-            hash = MessageDigest.getInstance("SHA-512");
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        }
+    public static final int HMAC_KEY_SIZE = 64;
 
-        NullOutputStream nos = new NullOutputStream();
-        DigestOutputStream dos = new DigestOutputStream(nos, hash);
-        LEDataOutputStream leos = new LEDataOutputStream(dos);
+    public static byte[] GetHmacKey64(byte[] key, long blockIndex) {
+        byte[] hashKey = new byte[HMAC_KEY_SIZE];
+        GetHmacKey64(new SHA512Digest(), key, blockIndex, new byte[8], hashKey);
 
-        try {
-            leos.writeLong(blockIndex);
-            leos.write(key);
-            leos.close();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        return hashKey;
+    }
 
-        byte[] hashKey = hash.digest();
-        assert(hashKey.length == 64);
+    /**
+     * Derives the key of one block into hashKey, using the caller's digest and
+     * scratch buffer so that nothing is allocated per block.
+     *
+     * @param indexBuf at least 8 bytes of scratch space
+     * @param hashKey receives the 64 byte block key
+     */
+    public static void GetHmacKey64(SHA512Digest hash, byte[] key, long blockIndex,
+                                    byte[] indexBuf, byte[] hashKey) {
+        LEDataOutputStream.writeLong(blockIndex, indexBuf, 0);
 
-        return hashKey;
+        hash.reset();
+        hash.update(indexBuf, 0, 8);
+        hash.update(key, 0, key.length);
+        hash.doFinal(hashKey, 0);
     }
 
 }
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads gzip data, like GZIPInputStream, but with a large input buffer and
+ * an Inflater reused from earlier streams. Output is inflated straight into
+ * the reader's buffer.
+ *
+ * Counts the compressed bytes consumed and the bytes inflated from them.
+ */
+public class InflateInputStream extends InputStream {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final int GZIP_MAGIC = 0x8B1F;
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    // Inflaters of closed streams, kept to save the native allocation
+    private static final int MAX_SPARE = 4;
+    private static final ArrayDeque<Inflater> spare = new ArrayDeque<Inflater>();
+
+    private InputStream in;
+    private Inflater inflater;
+    private final CRC32 crc = new CRC32();
+
+    private byte[] buf;
+    private int pos = 0;
+    private int end = 0;
+
+    private long filled = 0;
+    private long inflated = 0;
+    private boolean eof = false;
+    private boolean closed = false;
+
+    private final byte[] single = new byte[1];
+
+    public InflateInputStream(InputStream in) throws IOException {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param bufferSize size of the buffer compressed data is read into
+     */
+    public InflateInputStream(InputStream in, int bufferSize) throws IOException {
+        this.in = in;
+        buf = new byte[bufferSize];
+
+        start();
+    }
+
+    /**
+     * Reads gzip data held in memory, inflating it in place without an
+     * input buffer
+     */
+    public InflateInputStream(byte[] data, int offset, int length) throws IOException {
+        buf = data;
+        pos = offset;
+        end = offset + length;
+        filled = length;
+
+        start();
+    }
+
+    private void start() throws IOException {
+        inflater = obtainInflater();
+        try {
+            readHeader();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** @return compressed bytes consumed so far, including gzip headers */
+    public long getCompressedBytes() {
+        return filled - (end - pos) - (inflater != null ? inflater.getRemaining() : 0);
+    }
+
+    /** @return bytes inflated so far */
+    public long getInflatedBytes() {
+        return inflated;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (!eof) {
+            int n;
+            try {
+                n = inflater.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                String message = e.getMessage();
+                throw new ZipException(message != null ? message : "Invalid ZLIB data format");
+            }
+
+            if (n > 0) {
+                crc.update(b, off, n);
+                inflated += n;
+                return n;
+            }
+
+            if (inflater.finished()) {
+                readTrailer();
+            } else if (inflater.needsDictionary()) {
+                throw new ZipException("Unexpected dictionary in gzip data");
+            } else if (inflater.needsInput()) {
+                if (pos == end && !fill()) {
+                    throw new EOFException("Unexpected end of ZLIB input stream");
+                }
+                inflater.setInput(buf, pos, end - pos);
+                pos = end;
+            }
+        }
+
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        return eof ? 0 : 1;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        byte[] skipBuf = new byte[(int) Math.min(n, 8192)];
+        long skipped = 0;
+        while (skipped < n) {
+            int read = read(skipBuf, 0, (int) Math.min(skipBuf.length, n - skipped));
+            if (read == -1) {
+                break;
+            }
+            skipped += read;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (inflater != null) {
+            releaseInflater(inflater);
+            inflater = null;
+        }
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private boolean fill() throws IOException {
+        if (in == null) {
+            return false;
+        }
+
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) {
+            return false;
+        }
+
+        pos = 0;
+        end = n;
+        filled += n;
+
+        return true;
+    }
+
+    private int readUByte() throws IOException {
+        if (pos == end && !fill()) {
+            throw new EOFException();
+        }
+
+        return buf[pos++] & 0xFF;
+    }
+
+    private int readUShort() throws IOException {
+        return readUByte() | (readUByte() << 8);
+    }
+
+    private long readUInt() throws IOException {
+        return readUShort() | ((long) readUShort() << 16);
+    }
+
+    private void readHeader() throws IOException {
+        crc.reset();
+
+        CRC32 headerCrc = new CRC32();
+        int magic = readHeaderByte(headerCrc) | (readHeaderByte(headerCrc) << 8);
+        if (magic != GZIP_MAGIC) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (readHeaderByte(headerCrc) != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+
+        int flags = readHeaderByte(headerCrc);
+        // Modification time, extra flags and OS
+        for (int i = 0; i < 6; i++) {
+            readHeaderByte(headerCrc);
+        }
+
+        if ((flags & FEXTRA) != 0) {
+            int length = readHeaderByte(headerCrc) | (readHeaderByte(headerCrc) << 8);
+            for (int i = 0; i < length; i++) {
+                readHeaderByte(headerCrc);
+            }
+        }
+        if ((flags & FNAME) != 0) {
+            while (readHeaderByte(headerCrc) != 0) { }
+        }
+        if ((flags & FCOMMENT) != 0) {
+            while (readHeaderByte(headerCrc) != 0) { }
+        }
+        if ((flags & FHCRC) != 0) {
+            int stored = readUShort();
+            if (stored != ((int) headerCrc.getValue() & 0xFFFF)) {
+                throw new ZipException("Corrupt GZIP header");
+            }
+        }
+    }
+
+    private int readHeaderByte(CRC32 headerCrc) throws IOException {
+        int b = readUByte();
+        headerCrc.update(b);
+
+        return b;
+    }
+
+    /** Checks the trailer of a member, and starts the next one if there is one */
+    private void readTrailer() throws IOException {
+        // Take back the input the inflater didn't use
+        long memberSize = inflater.getBytesWritten();
+        pos = end - inflater.getRemaining();
+        inflater.reset();
+
+        try {
+            if (readUInt() != crc.getValue() || readUInt() != (memberSize & 0xFFFFFFFFL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+        } catch (EOFException e) {
+            throw new EOFException("Unexpected end of ZLIB input stream");
+        }
+
+        // Anything other than another member after the trailer is ignored
+        if (pos == end && !fill()) {
+            eof = true;
+            return;
+        }
+        if ((buf[pos] & 0xFF) != (GZIP_MAGIC & 0xFF)) {
+            eof = true;
+            return;
+        }
+
+        try {
+            readHeader();
+        } catch (IOException e) {
+            eof = true;
+        }
+    }
+
+    private static Inflater obtainInflater() {
+        synchronized (spare) {
+            Inflater inflater = spare.poll();
+            if (inflater != null) {
+                return inflater;
+            }
+        }
+
+        return new Inflater(true);
+    }
+
+    private static void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        synchronized (spare) {
+            if (spare.size() < MAX_SPARE) {
+                spare.push(inflater);
+                return;
+            }
+        }
+
+        inflater.end();
+    }
+}
@@ -131,6 +131,30 @@ public class LEDataInputStream extends InputStream {
 		return readBytes(baseStream, length);
 	}
 
+	/** Reads into a caller supplied buffer until length bytes are read or the
+	 *  stream ends
+	 * @return the number of bytes read
+	 */
+	public static int readBytes(InputStream is, byte[] buf, int offset, int length) throws IOException {
+		int count = 0;
+		while ( count < length ) {
+			int read = is.read(buf, offset + count, length - count);
+
+			// Reached end
+			if ( read == -1 ) {
+				break;
+			}
+
+			count += read;
+		}
+
+		return count;
+	}
+
+	public int readBytes(byte[] buf, int offset, int length) throws IOException {
+		return readBytes(baseStream, buf, offset, length);
+	}
+
 	public static int readUShort(InputStream is) throws IOException {
 		  byte[] buf = readBytes(is, 2);
 
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a local file through a read only memory mapping, so reads are
+ * copies out of the page cache rather than system calls. Readers that know
+ * about this stream can take slices of the file without copying it at all.
+ *
+ * Counts the bytes consumed, like the CountInputStream it stands in for.
+ */
+public class MappedInputStream extends CountInputStream {
+    private ByteBuffer buf;
+    private final long length;
+    private int mark = 0;
+
+    public MappedInputStream(ByteBuffer buf) {
+        super(null);
+
+        this.buf = buf.slice();
+        length = this.buf.capacity();
+    }
+
+    /**
+     * Maps file for reading
+     * @return null if the file can't be mapped, files over 2 GiB for instance
+     */
+    public static MappedInputStream open(File file) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+            if (size == 0 || size > Integer.MAX_VALUE) {
+                return null;
+            }
+
+            // The mapping stays valid once the channel is closed
+            return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } finally {
+            fis.close();
+        }
+    }
+
+    /** @return the size of the mapped file */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Returns the next length bytes of the file, or fewer at the end of it,
+     * as a buffer sharing the mapping, and skips over them
+     */
+    public ByteBuffer slice(int length) throws IOException {
+        ByteBuffer source = buffer();
+
+        ByteBuffer slice = source.duplicate();
+        slice.limit(slice.position() + Math.min(length, source.remaining()));
+        source.position(slice.limit());
+        bytes = source.position();
+
+        return slice.slice();
+    }
+
+    private ByteBuffer buffer() throws IOException {
+        if (buf == null) {
+            throw new IOException("Stream closed");
+        }
+
+        return buf;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return buffer().remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapping is released once it is no longer referenced
+        buf = null;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        if (buf != null) {
+            mark = buf.position();
+        }
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ByteBuffer source = buffer();
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+
+        int b = source.get() & 0xFF;
+        bytes = source.position();
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer source = buffer();
+        if (length == 0) {
+            return 0;
+        }
+        if (!source.hasRemaining()) {
+            return -1;
+        }
+
+        int read = Math.min(length, source.remaining());
+        source.get(buffer, offset, read);
+        bytes = source.position();
+
+        return read;
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        buffer().position(mark);
+        bytes = mark;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        ByteBuffer source = buffer();
+        if (byteCount <= 0) {
+            return 0;
+        }
+
+        int skipped = (int) Math.min(byteCount, source.remaining());
+        source.position(source.position() + skipped);
+        bytes = source.position();
+
+        return skipped;
+    }
+}
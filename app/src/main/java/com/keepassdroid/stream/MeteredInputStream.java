@@ -0,0 +1,91 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import com.keepassdroid.database.DbMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Times reads of the wrapped stream as a stage of a load, and counts the
+ * bytes they return. A null stage marks reads that only wait on another
+ * thread, so their time is left out of the stage reading this stream.
+ */
+public class MeteredInputStream extends InputStream {
+	private final InputStream is;
+	private final DbMetrics metrics;
+	private final DbMetrics.Stage stage;
+
+	public MeteredInputStream(InputStream is, DbMetrics metrics, DbMetrics.Stage stage) {
+		this.is = is;
+		this.metrics = metrics;
+		this.stage = stage;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return is.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		is.close();
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = -1;
+		metrics.begin(stage);
+		try {
+			b = is.read();
+		} finally {
+			metrics.end(b == -1 ? 0 : 1);
+		}
+
+		return b;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = -1;
+		metrics.begin(stage);
+		try {
+			read = is.read(buffer, offset, length);
+		} finally {
+			metrics.end(read == -1 ? 0 : read);
+		}
+
+		return read;
+	}
+
+	@Override
+	public long skip(long byteCount) throws IOException {
+		long skipped = 0;
+		metrics.begin(stage);
+		try {
+			skipped = is.skip(byteCount);
+		} finally {
+			metrics.end(skipped);
+		}
+
+		return skipped;
+	}
+}
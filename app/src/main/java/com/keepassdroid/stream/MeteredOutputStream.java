@@ -0,0 +1,78 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import com.keepassdroid.database.DbMetrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Times writes to the wrapped stream as a stage of a save, and counts the bytes written */
+public class MeteredOutputStream extends OutputStream {
+	private final OutputStream os;
+	private final DbMetrics metrics;
+	private final DbMetrics.Stage stage;
+
+	public MeteredOutputStream(OutputStream os, DbMetrics metrics, DbMetrics.Stage stage) {
+		this.os = os;
+		this.metrics = metrics;
+		this.stage = stage;
+	}
+
+	@Override
+	public void write(int oneByte) throws IOException {
+		metrics.begin(stage);
+		try {
+			os.write(oneByte);
+		} finally {
+			metrics.end(1);
+		}
+	}
+
+	@Override
+	public void write(byte[] buffer, int offset, int count) throws IOException {
+		metrics.begin(stage);
+		try {
+			os.write(buffer, offset, count);
+		} finally {
+			metrics.end(count);
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		metrics.begin(stage);
+		try {
+			os.flush();
+		} finally {
+			metrics.end();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		metrics.begin(stage);
+		try {
+			os.close();
+		} finally {
+			metrics.end();
+		}
+	}
+}
@@ -0,0 +1,362 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import android.annotation.SuppressLint;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes gzip data, like GZIPOutputStream, but deflates fixed size chunks of
+ * the input on a pool of threads, the way pigz does. Each chunk is deflated
+ * with the end of the chunk before it as the preset dictionary and ends in a
+ * sync flush, so the chunks join into a single deflate stream and gzip
+ * member that any gzip reader accepts.
+ *
+ * Counts the bytes written to it and the gzip bytes written out.
+ */
+public class ParallelDeflateOutputStream extends OutputStream {
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final byte[] HEADER = { 0x1F, (byte) 0x8B, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+    private static final int TRAILER_SIZE = 8;
+
+    private static final int MAX_THREADS = 4;
+    private static ExecutorService deflatePool;
+    private static int poolThreads;
+
+    // Default level deflaters of finished chunks, kept to save the native allocation
+    private static final ArrayDeque<Deflater> spare = new ArrayDeque<Deflater>();
+
+    private final OutputStream out;
+    private final int level;
+    private final int chunkSize;
+    private final int maxPending;
+    private final ArrayDeque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+    private final CRC32 crc = new CRC32();
+
+    private byte[] input;
+    private int inputLength = 0;
+    private byte[] previous = null;
+    private int previousLength = 0;
+
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private boolean finished = false;
+    private boolean closed = false;
+
+    private final byte[] single = new byte[1];
+
+    public ParallelDeflateOutputStream(OutputStream out) throws IOException {
+        this(out, Deflater.DEFAULT_COMPRESSION, DEFAULT_CHUNK_SIZE);
+    }
+
+    public ParallelDeflateOutputStream(OutputStream out, int level, int chunkSize) throws IOException {
+        this.out = out;
+        this.level = level;
+        this.chunkSize = chunkSize;
+
+        // Enough chunks in flight to keep every thread busy while the oldest is written out
+        maxPending = 2 * getPoolThreads();
+
+        input = new byte[chunkSize];
+
+        out.write(HEADER);
+        bytesOut += HEADER.length;
+    }
+
+    /**
+     * @return true when deflating on several threads is possible and can
+     * help. Chunks end in sync flushes, which Android supports from KitKat on.
+     */
+    public static boolean isUseful() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT
+                && Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    /** @return bytes written to this stream so far */
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    /** @return gzip bytes written out so far, including the header and trailer */
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    private static class Chunk implements Callable<Chunk> {
+        final byte[] input;
+        final int length;
+        final byte[] dictionary;
+        final int dictionaryLength;
+        final boolean last;
+        final int level;
+
+        byte[] output;
+        int outputLength;
+
+        Chunk(byte[] input, int length, byte[] dictionary, int dictionaryLength, boolean last, int level) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.dictionaryLength = dictionaryLength;
+            this.last = last;
+            this.level = level;
+        }
+
+        // Only used where isUseful() says sync flushes are supported
+        @SuppressLint("NewApi")
+        @Override
+        public Chunk call() {
+            Deflater deflater = obtainDeflater(level);
+            try {
+                if (dictionary != null) {
+                    int size = Math.min(dictionaryLength, DICTIONARY_SIZE);
+                    deflater.setDictionary(dictionary, dictionaryLength - size, size);
+                }
+                deflater.setInput(input, 0, length);
+                if (last) {
+                    deflater.finish();
+                }
+
+                output = new byte[length + (length >> 3) + 64];
+                outputLength = 0;
+                while (true) {
+                    if (outputLength == output.length) {
+                        byte[] larger = new byte[output.length * 2];
+                        System.arraycopy(output, 0, larger, 0, outputLength);
+                        output = larger;
+                    }
+
+                    int space = output.length - outputLength;
+                    int n;
+                    if (last) {
+                        n = deflater.deflate(output, outputLength, space);
+                        outputLength += n;
+                        if (deflater.finished()) {
+                            break;
+                        }
+                    } else {
+                        // Ends on a byte boundary without ending the stream
+                        n = deflater.deflate(output, outputLength, space, Deflater.SYNC_FLUSH);
+                        outputLength += n;
+                        if (n < space) {
+                            break;
+                        }
+                    }
+                }
+            } finally {
+                releaseDeflater(deflater, level);
+            }
+
+            return this;
+        }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        single[0] = (byte) oneByte;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        } else if (finished) {
+            throw new IOException("Stream finished");
+        }
+
+        crc.update(b, off, len);
+        bytesIn += len;
+
+        while (len > 0) {
+            if (inputLength == input.length) {
+                submit(false);
+            }
+
+            int copy = Math.min(input.length - inputLength, len);
+            System.arraycopy(b, off, input, inputLength, copy);
+            inputLength += copy;
+            off += copy;
+            len -= copy;
+        }
+    }
+
+    private void submit(boolean last) throws IOException {
+        Chunk chunk = new Chunk(input, inputLength, previous, previousLength, last, level);
+        pending.add(getPool().submit(chunk));
+
+        // The next chunk uses this one's input as its dictionary, so it gets a new buffer
+        previous = input;
+        previousLength = inputLength;
+        input = last ? null : new byte[chunkSize];
+        inputLength = 0;
+
+        while (pending.size() > maxPending || (!pending.isEmpty() && pending.peek().isDone())) {
+            writeChunk();
+        }
+    }
+
+    private void writeChunk() throws IOException {
+        Chunk chunk;
+        try {
+            chunk = pending.poll().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted deflating");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+
+        out.write(chunk.output, 0, chunk.outputLength);
+        bytesOut += chunk.outputLength;
+    }
+
+    /** Flushes what has been deflated so far, without ending a chunk early */
+    @Override
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (!pending.isEmpty() && pending.peek().isDone()) {
+            writeChunk();
+        }
+        out.flush();
+    }
+
+    /** Writes the rest of the deflate stream and the trailer, without closing the stream written to */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        try {
+            submit(true);
+            while (!pending.isEmpty()) {
+                writeChunk();
+            }
+
+            byte[] trailer = new byte[TRAILER_SIZE];
+            writeInt(trailer, 0, crc.getValue());
+            writeInt(trailer, 4, bytesIn);
+            out.write(trailer);
+            bytesOut += trailer.length;
+        } finally {
+            // Don't leave chunks running for a failed save
+            for (Future<Chunk> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+            previous = null;
+        }
+    }
+
+    /** Finishes the gzip data if that hasn't been done, then closes the stream written to */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeInt(byte[] buf, int offset, long value) {
+        buf[offset] = (byte) value;
+        buf[offset + 1] = (byte) (value >> 8);
+        buf[offset + 2] = (byte) (value >> 16);
+        buf[offset + 3] = (byte) (value >> 24);
+    }
+
+    private static synchronized int getPoolThreads() {
+        getPool();
+        return poolThreads;
+    }
+
+    private static synchronized ExecutorService getPool() {
+        if (deflatePool == null) {
+            int threads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_THREADS);
+            poolThreads = Math.max(threads, 1);
+            deflatePool = Executors.newFixedThreadPool(poolThreads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Deflate");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+
+        return deflatePool;
+    }
+
+    private static Deflater obtainDeflater(int level) {
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            synchronized (spare) {
+                Deflater deflater = spare.poll();
+                if (deflater != null) {
+                    return deflater;
+                }
+            }
+        }
+
+        return new Deflater(level, true);
+    }
+
+    private static void releaseDeflater(Deflater deflater, int level) {
+        if (level == Deflater.DEFAULT_COMPRESSION) {
+            deflater.reset();
+            synchronized (spare) {
+                if (spare.size() < MAX_THREADS) {
+                    spare.push(deflater);
+                    return;
+                }
+            }
+        }
+
+        deflater.end();
+    }
+}
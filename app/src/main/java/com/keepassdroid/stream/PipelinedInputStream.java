@@ -0,0 +1,302 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Runs one stage of a load pipeline on its own thread. A worker drains the
+ * source stream into a bounded queue of blocks, so that whatever work the
+ * source does on read (HMAC verification, decryption, inflation) overlaps
+ * with the consumer of this stream.
+ *
+ * Errors thrown by the source are rethrown to the consumer once all of the
+ * data read before the error has been consumed.
+ */
+public class PipelinedInputStream extends InputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final Block END = new Block(0);
+
+    private final InputStream source;
+    private final int blockSize;
+    private final ArrayBlockingQueue<Block> filled;
+    private final ArrayBlockingQueue<Block> free;
+    private final Thread worker;
+
+    private volatile boolean stopped = false;
+    private volatile Throwable error = null;
+
+    private Block current = null;
+    private int currentPos = 0;
+
+    public PipelinedInputStream(InputStream source, String name) {
+        this(source, name, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    public PipelinedInputStream(InputStream source, String name, int blockSize, int queueDepth) {
+        this.source = source;
+        this.blockSize = blockSize;
+
+        filled = new ArrayBlockingQueue<Block>(queueDepth);
+        free = new ArrayBlockingQueue<Block>(queueDepth + 1);
+
+        worker = new Thread(new Producer(), "Pipeline " + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * @return true when running stages on separate threads can help, that is
+     * when there is more than one core to run them on
+     */
+    public static boolean isUseful() {
+        return Runtime.getRuntime().availableProcessors() > 1;
+    }
+
+    private class Producer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    Block block = free.poll();
+                    if (block == null) {
+                        block = new Block(blockSize);
+                    }
+
+                    IOException failure = null;
+                    try {
+                        block.length = fill(block.data);
+                    } catch (IOException e) {
+                        // Hand over what was read before the failure first
+                        block.length = partial;
+                        failure = e;
+                    }
+
+                    if (block.length > 0) {
+                        filled.put(block);
+                    }
+
+                    if (failure != null) {
+                        throw failure;
+                    }
+
+                    if (block.length < block.data.length) {
+                        break;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the consumer
+            } catch (InterruptedIOException e) {
+                if (!stopped) {
+                    error = e;
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                signalEnd();
+            }
+        }
+
+        private void signalEnd() {
+            if (stopped) {
+                // Nobody is waiting on the queue anymore
+                return;
+            }
+
+            try {
+                filled.put(END);
+            } catch (InterruptedException e) {
+                // Stopped by the consumer
+            }
+        }
+
+        private int partial;
+
+        private int fill(byte[] buf) throws IOException {
+            partial = 0;
+            while (partial < buf.length) {
+                int read = source.read(buf, partial, buf.length - partial);
+                if (read == -1) {
+                    break;
+                }
+
+                partial += read;
+            }
+
+            return partial;
+        }
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (current == END) {
+            return false;
+        }
+
+        if (current != null) {
+            free.offer(current);
+            current = null;
+        }
+
+        Block block;
+        try {
+            block = filled.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+
+        current = block;
+        currentPos = 0;
+
+        if (block == END) {
+            rethrow();
+            return false;
+        }
+
+        return true;
+    }
+
+    private void rethrow() throws IOException {
+        Throwable e = error;
+        if (e == null) {
+            return;
+        }
+
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+
+        throw new IOException(e);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (current == null || currentPos == current.length) {
+            if (!nextBlock()) return -1;
+        }
+
+        return current.data[currentPos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        int total = 0;
+        while (total < len) {
+            if (current == null || currentPos == current.length) {
+                // Don't wait on the queue if we already have something to return
+                if (total > 0 && filled.isEmpty()) {
+                    break;
+                }
+
+                if (!nextBlock()) {
+                    break;
+                }
+            }
+
+            int copy = Math.min(current.length - currentPos, len - total);
+            System.arraycopy(current.data, currentPos, b, off + total, copy);
+            currentPos += copy;
+            total += copy;
+        }
+
+        return (total == 0) ? -1 : total;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (current == null || current == END) {
+            return 0;
+        }
+
+        return current.length - currentPos;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (current == null || currentPos == current.length) {
+                if (!nextBlock()) break;
+            }
+
+            int step = (int) Math.min(current.length - currentPos, n - skipped);
+            currentPos += step;
+            skipped += step;
+        }
+
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Stops the worker thread without closing the source stream.
+     */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        worker.interrupt();
+
+        // Make room for the worker if it is blocked on a full queue
+        filled.clear();
+
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        current = END;
+        currentPos = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        source.close();
+    }
+}
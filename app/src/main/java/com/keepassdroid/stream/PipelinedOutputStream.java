@@ -0,0 +1,267 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Runs one stage of a save pipeline on its own thread. Writes are gathered
+ * into blocks and handed over a bounded queue to a worker, which writes them
+ * to the sink stream, so that whatever work the sink does on write
+ * (compression, encryption, HMAC) overlaps with the writer of this stream.
+ *
+ * The sink sees the same bytes, flushes and close as it would have without
+ * the pipeline, only in larger writes. Errors thrown by the sink are
+ * rethrown to the writer on its next write, or at the latest on close.
+ */
+public class PipelinedOutputStream extends OutputStream {
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+    public static final int DEFAULT_QUEUE_DEPTH = 4;
+
+    private static class Block {
+        final byte[] data;
+        int length;
+
+        Block(int size) {
+            data = new byte[size];
+        }
+    }
+
+    private static final Block FLUSH = new Block(0);
+    private static final Block END = new Block(0);
+
+    private final OutputStream sink;
+    private final int blockSize;
+    private final ArrayBlockingQueue<Block> filled;
+    private final ArrayBlockingQueue<Block> free;
+    private final Thread worker;
+
+    private volatile boolean stopped = false;
+    private volatile Throwable error = null;
+
+    private Block current = null;
+    private boolean closed = false;
+
+    public PipelinedOutputStream(OutputStream sink, String name) {
+        this(sink, name, DEFAULT_BLOCK_SIZE, DEFAULT_QUEUE_DEPTH);
+    }
+
+    public PipelinedOutputStream(OutputStream sink, String name, int blockSize, int queueDepth) {
+        this.sink = sink;
+        this.blockSize = blockSize;
+
+        filled = new ArrayBlockingQueue<Block>(queueDepth);
+        free = new ArrayBlockingQueue<Block>(queueDepth + 1);
+
+        worker = new Thread(new Consumer(), "Pipeline " + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private class Consumer implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (!stopped) {
+                    Block block = filled.take();
+                    if (block == END) {
+                        break;
+                    }
+
+                    // After a failure keep draining, so the writer never blocks
+                    if (error != null) {
+                        continue;
+                    }
+
+                    try {
+                        if (block == FLUSH) {
+                            sink.flush();
+                        } else {
+                            sink.write(block.data, 0, block.length);
+                            free.offer(block);
+                        }
+                    } catch (Throwable e) {
+                        error = e;
+                    }
+                }
+
+                if (error == null) {
+                    sink.close();
+                }
+            } catch (InterruptedException e) {
+                // Stopped by the writer
+            } catch (InterruptedIOException e) {
+                if (!stopped) {
+                    error = e;
+                }
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+    }
+
+    private void hand(Block block) throws IOException {
+        rethrow();
+
+        try {
+            filled.put(block);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+    }
+
+    private void handCurrent() throws IOException {
+        if (current != null && current.length > 0) {
+            Block block = current;
+            current = null;
+            hand(block);
+        }
+    }
+
+    private void rethrow() throws IOException {
+        Throwable e = error;
+        if (e == null) {
+            return;
+        }
+
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        } else if (e instanceof Error) {
+            throw (Error) e;
+        }
+
+        throw new IOException(e);
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        ensureOpen();
+
+        if (current == null) {
+            nextBlock();
+        }
+
+        current.data[current.length++] = (byte) oneByte;
+        if (current.length == current.data.length) {
+            handCurrent();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+
+        while (len > 0) {
+            if (current == null) {
+                nextBlock();
+            }
+
+            int copy = Math.min(current.data.length - current.length, len);
+            System.arraycopy(b, off, current.data, current.length, copy);
+            current.length += copy;
+            off += copy;
+            len -= copy;
+
+            if (current.length == current.data.length) {
+                handCurrent();
+            }
+        }
+    }
+
+    private void nextBlock() {
+        current = free.poll();
+        if (current == null) {
+            current = new Block(blockSize);
+        }
+        current.length = 0;
+    }
+
+    /** Hands over what has been written so far, and flushes the sink after it */
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+
+        handCurrent();
+        hand(FLUSH);
+    }
+
+    /**
+     * Hands over the rest of the data, then waits for the worker to write it
+     * and to close the sink
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        IOException failure = null;
+        try {
+            handCurrent();
+        } catch (IOException e) {
+            failure = e;
+        }
+
+        try {
+            filled.put(END);
+            worker.join();
+        } catch (InterruptedException e) {
+            stop();
+            throw new InterruptedIOException("Pipeline interrupted");
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+        rethrow();
+    }
+
+    /**
+     * Stops the worker thread without writing the rest of the data or
+     * closing the sink stream, after a failed save.
+     */
+    public void stop() {
+        if (stopped) {
+            return;
+        }
+
+        stopped = true;
+        closed = true;
+        worker.interrupt();
+
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.stream;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds data until it can be written where it belongs. The first
+ * memoryLimit bytes are kept in memory and anything past that goes to a
+ * temp file, so memory use stays bounded however much is written. Only
+ * meant for data that is already encrypted.
+ */
+public class SpillOutputStream extends OutputStream {
+    public static final int DEFAULT_MEMORY_LIMIT = 8 * 1024 * 1024;
+
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private final File spillDir;
+    private final int memoryLimit;
+
+    private final List<byte[]> blocks = new ArrayList<byte[]>();
+    private int lastLength = 0;
+    private long length = 0;
+
+    private File spillFile = null;
+    private OutputStream spill = null;
+    private boolean closed = false;
+
+    private final byte[] single = new byte[1];
+
+    /**
+     * @param spillDir where to put the temp file, or null for the default
+     *                 temp directory
+     */
+    public SpillOutputStream(File spillDir, int memoryLimit) {
+        this.spillDir = spillDir;
+        this.memoryLimit = memoryLimit;
+    }
+
+    /** @return the number of bytes written */
+    public long length() {
+        return length;
+    }
+
+    /** @return true once the data no longer fits in memory */
+    public boolean isSpilled() {
+        return spillFile != null;
+    }
+
+    @Override
+    public void write(int oneByte) throws IOException {
+        single[0] = (byte) oneByte;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        length += len;
+
+        while (len > 0 && spill == null) {
+            if (blocks.isEmpty() || lastLength == BLOCK_SIZE) {
+                if ((long) (blocks.size() + 1) * BLOCK_SIZE > memoryLimit) {
+                    startSpill();
+                    break;
+                }
+
+                blocks.add(new byte[BLOCK_SIZE]);
+                lastLength = 0;
+            }
+
+            byte[] block = blocks.get(blocks.size() - 1);
+            int copy = Math.min(BLOCK_SIZE - lastLength, len);
+            System.arraycopy(b, off, block, lastLength, copy);
+            lastLength += copy;
+            off += copy;
+            len -= copy;
+        }
+
+        if (len > 0) {
+            spill.write(b, off, len);
+        }
+    }
+
+    private void startSpill() throws IOException {
+        spillFile = File.createTempFile("spill", ".tmp", spillDir);
+        spill = new BufferedOutputStream(new FileOutputStream(spillFile), BLOCK_SIZE);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (spill != null) {
+            spill.flush();
+        }
+    }
+
+    /** Finishes writing, the data can then be read back by {@link #writeTo(OutputStream)} */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (spill != null) {
+            spill.close();
+        }
+    }
+
+    /** Writes everything written to this stream to os, can be repeated until {@link #discard()} */
+    public void writeTo(OutputStream os) throws IOException {
+        close();
+
+        for (int i = 0; i < blocks.size(); i++) {
+            os.write(blocks.get(i), 0, i == blocks.size() - 1 ? lastLength : BLOCK_SIZE);
+        }
+
+        if (spillFile != null) {
+            // Not one of the blocks, they have to stay intact for another writeTo
+            byte[] buf = new byte[BLOCK_SIZE];
+            InputStream is = new FileInputStream(spillFile);
+            try {
+                int read;
+                while ((read = is.read(buf)) != -1) {
+                    os.write(buf, 0, read);
+                }
+            } finally {
+                is.close();
+            }
+        }
+    }
+
+    /** Releases the memory and deletes the temp file */
+    public void discard() {
+        try {
+            close();
+        } catch (IOException e) {
+            // Deleted anyway
+        }
+
+        blocks.clear();
+        lastLength = 0;
+        if (spillFile != null) {
+            spillFile.delete();
+            spillFile = null;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2026 Brian Pellin.
+ *     
+ * This file is part of KeePassDroid.
+ *
+ *  KeePassDroid is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 2 of the License, or
+ *  (at your option) any later version.
+ *
+ *  KeePassDroid is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with KeePassDroid.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package com.keepassdroid.utils;
+
+import java.util.Arrays;
+
+/**
+ * Base64 decoding into a caller supplied buffer, so large or frequent values
+ * can be decoded without allocating. Accepts the same input as
+ * android.util.Base64 with NO_WRAP: characters outside the alphabet are
+ * skipped and padding is optional.
+ */
+public class Base64Util {
+	private static final int SKIP = -1;
+	private static final int PAD = -2;
+
+	private static final int[] DECODE = new int[128];
+
+	static {
+		Arrays.fill(DECODE, SKIP);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+		for (int i = 0; i < alphabet.length(); i++) {
+			DECODE[alphabet.charAt(i)] = i;
+		}
+		DECODE['='] = PAD;
+	}
+
+	/** An upper bound on the number of bytes src decodes to */
+	public static int maxDecodedLength(String src) {
+		return (src.length() / 4) * 3 + 3;
+	}
+
+	/**
+	 * Decodes src into dst starting at offset, which must have room for
+	 * {@link #maxDecodedLength(String)} bytes. Returns the number of bytes
+	 * written.
+	 */
+	public static int decode(String src, byte[] dst, int offset) {
+		int out = offset;
+		int bits = 0;
+		int count = 0;
+
+		int length = src.length();
+		for (int i = 0; i < length; i++) {
+			char c = src.charAt(i);
+			int value = c < 128 ? DECODE[c] : SKIP;
+			if (value == PAD) {
+				break;
+			} else if (value == SKIP) {
+				continue;
+			}
+
+			bits = (bits << 6) | value;
+			if (++count == 4) {
+				dst[out++] = (byte) (bits >> 16);
+				dst[out++] = (byte) (bits >> 8);
+				dst[out++] = (byte) bits;
+				bits = 0;
+				count = 0;
+			}
+		}
+
+		switch (count) {
+		case 0:
+			break;
+		case 2:
+			dst[out++] = (byte) (bits >> 4);
+			break;
+		case 3:
+			dst[out++] = (byte) (bits >> 10);
+			dst[out++] = (byte) (bits >> 2);
+			break;
+		default:
+			throw new IllegalArgumentException("bad base-64");
+		}
+
+		return out - offset;
+	}
+}
@@ -19,46 +19,182 @@
  */
 package com.keepassdroid.utils;
 
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.Seconds;
+import com.keepassdroid.database.PwDatabaseV4XML;
 
+import java.text.ParseException;
 import java.util.Date;
 
+/**
+ * Converts KDBX timestamps: ISO-8601 text in KDBX 3 and seconds since
+ * 0001-01-01 in KDBX 4. The common cases are handled with plain arithmetic on
+ * longs; anything else falls back to the SimpleDateFormat the files were
+ * always read with, so results are unchanged.
+ */
 public class DateUtil {
-    private static final DateTime dotNetEpoch = new DateTime(1, 1, 1, 0, 0, 0, DateTimeZone.UTC);
-    private static final DateTime javaEpoch = new DateTime(1970, 1, 1, 0, 0, 0, DateTimeZone.UTC);
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
 
-    private static final long epochOffset;
+    // Seconds from 0001-01-01 to 1970-01-01 in the proleptic Gregorian calendar
+    private static final long epochOffset = 62135596800L;
+    private static final long dotNetEpochMillis = -epochOffset * 1000L;
 
-    static {
-        Date dotNet = dotNetEpoch.toDate();
-        Date java = javaEpoch.toDate();
+    // Years the fast paths handle. Earlier dates depend on the Julian
+    // calendar switch made by SimpleDateFormat.
+    private static final int MIN_FAST_YEAR = 1583;
+    private static final int MAX_FAST_YEAR = 9999;
 
-        epochOffset = (javaEpoch.getMillis() - dotNetEpoch.getMillis()) / 1000L;
+    public static Date convertKDBX4Time(long seconds) {
+        return new Date(convertKDBX4TimeToMillis(seconds));
     }
 
-    public static Date convertKDBX4Time(long seconds) {
+    public static long convertKDBX4TimeToMillis(long seconds) {
+        long offset = seconds * 1000L;
+        long millis = dotNetEpochMillis + offset;
 
-        DateTime dt = dotNetEpoch.plus(seconds * 1000L);
+        // Same overflow check as adding the duration to a DateTime
+        if (((offset ^ millis) & (dotNetEpochMillis ^ millis)) < 0) {
+            throw new ArithmeticException("The calculation caused an overflow: " + seconds);
+        }
 
         // Switch corrupted dates to a more recent date that won't cause issues on the client
-        if (dt.isBefore(javaEpoch)) {
-            return javaEpoch.toDate();
+        if (millis < 0) {
+            return 0;
         }
 
-        return dt.toDate();
+        return millis;
+    }
+
+    public static long convertDateToKDBX4Time(Date date) {
+        return date.getTime() / 1000L + epochOffset;
     }
 
-    public static long convertDateToKDBX4Time(DateTime dt) {
+    /** Parses a KDBX 3 time, returning the epoch on malformed input */
+    public static Date parseKDBX3Time(String str) {
+        long millis = parseKDBX3TimeToMillis(str);
+        if (millis != Long.MIN_VALUE) {
+            return new Date(millis);
+        }
+
         try {
-            Seconds secs = Seconds.secondsBetween(javaEpoch, dt);
-            return secs.getSeconds() + epochOffset;
-        } catch (ArithmeticException e) {
-            // secondsBetween overflowed an int
-            Date javaDt = dt.toDate();
-            long seconds = javaDt.getTime() / 1000L;
-            return seconds + epochOffset;
+            Date date = PwDatabaseV4XML.dateFormatter.get().parse(str);
+            if (date != null) {
+                return date;
+            }
+        } catch (ParseException e) {
+            // Fall through to the default below
+        }
+
+        return new Date(0L);
+    }
+
+    /**
+     * Parses yyyy-MM-ddTHH:mm:ssZ as written by KeePass, with the same
+     * leniency as SimpleDateFormat for out of range days and times. Returns
+     * Long.MIN_VALUE for anything else.
+     */
+    public static long parseKDBX3TimeToMillis(String str) {
+        if (str.length() != 20 || str.charAt(4) != '-' || str.charAt(7) != '-'
+                || str.charAt(10) != 'T' || str.charAt(13) != ':' || str.charAt(16) != ':'
+                || str.charAt(19) != 'Z') {
+            return Long.MIN_VALUE;
+        }
+
+        int year = digits(str, 0, 4);
+        int month = digits(str, 5, 2);
+        int day = digits(str, 8, 2);
+        int hour = digits(str, 11, 2);
+        int minute = digits(str, 14, 2);
+        int second = digits(str, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0
+                || year < MIN_FAST_YEAR || month < 1 || month > 12) {
+            return Long.MIN_VALUE;
+        }
+
+        long days = daysFromCivil(year, month, 1) + day - 1;
+        return days * MILLIS_PER_DAY + ((hour * 60L + minute) * 60L + second) * 1000L;
+    }
+
+    /** Formats a KDBX 3 time */
+    public static String formatKDBX3Time(Date date) {
+        long millis = date.getTime();
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) ((millis - days * MILLIS_PER_DAY) / 1000);
+
+        // civilFromDays packs the date as year * 10000 + month * 100 + day
+        long civil = civilFromDays(days);
+        int year = (int) (civil / 10000);
+        if (year < MIN_FAST_YEAR || year > MAX_FAST_YEAR) {
+            return PwDatabaseV4XML.dateFormatter.get().format(date);
         }
+
+        char[] buf = new char[20];
+        putDigits(buf, 0, year, 4);
+        buf[4] = '-';
+        putDigits(buf, 5, (int) (civil / 100 % 100), 2);
+        buf[7] = '-';
+        putDigits(buf, 8, (int) (civil % 100), 2);
+        buf[10] = 'T';
+        putDigits(buf, 11, secondOfDay / 3600, 2);
+        buf[13] = ':';
+        putDigits(buf, 14, secondOfDay / 60 % 60, 2);
+        buf[16] = ':';
+        putDigits(buf, 17, secondOfDay % 60, 2);
+        buf[19] = 'Z';
+
+        return new String(buf);
+    }
+
+    private static int digits(String str, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int d = str.charAt(i) - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+
+        return value;
+    }
+
+    private static void putDigits(char[] buf, int offset, int value, int count) {
+        for (int i = offset + count - 1; i >= offset; i--) {
+            buf[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static long floorDiv(long a, long b) {
+        long q = a / b;
+        if ((a % b != 0) && ((a < 0) != (b < 0))) {
+            q--;
+        }
+
+        return q;
+    }
+
+    /** Days since 1970-01-01 of a proleptic Gregorian date */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = floorDiv(year, 400);
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /** The inverse of daysFromCivil, packed as year * 10000 + month * 100 + day */
+    private static long civilFromDays(long days) {
+        days += 719468;
+        long era = floorDiv(days, 146097);
+        long dayOfEra = days - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        long day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        return year * 10000 + month * 100 + day;
     }
 }
@@ -19,21 +19,56 @@
  */
 package com.keepassdroid.utils;
 
+import com.keepassdroid.stream.InflateInputStream;
+import com.keepassdroid.stream.LEDataInputStream;
+
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class MemUtil {
+	private static final int GZIP_TRAILER_SIZE = 8;
+	// Deflate can't do better than this, so a corrupt trailer's size hint
+	// can't ask for more than the data could hold
+	private static final long MAX_DEFLATE_RATIO = 1032;
+
 	public static byte[] decompress(byte[] input) throws IOException {
-		ByteArrayInputStream bais = new ByteArrayInputStream(input);
-		GZIPInputStream gzis = new GZIPInputStream(bais);
-		
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		Util.copyStream(gzis, baos);
-		
-		return baos.toByteArray();
+		return decompress(input, 0, input.length);
+	}
+
+	public static byte[] decompress(byte[] input, int offset, int length) throws IOException {
+		InflateInputStream is = new InflateInputStream(input, offset, length);
+		try {
+			// The gzip trailer ends with the inflated size, so the output
+			// can usually be inflated straight into an array of the right size
+			int size = length >= GZIP_TRAILER_SIZE ? LEDataInputStream.readInt(input, offset + length - 4) : -1;
+			if (size >= 0 && size <= length * MAX_DEFLATE_RATIO) {
+				byte[] output = new byte[size];
+				int read = LEDataInputStream.readBytes(is, output, 0, size);
+				int next = is.read();
+				if (read == size && next == -1) {
+					return output;
+				}
+
+				// More than one member, or a size past 4 GiB
+				ByteArrayOutputStream baos = new ByteArrayOutputStream(read + length);
+				baos.write(output, 0, read);
+				if (next != -1) {
+					baos.write(next);
+				}
+				Util.copyStream(is, baos);
+
+				return baos.toByteArray();
+			}
+
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			Util.copyStream(is, baos);
+
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
 	}
 	
 	public static byte[] compress(byte[] input) throws IOException {		
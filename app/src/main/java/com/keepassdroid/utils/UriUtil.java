@@ -20,6 +20,7 @@
 package com.keepassdroid.utils;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.net.Uri;
 import android.provider.OpenableColumns;
@@ -29,6 +30,7 @@ import com.keepassdroid.compat.StorageAF;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -81,6 +83,56 @@ public class UriUtil {
         }
     }
 
+    /**
+     * @return the length of the file behind uri, or 0 if the provider doesn't say
+     */
+    public static long getUriLength(Context ctx, Uri uri) {
+        if (uri == null) return 0;
+
+        String scheme = uri.getScheme();
+        if (EmptyUtils.isNullOrEmpty(scheme) || scheme.equals("file")) {
+            return new File(uri.getPath()).length();
+        }
+        else if (scheme.equals("content")) {
+            long length = AssetFileDescriptor.UNKNOWN_LENGTH;
+            try {
+                AssetFileDescriptor afd = ctx.getContentResolver().openAssetFileDescriptor(uri, "r");
+                if (afd != null) {
+                    length = afd.getLength();
+                    afd.close();
+                }
+            } catch (IOException e) {
+                // Try the size column instead
+            } catch (SecurityException e) {
+                // Try the size column instead
+            }
+            if (length >= 0) {
+                return length;
+            }
+
+            try {
+                Cursor cursor = ctx.getContentResolver().query(uri, new String[] { OpenableColumns.SIZE },
+                        null, null, null);
+                try {
+                    if (cursor != null && cursor.moveToFirst()) {
+                        int index = cursor.getColumnIndex(OpenableColumns.SIZE);
+                        if (index >= 0 && !cursor.isNull(index)) {
+                            return Math.max(cursor.getLong(index), 0);
+                        }
+                    }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+            } catch (Exception e) {
+                // Unknown
+            }
+        }
+
+        return 0;
+    }
+
     /**
      * Many android apps respond with non-writeable content URIs that correspond to files.
      * This will attempt to translate the content URIs to file URIs when possible/appropriate
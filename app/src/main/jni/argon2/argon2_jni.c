@@ -131,7 +131,8 @@ void throwExceptionF(JNIEnv *env, jclass exception, const char *format, ...) {
 JNIEXPORT jbyteArray
 JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMasterKey(JNIEnv *env,
    jclass this, jbyteArray password, jbyteArray salt, jint parallelism, jlong memory,
-   jlong iterations, jbyteArray secretKey, jbyteArray associatedData, jlong version, jint type) {
+   jlong iterations, jbyteArray secretKey, jbyteArray associatedData, jlong version, jint type,
+   jobject progress) {
 
     argon2_context context;
     uint8_t *out;
@@ -170,6 +171,15 @@ JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMaster
     context.flags = ARGON2_DEFAULT_FLAGS;
     context.version = (uint32_t) version;
 
+    // Completed slices, then a cancel flag
+    context.progress = NULL;
+    context.cancel = NULL;
+    if (progress != NULL && (*env)->GetDirectBufferCapacity(env, progress) >= 3 * (jlong) sizeof(uint64_t)) {
+        volatile uint64_t *state = (volatile uint64_t *) (*env)->GetDirectBufferAddress(env, progress);
+        context.progress = state;
+        context.cancel = state + 2;
+    }
+
     enum Argon2_type a_type;
     if (type == 2) {
         a_type = Argon2_id;
@@ -180,7 +190,10 @@ JNICALL Java_com_keepassdroid_crypto_keyDerivation_Argon2Native_nTransformMaster
     int argonResult = argon2_ctx(&context, a_type);
 
     jbyteArray result;
-    if (argonResult != ARGON2_OK) {
+    if (argonResult == ARGON2_CANCELLED) {
+        // The caller throws
+        result = NULL;
+    } else if (argonResult != ARGON2_OK) {
         throwExceptionF(env, io, "Hash failed with code=%d", argonResult);
         result = NULL;
     } else {
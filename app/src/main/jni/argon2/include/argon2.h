@@ -151,7 +151,9 @@ typedef enum Argon2_ErrorCodes {
 
     ARGON2_DECODING_LENGTH_FAIL = -34,
 
-    ARGON2_VERIFY_MISMATCH = -35
+    ARGON2_VERIFY_MISMATCH = -35,
+
+    ARGON2_CANCELLED = -36
 } argon2_error_codes;
 
 /* Memory allocator types --- for external allocation */
@@ -212,6 +214,12 @@ typedef struct Argon2_Context {
     deallocate_fptr free_cbk;   /* pointer to memory deallocator */
 
     uint32_t flags; /* array of bool options */
+
+    /* KeePassDroid: if progress is not NULL, it receives the number of
+     * completed slices, t_cost * ARGON2_SYNC_POINTS in all. A nonzero
+     * *cancel stops hashing with ARGON2_CANCELLED. */
+    volatile uint64_t *progress;
+    volatile const uint64_t *cancel;
 } argon2_context;
 
 /* Argon2 primitive type */
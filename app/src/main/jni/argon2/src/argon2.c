@@ -85,6 +85,13 @@ int argon2_ctx(argon2_context *context, argon2_type type) {
     result = fill_memory_blocks(&instance);
 
     if (ARGON2_OK != result) {
+        /* Every lane has been joined by the time a cancel is reported, so
+         * the memory finalize would have released can go. A thread failure
+         * can leave lanes running, so that memory is left alone. */
+        if (ARGON2_CANCELLED == result) {
+            free_memory(context, (uint8_t *)instance.memory,
+                        instance.memory_blocks, sizeof(block));
+        }
         return result;
     }
     /* 5. Finalization */
@@ -135,6 +142,8 @@ int argon2_hash(const uint32_t t_cost, const uint32_t m_cost,
     context.free_cbk = NULL;
     context.flags = ARGON2_DEFAULT_FLAGS;
     context.version = version;
+    context.progress = NULL;
+    context.cancel = NULL;
 
     result = argon2_ctx(&context, type);
 
@@ -423,6 +432,8 @@ const char *argon2_error_message(int error_code) {
         return "Some of encoded parameters are too long or too short";
     case ARGON2_VERIFY_MISMATCH:
         return "The password does not match the supplied hash";
+    case ARGON2_CANCELLED:
+        return "Hashing was cancelled";
     default:
         return "Unknown error code";
     }
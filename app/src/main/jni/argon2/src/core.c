@@ -325,6 +325,17 @@ int fill_memory_blocks(argon2_instance_t *instance) {
                     goto fail;
                 }
             }
+
+            /* 4. Reporting progress, and stopping if cancelled */
+            if (instance->context_ptr->progress != NULL) {
+                *instance->context_ptr->progress =
+                    (uint64_t)r * ARGON2_SYNC_POINTS + s + 1;
+            }
+            if (instance->context_ptr->cancel != NULL &&
+                *instance->context_ptr->cancel != 0) {
+                rc = ARGON2_CANCELLED;
+                goto fail;
+            }
         }
 
 #ifdef GENKAT
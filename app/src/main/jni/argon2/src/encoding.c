@@ -338,6 +338,8 @@ int decode_string(argon2_context *ctx, const char *str, argon2_type type) {
     ctx->allocate_cbk = NULL;
     ctx->free_cbk = NULL;
     ctx->flags = ARGON2_DEFAULT_FLAGS;
+    ctx->progress = NULL;
+    ctx->cancel = NULL;
 
     /* On return, must have valid context */
     validation_result = validate_inputs(ctx);
@@ -373,9 +373,12 @@ JNIEXPORT jint JNICALL Java_com_keepassdroid_crypto_NativeAESCipherSpi_nGetCache
 }
 
 #define MASTER_KEY_SIZE 32
+// rounds between progress updates
+#define PROGRESS_ROUNDS 4096
 
 typedef struct _master_key {
   uint64_t rounds;
+  volatile uint64_t *progress; // completed rounds of each half then a cancel flag, or NULL
   uint32_t done[2];
   pthread_mutex_t lock1, lock2; // these lock the two halves of the key material
   uint8_t c_seed[MASTER_KEY_SIZE] __attribute__ ((aligned (16)));
@@ -388,7 +391,8 @@ void *generate_key_material(void *arg) {
   #if defined(KPD_PROFILE)
   struct timespec start, end;
   #endif
-  uint32_t i, flip = 0;
+  uint64_t i, n, chunk;
+  uint32_t flip = 0, half;
   uint8_t *key1, *key2;
   master_key *mk = (master_key *)arg;
   aes_encrypt_ctx e_ctx[1] __attribute__ ((aligned (16)));
@@ -396,9 +400,11 @@ void *generate_key_material(void *arg) {
   if( mk->done[0] == 0 && pthread_mutex_trylock(&mk->lock1) == 0 ) {
     key1 = mk->key1;
     key2 = mk->key2;
+    half = 0;
   } else if( mk->done[1] == 0 && pthread_mutex_trylock(&mk->lock2) == 0 ) {
     key1 = mk->key1 + (MASTER_KEY_SIZE/2);
     key2 = mk->key2 + (MASTER_KEY_SIZE/2);
+    half = 1;
   } else {
     // this can only be scaled to two threads
     pthread_exit( (void *)(-1) );
@@ -409,13 +415,21 @@ void *generate_key_material(void *arg) {
   #endif
 
   aes_encrypt_key256(mk->c_seed, e_ctx);
-  for (i = 0; i < mk->rounds; i++) {
-    if ( flip ) {
-      aes_encrypt(key2, key1, e_ctx);
-      flip = 0;
-    } else {
-      aes_encrypt(key1, key2, e_ctx);
-      flip = 1;
+  for (n = 0; n < mk->rounds; n += chunk) {
+    chunk = mk->rounds - n < PROGRESS_ROUNDS ? mk->rounds - n : PROGRESS_ROUNDS;
+    for (i = 0; i < chunk; i++) {
+      if ( flip ) {
+        aes_encrypt(key2, key1, e_ctx);
+        flip = 0;
+      } else {
+        aes_encrypt(key1, key2, e_ctx);
+        flip = 1;
+      }
+    }
+    if( mk->progress != NULL ) {
+      mk->progress[half] = n + chunk;
+      if( mk->progress[2] != 0 )
+        break;
     }
   }
 
@@ -438,7 +452,7 @@ void *generate_key_material(void *arg) {
   return (void *)flip;
 }
 
-JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nTransformMasterKey(JNIEnv *env, jclass this, jbyteArray seed, jbyteArray key, jlong rounds) {
+JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKey_nTransformMasterKey(JNIEnv *env, jclass this, jbyteArray seed, jbyteArray key, jlong rounds, jobject progress) {
   master_key mk;
   uint32_t flip;
   pthread_t t1, t2;
@@ -461,6 +475,14 @@ JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKe
     return NULL;
   }
   mk.rounds = (uint64_t)rounds;
+  mk.progress = NULL;
+  if( progress != NULL ) {
+    if( (*env)->GetDirectBufferCapacity(env, progress) < 3 * (jlong)sizeof(uint64_t) ) {
+      (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: the progress buffer is too small");
+      return NULL;
+    }
+    mk.progress = (volatile uint64_t *)(*env)->GetDirectBufferAddress(env, progress);
+  }
   mk.done[0] = mk.done[1] = 0;
   if( pthread_mutex_init(&mk.lock1, NULL) != 0 ) {
     (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: failed to initialize the mutex for thread 1"); // FIXME: get a better exception class for this...
@@ -494,6 +516,10 @@ JNIEXPORT jbyteArray JNICALL Java_com_keepassdroid_crypto_finalkey_NativeFinalKe
     (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: failed to join thread 2"); // FIXME: get a better exception class for this...
     return NULL;
   }
+  // cancelled: return without a result, the caller throws
+  if( mk.progress != NULL && mk.progress[2] != 0 ) {
+    return NULL;
+  }
   if( vret1 == (void *)(-1) || vret2 == (void *)(-1) || vret1 != vret2 ) {
     (*env)->ThrowNew(env, bad_arg, "TransformMasterKey: invalid flip value(s) from completed thread(s)"); // FIXME: get a better exception class for this...
     return NULL;